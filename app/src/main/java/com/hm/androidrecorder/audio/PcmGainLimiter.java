@@ -0,0 +1,134 @@
+package com.hm.androidrecorder.audio;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-25]
+ * @Describe: 定点增益和峰值限幅，16 位 PCM 原地处理
+ * <p>
+ * 增益是 Q12（4096 = 1.0，最大 16 倍）。限幅器瞬时启动、指数释放：乘上增益后的采样超过门限时，
+ * 把衰减量直接压到刚好等于门限，之后每个采样按释放系数回到 1.0。只有超过门限时才做一次除法，
+ * 其余都是整数乘加和移位。增益为 1.0 且不限幅时直接返回。
+ */
+
+
+public final class PcmGainLimiter {
+
+    /**
+     * 增益 1.0 对应的 Q12 值
+     */
+    public static final int UNITY = 1 << 12;
+    private static final int MAX_GAIN = 16 * UNITY;
+    //衰减量 Q15，ONE 表示不衰减
+    private static final int ONE = 1 << 15;
+
+    private final int sampleRate;
+    private int gainQ12 = UNITY;
+    private boolean limiterEnabled = false;
+    private int threshold = Short.MAX_VALUE;
+    //每个采样衰减量向 ONE 回复的比例，Q15
+    private int releaseQ15 = ONE;
+    //当前衰减量，Q15
+    private int reduction = ONE;
+    private long limitedSamples = 0;
+
+    public PcmGainLimiter(int sampleRate) {
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("sampleRate:" + sampleRate);
+        }
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * @param db 增益分贝数，超过 +24dB 按 +24dB
+     */
+    public void setGainDb(double db) {
+        long q = Math.round(UNITY * Math.pow(10, db / 20));
+        gainQ12 = (int) Math.max(0, Math.min(MAX_GAIN, q));
+    }
+
+    public int getGainQ12() {
+        return gainQ12;
+    }
+
+    /**
+     * 开启限幅
+     *
+     * @param thresholdDb 门限，相对满幅的分贝数，不大于 0
+     * @param releaseMs   衰减回到 1.0 的时间常数
+     */
+    public void setLimiter(double thresholdDb, int releaseMs) {
+        if (thresholdDb > 0 || releaseMs <= 0) {
+            throw new IllegalArgumentException("thresholdDb:" + thresholdDb + ",releaseMs:" + releaseMs);
+        }
+        threshold = (int) Math.max(1, Math.round(Short.MAX_VALUE * Math.pow(10, thresholdDb / 20)));
+        double samples = releaseMs * sampleRate / 1000.0;
+        releaseQ15 = (int) Math.max(1, Math.round(ONE * (1 - Math.exp(-1 / samples))));
+        limiterEnabled = true;
+    }
+
+    /**
+     * 增益 1.0 且不限幅，处理不改变数据
+     */
+    public boolean isIdentity() {
+        return gainQ12 == UNITY && !limiterEnabled;
+    }
+
+    public void disableLimiter() {
+        limiterEnabled = false;
+        reduction = ONE;
+    }
+
+    /**
+     * 原地处理
+     */
+    public void process(short[] buffer, int offset, int count) {
+        int gain = gainQ12;
+        if (!limiterEnabled) {
+            if (gain == UNITY) {
+                return;
+            }
+            for (int i = offset; i < offset + count; i++) {
+                buffer[i] = PcmResampler.clamp((buffer[i] * gain + (UNITY >> 1)) >> 12);
+            }
+            return;
+        }
+        int limit = threshold;
+        int release = releaseQ15;
+        int r = reduction;
+        long limited = 0;
+        for (int i = offset; i < offset + count; i++) {
+            //乘增益后最多 20 位
+            int v = (buffer[i] * gain + (UNITY >> 1)) >> 12;
+            int a = v < 0 ? -v : v;
+            if ((long) a * r > (long) limit << 15) {
+                r = (int) (((long) limit << 15) / a);
+                limited++;
+            }
+            buffer[i] = PcmResampler.clamp(((long) v * r) >> 15);
+            if (r < ONE) {
+                //向上取整，保证最后能回到 ONE
+                r += (int) (((long) (ONE - r) * release + ONE - 1) >> 15);
+            }
+        }
+        reduction = r;
+        limitedSamples += limited;
+    }
+
+    /**
+     * 当前衰减量，1.0 表示没有在限幅
+     */
+    public double getReduction() {
+        return (double) reduction / ONE;
+    }
+
+    /**
+     * 累计触发限幅的采样数
+     */
+    public long getLimitedSamples() {
+        return limitedSamples;
+    }
+
+    public void reset() {
+        reduction = ONE;
+    }
+}
@@ -0,0 +1,137 @@
+package com.hm.androidrecorder.audio;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-25]
+ * @Describe: 采集和编码之间的 PCM 处理：声道下混 → 重采样 → 增益/限幅
+ * <p>
+ * 输入是 AudioRecord 读出的交错 16 位 PCM（单声道或立体声），输出是编码器要的单声道 PCM。
+ * 立体声先平均成单声道，这样重采样和增益只处理一半数据；增益放在重采样之后，按输出采样数计算。
+ * 全部是整数运算，中间缓存在构造时按每次最多的帧数分配好，处理时不分配内存。
+ * <p>
+ * 输出可以直接写成小端字节，省掉一次 short[] 到 byte[] 的拷贝。只能在一个线程使用。
+ */
+
+
+public final class PcmProcessor {
+
+    private final int inRate;
+    private final int inChannels;
+    private final int outRate;
+    private final int maxFrames;
+    private final PcmResampler resampler;
+    private final PcmGainLimiter gain;
+    private final short[] mono;
+    private final short[] out;
+
+    /**
+     * @param inChannels 1 或 2
+     * @param maxFrames  每次最多处理的帧数（每声道采样数）
+     */
+    public PcmProcessor(int inRate, int inChannels, int outRate, int maxFrames) {
+        if (inChannels != 1 && inChannels != 2) {
+            throw new IllegalArgumentException("inChannels:" + inChannels);
+        }
+        this.inRate = inRate;
+        this.inChannels = inChannels;
+        this.outRate = outRate;
+        this.maxFrames = maxFrames;
+        this.resampler = new PcmResampler(inRate, outRate, maxFrames);
+        this.gain = new PcmGainLimiter(outRate);
+        this.mono = new short[maxFrames];
+        this.out = new short[resampler.maxOutput(maxFrames)];
+    }
+
+    /**
+     * 增益和限幅设置
+     */
+    public PcmGainLimiter gain() {
+        return gain;
+    }
+
+    public PcmResampler resampler() {
+        return resampler;
+    }
+
+    /**
+     * frames 帧输入最多输出多少个采样
+     */
+    public int maxOutputSamples(int frames) {
+        return resampler.maxOutput(frames);
+    }
+
+    /**
+     * 处理一块交错 PCM，结果写到 dst
+     *
+     * @param frames 帧数，不超过 maxFrames
+     * @return 输出的采样数
+     */
+    public int process(short[] in, int frames, short[] dst, int dstOffset) {
+        int count = run(in, frames);
+        System.arraycopy(out, 0, dst, dstOffset, count);
+        return count;
+    }
+
+    /**
+     * 处理一块交错 PCM，结果按小端 16 位写到 dst
+     *
+     * @return 写入的字节数
+     */
+    public int process(short[] in, int frames, byte[] dst, int dstOffset) {
+        int count = run(in, frames);
+        int o = dstOffset;
+        for (int i = 0; i < count; i++) {
+            short v = out[i];
+            dst[o++] = (byte) v;
+            dst[o++] = (byte) (v >> 8);
+        }
+        return count * 2;
+    }
+
+    private int run(short[] in, int frames) {
+        if (frames > maxFrames) {
+            throw new IllegalArgumentException("frames:" + frames + " > maxFrames:" + maxFrames);
+        }
+        short[] source = in;
+        if (inChannels == 2) {
+            downmix(in, frames, mono);
+            source = mono;
+        }
+        int count = resampler.process(source, 0, frames, out, 0);
+        gain.process(out, 0, count);
+        return count;
+    }
+
+    /**
+     * 立体声交错数据平均成单声道
+     */
+    static void downmix(short[] stereo, int frames, short[] dst) {
+        for (int i = 0, j = 0; i < frames; i++, j += 2) {
+            dst[i] = (short) ((stereo[j] + stereo[j + 1]) >> 1);
+        }
+    }
+
+    public void reset() {
+        resampler.reset();
+        gain.reset();
+    }
+
+    public int getInRate() {
+        return inRate;
+    }
+
+    public int getInChannels() {
+        return inChannels;
+    }
+
+    public int getOutRate() {
+        return outRate;
+    }
+
+    /**
+     * 声道、采样率一致且增益为 1.0、不限幅时什么都不做，只有拷贝
+     */
+    public boolean isPassThrough() {
+        return inChannels == 1 && resampler.isPassThrough() && gain.isIdentity();
+    }
+}
@@ -0,0 +1,224 @@
+package com.hm.androidrecorder.audio;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-25]
+ * @Describe: 定点多相重采样，16 位单声道 PCM
+ * <p>
+ * 采样率之比约分成 up/down（44100→16000 是 160/441），原型低通滤波器是加 Kaiser 窗的 sinc，
+ * 截止在输入、输出奈奎斯特频率中较低者的 {@link #CUTOFF}，按相位拆成 up 组、每组 taps 个 Q15 系数，
+ * 每组系数之和都调整到正好 1.0，直流增益没有量化误差。每个输出采样只算它那一组的 taps 次乘加。
+ * <p>
+ * 系数和工作缓存都在构造时分配，{@link #process} 不分配内存。块与块之间保留 taps - 1 个历史采样和
+ * 相位，分多少块送结果都一样。输出相对输入有约 taps / 2 个输入采样的固定延迟。
+ */
+
+
+public final class PcmResampler {
+
+    /**
+     * 截止频率占较低奈奎斯特频率的比例，剩下的是过渡带
+     */
+    public static final double CUTOFF = 0.9;
+    /**
+     * 降采样时每个相位的抽头数按比例增加，保证过渡带宽度相对输出采样率不变
+     */
+    public static final int DEFAULT_ZERO_CROSSINGS = 16;
+    private static final double KAISER_BETA = 7.0;
+    private static final int COEF_BITS = 15;
+
+    private final int inRate;
+    private final int outRate;
+    private final int up;
+    private final int down;
+    private final int taps;
+    private final int maxInput;
+    //coefs[p * taps + k] 乘以当前位置往前第 k 个输入
+    private final int[] coefs;
+    //前 taps - 1 个是上一块留下的历史，后面放这一块的输入
+    private final short[] work;
+    //下一个输出在上采样时间轴上相对这一块第一个输入的位置，单位 1/up 个输入采样
+    private long position = 0;
+
+    /**
+     * @param maxInput 每次 process 最多输入的采样数
+     */
+    public PcmResampler(int inRate, int outRate, int maxInput) {
+        this(inRate, outRate, maxInput, DEFAULT_ZERO_CROSSINGS);
+    }
+
+    /**
+     * @param zeroCrossings 滤波器覆盖的输出采样周期数，越大过渡带越窄、计算量越大
+     */
+    public PcmResampler(int inRate, int outRate, int maxInput, int zeroCrossings) {
+        if (inRate <= 0 || outRate <= 0 || maxInput <= 0 || zeroCrossings <= 0) {
+            throw new IllegalArgumentException("inRate:" + inRate + ",outRate:" + outRate + ",maxInput:" + maxInput);
+        }
+        int gcd = gcd(inRate, outRate);
+        this.inRate = inRate;
+        this.outRate = outRate;
+        this.up = outRate / gcd;
+        this.down = inRate / gcd;
+        this.maxInput = maxInput;
+        if (up == down) {
+            taps = 1;
+            coefs = new int[]{1 << COEF_BITS};
+        } else {
+            taps = (int) Math.ceil(zeroCrossings * Math.max(1.0, (double) down / up));
+            coefs = design(up, down, taps);
+        }
+        work = new short[taps - 1 + maxInput];
+    }
+
+    /**
+     * 设计原型滤波器并按相位拆开、量化
+     */
+    private static int[] design(int up, int down, int taps) {
+        int length = taps * up;
+        double center = (length - 1) / 2.0;
+        //上采样时间轴上的截止频率，单位：周期/采样
+        double cutoff = CUTOFF * 0.5 / Math.max(up, down);
+        double besselBeta = bessel0(KAISER_BETA);
+        double[] prototype = new double[length];
+        for (int n = 0; n < length; n++) {
+            double x = n - center;
+            double sinc = x == 0 ? 1 : Math.sin(2 * Math.PI * cutoff * x) / (2 * Math.PI * cutoff * x);
+            double r = 2 * x / (length - 1);
+            double window = bessel0(KAISER_BETA * Math.sqrt(Math.max(0, 1 - r * r))) / besselBeta;
+            prototype[n] = 2 * cutoff * sinc * window;
+        }
+        int[] coefs = new int[length];
+        for (int p = 0; p < up; p++) {
+            double sum = 0;
+            for (int k = 0; k < taps; k++) {
+                sum += prototype[k * up + p];
+            }
+            //每个相位单独归一化，量化误差放到最大的系数上
+            int total = 0;
+            int largest = 0;
+            for (int k = 0; k < taps; k++) {
+                int c = (int) Math.round(prototype[k * up + p] / sum * (1 << COEF_BITS));
+                coefs[p * taps + k] = c;
+                total += c;
+                if (Math.abs(c) > Math.abs(coefs[p * taps + largest])) {
+                    largest = k;
+                }
+            }
+            coefs[p * taps + largest] += (1 << COEF_BITS) - total;
+        }
+        return coefs;
+    }
+
+    /**
+     * 第一类零阶修正贝塞尔函数，Kaiser 窗用
+     */
+    private static double bessel0(double x) {
+        double sum = 1;
+        double term = 1;
+        for (int k = 1; k < 30; k++) {
+            term *= (x / (2 * k)) * (x / (2 * k));
+            sum += term;
+        }
+        return sum;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    /**
+     * 一块输入最多产生多少个输出
+     */
+    public int maxOutput(int inputCount) {
+        return (int) (((long) inputCount * up + down - 1) / down);
+    }
+
+    /**
+     * 重采样一块数据
+     *
+     * @param count 输入采样数，不超过构造时的 maxInput
+     * @return 写入 out 的采样数
+     */
+    public int process(short[] in, int inOffset, int count, short[] out, int outOffset) {
+        if (count > maxInput) {
+            throw new IllegalArgumentException("count:" + count + " > maxInput:" + maxInput);
+        }
+        if (up == down) {
+            System.arraycopy(in, inOffset, out, outOffset, count);
+            return count;
+        }
+        int history = taps - 1;
+        System.arraycopy(in, inOffset, work, history, count);
+        long end = (long) count * up;
+        long t = position;
+        int o = outOffset;
+        while (t < end) {
+            int index = (int) (t / up);
+            int base = (int) (t - (long) index * up) * taps;
+            //work[history + index] 是当前输入，往前依次是更早的输入
+            int x = history + index;
+            long acc = 1L << (COEF_BITS - 1);
+            for (int k = 0; k < taps; k++) {
+                acc += (long) coefs[base + k] * work[x - k];
+            }
+            out[o++] = clamp(acc >> COEF_BITS);
+            t += down;
+        }
+        position = t - end;
+        //留下最后 taps - 1 个输入给下一块
+        System.arraycopy(work, count, work, 0, history);
+        return o - outOffset;
+    }
+
+    /**
+     * 清掉历史和相位，从头开始
+     */
+    public void reset() {
+        position = 0;
+        for (int i = 0; i < taps - 1; i++) {
+            work[i] = 0;
+        }
+    }
+
+    static short clamp(long value) {
+        if (value > Short.MAX_VALUE) {
+            return Short.MAX_VALUE;
+        }
+        if (value < Short.MIN_VALUE) {
+            return Short.MIN_VALUE;
+        }
+        return (short) value;
+    }
+
+    public boolean isPassThrough() {
+        return up == down;
+    }
+
+    /**
+     * 每个相位的抽头数，也就是每个输出采样的乘加次数
+     */
+    public int getTaps() {
+        return taps;
+    }
+
+    public int getInRate() {
+        return inRate;
+    }
+
+    public int getOutRate() {
+        return outRate;
+    }
+
+    /**
+     * 滤波器的固定延迟
+     */
+    public long getDelayUs() {
+        //原型滤波器中心在 (taps * up - 1) / 2 个上采样点处
+        return up == down ? 0 : (long) ((taps * (double) up - 1) * 1000000 / (2.0 * up * inRate));
+    }
+}
@@ -0,0 +1,177 @@
+package com.hm.androidrecorder.audio;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-26]
+ * @Describe: 按能量判断长时间静音
+ * <p>
+ * 送编码前把每批 PCM 用 {@link #accumulate(byte[], int, int)} 累加平方和，送出时调用 {@link #finish()}
+ * 得到这一批的均方能量，和门限比较。门限取下面两者中较低的一个：
+ * <ul>
+ * <li>固定上限 maxSilenceDb：再响的背景声（风扇、马路）都不算静音</li>
+ * <li>跟踪到的底噪加 marginDb：底噪取能量的最小值，之后每批缓慢上升，跟得上环境变化</li>
+ * </ul>
+ * 连续低于门限超过 holdMs 才算进入静音，任何一批超过门限立即退出，开头的轻声不会被吞掉。
+ * <p>
+ * 全部是整数运算，能量用均方值（16 位采样的平方）比较，不开方、不取对数。只能在一个线程使用。
+ */
+
+
+public final class SilenceDetector {
+
+    public static final double DEFAULT_MAX_SILENCE_DB = -45;
+    public static final double DEFAULT_MARGIN_DB = 10;
+    public static final int DEFAULT_HOLD_MS = 1000;
+    //门限不低于 -70dBFS，底噪被数字静音拉到 0 时也能回升
+    private static final double MIN_THRESHOLD_DB = -70;
+    //底噪每批上升 1/32（约 0.13dB）
+    private static final int FLOOR_RISE_SHIFT = 5;
+
+    private final int sampleRate;
+    private long maxSilence;
+    private long minThreshold;
+    //margin 对应的能量倍数，Q8
+    private long marginQ8;
+    private long holdSamples;
+
+    private long noiseFloor;
+    private long sumSquares = 0;
+    private int samples = 0;
+    private long quietSamples = 0;
+    private boolean silent = false;
+    private long lastMeanSquare = 0;
+
+    private long analyzedSamples = 0;
+    private long silentSamples = 0;
+
+    public SilenceDetector(int sampleRate) {
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("sampleRate:" + sampleRate);
+        }
+        this.sampleRate = sampleRate;
+        this.minThreshold = meanSquareOf(MIN_THRESHOLD_DB);
+        setThresholds(DEFAULT_MAX_SILENCE_DB, DEFAULT_MARGIN_DB);
+        setHoldMs(DEFAULT_HOLD_MS);
+    }
+
+    /**
+     * @param maxSilenceDb 能量高于这个值（dBFS）一定不是静音
+     * @param marginDb     高出底噪多少算有声音
+     */
+    public void setThresholds(double maxSilenceDb, double marginDb) {
+        if (maxSilenceDb > 0 || marginDb < 0) {
+            throw new IllegalArgumentException("maxSilenceDb:" + maxSilenceDb + ",marginDb:" + marginDb);
+        }
+        maxSilence = meanSquareOf(maxSilenceDb);
+        marginQ8 = Math.round(256 * Math.pow(10, marginDb / 10));
+        noiseFloor = maxSilence;
+    }
+
+    /**
+     * 连续安静多久才算进入静音
+     */
+    public void setHoldMs(int holdMs) {
+        if (holdMs < 0) {
+            throw new IllegalArgumentException("holdMs:" + holdMs);
+        }
+        holdSamples = (long) holdMs * sampleRate / 1000;
+    }
+
+    /**
+     * dBFS 对应的 16 位采样均方值
+     */
+    static long meanSquareOf(double db) {
+        double amplitude = Short.MAX_VALUE * Math.pow(10, db / 20);
+        return Math.max(1, Math.round(amplitude * amplitude));
+    }
+
+    /**
+     * 累加一段小端 16 位单声道 PCM
+     */
+    public void accumulate(byte[] pcm, int offset, int length) {
+        long sum = 0;
+        int end = offset + (length & ~1);
+        for (int i = offset; i < end; i += 2) {
+            int v = (pcm[i] & 0xFF) | (pcm[i + 1] << 8);
+            sum += v * v;
+        }
+        sumSquares += sum;
+        samples += length >> 1;
+    }
+
+    /**
+     * 结束一批，更新底噪和静音状态
+     *
+     * @return 这一批是否处于长时间静音中
+     */
+    public boolean finish() {
+        if (samples == 0) {
+            return silent;
+        }
+        long meanSquare = sumSquares / samples;
+        lastMeanSquare = meanSquare;
+        if (meanSquare < noiseFloor) {
+            noiseFloor = meanSquare;
+        } else {
+            noiseFloor = Math.min(maxSilence, noiseFloor + (noiseFloor >> FLOOR_RISE_SHIFT) + 1);
+        }
+        long threshold = Math.max(minThreshold, Math.min(maxSilence, noiseFloor * marginQ8 >> 8));
+        if (meanSquare <= threshold) {
+            quietSamples += samples;
+        } else {
+            quietSamples = 0;
+        }
+        silent = quietSamples > 0 && quietSamples >= holdSamples;
+        analyzedSamples += samples;
+        if (silent) {
+            silentSamples += samples;
+        }
+        sumSquares = 0;
+        samples = 0;
+        return silent;
+    }
+
+    public boolean isSilent() {
+        return silent;
+    }
+
+    /**
+     * 上一批的能量（dBFS）
+     */
+    public double getLevelDb() {
+        return toDb(lastMeanSquare);
+    }
+
+    /**
+     * 当前底噪（dBFS）
+     */
+    public double getNoiseFloorDb() {
+        return toDb(noiseFloor);
+    }
+
+    private static double toDb(long meanSquare) {
+        return 10 * Math.log10(Math.max(1, meanSquare) / ((double) Short.MAX_VALUE * Short.MAX_VALUE));
+    }
+
+    /**
+     * 累计分析的采样数
+     */
+    public long getAnalyzedSamples() {
+        return analyzedSamples;
+    }
+
+    /**
+     * 其中判为静音的采样数
+     */
+    public long getSilentSamples() {
+        return silentSamples;
+    }
+
+    public void reset() {
+        sumSquares = 0;
+        samples = 0;
+        quietSamples = 0;
+        silent = false;
+        noiseFloor = maxSilence;
+    }
+}
@@ -0,0 +1,108 @@
+package com.hm.androidrecorder.buffer;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-06]
+ * @Describe: 预览帧缓存池
+ * <p>
+ * 配合 Camera.setPreviewCallbackWithBuffer / addCallbackBuffer 使用：
+ * 池中固定数量的 byte[] 在相机和编码器之间循环，编码器用完一帧后通过 {@link #recycle(byte[])}
+ * 交还给相机，避免每帧都分配一块 width*height*3/2 大小的数组。
+ * <p>
+ * recycle 在编码线程调用，相机在界面线程释放。交还和 {@link #detach()} 用同一把锁，
+ * detach 返回后不会再有 addCallbackBuffer，之后再 camera.release() 就不会和交还撞上。
+ */
+
+
+public class FrameBufferPool {
+
+    /**
+     * 默认缓存帧数：相机占用一帧，编码队列里保留几帧
+     */
+    public static final int DEFAULT_BUFFER_COUNT = 4;
+
+    /**
+     * 缓存回收的去向，一般就是 camera.addCallbackBuffer
+     */
+    public interface Recycler {
+        void onRecycle(byte[] buffer);
+    }
+
+    private final int frameSize;
+    private final byte[][] buffers;
+    //由 this 保护
+    private Recycler recycler;
+
+    public FrameBufferPool(int frameSize) {
+        this(frameSize, DEFAULT_BUFFER_COUNT);
+    }
+
+    public FrameBufferPool(int frameSize, int bufferCount) {
+        if (frameSize <= 0 || bufferCount <= 0) {
+            throw new IllegalArgumentException("frameSize:" + frameSize + ",bufferCount:" + bufferCount);
+        }
+        this.frameSize = frameSize;
+        this.buffers = new byte[bufferCount][];
+        for (int i = 0; i < bufferCount; i++) {
+            buffers[i] = new byte[frameSize];
+        }
+    }
+
+    /**
+     * NV21 一帧的字节数
+     */
+    public static int nv21FrameSize(int width, int height) {
+        return width * height * 3 / 2;
+    }
+
+    /**
+     * 绑定回收去向，并把所有缓存交出去（相机开始预览前调用）
+     */
+    public synchronized void attach(Recycler recycler) {
+        this.recycler = recycler;
+        for (byte[] buffer : buffers) {
+            recycler.onRecycle(buffer);
+        }
+    }
+
+    /**
+     * 解除绑定，之后回收的缓存直接丢弃。正在进行的交还做完才返回，释放相机前调用。
+     */
+    public synchronized void detach() {
+        recycler = null;
+    }
+
+    /**
+     * 编码器用完一帧后交还缓存，不属于本池的数组直接忽略
+     */
+    public void recycle(byte[] buffer) {
+        if (!owns(buffer)) {
+            return;
+        }
+        synchronized (this) {
+            if (recycler != null) {
+                recycler.onRecycle(buffer);
+            }
+        }
+    }
+
+    public boolean owns(byte[] buffer) {
+        if (buffer == null || buffer.length != frameSize) {
+            return false;
+        }
+        for (byte[] b : buffers) {
+            if (b == buffer) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public int getBufferCount() {
+        return buffers.length;
+    }
+}
@@ -0,0 +1,278 @@
+package com.hm.androidrecorder.buffer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-07]
+ * @Describe: 有界单生产者/单消费者环形队列
+ * <p>
+ * 相机回调线程生产、编码线程消费。读写下标是单调递增的 long，入队出队都不加锁，
+ * 等待通过 park/unpark 完成。队列满时按 {@link OverflowPolicy} 处理，
+ * 被丢弃的元素交给 {@link DropListener}（一般是交还给 {@link FrameBufferPool}）。
+ * <p>
+ * 队列深度和丢帧数可以在任意线程无锁读取。入队时记下时间，消费者出队后可以用
+ * {@link #getLastPolledOfferTimeNanos()} 算出元素在队列里等了多久。
+ */
+
+
+public class FrameRing<T> {
+
+    /**
+     * 队列满时的处理方式
+     */
+    public enum OverflowPolicy {
+        //丢掉最旧的一帧，保证编码的是最新画面
+        DROP_OLDEST,
+        //丢掉新来的这一帧
+        DROP_NEWEST,
+        //生产者等待，超时后丢掉新来的这一帧
+        BLOCK
+    }
+
+    public interface DropListener<T> {
+        void onDrop(T item);
+    }
+
+    private final Object[] items;
+    //每个槽位的入队时间，和 items 一起读写
+    private final long[] offerTimes;
+    private final int mask;
+    private final OverflowPolicy policy;
+    private final long blockTimeoutNanos;
+
+    //下一个出队位置，消费者推进；DROP_OLDEST 时生产者也会推进，所以用 CAS
+    private final AtomicLong head = new AtomicLong();
+    //下一个入队位置，只有生产者推进
+    private final AtomicLong tail = new AtomicLong();
+
+    private final AtomicLong offeredCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private volatile Thread waitingConsumer;
+    private volatile Thread waitingProducer;
+    private volatile DropListener<T> dropListener;
+    //消费者最近一次 poll 出的元素的入队时间，只在消费者线程读写
+    private long lastPolledOfferTime;
+
+    /**
+     * @param capacity        容量，会向上取整到 2 的幂
+     * @param policy          队列满时的处理方式
+     * @param blockTimeoutMs  BLOCK 策略下生产者最长等待时间
+     */
+    public FrameRing(int capacity, OverflowPolicy policy, long blockTimeoutMs) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity:" + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.items = new Object[size];
+        this.offerTimes = new long[size];
+        this.mask = size - 1;
+        this.policy = policy;
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMs);
+    }
+
+    public FrameRing(int capacity, OverflowPolicy policy) {
+        this(capacity, policy, 0);
+    }
+
+    public void setDropListener(DropListener<T> listener) {
+        this.dropListener = listener;
+    }
+
+    /**
+     * 入队，只能由生产者线程调用
+     *
+     * @return 新元素是否进入了队列；没进入的元素已经交给 DropListener
+     */
+    public boolean offer(T item) {
+        if (item == null) {
+            throw new NullPointerException();
+        }
+        offeredCount.lazySet(offeredCount.get() + 1);
+        long t = tail.get();
+        if (t - head.get() >= items.length) {
+            switch (policy) {
+                case DROP_OLDEST:
+                    T oldest = pollInternal(false);
+                    if (oldest != null) {
+                        drop(oldest);
+                    }
+                    break;
+                case BLOCK:
+                    if (!awaitSpace(t)) {
+                        drop(item);
+                        return false;
+                    }
+                    break;
+                default:
+                    drop(item);
+                    return false;
+            }
+        }
+        items[(int) t & mask] = item;
+        offerTimes[(int) t & mask] = System.nanoTime();
+        //volatile 写，保证随后读 waitingConsumer 不会被重排到前面
+        tail.set(t + 1);
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /**
+     * 出队，队列为空时返回 null，只能由消费者线程调用
+     */
+    public T poll() {
+        T item = pollInternal(true);
+        if (item != null) {
+            Thread producer = waitingProducer;
+            if (producer != null) {
+                LockSupport.unpark(producer);
+            }
+        }
+        return item;
+    }
+
+    /**
+     * 出队，队列为空时最多等待 timeoutMs
+     */
+    public T poll(long timeoutMs) {
+        T item = poll();
+        if (item != null || timeoutMs <= 0) {
+            return item;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        waitingConsumer = Thread.currentThread();
+        try {
+            while (true) {
+                item = poll();
+                if (item != null) {
+                    return item;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || Thread.interrupted()) {
+                    return null;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+        } finally {
+            waitingConsumer = null;
+        }
+    }
+
+    /**
+     * 唤醒正在 poll 等待的消费者（暂停、停止时使用）
+     */
+    public void wakeConsumer() {
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * 清空队列，所有元素交给 DropListener，只能由消费者线程或停止后调用
+     */
+    public void clear() {
+        T item;
+        while ((item = pollInternal(false)) != null) {
+            drop(item);
+        }
+    }
+
+    /**
+     * @param consumer 是否由消费者调用，是时记下出队元素的入队时间
+     */
+    @SuppressWarnings("unchecked")
+    private T pollInternal(boolean consumer) {
+        while (true) {
+            long h = head.get();
+            if (h >= tail.get()) {
+                return null;
+            }
+            //先读再 CAS：CAS 成功说明读取期间该槽位没有被覆盖
+            T item = (T) items[(int) h & mask];
+            long offerTime = offerTimes[(int) h & mask];
+            if (head.compareAndSet(h, h + 1)) {
+                if (consumer) {
+                    lastPolledOfferTime = offerTime;
+                }
+                return item;
+            }
+        }
+    }
+
+    private boolean awaitSpace(long t) {
+        long deadline = System.nanoTime() + blockTimeoutNanos;
+        waitingProducer = Thread.currentThread();
+        try {
+            while (t - head.get() >= items.length) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || Thread.interrupted()) {
+                    return false;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+            return true;
+        } finally {
+            waitingProducer = null;
+        }
+    }
+
+    private void drop(T item) {
+        droppedCount.incrementAndGet();
+        DropListener<T> listener = dropListener;
+        if (listener != null) {
+            listener.onDrop(item);
+        }
+    }
+
+    /**
+     * 当前队列深度
+     */
+    public int size() {
+        long h = head.get();
+        long t = tail.get();
+        return (int) Math.max(0, t - h);
+    }
+
+    /**
+     * 最近一次 poll 出的元素的入队时间（System.nanoTime），只能由消费者线程调用
+     */
+    public long getLastPolledOfferTimeNanos() {
+        return lastPolledOfferTime;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return items.length;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * 累计入队请求数
+     */
+    public long getOfferedCount() {
+        return offeredCount.get();
+    }
+
+    /**
+     * 累计丢弃数（满队列丢弃和 clear 丢弃）
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+}
@@ -0,0 +1,237 @@
+package com.hm.androidrecorder.buffer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-23]
+ * @Describe: 采集线程和编码线程之间的 PCM 环形缓冲，单生产者/单消费者
+ * <p>
+ * 所有块在构造时一次分配好，采集线程直接把 AudioRecord 读进 {@link #writeBlock()}，
+ * 再用 {@link #commit(int, long)} 连同这块的时间戳一起发布；编码线程 {@link #poll(long)} 拿到块号，
+ * 送完编码后 {@link #release()}。读写下标是单调递增的 long，不加锁，等待通过 park/unpark 完成。
+ * <p>
+ * 块数比容量多一个：队列满时采集线程手里的块也不会和编码线程正在读的块重叠。
+ * 满了还提交算一次上溢（overrun），这块数据丢掉，采集线程照常读下一块，AudioRecord 不会因此积压；
+ * 编码线程等了整个超时时间都没有数据算一次下溢（underrun），说明采集断了。
+ */
+
+
+public class PcmRing {
+
+    private final byte[][] blocks;
+    private final int[] lengths;
+    private final long[] ptsUs;
+    private final long[] commitTimes;
+    private final int capacity;
+
+    //下一个要读的块，只有消费者推进
+    private final AtomicLong head = new AtomicLong();
+    //下一个要写的块，只有生产者推进
+    private final AtomicLong tail = new AtomicLong();
+
+    private final AtomicLong committedCount = new AtomicLong();
+    private final AtomicLong overrunCount = new AtomicLong();
+    private final AtomicLong underrunCount = new AtomicLong();
+
+    private volatile Thread waitingConsumer;
+    private volatile boolean closed = false;
+
+    /**
+     * @param blockBytes 每块的字节数，一般是 AudioRecord 一次读取的大小
+     * @param capacity   最多缓存多少块
+     */
+    public PcmRing(int blockBytes, int capacity) {
+        if (blockBytes <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("blockBytes:" + blockBytes + ",capacity:" + capacity);
+        }
+        this.capacity = capacity;
+        blocks = new byte[capacity + 1][blockBytes];
+        lengths = new int[capacity + 1];
+        ptsUs = new long[capacity + 1];
+        commitTimes = new long[capacity + 1];
+    }
+
+    /**
+     * 按时长算容量：至少能缓存 durationMs 的数据
+     *
+     * @param bytesPerSecond 采样率 * 声道数 * 每个采样的字节数
+     */
+    public static PcmRing forDuration(int blockBytes, int bytesPerSecond, int durationMs) {
+        long bytes = (long) bytesPerSecond * durationMs / 1000;
+        int capacity = (int) Math.max(2, (bytes + blockBytes - 1) / blockBytes);
+        return new PcmRing(blockBytes, capacity);
+    }
+
+    /**
+     * 下一块要写入的缓存，只能由生产者线程调用。提交之前可以反复写。
+     */
+    public byte[] writeBlock() {
+        return blocks[slot(tail.get())];
+    }
+
+    /**
+     * 发布刚写好的块，只能由生产者线程调用
+     *
+     * @param length 有效字节数
+     * @param pts    这一块第一个采样的时间戳
+     * @return false 表示队列已满（上溢），这块被丢弃
+     */
+    public boolean commit(int length, long pts) {
+        long t = tail.get();
+        if (t - head.get() >= capacity) {
+            overrunCount.incrementAndGet();
+            return false;
+        }
+        int slot = slot(t);
+        lengths[slot] = Math.min(length, blocks[slot].length);
+        ptsUs[slot] = pts;
+        commitTimes[slot] = System.nanoTime();
+        //volatile 写，发布上面的数据，也保证随后读 waitingConsumer 不会被重排到前面
+        tail.set(t + 1);
+        committedCount.lazySet(committedCount.get() + 1);
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /**
+     * 取最旧的一块，只能由消费者线程调用。拿到后用 {@link #data(int)} 等方法读取，读完调用 {@link #release()}。
+     *
+     * @param timeoutMs 为空时最多等待的时间，等满仍为空算一次下溢
+     * @return 块号，为空或已关闭时返回 -1
+     */
+    public int poll(long timeoutMs) {
+        long h = head.get();
+        if (h < tail.get()) {
+            return slot(h);
+        }
+        if (timeoutMs <= 0 || closed) {
+            return -1;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        waitingConsumer = Thread.currentThread();
+        try {
+            while (true) {
+                if (h < tail.get()) {
+                    return slot(h);
+                }
+                if (closed || Thread.interrupted()) {
+                    return -1;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    underrunCount.incrementAndGet();
+                    return -1;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+        } finally {
+            waitingConsumer = null;
+        }
+    }
+
+    /**
+     * 读完 poll 到的块，把它还给生产者
+     */
+    public void release() {
+        long h = head.get();
+        if (h < tail.get()) {
+            head.set(h + 1);
+        }
+    }
+
+    public byte[] data(int slot) {
+        return blocks[slot];
+    }
+
+    public int length(int slot) {
+        return lengths[slot];
+    }
+
+    public long ptsUs(int slot) {
+        return ptsUs[slot];
+    }
+
+    /**
+     * 提交时间（System.nanoTime），和当前时间的差就是在缓冲里等了多久
+     */
+    public long commitTimeNanos(int slot) {
+        return commitTimes[slot];
+    }
+
+    /**
+     * 丢掉还没读的块，只能由消费者线程或两边都停止后调用
+     */
+    public void clear() {
+        head.set(tail.get());
+    }
+
+    /**
+     * 关闭后 poll 不再等待，用于停止时唤醒编码线程
+     */
+    public void close() {
+        closed = true;
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * 是否已关闭。关闭后生产者不再写入，缓冲里剩下的块仍然可以取出
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private int slot(long index) {
+        return (int) (index % blocks.length);
+    }
+
+    /**
+     * 当前缓存的块数
+     */
+    public int size() {
+        long h = head.get();
+        long t = tail.get();
+        return (int) Math.max(0, t - h);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int blockBytes() {
+        return blocks[0].length;
+    }
+
+    /**
+     * 累计提交成功的块数
+     */
+    public long getCommittedCount() {
+        return committedCount.get();
+    }
+
+    /**
+     * 累计上溢次数：编码线程跟不上，采集到的块被丢弃
+     */
+    public long getOverrunCount() {
+        return overrunCount.get();
+    }
+
+    /**
+     * 累计下溢次数：编码线程等满超时仍没有数据
+     */
+    public long getUnderrunCount() {
+        return underrunCount.get();
+    }
+}
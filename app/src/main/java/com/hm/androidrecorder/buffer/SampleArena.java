@@ -0,0 +1,159 @@
+package com.hm.androidrecorder.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-08]
+ * @Describe: 编码数据缓存池
+ * <p>
+ * 按容量分级缓存 direct ByteBuffer。编码线程把输出数据拷贝进来后马上就能 releaseOutputBuffer，
+ * 混合器写完再 {@link #release(ByteBuffer)} 回池子。缓存在第一次用到时分配，
+ * 之后稳定运行不再分配内存；超过最大级别的数据单独分配，用完直接丢弃。
+ */
+
+
+public class SampleArena {
+
+    /**
+     * 默认分级：2K（音频帧）到 2M（高码率关键帧），每级 4 倍
+     */
+    public static final int[] DEFAULT_SIZE_CLASSES = {2 * 1024, 8 * 1024, 32 * 1024, 128 * 1024, 512 * 1024, 2 * 1024 * 1024};
+
+    /**
+     * 每级最多缓存的个数
+     */
+    public static final int DEFAULT_MAX_PER_CLASS = 32;
+
+    private final int[] sizeClasses;
+    private final ByteBuffer[][] freeLists;
+    private final int[] freeCounts;
+
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private final AtomicLong allocationCount = new AtomicLong();
+    private final AtomicLong oversizeCount = new AtomicLong();
+
+    public SampleArena() {
+        this(DEFAULT_SIZE_CLASSES, DEFAULT_MAX_PER_CLASS);
+    }
+
+    public SampleArena(int[] sizeClasses, int maxPerClass) {
+        if (sizeClasses.length == 0 || maxPerClass <= 0) {
+            throw new IllegalArgumentException("sizeClasses:" + sizeClasses.length + ",maxPerClass:" + maxPerClass);
+        }
+        for (int i = 1; i < sizeClasses.length; i++) {
+            if (sizeClasses[i] <= sizeClasses[i - 1]) {
+                throw new IllegalArgumentException("size classes must be ascending");
+            }
+        }
+        this.sizeClasses = sizeClasses.clone();
+        this.freeLists = new ByteBuffer[sizeClasses.length][maxPerClass];
+        this.freeCounts = new int[sizeClasses.length];
+    }
+
+    /**
+     * 取一块容量不小于 size 的缓存，position=0，limit=size
+     */
+    public ByteBuffer acquire(int size) {
+        int cls = classOf(size);
+        ByteBuffer buffer = null;
+        if (cls >= 0) {
+            synchronized (freeLists[cls]) {
+                int n = freeCounts[cls];
+                if (n > 0) {
+                    buffer = freeLists[cls][n - 1];
+                    freeLists[cls][n - 1] = null;
+                    freeCounts[cls] = n - 1;
+                }
+            }
+            if (buffer == null) {
+                buffer = allocate(sizeClasses[cls]);
+            }
+        } else {
+            oversizeCount.incrementAndGet();
+            buffer = allocate(size);
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * 把 src 中 [offset, offset+size) 的数据拷贝进一块新缓存，返回的缓存 position=0，limit=size。
+     * 会改动 src 的 position/limit（编解码器输出缓存马上就会被释放，不需要保留）。
+     */
+    public ByteBuffer copyOf(ByteBuffer src, int offset, int size) {
+        ByteBuffer buffer = acquire(size);
+        src.limit(offset + size);
+        src.position(offset);
+        buffer.put(src);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 归还缓存，不是本池分级大小的缓存直接丢弃
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        int cls = exactClassOf(buffer.capacity());
+        if (cls < 0) {
+            return;
+        }
+        synchronized (freeLists[cls]) {
+            int n = freeCounts[cls];
+            if (n < freeLists[cls].length) {
+                freeLists[cls][n] = buffer;
+                freeCounts[cls] = n + 1;
+            }
+        }
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        allocationCount.incrementAndGet();
+        allocatedBytes.addAndGet(capacity);
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    private int classOf(int size) {
+        for (int i = 0; i < sizeClasses.length; i++) {
+            if (size <= sizeClasses[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int exactClassOf(int capacity) {
+        for (int i = 0; i < sizeClasses.length; i++) {
+            if (capacity == sizeClasses[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 累计分配的 direct 内存字节数
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    /**
+     * 累计分配次数，稳定运行后不应再增长
+     */
+    public long getAllocationCount() {
+        return allocationCount.get();
+    }
+
+    /**
+     * 超过最大分级的分配次数
+     */
+    public long getOversizeCount() {
+        return oversizeCount.get();
+    }
+}
@@ -0,0 +1,169 @@
+package com.hm.androidrecorder.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-24]
+ * @Describe: 把采集到的 PCM 块拼成整数个 AAC 帧（每帧 1024 个采样）再送编码
+ * <p>
+ * AudioRecord 一次读到的字节数由最小缓存大小决定，和 AAC 帧长没有关系，直接送编码器时每块都是一次
+ * 输入/输出往返，编码器内部还要再切一次帧。这里先 {@link #begin(ByteBuffer)} 拿住一个编码器输入缓存，
+ * 用 {@link #append(byte[], int, int, long)} 把后续的块直接拷进去，凑满 framesPerBatch 帧才送出；
+ * 一块装不下的部分留给下一批，不需要中间缓存。
+ * <p>
+ * 每批的时间戳是它第一个采样的时间：所在块的时间戳加上块内偏移的采样时长，不再用读取时的时间，
+ * 相邻两批正好相差整数帧的时长。
+ */
+
+
+public final class AacFrameBatcher {
+
+    /**
+     * AAC 每帧的采样数（每声道）
+     */
+    public static final int SAMPLES_PER_FRAME = 1024;
+
+    /**
+     * 单声道 AAC-LC 的一帧全静音，解码后 1024 个采样都是 0，静音时代替编码器输出。
+     * 按位依次是：SCE(000) tag(0000) global_gain=160(10100000)，ics_info 里 ONLY_LONG(0 00)、
+     * KBD 窗(1)、max_sfb=0(000000)、无预测(0)，没有频谱所以没有 section/scalefactor，
+     * pulse/tns/gain_control 都不存在(000)，最后 END(111)，正好 32 位。
+     */
+    public static final byte[] SILENT_FRAME_MONO = {0x01, 0x40, 0x20, 0x07};
+
+    private final int sampleRate;
+    //每个采样点所有声道的字节数
+    private final int bytesPerSample;
+    private final int batchBytes;
+
+    private ByteBuffer target;
+    //这一批的上限，输入缓存比一批小时按缓存大小
+    private int limit;
+    private int size;
+    private long ptsUs;
+    private long batchCount;
+
+    /**
+     * @param channelCount   声道数，16 位 PCM
+     * @param framesPerBatch 每批几帧
+     */
+    public AacFrameBatcher(int sampleRate, int channelCount, int framesPerBatch) {
+        if (sampleRate <= 0 || channelCount <= 0 || framesPerBatch <= 0) {
+            throw new IllegalArgumentException("sampleRate:" + sampleRate + ",channelCount:" + channelCount + ",framesPerBatch:" + framesPerBatch);
+        }
+        this.sampleRate = sampleRate;
+        this.bytesPerSample = 2 * channelCount;
+        this.batchBytes = framesPerBatch * SAMPLES_PER_FRAME * bytesPerSample;
+    }
+
+    /**
+     * 输入缓存装得下的帧数，不超过 maxFrames，至少 1
+     */
+    public static int framesFor(int inputCapacity, int channelCount, int maxFrames) {
+        int frames = inputCapacity / (SAMPLES_PER_FRAME * 2 * channelCount);
+        return Math.max(1, Math.min(maxFrames, frames));
+    }
+
+    /**
+     * 开始往编码器输入缓存里拼一批，缓存会被清空
+     */
+    public void begin(ByteBuffer inputBuffer) {
+        inputBuffer.clear();
+        target = inputBuffer;
+        limit = Math.min(batchBytes, inputBuffer.remaining() / bytesPerSample * bytesPerSample);
+        size = 0;
+    }
+
+    /**
+     * 是否正拿着一个输入缓存
+     */
+    public boolean hasTarget() {
+        return target != null;
+    }
+
+    /**
+     * 从一块 PCM 的 offset 处拷数据进当前批次，直到这批满或这块用完
+     *
+     * @param block     一块 PCM
+     * @param offset    从哪里开始，之前的部分已经送出
+     * @param length    这一块的有效字节数
+     * @param blockPtsUs 这一块第一个采样的时间戳
+     * @return 拷了多少字节
+     */
+    public int append(byte[] block, int offset, int length, long blockPtsUs) {
+        if (target == null) {
+            throw new IllegalStateException("begin not called");
+        }
+        int count = Math.min(length - offset, limit - size);
+        if (count <= 0) {
+            return 0;
+        }
+        if (size == 0) {
+            ptsUs = blockPtsUs + durationUs(offset / bytesPerSample);
+        }
+        target.put(block, offset, count);
+        size += count;
+        return count;
+    }
+
+    /**
+     * 这一批已经凑满，可以送编码
+     */
+    public boolean isFull() {
+        return target != null && size >= limit;
+    }
+
+    /**
+     * 当前批次的字节数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 当前批次第一个采样的时间戳，size 为 0 时无意义
+     */
+    public long ptsUs() {
+        return ptsUs;
+    }
+
+    /**
+     * 当前批次送出后调用，放开输入缓存
+     */
+    public void reset() {
+        if (target != null && size > 0) {
+            batchCount++;
+        }
+        target = null;
+        size = 0;
+    }
+
+    /**
+     * 丢掉当前批次的数据，继续拿着同一个输入缓存拼下一批，不计入已送出的批次
+     */
+    public void discard() {
+        if (target != null) {
+            target.clear();
+        }
+        size = 0;
+    }
+
+    /**
+     * 每批满员时的字节数
+     */
+    public int batchBytes() {
+        return batchBytes;
+    }
+
+    /**
+     * 已送出的批次数
+     */
+    public long getBatchCount() {
+        return batchCount;
+    }
+
+    private long durationUs(long samples) {
+        return samples * 1000000 / sampleRate;
+    }
+}
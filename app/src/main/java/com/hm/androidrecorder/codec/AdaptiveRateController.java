@@ -0,0 +1,290 @@
+package com.hm.androidrecorder.codec;
+
+import com.hm.androidrecorder.metrics.LatencyHistogram;
+import com.hm.androidrecorder.metrics.PipelineMetrics;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-20]
+ * @Describe: 按积压情况调整视频码率和帧率
+ * <p>
+ * 每隔一段时间用 {@link #update(Load)} 喂一次这段时间的负载，判断是过载、空闲还是居中：
+ * <ul>
+ * <li>编码跟不上（待编码队列过半、有丢帧、编码延迟超过几帧的时间）：先降帧率，帧率到下限后再降码率</li>
+ * <li>写入跟不上（混合器写文件占用的时间过多）：先降码率，码率到下限后再降帧率</li>
+ * <li>连续空闲：先恢复帧率，再逐步提高码率，不超过上限</li>
+ * </ul>
+ * 过载要连续 {@code overloadTicks} 次、空闲要连续 {@code recoverTicks} 次才调整，介于两者之间的负载清零计数；
+ * 每次调整后再等 {@code cooldownTicks} 次让新参数生效。这样短暂的尖峰不会来回调整。
+ * <p>
+ * 帧率通过 {@link #acceptFrame(long)} 在送编码前抽帧实现，码率由调用方通过 MediaCodec.setParameters 设置。
+ * 判断逻辑不依赖 Android 类，可以在 JVM 上用录下来的负载序列回放测试。
+ */
+
+
+public class AdaptiveRateController {
+
+    /**
+     * 一个统计周期内的负载
+     */
+    public static final class Load {
+        //统计周期
+        public long elapsedUs;
+        //周期结束时待编码队列的深度和容量
+        public int queueDepth;
+        public int queueCapacity;
+        //周期内因编码跟不上丢掉的帧
+        public long droppedFrames;
+        //周期内编码延迟的平均值
+        public long encodeLatencyUs;
+        //周期内混合器 writeSampleData 的总耗时
+        public long writeBusyUs;
+
+        public Load set(long elapsedUs, int queueDepth, int queueCapacity, long droppedFrames, long encodeLatencyUs, long writeBusyUs) {
+            this.elapsedUs = elapsedUs;
+            this.queueDepth = queueDepth;
+            this.queueCapacity = queueCapacity;
+            this.droppedFrames = droppedFrames;
+            this.encodeLatencyUs = encodeLatencyUs;
+            this.writeBusyUs = writeBusyUs;
+            return this;
+        }
+
+        /**
+         * 由两次指标快照算出这段时间的负载
+         *
+         * @param queueDepth 当前待编码队列深度
+         */
+        public Load set(PipelineMetrics.Snapshot previous, PipelineMetrics.Snapshot current, int queueDepth, int queueCapacity) {
+            LatencyHistogram.Snapshot encodeBefore = previous.stage(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.STAGE_ENCODE);
+            LatencyHistogram.Snapshot encodeNow = current.stage(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.STAGE_ENCODE);
+            long encoded = encodeNow.count - encodeBefore.count;
+            long writeBusy = 0;
+            for (int track = PipelineMetrics.TRACK_VIDEO; track <= PipelineMetrics.TRACK_AUDIO; track++) {
+                writeBusy += current.stage(track, PipelineMetrics.STAGE_WRITE).sumUs - previous.stage(track, PipelineMetrics.STAGE_WRITE).sumUs;
+            }
+            return set((current.uptimeMs - previous.uptimeMs) * 1000,
+                    queueDepth,
+                    queueCapacity,
+                    current.get(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.COUNTER_DROPPED) - previous.get(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.COUNTER_DROPPED),
+                    encoded <= 0 ? 0 : (encodeNow.sumUs - encodeBefore.sumUs) / encoded,
+                    writeBusy);
+        }
+    }
+
+    //update 的结果
+    public static final int NO_CHANGE = 0;
+    public static final int BITRATE_DOWN = 1;
+    public static final int BITRATE_UP = 2;
+    public static final int FRAME_RATE_DOWN = 3;
+    public static final int FRAME_RATE_UP = 4;
+
+    //编码延迟超过这么多帧的时间算编码跟不上
+    private static final int OVERLOAD_LATENCY_FRAMES = 3;
+    //写入占用超过周期的这个比例算写入跟不上，低于 CALM 比例才算空闲
+    private static final double OVERLOAD_WRITE_BUSY = 0.5;
+    private static final double CALM_WRITE_BUSY = 0.2;
+    //每次降码率乘的系数，升码率乘的系数
+    private static final double BITRATE_DOWN_RATIO = 0.75;
+    private static final double BITRATE_UP_RATIO = 1.15;
+
+    private final int minBitRate;
+    private final int maxBitRate;
+    private final int minFrameRate;
+    private final int maxFrameRate;
+    private int frameRateStep;
+
+    private int overloadTicks = 2;
+    private int recoverTicks = 6;
+    private int cooldownTicks = 2;
+
+    private volatile int bitRate;
+    private volatile int frameRate;
+    private int overloadStreak = 0;
+    private int calmStreak = 0;
+    private int cooldown = 0;
+    private long adjustCount = 0;
+
+    //抽帧状态，只在送帧线程读写
+    private long nextFrameNs = Long.MIN_VALUE;
+    private volatile long decimatedCount = 0;
+
+    /**
+     * 开始时码率、帧率都在上限
+     */
+    public AdaptiveRateController(int minBitRate, int maxBitRate, int minFrameRate, int maxFrameRate) {
+        if (minBitRate <= 0 || minBitRate > maxBitRate || minFrameRate <= 0 || minFrameRate > maxFrameRate) {
+            throw new IllegalArgumentException("bitRate:" + minBitRate + "-" + maxBitRate + ",frameRate:" + minFrameRate + "-" + maxFrameRate);
+        }
+        this.minBitRate = minBitRate;
+        this.maxBitRate = maxBitRate;
+        this.minFrameRate = minFrameRate;
+        this.maxFrameRate = maxFrameRate;
+        this.frameRateStep = Math.max(1, (maxFrameRate - minFrameRate + 2) / 3);
+        this.bitRate = maxBitRate;
+        this.frameRate = maxFrameRate;
+    }
+
+    /**
+     * @param overloadTicks 连续过载多少个周期才降
+     * @param recoverTicks  连续空闲多少个周期才升
+     * @param cooldownTicks 每次调整后忽略的周期数
+     */
+    public void setHysteresis(int overloadTicks, int recoverTicks, int cooldownTicks) {
+        if (overloadTicks <= 0 || recoverTicks <= 0 || cooldownTicks < 0) {
+            throw new IllegalArgumentException("overloadTicks:" + overloadTicks + ",recoverTicks:" + recoverTicks + ",cooldownTicks:" + cooldownTicks);
+        }
+        this.overloadTicks = overloadTicks;
+        this.recoverTicks = recoverTicks;
+        this.cooldownTicks = cooldownTicks;
+    }
+
+    /**
+     * 每次升降帧率的步长，默认把上下限之间分三步
+     */
+    public void setFrameRateStep(int step) {
+        if (step <= 0) {
+            throw new IllegalArgumentException("step:" + step);
+        }
+        this.frameRateStep = step;
+    }
+
+    /**
+     * 处理一个周期的负载，只能在一个线程调用
+     *
+     * @return NO_CHANGE 或者这次做了哪种调整
+     */
+    public int update(Load load) {
+        if (cooldown > 0) {
+            cooldown--;
+            return NO_CHANGE;
+        }
+        long frameIntervalUs = 1000000 / frameRate;
+        boolean encodeBound = load.droppedFrames > 0
+                || load.queueDepth * 2 > load.queueCapacity
+                || load.encodeLatencyUs > OVERLOAD_LATENCY_FRAMES * frameIntervalUs;
+        boolean writeBound = load.elapsedUs > 0 && load.writeBusyUs > OVERLOAD_WRITE_BUSY * load.elapsedUs;
+        boolean calm = load.droppedFrames == 0
+                && load.queueDepth <= 1
+                && load.encodeLatencyUs <= frameIntervalUs
+                && load.writeBusyUs <= CALM_WRITE_BUSY * load.elapsedUs;
+
+        if (encodeBound || writeBound) {
+            calmStreak = 0;
+            if (++overloadStreak < overloadTicks) {
+                return NO_CHANGE;
+            }
+            overloadStreak = 0;
+            //写入跟不上时码率优先，编码跟不上时帧率优先，优先的到下限后换另一个
+            int result = writeBound && !encodeBound ? lowerBitRate() : lowerFrameRate();
+            if (result == NO_CHANGE) {
+                result = writeBound && !encodeBound ? lowerFrameRate() : lowerBitRate();
+            }
+            return adjusted(result);
+        }
+        overloadStreak = 0;
+        if (!calm) {
+            //居中的负载不升也不降
+            calmStreak = 0;
+            return NO_CHANGE;
+        }
+        if (++calmStreak < recoverTicks) {
+            return NO_CHANGE;
+        }
+        calmStreak = 0;
+        int result = raiseFrameRate();
+        if (result == NO_CHANGE) {
+            result = raiseBitRate();
+        }
+        return adjusted(result);
+    }
+
+    private int adjusted(int result) {
+        if (result != NO_CHANGE) {
+            cooldown = cooldownTicks;
+            adjustCount++;
+        }
+        return result;
+    }
+
+    private int lowerBitRate() {
+        if (bitRate <= minBitRate) {
+            return NO_CHANGE;
+        }
+        bitRate = Math.max(minBitRate, (int) (bitRate * BITRATE_DOWN_RATIO));
+        return BITRATE_DOWN;
+    }
+
+    private int raiseBitRate() {
+        if (bitRate >= maxBitRate) {
+            return NO_CHANGE;
+        }
+        bitRate = (int) Math.min(maxBitRate, Math.ceil(bitRate * BITRATE_UP_RATIO));
+        return BITRATE_UP;
+    }
+
+    private int lowerFrameRate() {
+        if (frameRate <= minFrameRate) {
+            return NO_CHANGE;
+        }
+        frameRate = Math.max(minFrameRate, frameRate - frameRateStep);
+        return FRAME_RATE_DOWN;
+    }
+
+    private int raiseFrameRate() {
+        if (frameRate >= maxFrameRate) {
+            return NO_CHANGE;
+        }
+        frameRate = Math.min(maxFrameRate, frameRate + frameRateStep);
+        return FRAME_RATE_UP;
+    }
+
+    /**
+     * 按当前帧率抽帧，只能在送帧线程调用。帧率在上限时全部保留。
+     *
+     * @param timeNs 帧时间（System.nanoTime）
+     * @return 这一帧是否送去编码
+     */
+    public boolean acceptFrame(long timeNs) {
+        int rate = frameRate;
+        if (rate >= maxFrameRate) {
+            nextFrameNs = Long.MIN_VALUE;
+            return true;
+        }
+        long intervalNs = 1000000000L / rate;
+        //提前 1/4 个间隔也接受，相机帧间隔有抖动
+        if (nextFrameNs != Long.MIN_VALUE && timeNs < nextFrameNs - intervalNs / 4) {
+            decimatedCount++;
+            return false;
+        }
+        if (nextFrameNs == Long.MIN_VALUE || timeNs - nextFrameNs > intervalNs) {
+            //第一帧或者隔了很久没有帧，从这一帧重新计时
+            nextFrameNs = timeNs + intervalNs;
+        } else {
+            nextFrameNs += intervalNs;
+        }
+        return true;
+    }
+
+    public int getBitRate() {
+        return bitRate;
+    }
+
+    public int getFrameRate() {
+        return frameRate;
+    }
+
+    /**
+     * 抽帧丢掉的帧数
+     */
+    public long getDecimatedCount() {
+        return decimatedCount;
+    }
+
+    /**
+     * 累计调整次数
+     */
+    public long getAdjustCount() {
+        return adjustCount;
+    }
+}
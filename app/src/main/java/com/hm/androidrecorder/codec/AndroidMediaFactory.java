@@ -0,0 +1,57 @@
+package com.hm.androidrecorder.codec;
+
+import android.os.Build;
+import android.os.Environment;
+
+import com.hm.androidrecorder.constant.GlobalConfig;
+
+import java.io.IOException;
+
+/**
+ * @author hm
+ * @version [v1, 2020-06-02]
+ * @Describe: 设备上的 {@link MediaFactory}：MediaCodec、AudioRecord、MediaMuxer，文件写在 SD 卡上
+ */
+
+
+public class AndroidMediaFactory implements MediaFactory {
+
+    @Override
+    public Encoder createVideoEncoder(int width, int height, int bitRate, int frameRate, int iFrameIntervalSec, Encoder.Callback callback) throws IOException {
+        return MediaCodecEncoder.createVideo(width, height, bitRate, frameRate, iFrameIntervalSec, callback);
+    }
+
+    @Override
+    public Encoder createAudioEncoder(int sampleRate, int channelCount, int bitRate, Encoder.Callback callback) throws IOException {
+        return MediaCodecEncoder.createAudio(sampleRate, channelCount, bitRate, callback);
+    }
+
+    @Override
+    public AudioSource createAudioSource(int sampleRate, int channelCount) {
+        return AudioRecordSource.create(sampleRate, channelCount);
+    }
+
+    @Override
+    public Muxer createMuxer(String path) throws IOException {
+        return new MediaMuxerWriter(path);
+    }
+
+    /**
+     * MediaCodec.setCallback(Callback, Handler) 从 API 23 开始才有
+     */
+    @Override
+    public boolean supportsAsyncEncoding() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+    }
+
+    /**
+     * sdcard 根目录，没有挂载时用应用私有目录
+     */
+    @Override
+    public String getStorageRoot() {
+        if (Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState())) {
+            return Environment.getExternalStorageDirectory().getPath();
+        }
+        return GlobalConfig.PACKAGE_NAME;
+    }
+}
@@ -0,0 +1,252 @@
+package com.hm.androidrecorder.codec;
+
+import com.hm.androidrecorder.buffer.FrameRing;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-16]
+ * @Describe: 异步编码的输入配对队列
+ * <p>
+ * 异步模式（MediaCodec.setCallback）下，待编码帧和空闲输入缓存来自两个线程：
+ * 帧由相机回调 {@link #offerFrame}，缓存由编码器回调 onInputBufferAvailable 时 {@link #offerInputBuffer}。
+ * 编码线程用 {@link #take} 等到两者都有时取出一对，转换后 queueInputBuffer。
+ * <p>
+ * 没有空闲缓存时帧留在有界的待编码槽里，不再像同步模式那样等 10ms 超时后丢掉；
+ * 槽满时丢最旧的一帧，交给 {@link FrameRing.DropListener}。
+ * <p>
+ * 不依赖 Android 类，可以用假的编码器在 JVM 上测试。
+ */
+
+
+public class AsyncInputQueue<F> {
+
+    /**
+     * 配对结果，由调用方持有并重复使用
+     */
+    public static final class Match<F> {
+        public int index = -1;
+        public F frame;
+        //帧放入队列的时间（System.nanoTime）
+        public long offerTimeNanos;
+    }
+
+    private final Object[] frames;
+    private final long[] frameTimes;
+    private int frameHead = 0;
+    private int frameCount = 0;
+
+    private int[] indices = new int[8];
+    private int indexHead = 0;
+    private int indexCount = 0;
+
+    private boolean closed = false;
+    private long droppedCount = 0;
+    private long matchedCount = 0;
+    private FrameRing.DropListener<F> dropListener;
+
+    /**
+     * @param maxPendingFrames 待编码槽容量
+     */
+    public AsyncInputQueue(int maxPendingFrames) {
+        if (maxPendingFrames <= 0) {
+            throw new IllegalArgumentException("maxPendingFrames:" + maxPendingFrames);
+        }
+        frames = new Object[maxPendingFrames];
+        frameTimes = new long[maxPendingFrames];
+    }
+
+    public synchronized void setDropListener(FrameRing.DropListener<F> listener) {
+        this.dropListener = listener;
+    }
+
+    /**
+     * 放入一帧，槽满时丢掉最旧的一帧；关闭后直接丢弃
+     *
+     * @return 是否放入
+     */
+    public boolean offerFrame(F frame) {
+        F dropped;
+        synchronized (this) {
+            if (closed) {
+                dropped = frame;
+            } else {
+                dropped = frameCount == frames.length ? removeFrame() : null;
+                int slot = (frameHead + frameCount) % frames.length;
+                frames[slot] = frame;
+                frameTimes[slot] = System.nanoTime();
+                frameCount++;
+                if (indexCount > 0) {
+                    notifyAll();
+                }
+            }
+            if (dropped != null) {
+                droppedCount++;
+            }
+        }
+        drop(dropped);
+        return dropped != frame;
+    }
+
+    /**
+     * 编码器通知有空闲输入缓存
+     */
+    public synchronized void offerInputBuffer(int index) {
+        if (closed) {
+            return;
+        }
+        if (indexCount == indices.length) {
+            int[] grown = new int[indices.length * 2];
+            for (int i = 0; i < indexCount; i++) {
+                grown[i] = indices[(indexHead + i) % indices.length];
+            }
+            indices = grown;
+            indexHead = 0;
+        }
+        indices[(indexHead + indexCount) % indices.length] = index;
+        indexCount++;
+        notifyAll();
+    }
+
+    /**
+     * 等到同时有待编码帧和空闲缓存，取出最早的一对
+     *
+     * @return false 表示超时或已关闭
+     */
+    public synchronized boolean take(Match<F> out, long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!closed && (frameCount == 0 || indexCount == 0)) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0 || !await(remaining)) {
+                return false;
+            }
+        }
+        if (closed) {
+            return false;
+        }
+        out.offerTimeNanos = frameTimes[frameHead];
+        out.frame = removeFrame();
+        out.index = removeIndex();
+        matchedCount++;
+        return true;
+    }
+
+    /**
+     * 只等空闲缓存（音频直接把采集数据读进输入缓存）
+     *
+     * @return 缓存序号，超时或已关闭时返回 -1
+     */
+    public synchronized int takeInputBuffer(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!closed && indexCount == 0) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0 || !await(remaining)) {
+                return -1;
+            }
+        }
+        if (closed) {
+            return -1;
+        }
+        matchedCount++;
+        return removeIndex();
+    }
+
+    /**
+     * 关闭队列，唤醒等待的编码线程，待编码帧交给 DropListener。之后放入的帧直接丢弃。
+     */
+    public void close() {
+        Object[] pending;
+        synchronized (this) {
+            closed = true;
+            pending = drainFrames();
+            indexCount = 0;
+            notifyAll();
+        }
+        dropAll(pending);
+    }
+
+    /**
+     * 清空待编码帧和空闲缓存（编码器 flush/stop 后缓存序号失效）
+     */
+    public void clear() {
+        Object[] pending;
+        synchronized (this) {
+            pending = drainFrames();
+            indexCount = 0;
+        }
+        dropAll(pending);
+    }
+
+    public synchronized int getPendingFrameCount() {
+        return frameCount;
+    }
+
+    public synchronized int getFreeInputBufferCount() {
+        return indexCount;
+    }
+
+    /**
+     * 因槽满或关闭而丢弃的帧数
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * 成功取出的次数
+     */
+    public synchronized long getMatchedCount() {
+        return matchedCount;
+    }
+
+    private boolean await(long timeoutMs) {
+        try {
+            wait(timeoutMs);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private F removeFrame() {
+        F frame = (F) frames[frameHead];
+        frames[frameHead] = null;
+        frameHead = (frameHead + 1) % frames.length;
+        frameCount--;
+        return frame;
+    }
+
+    private int removeIndex() {
+        int index = indices[indexHead];
+        indexHead = (indexHead + 1) % indices.length;
+        indexCount--;
+        return index;
+    }
+
+    private Object[] drainFrames() {
+        Object[] pending = new Object[frameCount];
+        for (int i = 0; i < pending.length; i++) {
+            pending[i] = removeFrame();
+        }
+        droppedCount += pending.length;
+        return pending;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void dropAll(Object[] pending) {
+        for (Object frame : pending) {
+            drop((F) frame);
+        }
+    }
+
+    private void drop(F frame) {
+        FrameRing.DropListener<F> listener;
+        synchronized (this) {
+            listener = dropListener;
+        }
+        if (frame != null && listener != null) {
+            listener.onDrop(frame);
+        }
+    }
+}
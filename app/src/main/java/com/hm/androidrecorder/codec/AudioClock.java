@@ -0,0 +1,163 @@
+package com.hm.androidrecorder.codec;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-22]
+ * @Describe: 按采样数推算音频时间戳，缓慢校正和视频时钟之间的漂移
+ * <p>
+ * 每读到一块 PCM 调一次 {@link #onRead(int, long)}，时间戳 = 锚点 + 已读采样数 / 采样率 + 校正量。
+ * 锚点在第一次读取时按 System.nanoTime 定一次，和视频帧入队时用的时钟相同。
+ * 相邻两块的时间戳间隔就是上一块的时长，不受读取线程调度抖动影响。
+ * <p>
+ * 录音芯片的实际采样率和标称值有几十 ppm 的偏差，一小时能差出几百毫秒。每块数据读完时用系统时钟
+ * 估算它的采集时间，和按采样数推算的时间相比得到偏差；读取只会晚不会早，所以每秒取一次最小值再平滑，
+ * 得到 {@link #getSkewUs()}。校正量每块最多移动块时长的 {@link #MAX_SLEW_PPM} ppm 去追这个偏差，
+ * 时间戳始终单调递增、没有跳变。
+ * <p>
+ * 暂停恢复、采集丢数据等造成的大偏差不慢慢追，调用 {@link #resync()} 或偏差超过 {@link #RESYNC_US} 时直接对齐。
+ */
+
+
+public final class AudioClock {
+
+    /**
+     * 校正速度上限：每秒音频最多移动 1ms
+     */
+    public static final long MAX_SLEW_PPM = 1000;
+    /**
+     * 偏差超过这个值直接对齐，不再慢慢追
+     */
+    public static final long RESYNC_US = 200 * 1000;
+    //偏差和校正量相差不到这个值时不动
+    private static final long DEADBAND_US = 1000;
+
+    private final int sampleRate;
+
+    private boolean anchored = false;
+    private volatile boolean resyncPending = false;
+    private long anchorUs;
+    //锚定后读到的采样数
+    private long samples;
+    private volatile long correctionUs;
+
+    //当前一秒内偏差的最小值
+    private long windowMinUs = Long.MAX_VALUE;
+    private long windowSamples;
+    //平滑后的偏差：系统时钟 - 按采样数推算的时间
+    private volatile long skewUs;
+    private long resyncCount;
+
+    public AudioClock(int sampleRate) {
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("sampleRate:" + sampleRate);
+        }
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * 读到一块 PCM，返回这块第一个采样的时间戳
+     *
+     * @param sampleCount 这一块的采样数（每声道）
+     * @param readEndNs   读取返回时的 System.nanoTime
+     */
+    public long onRead(int sampleCount, long readEndNs) {
+        long blockUs = durationUs(sampleCount);
+        //这一块第一个采样的大致采集时间，读取延迟只会让它偏晚
+        long captureUs = readEndNs / 1000 - blockUs;
+        if (!anchored) {
+            anchorUs = captureUs;
+            samples = 0;
+            correctionUs = 0;
+            skewUs = 0;
+            resetWindow();
+            anchored = true;
+        }
+        long nominalUs = anchorUs + durationUs(samples);
+        long measuredUs = captureUs - nominalUs;
+        if (resyncPending) {
+            snap(measuredUs);
+            resyncPending = false;
+        } else {
+            windowMinUs = Math.min(windowMinUs, measuredUs);
+            windowSamples += sampleCount;
+            if (windowSamples >= sampleRate) {
+                if (Math.abs(windowMinUs - correctionUs) > RESYNC_US) {
+                    snap(windowMinUs);
+                } else {
+                    skewUs += (windowMinUs - skewUs) / 4;
+                }
+                resetWindow();
+            }
+        }
+        long ptsUs = nominalUs + correctionUs;
+        slew(blockUs);
+        samples += sampleCount;
+        return ptsUs;
+    }
+
+    /**
+     * 下一次读取时直接对齐系统时钟（暂停恢复后调用，AudioRecord 停止期间没有采样）。
+     * 可以在任意线程调用，其余方法只能在读取线程调用。
+     */
+    public void resync() {
+        resyncPending = true;
+    }
+
+    /**
+     * 回到未锚定状态，下一次读取重新定锚点
+     */
+    public void reset() {
+        anchored = false;
+        resyncPending = false;
+        resyncCount = 0;
+    }
+
+    /**
+     * 测得的偏差：系统时钟比按采样数推算的时间超前多少，正数表示录音采样率偏慢
+     */
+    public long getSkewUs() {
+        return skewUs;
+    }
+
+    /**
+     * 当前加在时间戳上的校正量
+     */
+    public long getCorrectionUs() {
+        return correctionUs;
+    }
+
+    /**
+     * 直接对齐的次数
+     */
+    public long getResyncCount() {
+        return resyncCount;
+    }
+
+    public long durationUs(long sampleCount) {
+        return sampleCount * 1000000 / sampleRate;
+    }
+
+    private void snap(long measuredUs) {
+        skewUs = measuredUs;
+        correctionUs = measuredUs;
+        resyncCount++;
+        resetWindow();
+    }
+
+    /**
+     * 校正量向偏差移动，每块最多移动块时长的 MAX_SLEW_PPM
+     */
+    private void slew(long blockUs) {
+        long diff = skewUs - correctionUs;
+        if (Math.abs(diff) <= DEADBAND_US) {
+            return;
+        }
+        long maxStep = Math.max(1, blockUs * MAX_SLEW_PPM / 1000000);
+        correctionUs += Math.max(-maxStep, Math.min(maxStep, diff));
+    }
+
+    private void resetWindow() {
+        windowMinUs = Long.MAX_VALUE;
+        windowSamples = 0;
+    }
+}
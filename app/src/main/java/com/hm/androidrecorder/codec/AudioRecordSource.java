@@ -0,0 +1,94 @@
+package com.hm.androidrecorder.codec;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.os.Process;
+
+import com.hm.androidrecorder.utils.MyPrintLog;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-17]
+ * @Describe: 用 AudioRecord 实现 {@link AudioSource}
+ * <p>
+ * 读取的线程第一次 read 时提到音频优先级，采集线程不用关心平台的线程优先级接口。
+ */
+
+
+public class AudioRecordSource implements AudioSource {
+
+    private final AudioRecord audioRecord;
+    private final int minBufferSize;
+    //已经提过优先级的读取线程
+    private Thread readThread;
+
+    public AudioRecordSource(AudioRecord audioRecord, int minBufferSize) {
+        this.audioRecord = audioRecord;
+        this.minBufferSize = minBufferSize;
+    }
+
+    /**
+     * 按采样率、声道数创建 AudioRecord
+     *
+     * @return 设备不支持时返回 null
+     */
+    public static AudioRecordSource create(int sampleRate, int channelCount) {
+        int channelConfig = channelCount == 2 ? AudioFormat.CHANNEL_IN_STEREO : AudioFormat.CHANNEL_IN_MONO;
+        int size = AudioRecord.getMinBufferSize(sampleRate, channelConfig, AudioFormat.ENCODING_PCM_16BIT);
+        if (size == AudioRecord.ERROR_BAD_VALUE || size == AudioRecord.ERROR) {
+            return null;
+        }
+        try {
+            //内部缓存留两次读取的量，采集线程偶尔被调度晚了也不溢出
+            AudioRecord record = new AudioRecord(MediaRecorder.AudioSource.DEFAULT, sampleRate, channelConfig, AudioFormat.ENCODING_PCM_16BIT, size * 2);
+            if (record.getState() != AudioRecord.STATE_INITIALIZED) {
+                record.release();
+                return null;
+            }
+            return new AudioRecordSource(record, size);
+        } catch (IllegalArgumentException e) {
+            MyPrintLog.LogErr("创建audioRecord失败", e);
+            return null;
+        }
+    }
+
+    @Override
+    public void startRecording() {
+        audioRecord.startRecording();
+    }
+
+    @Override
+    public int read(short[] buffer, int offset, int length) {
+        if (readThread != Thread.currentThread()) {
+            readThread = Thread.currentThread();
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+        }
+        return audioRecord.read(buffer, offset, length);
+    }
+
+    @Override
+    public void stop() {
+        audioRecord.stop();
+    }
+
+    @Override
+    public void release() {
+        audioRecord.release();
+    }
+
+    @Override
+    public int getSampleRate() {
+        return audioRecord.getSampleRate();
+    }
+
+    @Override
+    public int getChannelCount() {
+        return audioRecord.getChannelCount();
+    }
+
+    @Override
+    public int getMinBufferSize() {
+        return minBufferSize;
+    }
+}
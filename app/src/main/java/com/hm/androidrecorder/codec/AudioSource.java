@@ -0,0 +1,43 @@
+package com.hm.androidrecorder.codec;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-17]
+ * @Describe: 音频采集接口
+ * <p>
+ * AudioRecord 用到的那部分方法，数据是 16 位 PCM：设备上用 {@link AudioRecordSource}，JVM 上用 {@link FakeAudioSource}。
+ */
+
+
+public interface AudioSource {
+
+    /**
+     * 读取失败，对应 AudioRecord.ERROR_INVALID_OPERATION
+     */
+    int ERROR_INVALID_OPERATION = -3;
+
+    void startRecording();
+
+    /**
+     * 阻塞读取，和 AudioRecord.read(short[], int, int) 一致，多声道时采样交错排列
+     *
+     * @return 读到的采样数（所有声道合计），出错时返回负数
+     */
+    int read(short[] buffer, int offset, int length);
+
+    /**
+     * 让阻塞中的 read 返回，之后可以再 startRecording
+     */
+    void stop();
+
+    void release();
+
+    int getSampleRate();
+
+    int getChannelCount();
+
+    /**
+     * 每次读取的建议字节数，对应 AudioRecord.getMinBufferSize
+     */
+    int getMinBufferSize();
+}
@@ -0,0 +1,96 @@
+package com.hm.androidrecorder.codec;
+
+import com.hm.androidrecorder.mp4.TrackFormat;
+import com.hm.androidrecorder.yuv.YuvLayout;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-17]
+ * @Describe: 编码器接口
+ * <p>
+ * 录制线程用到的那部分 MediaCodec 方法，不依赖 Android 类：
+ * 设备上用 {@link MediaCodecEncoder}，JVM 上用 {@link FakeEncoder}，都由 {@link MediaFactory} 创建。
+ * 返回值和 MediaCodec 一致，出错时抛运行时异常。
+ * <p>
+ * 创建时给了 {@link Callback} 的是异步模式，输入输出都通过回调拿到，不能再调用 dequeue 方法。
+ */
+
+
+public interface Encoder {
+
+    /**
+     * 等待超时，对应 MediaCodec.INFO_TRY_AGAIN_LATER
+     */
+    int INFO_TRY_AGAIN_LATER = -1;
+    /**
+     * 输出格式确定，对应 MediaCodec.INFO_OUTPUT_FORMAT_CHANGED
+     */
+    int INFO_OUTPUT_FORMAT_CHANGED = -2;
+
+    /**
+     * 异步模式的回调，对应 MediaCodec.Callback，都在编码器自己的回调线程上调用
+     */
+    interface Callback {
+
+        void onInputBufferAvailable(int index);
+
+        /**
+         * info 只在回调里有效，处理完后调用 {@link #releaseOutputBuffer(int)}
+         */
+        void onOutputBufferAvailable(int index, SampleInfo info);
+
+        void onOutputFormatChanged(TrackFormat format);
+
+        void onError(Exception e);
+    }
+
+    void start();
+
+    /**
+     * @param timeoutUs 小于 0 时一直等
+     * @return 输入缓存序号，超时返回 {@link #INFO_TRY_AGAIN_LATER}
+     */
+    int dequeueInputBuffer(long timeoutUs);
+
+    ByteBuffer getInputBuffer(int index);
+
+    void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags);
+
+    /**
+     * @return 输出缓存序号，或 {@link #INFO_TRY_AGAIN_LATER}、{@link #INFO_OUTPUT_FORMAT_CHANGED}
+     */
+    int dequeueOutputBuffer(SampleInfo info, long timeoutUs);
+
+    ByteBuffer getOutputBuffer(int index);
+
+    void releaseOutputBuffer(int index);
+
+    /**
+     * 在 {@link #INFO_OUTPUT_FORMAT_CHANGED} 之后有效
+     */
+    TrackFormat getOutputFormat();
+
+    /**
+     * 视频编码器输入缓存的排布（颜色格式和 stride），音频编码器返回 null
+     */
+    YuvLayout getInputLayout();
+
+    /**
+     * 请求尽快输出一个关键帧，可以在任意线程调用
+     */
+    void requestKeyFrame();
+
+    /**
+     * 录制中调整码率，可以在任意线程调用
+     */
+    void setBitRate(int bitRate);
+
+    void stop();
+
+    /**
+     * 释放编码器，异步模式下同时结束回调线程
+     */
+    void release();
+}
@@ -0,0 +1,125 @@
+package com.hm.androidrecorder.codec;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-17]
+ * @Describe: 假音频源，JVM 上跑流水线用
+ * <p>
+ * 输出 16 位 PCM 三角波，内容只由采样序号决定。实时模式下按采样率限速，
+ * read 会等到墙上时间够了才返回，和 AudioRecord 阻塞读取一样；非实时模式不等待。
+ */
+
+
+public class FakeAudioSource implements AudioSource {
+
+    //三角波周期（采样数）
+    private static final int PERIOD = 64;
+    //等待时每隔这么久看一次是否已 stop
+    private static final long MAX_PARK_NS = 5 * 1000 * 1000;
+
+    private final int sampleRate;
+    private final int channelCount;
+    private boolean realtime = true;
+
+    private volatile boolean recording = false;
+    private long startNs;
+    private long samplesRead = 0;
+
+    public FakeAudioSource(int sampleRate, int channelCount) {
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+    }
+
+    /**
+     * 是否按采样率限速，startRecording 之前设置
+     */
+    public void setRealtime(boolean realtime) {
+        this.realtime = realtime;
+    }
+
+    @Override
+    public synchronized void startRecording() {
+        recording = true;
+        startNs = System.nanoTime() - samplesRead * 1000000000L / sampleRate;
+    }
+
+    @Override
+    public int read(short[] buffer, int offset, int length) {
+        if (!recording) {
+            return ERROR_INVALID_OPERATION;
+        }
+        int frames = length / channelCount;
+        if (frames <= 0) {
+            return 0;
+        }
+        long first;
+        long start;
+        synchronized (this) {
+            start = startNs;
+            first = samplesRead;
+            samplesRead += frames;
+        }
+        if (realtime) {
+            //stop 之后马上返回，和 AudioRecord 一样
+            long dueNs = start + (first + frames) * 1000000000L / sampleRate;
+            long waitNs;
+            while (recording && (waitNs = dueNs - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(Math.min(waitNs, MAX_PARK_NS));
+            }
+        }
+        int p = offset;
+        for (int i = 0; i < frames; i++) {
+            short value = sample(first + i);
+            for (int c = 0; c < channelCount; c++) {
+                buffer[p++] = value;
+            }
+        }
+        return frames * channelCount;
+    }
+
+    @Override
+    public void stop() {
+        recording = false;
+    }
+
+    @Override
+    public void release() {
+        recording = false;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    /**
+     * 40ms 的数据量，和常见设备上 AudioRecord 的最小缓存相当
+     */
+    @Override
+    public int getMinBufferSize() {
+        return sampleRate / 25 * channelCount * 2;
+    }
+
+    /**
+     * 已读出的采样数（每声道）
+     */
+    public synchronized long getSamplesRead() {
+        return samplesRead;
+    }
+
+    /**
+     * 第 index 个采样的值
+     */
+    public static short sample(long index) {
+        int phase = (int) (index % PERIOD);
+        int value = phase < PERIOD / 2 ? phase : PERIOD - phase;
+        return (short) ((value - PERIOD / 4) * 1000);
+    }
+}
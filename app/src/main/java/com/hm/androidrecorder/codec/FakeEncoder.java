@@ -0,0 +1,471 @@
+package com.hm.androidrecorder.codec;
+
+import com.hm.androidrecorder.mp4.TrackFormat;
+import com.hm.androidrecorder.yuv.YuvLayout;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-17]
+ * @Describe: 假编码器，JVM 上跑流水线用
+ * <p>
+ * 行为模仿硬件编码器：送入的输入要经过 latencyUs 才有输出，连续两帧输出至少间隔 frameCostUs；
+ * 输入缓存在对应输出被取走时才还回来，输出缓存 release 之前不能复用，所以不取输出时输入也会卡住。
+ * 第一个输出之前返回一次 {@link #INFO_OUTPUT_FORMAT_CHANGED}。
+ * <p>
+ * 设置了 {@link Callback} 时是异步模式：自己的回调线程在输入缓存空闲、输出就绪时回调，和 MediaCodec 的异步模式一样。
+ * <p>
+ * 输出内容只由帧序号决定：视频是带起始码的一个 NAL（关键帧 IDR，其余 P 帧），音频是等长的数据块，
+ * 同样的调用顺序得到同样的数据，方便比较结果。
+ */
+
+
+public class FakeEncoder implements Encoder {
+
+    public static final int DEFAULT_BUFFER_COUNT = 4;
+
+    private static final byte[] SPS = {0x67, 0x42, (byte) 0x80, 0x1F, (byte) 0xDA, 0x01, 0x40, 0x16, (byte) 0xE8};
+    private static final byte[] PPS = {0x68, (byte) 0xCE, 0x06, (byte) 0xE2};
+    private static final int[] AAC_SAMPLE_RATES = {96000, 88200, 64000, 48000, 44100, 32000, 24000, 22050, 16000, 12000, 11025, 8000, 7350};
+
+    private final TrackFormat format;
+    private final int inputBufferSize;
+    private final YuvLayout inputLayout;
+
+    private int inputBufferCount = DEFAULT_BUFFER_COUNT;
+    private int outputBufferCount = DEFAULT_BUFFER_COUNT;
+    private long latencyUs = 0;
+    private long frameCostUs = 0;
+    private int keyFrameBytes;
+    private int frameBytes;
+    private int keyFrameInterval = 30;
+    private int bitRate = 0;
+    //异步模式的回调和回调线程，同步模式为空
+    private Callback callback;
+    private Thread callbackThread;
+
+    private ByteBuffer[] inputBuffers;
+    private ByteBuffer[] outputBuffers;
+    private final ArrayDeque<Integer> freeInputs = new ArrayDeque<>();
+    private final ArrayDeque<Integer> freeOutputs = new ArrayDeque<>();
+    //编码中的输入，按送入顺序
+    private int[] pendingIndex;
+    private long[] pendingPtsUs;
+    private int[] pendingFlags;
+    private long[] pendingReadyNs;
+    private int pendingHead = 0;
+    private int pendingCount = 0;
+    private long lastReadyNs = 0;
+
+    private boolean started = false;
+    private boolean formatReported = false;
+    private boolean keyFrameRequested = false;
+    private long outputCount = 0;
+    private long inputCount = 0;
+
+    /**
+     * @param format          输出格式，可以用 {@link #videoFormat} / {@link #audioFormat} 创建
+     * @param inputBufferSize 每个输入缓存的大小
+     */
+    public FakeEncoder(TrackFormat format, int inputBufferSize) {
+        this(format, inputBufferSize, null);
+    }
+
+    /**
+     * 视频编码器，输入缓存正好放一帧 inputLayout
+     */
+    public FakeEncoder(TrackFormat format, YuvLayout inputLayout) {
+        this(format, inputLayout.frameSize(), inputLayout);
+    }
+
+    private FakeEncoder(TrackFormat format, int inputBufferSize, YuvLayout inputLayout) {
+        this.format = format;
+        this.inputBufferSize = inputBufferSize;
+        this.inputLayout = inputLayout;
+        if (format.isVideo()) {
+            keyFrameBytes = 16 * 1024;
+            frameBytes = 4 * 1024;
+        } else {
+            keyFrameBytes = 256;
+            frameBytes = 256;
+        }
+    }
+
+    /**
+     * 使用固定 SPS/PPS 的 H.264 格式
+     */
+    public static TrackFormat videoFormat(int width, int height) {
+        return TrackFormat.avc(width, height, SPS, PPS);
+    }
+
+    /**
+     * AAC LC 格式
+     */
+    public static TrackFormat audioFormat(int sampleRate, int channelCount) {
+        int index = 0;
+        while (index < AAC_SAMPLE_RATES.length - 1 && AAC_SAMPLE_RATES[index] != sampleRate) {
+            index++;
+        }
+        byte[] asc = {(byte) ((2 << 3) | (index >> 1)), (byte) (((index & 1) << 7) | (channelCount << 3))};
+        return TrackFormat.aac(sampleRate, channelCount, asc);
+    }
+
+    /**
+     * 输入/输出缓存个数，start 之前设置
+     */
+    public void setBufferCount(int inputCount, int outputCount) {
+        if (inputCount <= 0 || outputCount <= 0) {
+            throw new IllegalArgumentException("inputCount:" + inputCount + ",outputCount:" + outputCount);
+        }
+        this.inputBufferCount = inputCount;
+        this.outputBufferCount = outputCount;
+    }
+
+    /**
+     * @param latencyUs   每帧从送入到有输出的时间
+     * @param frameCostUs 相邻两帧输出的最小间隔，决定最大吞吐
+     */
+    public void setLatencyUs(long latencyUs, long frameCostUs) {
+        this.latencyUs = latencyUs;
+        this.frameCostUs = frameCostUs;
+    }
+
+    /**
+     * 每个输出的大小，start 之前设置
+     */
+    public void setOutputSizes(int keyFrameBytes, int frameBytes) {
+        if (keyFrameBytes < 8 || frameBytes < 8) {
+            throw new IllegalArgumentException("keyFrameBytes:" + keyFrameBytes + ",frameBytes:" + frameBytes);
+        }
+        this.keyFrameBytes = keyFrameBytes;
+        this.frameBytes = frameBytes;
+    }
+
+    /**
+     * 每隔多少帧一个关键帧（只对视频有效）
+     */
+    public void setKeyFrameInterval(int frames) {
+        this.keyFrameInterval = Math.max(1, frames);
+    }
+
+    /**
+     * 切换到异步模式，start 之前设置
+     */
+    public synchronized void setCallback(Callback callback) {
+        if (started) {
+            throw new IllegalStateException("setCallback after start");
+        }
+        this.callback = callback;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (started) {
+            throw new IllegalStateException("already started");
+        }
+        inputBuffers = new ByteBuffer[inputBufferCount];
+        for (int i = 0; i < inputBufferCount; i++) {
+            inputBuffers[i] = ByteBuffer.allocateDirect(inputBufferSize);
+            freeInputs.add(i);
+        }
+        outputBuffers = new ByteBuffer[outputBufferCount];
+        for (int i = 0; i < outputBufferCount; i++) {
+            outputBuffers[i] = ByteBuffer.allocateDirect(Math.max(keyFrameBytes, frameBytes));
+            freeOutputs.add(i);
+        }
+        pendingIndex = new int[inputBufferCount];
+        pendingPtsUs = new long[inputBufferCount];
+        pendingFlags = new int[inputBufferCount];
+        pendingReadyNs = new long[inputBufferCount];
+        started = true;
+        if (callback != null) {
+            callbackThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    dispatchCallbacks();
+                }
+            }, "FakeEncoderCallback");
+            callbackThread.setDaemon(true);
+            callbackThread.start();
+        }
+    }
+
+    @Override
+    public synchronized int dequeueInputBuffer(long timeoutUs) {
+        checkSyncMode();
+        long deadline = deadlineNs(timeoutUs);
+        while (started && freeInputs.isEmpty()) {
+            if (!await(deadline)) {
+                return INFO_TRY_AGAIN_LATER;
+            }
+        }
+        checkStarted();
+        return freeInputs.poll();
+    }
+
+    @Override
+    public synchronized ByteBuffer getInputBuffer(int index) {
+        checkStarted();
+        ByteBuffer buffer = inputBuffers[index];
+        buffer.clear();
+        return buffer;
+    }
+
+    @Override
+    public synchronized void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+        checkStarted();
+        if (pendingCount == pendingIndex.length || size < 0 || offset + size > inputBufferSize) {
+            throw new IllegalStateException("queueInputBuffer index:" + index + ",size:" + size);
+        }
+        long now = System.nanoTime();
+        long ready = Math.max(now + latencyUs * 1000, lastReadyNs + frameCostUs * 1000);
+        lastReadyNs = ready;
+        int slot = (pendingHead + pendingCount) % pendingIndex.length;
+        pendingIndex[slot] = index;
+        pendingPtsUs[slot] = presentationTimeUs;
+        pendingFlags[slot] = flags;
+        pendingReadyNs[slot] = ready;
+        pendingCount++;
+        inputCount++;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized int dequeueOutputBuffer(SampleInfo info, long timeoutUs) {
+        checkSyncMode();
+        long deadline = deadlineNs(timeoutUs);
+        while (true) {
+            checkStarted();
+            if (Thread.currentThread().isInterrupted()) {
+                return INFO_TRY_AGAIN_LATER;
+            }
+            if (pendingCount > 0 && !freeOutputs.isEmpty()) {
+                long ready = pendingReadyNs[pendingHead];
+                if (ready - System.nanoTime() <= 0) {
+                    if (!formatReported) {
+                        formatReported = true;
+                        return INFO_OUTPUT_FORMAT_CHANGED;
+                    }
+                    return produceOutput(info);
+                }
+                if (deadline != Long.MAX_VALUE && ready - deadline > 0) {
+                    //超时前不会有输出
+                    await(deadline);
+                    return INFO_TRY_AGAIN_LATER;
+                }
+                if (!await(ready)) {
+                    continue;
+                }
+            } else if (!await(deadline)) {
+                return INFO_TRY_AGAIN_LATER;
+            }
+        }
+    }
+
+    @Override
+    public synchronized ByteBuffer getOutputBuffer(int index) {
+        checkStarted();
+        return outputBuffers[index];
+    }
+
+    @Override
+    public synchronized void releaseOutputBuffer(int index) {
+        if (!started) {
+            return;
+        }
+        freeOutputs.add(index);
+        notifyAll();
+    }
+
+    @Override
+    public TrackFormat getOutputFormat() {
+        return format;
+    }
+
+    @Override
+    public YuvLayout getInputLayout() {
+        return inputLayout;
+    }
+
+    @Override
+    public synchronized void requestKeyFrame() {
+        keyFrameRequested = true;
+    }
+
+    /**
+     * 只记录，不影响输出大小
+     */
+    @Override
+    public synchronized void setBitRate(int bitRate) {
+        this.bitRate = bitRate;
+    }
+
+    /**
+     * 最后一次 {@link #setBitRate} 设置的码率，没有设置过时是 0
+     */
+    public synchronized int getBitRate() {
+        return bitRate;
+    }
+
+    @Override
+    public synchronized void stop() {
+        started = false;
+        freeInputs.clear();
+        freeOutputs.clear();
+        pendingCount = 0;
+        notifyAll();
+    }
+
+    @Override
+    public void release() {
+        stop();
+    }
+
+    /**
+     * 已送入的输入数
+     */
+    public synchronized long getInputCount() {
+        return inputCount;
+    }
+
+    /**
+     * 已取走的输出数，不含格式变化
+     */
+    public synchronized long getOutputCount() {
+        return outputCount;
+    }
+
+    private int produceOutput(SampleInfo info) {
+        int output = freeOutputs.poll();
+        int head = pendingHead;
+        pendingHead = (pendingHead + 1) % pendingIndex.length;
+        pendingCount--;
+        //输出取走后输入缓存才还回去
+        freeInputs.add(pendingIndex[head]);
+        notifyAll();
+
+        ByteBuffer buffer = outputBuffers[output];
+        buffer.clear();
+        if ((pendingFlags[head] & SampleInfo.FLAG_END_OF_STREAM) != 0) {
+            info.set(0, 0, pendingPtsUs[head], SampleInfo.FLAG_END_OF_STREAM);
+            return output;
+        }
+        long frame = outputCount++;
+        boolean key = !format.isVideo() || keyFrameRequested || frame % keyFrameInterval == 0;
+        if (format.isVideo() && key) {
+            keyFrameRequested = false;
+        }
+        int size = key ? keyFrameBytes : frameBytes;
+        int start = 0;
+        if (format.isVideo()) {
+            buffer.put((byte) 0).put((byte) 0).put((byte) 0).put((byte) 1).put((byte) (key ? 0x65 : 0x41));
+            start = 5;
+        }
+        //递增的字节不会出现连续两个 0，不会被当成起始码
+        for (int i = start; i < size; i++) {
+            buffer.put((byte) (frame + i));
+        }
+        buffer.flip();
+        info.set(0, size, pendingPtsUs[head], key ? SampleInfo.FLAG_KEY_FRAME : 0);
+        return output;
+    }
+
+    /**
+     * 异步模式的回调线程：有空闲输入缓存就交出去，输出到时间就回调，stop 后退出
+     */
+    private void dispatchCallbacks() {
+        SampleInfo info = new SampleInfo();
+        while (true) {
+            int input = -1;
+            int output = -1;
+            boolean formatChanged = false;
+            synchronized (this) {
+                while (started) {
+                    if (!freeInputs.isEmpty()) {
+                        input = freeInputs.poll();
+                        break;
+                    }
+                    if (pendingCount > 0 && !freeOutputs.isEmpty()) {
+                        long ready = pendingReadyNs[pendingHead];
+                        if (ready - System.nanoTime() <= 0) {
+                            if (formatReported) {
+                                output = produceOutput(info);
+                            } else {
+                                formatReported = true;
+                                formatChanged = true;
+                            }
+                            break;
+                        }
+                        await(ready);
+                    } else {
+                        await(Long.MAX_VALUE);
+                    }
+                }
+                if (!started) {
+                    return;
+                }
+            }
+            //回调时不持有锁，回调里可以 queueInputBuffer、releaseOutputBuffer
+            try {
+                if (input >= 0) {
+                    callback.onInputBufferAvailable(input);
+                } else if (formatChanged) {
+                    callback.onOutputFormatChanged(format);
+                } else {
+                    callback.onOutputBufferAvailable(output, info);
+                }
+            } catch (RuntimeException e) {
+                callback.onError(e);
+            }
+        }
+    }
+
+    private void checkSyncMode() {
+        if (callback != null) {
+            throw new IllegalStateException("dequeue in async mode");
+        }
+    }
+
+    private void checkStarted() {
+        if (!started) {
+            throw new IllegalStateException("encoder not started");
+        }
+    }
+
+    private static long deadlineNs(long timeoutUs) {
+        return timeoutUs < 0 ? Long.MAX_VALUE : System.nanoTime() + timeoutUs * 1000;
+    }
+
+    /**
+     * 等到 deadline 或被唤醒
+     *
+     * @return false 表示已经到 deadline 或被中断
+     */
+    private boolean await(long deadline) {
+        long remaining = deadline == Long.MAX_VALUE ? 0 : deadline - System.nanoTime();
+        if (deadline != Long.MAX_VALUE && remaining <= 0) {
+            return false;
+        }
+        try {
+            wait(remaining / 1000000, (int) (remaining % 1000000));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * 睡眠指定微秒，精度比 Thread.sleep 高
+     */
+    static void sleepUs(long us) {
+        long deadline = System.nanoTime() + us * 1000;
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+}
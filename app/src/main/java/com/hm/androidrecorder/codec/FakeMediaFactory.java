@@ -0,0 +1,165 @@
+package com.hm.androidrecorder.codec;
+
+import com.hm.androidrecorder.yuv.YuvFormat;
+import com.hm.androidrecorder.yuv.YuvLayout;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author hm
+ * @version [v1, 2020-06-02]
+ * @Describe: JVM 上的 {@link MediaFactory}，创建 {@link FakeEncoder}、{@link FakeAudioSource}、{@link FakeMuxer}
+ * <p>
+ * 录制线程照常运行，只是编码器、采集和混合器换成假的，用来测整条流水线的吞吐和延迟。
+ * 创建出来的对象都记下来，跑完后可以检查。
+ */
+
+
+public class FakeMediaFactory implements MediaFactory {
+
+    private final String storageRoot;
+    private YuvFormat videoInputFormat = YuvFormat.NV12;
+    private long videoLatencyUs = 0;
+    private long videoFrameCostUs = 0;
+    private int keyFrameBytes = 16 * 1024;
+    private int frameBytes = 4 * 1024;
+    private long audioLatencyUs = 0;
+    private boolean realtimeAudio = true;
+    private long writeLatencyUs = 0;
+    private boolean asyncSupported = true;
+
+    private FakeEncoder videoEncoder;
+    private FakeEncoder audioEncoder;
+    private FakeAudioSource audioSource;
+    private final List<FakeMuxer> muxers = new ArrayList<>();
+
+    /**
+     * @param storageRoot 录像文件的根目录，FakeMuxer 不写内容，只有空文件
+     */
+    public FakeMediaFactory(String storageRoot) {
+        this.storageRoot = storageRoot;
+    }
+
+    /**
+     * 视频编码器的输入格式，决定相机 NV21 要做的转换
+     */
+    public void setVideoInputFormat(YuvFormat format) {
+        this.videoInputFormat = format;
+    }
+
+    /**
+     * @see FakeEncoder#setLatencyUs(long, long)
+     */
+    public void setVideoLatencyUs(long latencyUs, long frameCostUs) {
+        this.videoLatencyUs = latencyUs;
+        this.videoFrameCostUs = frameCostUs;
+    }
+
+    /**
+     * @see FakeEncoder#setOutputSizes(int, int)
+     */
+    public void setVideoOutputSizes(int keyFrameBytes, int frameBytes) {
+        this.keyFrameBytes = keyFrameBytes;
+        this.frameBytes = frameBytes;
+    }
+
+    /**
+     * 音频编码器每帧的延迟
+     *
+     * @see FakeEncoder#setLatencyUs(long, long)
+     */
+    public void setAudioLatencyUs(long latencyUs) {
+        this.audioLatencyUs = latencyUs;
+    }
+
+    /**
+     * @see FakeAudioSource#setRealtime(boolean)
+     */
+    public void setRealtimeAudio(boolean realtime) {
+        this.realtimeAudio = realtime;
+    }
+
+    /**
+     * @see FakeMuxer#setWriteLatencyUs(long)
+     */
+    public void setWriteLatencyUs(long latencyUs) {
+        this.writeLatencyUs = latencyUs;
+    }
+
+    public void setAsyncSupported(boolean supported) {
+        this.asyncSupported = supported;
+    }
+
+    @Override
+    public synchronized Encoder createVideoEncoder(int width, int height, int bitRate, int frameRate, int iFrameIntervalSec, Encoder.Callback callback) {
+        FakeEncoder encoder = new FakeEncoder(FakeEncoder.videoFormat(width, height), YuvLayout.packed(videoInputFormat, width, height));
+        encoder.setLatencyUs(videoLatencyUs, videoFrameCostUs);
+        encoder.setOutputSizes(keyFrameBytes, frameBytes);
+        encoder.setKeyFrameInterval(Math.max(1, frameRate * iFrameIntervalSec));
+        encoder.setBitRate(bitRate);
+        if (callback != null) {
+            encoder.setCallback(callback);
+        }
+        videoEncoder = encoder;
+        return encoder;
+    }
+
+    @Override
+    public synchronized Encoder createAudioEncoder(int sampleRate, int channelCount, int bitRate, Encoder.Callback callback) {
+        //一个输入缓存放得下两个 AAC 帧
+        FakeEncoder encoder = new FakeEncoder(FakeEncoder.audioFormat(sampleRate, channelCount), 4096 * channelCount);
+        encoder.setLatencyUs(audioLatencyUs, 0);
+        encoder.setBitRate(bitRate);
+        if (callback != null) {
+            encoder.setCallback(callback);
+        }
+        audioEncoder = encoder;
+        return encoder;
+    }
+
+    @Override
+    public synchronized AudioSource createAudioSource(int sampleRate, int channelCount) {
+        FakeAudioSource source = new FakeAudioSource(sampleRate, channelCount);
+        source.setRealtime(realtimeAudio);
+        audioSource = source;
+        return source;
+    }
+
+    @Override
+    public synchronized Muxer createMuxer(String path) {
+        FakeMuxer muxer = new FakeMuxer();
+        muxer.setWriteLatencyUs(writeLatencyUs);
+        muxers.add(muxer);
+        return muxer;
+    }
+
+    @Override
+    public boolean supportsAsyncEncoding() {
+        return asyncSupported;
+    }
+
+    @Override
+    public String getStorageRoot() {
+        return storageRoot;
+    }
+
+    public synchronized FakeEncoder getVideoEncoder() {
+        return videoEncoder;
+    }
+
+    public synchronized FakeEncoder getAudioEncoder() {
+        return audioEncoder;
+    }
+
+    public synchronized FakeAudioSource getAudioSource() {
+        return audioSource;
+    }
+
+    /**
+     * 按创建顺序，分段录制时每个文件一个
+     */
+    public synchronized List<FakeMuxer> getMuxers() {
+        return new ArrayList<>(muxers);
+    }
+}
@@ -0,0 +1,130 @@
+package com.hm.androidrecorder.codec;
+
+import com.hm.androidrecorder.mp4.TrackFormat;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-17]
+ * @Describe: 不写文件的混合器，JVM 上跑流水线用
+ * <p>
+ * 像 MediaMuxer 一样检查调用顺序和每个轨道时间戳不能回退，记录样本数、字节数和所有数据的 CRC32，
+ * 同样的输入得到同样的校验值。可以设置每次写入的耗时模拟慢存储。
+ */
+
+
+public class FakeMuxer implements Muxer {
+
+    private final List<TrackFormat> formats = new ArrayList<>();
+    private long[] lastPtsUs = new long[0];
+    private long[] sampleCounts = new long[0];
+    private final CRC32 crc = new CRC32();
+    private byte[] scratch = new byte[4096];
+    private long bytesWritten = 0;
+    private long writeLatencyUs = 0;
+    private boolean started = false;
+    private boolean stopped = false;
+
+    /**
+     * 每次写入额外耗时，模拟慢存储
+     */
+    public void setWriteLatencyUs(long latencyUs) {
+        this.writeLatencyUs = latencyUs;
+    }
+
+    @Override
+    public synchronized int addTrack(TrackFormat format) {
+        if (started) {
+            throw new IllegalStateException("addTrack after start");
+        }
+        formats.add(format);
+        int count = formats.size();
+        lastPtsUs = Arrays.copyOf(lastPtsUs, count);
+        lastPtsUs[count - 1] = Long.MIN_VALUE;
+        sampleCounts = Arrays.copyOf(sampleCounts, count);
+        return count - 1;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (started || formats.isEmpty()) {
+            throw new IllegalStateException("start: started=" + started + ", tracks=" + formats.size());
+        }
+        started = true;
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer buffer, SampleInfo info) {
+        synchronized (this) {
+            if (!started || stopped) {
+                throw new IllegalStateException("writeSampleData in wrong state");
+            }
+            if (info.presentationTimeUs < lastPtsUs[trackIndex]) {
+                throw new IllegalStateException("track " + trackIndex + " pts " + info.presentationTimeUs + " < " + lastPtsUs[trackIndex]);
+            }
+            lastPtsUs[trackIndex] = info.presentationTimeUs;
+            sampleCounts[trackIndex]++;
+            bytesWritten += info.size;
+            if (scratch.length < info.size) {
+                scratch = new byte[Math.max(info.size, scratch.length * 2)];
+            }
+            for (int i = 0; i < info.size; i++) {
+                scratch[i] = buffer.get(info.offset + i);
+            }
+            crc.update(scratch, 0, info.size);
+        }
+        if (writeLatencyUs > 0) {
+            FakeEncoder.sleepUs(writeLatencyUs);
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!started) {
+            throw new IllegalStateException("stop before start");
+        }
+        stopped = true;
+    }
+
+    /**
+     * 和 MediaMuxer 一样，已经 start 的混合器 release 时先 stop
+     */
+    @Override
+    public synchronized void release() {
+        if (started) {
+            stopped = true;
+        }
+    }
+
+    public synchronized TrackFormat getTrackFormat(int trackIndex) {
+        return formats.get(trackIndex);
+    }
+
+    public synchronized int getTrackCount() {
+        return formats.size();
+    }
+
+    public synchronized long getSampleCount(int trackIndex) {
+        return sampleCounts[trackIndex];
+    }
+
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * 所有写入数据的 CRC32
+     */
+    public synchronized long getChecksum() {
+        return crc.getValue();
+    }
+
+    public synchronized boolean isStopped() {
+        return stopped;
+    }
+}
@@ -0,0 +1,250 @@
+package com.hm.androidrecorder.codec;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import com.hm.androidrecorder.mp4.TrackFormat;
+import com.hm.androidrecorder.utils.CodecUtil;
+import com.hm.androidrecorder.yuv.YuvLayout;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-17]
+ * @Describe: 用 MediaCodec 实现 {@link Encoder}
+ * <p>
+ * 用 {@link #createVideo} / {@link #createAudio} 选编码器并 configure，之后只做调用转发和 BufferInfo、MediaFormat 的转换。
+ * 异步模式下自带一个 HandlerThread 接收回调，release 时结束。
+ */
+
+
+public class MediaCodecEncoder implements Encoder {
+
+    private final MediaCodec codec;
+    private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+    private YuvLayout inputLayout;
+    //异步模式的回调线程，同步模式为空
+    private HandlerThread callbackThread;
+
+    private MediaCodecEncoder(MediaCodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * 创建 H.264 编码器，输入颜色格式从编码器支持的格式中选一个能转换的
+     *
+     * @param callback 为空时同步模式
+     */
+    public static MediaCodecEncoder createVideo(int width, int height, int bitRate, int frameRate, int iFrameIntervalSec, Callback callback) throws IOException {
+        MediaCodecInfo codecInfo = selectCodec(TrackFormat.MIME_AVC);
+        if (codecInfo == null) {
+            throw new IOException("no encoder for " + TrackFormat.MIME_AVC);
+        }
+        MediaFormat format = MediaFormat.createVideoFormat(TrackFormat.MIME_AVC, width, height);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+        int colorFormat = CodecUtil.selectColorFormat(codecInfo, TrackFormat.MIME_AVC);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, colorFormat);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, iFrameIntervalSec);
+
+        MediaCodecEncoder encoder = new MediaCodecEncoder(MediaCodec.createByCodecName(codecInfo.getName()));
+        encoder.configure(format, callback, "VideoEncoderCallback");
+        encoder.inputLayout = CodecUtil.createInputLayout(encoder.codec.getInputFormat(), colorFormat, width, height);
+        return encoder;
+    }
+
+    /**
+     * 创建 AAC 编码器
+     *
+     * @param callback 为空时同步模式
+     */
+    public static MediaCodecEncoder createAudio(int sampleRate, int channelCount, int bitRate, Callback callback) throws IOException {
+        MediaFormat format = MediaFormat.createAudioFormat(TrackFormat.MIME_AAC, sampleRate, channelCount);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+        MediaCodecEncoder encoder = new MediaCodecEncoder(MediaCodec.createEncoderByType(TrackFormat.MIME_AAC));
+        encoder.configure(format, callback, "AudioEncoderCallback");
+        return encoder;
+    }
+
+    //获得支持 mimeType 的第一个编码器
+    private static MediaCodecInfo selectCodec(String mimeType) {
+        int numCodecs = MediaCodecList.getCodecCount();
+        for (int i = 0; i < numCodecs; i++) {
+            MediaCodecInfo codecInfo = MediaCodecList.getCodecInfoAt(i);
+            if (!codecInfo.isEncoder()) {
+                continue;
+            }
+            String[] types = codecInfo.getSupportedTypes();
+            for (int j = 0; j < types.length; j++) {
+                if (types[j].equalsIgnoreCase(mimeType)) {
+                    return codecInfo;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void configure(MediaFormat format, final Callback callback, String threadName) {
+        //异步回调必须在 configure 之前设置
+        if (callback != null) {
+            callbackThread = new HandlerThread(threadName);
+            callbackThread.start();
+            codec.setCallback(new MediaCodec.Callback() {
+                //回调都在 callbackThread 上，共用一个
+                private final SampleInfo info = new SampleInfo();
+
+                @Override
+                public void onInputBufferAvailable(MediaCodec codec, int index) {
+                    callback.onInputBufferAvailable(index);
+                }
+
+                @Override
+                public void onOutputBufferAvailable(MediaCodec codec, int index, MediaCodec.BufferInfo bufferInfo) {
+                    info.set(bufferInfo.offset, bufferInfo.size, bufferInfo.presentationTimeUs, bufferInfo.flags);
+                    callback.onOutputBufferAvailable(index, info);
+                }
+
+                @Override
+                public void onError(MediaCodec codec, MediaCodec.CodecException e) {
+                    callback.onError(e);
+                }
+
+                @Override
+                public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+                    callback.onOutputFormatChanged(toTrackFormat(format));
+                }
+            }, new Handler(callbackThread.getLooper()));
+        }
+        codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+    }
+
+    @Override
+    public void start() {
+        codec.start();
+    }
+
+    @Override
+    public int dequeueInputBuffer(long timeoutUs) {
+        return codec.dequeueInputBuffer(timeoutUs);
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+        return codec.getInputBuffer(index);
+    }
+
+    @Override
+    public void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+        codec.queueInputBuffer(index, offset, size, presentationTimeUs, flags);
+    }
+
+    @Override
+    public int dequeueOutputBuffer(SampleInfo info, long timeoutUs) {
+        int index;
+        do {
+            //按序号取输出缓存，缓存数组变化不用处理
+            index = codec.dequeueOutputBuffer(bufferInfo, timeoutUs);
+        } while (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED);
+        if (index >= 0) {
+            info.set(bufferInfo.offset, bufferInfo.size, bufferInfo.presentationTimeUs, bufferInfo.flags);
+        }
+        return index;
+    }
+
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        return codec.getOutputBuffer(index);
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index) {
+        codec.releaseOutputBuffer(index, false);
+    }
+
+    @Override
+    public TrackFormat getOutputFormat() {
+        return toTrackFormat(codec.getOutputFormat());
+    }
+
+    @Override
+    public YuvLayout getInputLayout() {
+        return inputLayout;
+    }
+
+    @Override
+    public void requestKeyFrame() {
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+        codec.setParameters(params);
+    }
+
+    @Override
+    public void setBitRate(int bitRate) {
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitRate);
+        codec.setParameters(params);
+    }
+
+    @Override
+    public void stop() {
+        codec.stop();
+    }
+
+    @Override
+    public void release() {
+        codec.release();
+        if (callbackThread != null) {
+            callbackThread.quitSafely();
+            callbackThread = null;
+        }
+    }
+
+    /**
+     * 把编码器输出的 MediaFormat 转成 {@link TrackFormat}，只支持 H.264 和 AAC
+     */
+    public static TrackFormat toTrackFormat(MediaFormat format) {
+        String mime = format.getString(MediaFormat.KEY_MIME);
+        if (TrackFormat.MIME_AVC.equals(mime)) {
+            return TrackFormat.avcFromAnnexB(format.getInteger(MediaFormat.KEY_WIDTH), format.getInteger(MediaFormat.KEY_HEIGHT),
+                    bytesOf(format, "csd-0"), bytesOf(format, "csd-1"));
+        } else if (TrackFormat.MIME_AAC.equals(mime)) {
+            return TrackFormat.aac(format.getInteger(MediaFormat.KEY_SAMPLE_RATE), format.getInteger(MediaFormat.KEY_CHANNEL_COUNT),
+                    bytesOf(format, "csd-0"));
+        }
+        throw new IllegalArgumentException("unsupported mime: " + mime);
+    }
+
+    /**
+     * {@link #toTrackFormat} 的反向，给 MediaMuxer 用：H.264 的 csd 带起始码，和编码器输出的一样
+     */
+    public static MediaFormat toMediaFormat(TrackFormat format) {
+        MediaFormat mediaFormat;
+        if (format.isVideo()) {
+            mediaFormat = MediaFormat.createVideoFormat(format.mime, format.width, format.height);
+            mediaFormat.setByteBuffer("csd-1", ByteBuffer.wrap(format.csd(1)));
+        } else {
+            mediaFormat = MediaFormat.createAudioFormat(format.mime, format.sampleRate, format.channelCount);
+        }
+        mediaFormat.setByteBuffer("csd-0", ByteBuffer.wrap(format.csd(0)));
+        return mediaFormat;
+    }
+
+    private static byte[] bytesOf(MediaFormat format, String key) {
+        ByteBuffer buffer = format.getByteBuffer(key);
+        if (buffer == null) {
+            return null;
+        }
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.rewind();
+        byte[] bytes = new byte[duplicate.remaining()];
+        duplicate.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,53 @@
+package com.hm.androidrecorder.codec;
+
+import java.io.IOException;
+
+/**
+ * @author hm
+ * @version [v1, 2020-06-02]
+ * @Describe: 录制线程用到的平台对象的创建入口
+ * <p>
+ * 编码线程和混合线程只通过 {@link Encoder}、{@link AudioSource}、{@link Muxer} 使用 MediaCodec、AudioRecord、MediaMuxer，
+ * 这些对象都从这里创建：设备上是 {@link AndroidMediaFactory}，JVM 上是 {@link FakeMediaFactory}，
+ * 同一套录制线程可以在 JVM 上跑测试和基准。
+ */
+
+
+public interface MediaFactory {
+
+    /**
+     * 创建已 configure 的 H.264 编码器
+     *
+     * @param callback 为空时同步模式，否则异步回调（要求 {@link #supportsAsyncEncoding()}）
+     * @throws IOException 没有可用的编码器
+     */
+    Encoder createVideoEncoder(int width, int height, int bitRate, int frameRate, int iFrameIntervalSec, Encoder.Callback callback) throws IOException;
+
+    /**
+     * 创建已 configure 的 AAC 编码器
+     *
+     * @param callback 为空时同步模式
+     * @throws IOException 没有可用的编码器
+     */
+    Encoder createAudioEncoder(int sampleRate, int channelCount, int bitRate, Encoder.Callback callback) throws IOException;
+
+    /**
+     * @return 不支持这个采样率或声道数时返回 null
+     */
+    AudioSource createAudioSource(int sampleRate, int channelCount);
+
+    /**
+     * 写普通 MP4 的混合器（设备上是系统 MediaMuxer），分片 MP4 由 {@link Mp4Muxer} 写，不经过这里
+     */
+    Muxer createMuxer(String path) throws IOException;
+
+    /**
+     * 编码器能否走异步回调
+     */
+    boolean supportsAsyncEncoding();
+
+    /**
+     * 录像和指标文件所在的根目录
+     */
+    String getStorageRoot();
+}
@@ -0,0 +1,54 @@
+package com.hm.androidrecorder.codec;
+
+import android.media.MediaCodec;
+import android.media.MediaMuxer;
+
+import com.hm.androidrecorder.mp4.TrackFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-13]
+ * @Describe: 系统 MediaMuxer 写普通 MP4
+ * <p>
+ * moov 在 {@link #release()} 时才写出，中途崩溃的文件无法播放。
+ */
+
+
+public class MediaMuxerWriter implements Muxer {
+
+    private final MediaMuxer mediaMuxer;
+    private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+
+    public MediaMuxerWriter(String path) throws IOException {
+        mediaMuxer = new MediaMuxer(path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+    }
+
+    @Override
+    public int addTrack(TrackFormat format) {
+        return mediaMuxer.addTrack(MediaCodecEncoder.toMediaFormat(format));
+    }
+
+    @Override
+    public void start() {
+        mediaMuxer.start();
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer buffer, SampleInfo info) {
+        bufferInfo.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+        mediaMuxer.writeSampleData(trackIndex, buffer, bufferInfo);
+    }
+
+    @Override
+    public void stop() {
+        mediaMuxer.stop();
+    }
+
+    @Override
+    public void release() {
+        mediaMuxer.release();
+    }
+}
@@ -0,0 +1,82 @@
+package com.hm.androidrecorder.codec;
+
+import com.hm.androidrecorder.mp4.FragmentedMp4Writer;
+import com.hm.androidrecorder.mp4.TrackFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-17]
+ * @Describe: 用 {@link FragmentedMp4Writer} 实现 {@link Muxer}
+ * <p>
+ * 写到任意 WritableByteChannel，release 时关闭通道。IOException 包装成 IllegalStateException，和 MediaMuxer 一致。
+ */
+
+
+public class Mp4Muxer implements Muxer {
+
+    private final WritableByteChannel channel;
+    private final FragmentedMp4Writer writer;
+    private boolean stopped = false;
+
+    public Mp4Muxer(WritableByteChannel channel) {
+        this.channel = channel;
+        this.writer = new FragmentedMp4Writer(channel);
+    }
+
+    @Override
+    public int addTrack(TrackFormat format) {
+        return writer.addTrack(format);
+    }
+
+    @Override
+    public void start() {
+        try {
+            writer.start();
+        } catch (IOException e) {
+            throw new IllegalStateException("write header failed", e);
+        }
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer buffer, SampleInfo info) {
+        try {
+            writer.writeSample(trackIndex, buffer, info.offset, info.size, info.presentationTimeUs, info.flags);
+        } catch (IOException e) {
+            throw new IllegalStateException("write sample failed", e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        try {
+            writer.finish();
+        } catch (IOException e) {
+            throw new IllegalStateException("finish failed", e);
+        }
+    }
+
+    @Override
+    public void release() {
+        try {
+            stop();
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public long getBytesWritten() {
+        return writer.getBytesWritten();
+    }
+}
@@ -0,0 +1,35 @@
+package com.hm.androidrecorder.codec;
+
+import com.hm.androidrecorder.mp4.TrackFormat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-17]
+ * @Describe: 混合器接口
+ * <p>
+ * 和 MediaMuxer 的用法一样：先添加所有轨道，start 之后写数据。不依赖 Android 类，
+ * 可以用系统的 MediaMuxer（{@link MediaMuxerWriter}），可以写分片 MP4（{@link Mp4Muxer}），
+ * 也可以只做统计（{@link FakeMuxer}）。出错时抛运行时异常。
+ */
+
+
+public interface Muxer {
+
+    /**
+     * 添加轨道，返回写数据时使用的轨道号
+     */
+    int addTrack(TrackFormat format);
+
+    void start();
+
+    /**
+     * 写入 buffer 中 [info.offset, info.offset + info.size)，buffer 的 position/limit 不变
+     */
+    void writeSampleData(int trackIndex, ByteBuffer buffer, SampleInfo info);
+
+    void stop();
+
+    void release();
+}
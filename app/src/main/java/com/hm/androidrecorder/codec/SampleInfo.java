@@ -0,0 +1,37 @@
+package com.hm.androidrecorder.codec;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-17]
+ * @Describe: 编码数据描述，对应 MediaCodec.BufferInfo
+ * <p>
+ * 标志位取值和 MediaCodec.BUFFER_FLAG_* 相同，可以直接互相赋值。
+ */
+
+
+public final class SampleInfo {
+
+    public static final int FLAG_KEY_FRAME = 1;
+    public static final int FLAG_CODEC_CONFIG = 2;
+    public static final int FLAG_END_OF_STREAM = 4;
+
+    public int offset;
+    public int size;
+    public long presentationTimeUs;
+    public int flags;
+
+    public void set(int offset, int size, long presentationTimeUs, int flags) {
+        this.offset = offset;
+        this.size = size;
+        this.presentationTimeUs = presentationTimeUs;
+        this.flags = flags;
+    }
+
+    public boolean isKeyFrame() {
+        return (flags & FLAG_KEY_FRAME) != 0;
+    }
+
+    public boolean isEndOfStream() {
+        return (flags & FLAG_END_OF_STREAM) != 0;
+    }
+}
@@ -1,8 +1,5 @@
 package com.hm.androidrecorder.constant;
 
-import android.media.AudioFormat;
-
-
 public class GlobalConfig {
 
     /**
@@ -13,11 +10,11 @@ public class GlobalConfig {
     /**
      * 声道数。CHANNEL_IN_MONO and CHANNEL_IN_STEREO. 其中CHANNEL_IN_MONO是可以保证在所有设备能够使用的。
      */
-    public static final int CHANNEL_CONFIG = AudioFormat.CHANNEL_IN_MONO;
+    public static final int CHANNEL_CONFIG = 16; // AudioFormat.CHANNEL_IN_MONO
     /**
      * 返回的音频数据的格式。 ENCODING_PCM_8BIT, ENCODING_PCM_16BIT, and ENCODING_PCM_FLOAT.
      */
-    public static final int AUDIO_FORMAT = AudioFormat.ENCODING_PCM_16BIT;
+    public static final int AUDIO_FORMAT = 2; // AudioFormat.ENCODING_PCM_16BIT
 
     public static final String PACKAGE_NAME= "/data/data/com.renhui.androidrecorder";
 
@@ -0,0 +1,150 @@
+package com.hm.androidrecorder.h264;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-29]
+ * @Describe: 直接在 NAL 数据上按位读取 RBSP
+ * <p>
+ * 读字节时跳过防竞争字节（00 00 03 里的 03），不用先拷贝出一份去掉 03 的 RBSP。
+ * 读超过结尾抛 IllegalArgumentException。对象可以反复 reset 复用。
+ */
+
+
+final class BitReader {
+
+    private ByteBuffer buffer;
+    private int position;
+    private int end;
+    //当前字节和还没读的位数
+    private int current;
+    private int bitsLeft;
+    //刚读过的连续 0 字节数，用来识别防竞争字节
+    private int zeros;
+
+    /**
+     * @param offset 第一个要读的字节（NAL 头之后）
+     * @param size   到 NAL 结尾的字节数
+     */
+    void reset(ByteBuffer buffer, int offset, int size) {
+        this.buffer = buffer;
+        this.position = offset;
+        this.end = offset + size;
+        this.bitsLeft = 0;
+        this.zeros = 0;
+    }
+
+    /**
+     * 不再持有外部缓存
+     */
+    void release() {
+        buffer = null;
+    }
+
+    private void loadByte() {
+        if (position >= end) {
+            throw new IllegalArgumentException("bitstream truncated");
+        }
+        int value = buffer.get(position++) & 0xFF;
+        if (zeros >= 2 && value == 3) {
+            if (position >= end) {
+                throw new IllegalArgumentException("bitstream truncated");
+            }
+            value = buffer.get(position++) & 0xFF;
+            zeros = 0;
+        }
+        zeros = value == 0 ? zeros + 1 : 0;
+        current = value;
+        bitsLeft = 8;
+    }
+
+    int readBit() {
+        if (bitsLeft == 0) {
+            loadByte();
+        }
+        bitsLeft--;
+        return (current >> bitsLeft) & 1;
+    }
+
+    boolean readFlag() {
+        return readBit() == 1;
+    }
+
+    /**
+     * 读 count 位无符号数，count 不超过 32
+     */
+    int readBits(int count) {
+        int value = 0;
+        while (count > 0) {
+            if (bitsLeft == 0) {
+                loadByte();
+            }
+            int take = Math.min(count, bitsLeft);
+            bitsLeft -= take;
+            value = (value << take) | ((current >> bitsLeft) & ((1 << take) - 1));
+            count -= take;
+        }
+        return value;
+    }
+
+    void skipBits(int count) {
+        while (count > 0) {
+            int take = Math.min(count, 32);
+            readBits(take);
+            count -= take;
+        }
+    }
+
+    /**
+     * ue(v)：前导 0 的个数 n，再读 n 位
+     */
+    int readUe() {
+        int leadingZeros = 0;
+        while (readBit() == 0) {
+            leadingZeros++;
+            if (leadingZeros > 31) {
+                throw new IllegalArgumentException("invalid exp-golomb code");
+            }
+        }
+        if (leadingZeros == 0) {
+            return 0;
+        }
+        long value = (1L << leadingZeros) - 1 + (readBits(leadingZeros) & 0xFFFFFFFFL);
+        if (value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("exp-golomb value too large");
+        }
+        return (int) value;
+    }
+
+    /**
+     * se(v)：1, -1, 2, -2 ... 依次对应 ue 的 1, 2, 3, 4 ...
+     */
+    int readSe() {
+        int ue = readUe();
+        return (ue & 1) != 0 ? (ue + 1) >> 1 : -(ue >> 1);
+    }
+
+    /**
+     * 对应语法里的 more_rbsp_data()：当前位置和结尾的停止位（最后一个 1）之间还有没有位，0 也算数据。
+     * 后面只剩停止位和补齐的 0，或者根本没有停止位时返回 false。
+     */
+    boolean moreRbspData() {
+        int last = end - 1;
+        while (last >= position && buffer.get(last) == 0) {
+            last--;
+        }
+        if (last < position) {
+            //停止位在当前字节剩下的位里，不在最高位就说明前面还有数据
+            int rest = bitsLeft == 0 ? 0 : current & ((1 << bitsLeft) - 1);
+            return rest != 0 && Integer.lowestOneBit(rest) != 1 << (bitsLeft - 1);
+        }
+        if (last > position || bitsLeft > 0) {
+            //停止位前面至少还有一位
+            return true;
+        }
+        //下一个字节就是最后一个非 0 字节，停止位不在它的最高位就还有数据
+        int lastByte = buffer.get(last) & 0xFF;
+        return Integer.lowestOneBit(lastByte) != 0x80;
+    }
+}
@@ -0,0 +1,173 @@
+package com.hm.androidrecorder.h264;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-29]
+ * @Describe: Annex-B 和 AVCC（4 字节长度前缀）互相转换
+ * <p>
+ * MediaCodec 输出 Annex-B，MP4 样本要长度前缀。编码器输出的起始码几乎都是 4 字节，
+ * 这时长度前缀和起始码一样长，{@link #annexBToAvccInPlace} 直接改写起始码，一个字节都不用搬；
+ * 做不到原地转换时再用 {@link #annexBToAvcc} 拷到另一个缓存。
+ * <p>
+ * 长度前缀按大端逐字节写，和 buffer 的 order 无关。对象内部复用一个 {@link NalIterator}，不是线程安全的。
+ */
+
+
+public final class NalConverter {
+
+    private static final int LENGTH_SIZE = 4;
+
+    private final NalIterator iterator = new NalIterator();
+
+    /**
+     * Annex-B 数据转成 AVCC 需要的字节数
+     */
+    public int avccSize(ByteBuffer src, int offset, int size) {
+        iterator.reset(src, offset, size);
+        if (iterator.format() != NalIterator.FORMAT_ANNEX_B) {
+            return size;
+        }
+        int total = 0;
+        while (iterator.next()) {
+            total += LENGTH_SIZE + iterator.size();
+        }
+        return total;
+    }
+
+    /**
+     * 把 Annex-B 数据转成 4 字节长度前缀，从 dst 的 position 开始写，写完 position 后移。
+     * 不是 Annex-B 的数据认为已经是长度前缀格式，原样拷贝。src 的 position/limit 不变。
+     *
+     * @return 写入的字节数
+     * @throws java.nio.BufferOverflowException dst 空间不够，大小可以先用 {@link #avccSize} 算
+     */
+    public int annexBToAvcc(ByteBuffer src, int offset, int size, ByteBuffer dst) {
+        iterator.reset(src, offset, size);
+        if (iterator.format() != NalIterator.FORMAT_ANNEX_B) {
+            copy(src, offset, size, dst);
+            return size;
+        }
+        int written = 0;
+        while (iterator.next()) {
+            putLength(dst, iterator.size());
+            copy(src, iterator.offset(), iterator.size(), dst);
+            written += LENGTH_SIZE + iterator.size();
+        }
+        return written;
+    }
+
+    /**
+     * 把长度前缀数据转成 00 00 00 01 分隔的 Annex-B，写法同 {@link #annexBToAvcc}
+     *
+     * @param lengthSize 长度前缀的字节数
+     * @throws IllegalArgumentException 长度前缀超出数据结尾
+     */
+    public int avccToAnnexB(ByteBuffer src, int offset, int size, int lengthSize, ByteBuffer dst) {
+        iterator.resetAvcc(src, offset, size, lengthSize);
+        int written = 0;
+        while (iterator.next()) {
+            dst.put((byte) 0).put((byte) 0).put((byte) 0).put((byte) 1);
+            copy(src, iterator.offset(), iterator.size(), dst);
+            written += LENGTH_SIZE + iterator.size();
+        }
+        return written;
+    }
+
+    /**
+     * 每个 NAL 都是 4 字节起始码、NAL 之间没有多余的 0 时，把起始码原地改写成长度前缀
+     *
+     * @return 不满足条件时返回 false，数据不做任何修改
+     */
+    public boolean annexBToAvccInPlace(ByteBuffer buffer, int offset, int size) {
+        iterator.reset(buffer, offset, size);
+        if (iterator.format() != NalIterator.FORMAT_ANNEX_B) {
+            return false;
+        }
+        //边找边改：当前 NAL 的结尾在 next() 时已经找到，改写它前面的起始码不影响后面的查找
+        int converted = offset;
+        while (iterator.next()) {
+            if (iterator.prefixSize() != LENGTH_SIZE || iterator.offset() - LENGTH_SIZE != converted) {
+                restoreStartCodes(buffer, offset, converted);
+                return false;
+            }
+            putLength(buffer, converted, iterator.size());
+            converted = iterator.offset() + iterator.size();
+        }
+        if (converted != offset + size || converted == offset) {
+            restoreStartCodes(buffer, offset, converted);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 转换到一半发现不满足条件，把已经改成长度前缀的部分改回起始码
+     */
+    private static void restoreStartCodes(ByteBuffer buffer, int offset, int end) {
+        int position = offset;
+        while (position < end) {
+            int length = readLength(buffer, position);
+            putLength(buffer, position, 1);
+            position += LENGTH_SIZE + length;
+        }
+    }
+
+    /**
+     * 把 4 字节长度前缀原地改写成 00 00 00 01
+     *
+     * @return 长度前缀和数据对不上时返回 false，数据不做任何修改
+     */
+    public boolean avccToAnnexBInPlace(ByteBuffer buffer, int offset, int size) {
+        int position = offset;
+        int end = offset + size;
+        while (position < end) {
+            if (position + LENGTH_SIZE > end) {
+                return false;
+            }
+            int length = readLength(buffer, position);
+            if (length < 0 || length > end - position - LENGTH_SIZE) {
+                return false;
+            }
+            position += LENGTH_SIZE + length;
+        }
+        iterator.resetAvcc(buffer, offset, size, LENGTH_SIZE);
+        while (iterator.next()) {
+            putLength(buffer, iterator.offset() - LENGTH_SIZE, 1);
+        }
+        return true;
+    }
+
+    private static int readLength(ByteBuffer buffer, int index) {
+        return buffer.get(index) << 24 | (buffer.get(index + 1) & 0xFF) << 16
+                | (buffer.get(index + 2) & 0xFF) << 8 | (buffer.get(index + 3) & 0xFF);
+    }
+
+    private static void putLength(ByteBuffer dst, int length) {
+        dst.put((byte) (length >>> 24)).put((byte) (length >>> 16)).put((byte) (length >>> 8)).put((byte) length);
+    }
+
+    private static void putLength(ByteBuffer dst, int index, int length) {
+        dst.put(index, (byte) (length >>> 24));
+        dst.put(index + 1, (byte) (length >>> 16));
+        dst.put(index + 2, (byte) (length >>> 8));
+        dst.put(index + 3, (byte) length);
+    }
+
+    /**
+     * 借用 src 的 position/limit 做一次批量拷贝，完成后恢复
+     */
+    private static void copy(ByteBuffer src, int offset, int size, ByteBuffer dst) {
+        int position = src.position();
+        int limit = src.limit();
+        try {
+            src.limit(offset + size);
+            src.position(offset);
+            dst.put(src);
+        } finally {
+            src.limit(limit);
+            src.position(position);
+        }
+    }
+}
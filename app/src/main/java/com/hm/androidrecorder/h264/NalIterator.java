@@ -0,0 +1,247 @@
+package com.hm.androidrecorder.h264;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-29]
+ * @Describe: 逐个遍历一段 H.264 数据里的 NAL，不拷贝数据
+ * <p>
+ * 支持 Annex-B（00 00 01 / 00 00 00 01 分隔）和 AVCC（1、2 或 4 字节长度前缀）两种格式，
+ * {@link #reset(ByteBuffer, int, int)} 按开头自动判断，{@link #resetAvcc} 用于已知是长度前缀的数据。
+ * 遍历结果只是 buffer 里的下标，buffer 的 position/limit 不变。
+ * <pre>
+ * iterator.reset(buffer, info.offset, info.size);
+ * while (iterator.next()) {
+ *     if (iterator.type() == NalUnits.TYPE_IDR) ...
+ * }
+ * </pre>
+ * 对象可以反复 reset 复用，遍历过程中不分配内存。不是线程安全的。
+ */
+
+
+public final class NalIterator {
+
+    public static final int FORMAT_ANNEX_B = 0;
+    public static final int FORMAT_AVCC = 1;
+
+    private final BitReader reader = new BitReader();
+
+    private ByteBuffer buffer;
+    private int begin;
+    private int end;
+    private int format;
+    private int lengthSize;
+    //Annex-B 下一个起始码（第一个 0）的位置；AVCC 下一个长度前缀的位置
+    private int cursor;
+
+    private int nalOffset;
+    private int nalSize;
+    private int prefixSize;
+
+    /**
+     * 遍历 buffer[offset, offset + size)，以起始码开头时按 Annex-B，否则按 4 字节长度前缀
+     */
+    public NalIterator reset(ByteBuffer buffer, int offset, int size) {
+        if (NalUnits.startsWithStartCode(buffer, offset, size)) {
+            this.buffer = buffer;
+            this.begin = offset;
+            this.end = offset + size;
+            this.format = FORMAT_ANNEX_B;
+            this.lengthSize = 0;
+            this.cursor = NalUnits.nextStartCode(buffer, offset, end);
+            this.nalOffset = -1;
+            this.nalSize = 0;
+            return this;
+        }
+        return resetAvcc(buffer, offset, size, 4);
+    }
+
+    /**
+     * 遍历长度前缀格式的数据
+     *
+     * @param lengthSize 长度前缀的字节数，avcC 里的 lengthSizeMinusOne + 1
+     */
+    public NalIterator resetAvcc(ByteBuffer buffer, int offset, int size, int lengthSize) {
+        if (lengthSize != 1 && lengthSize != 2 && lengthSize != 4) {
+            throw new IllegalArgumentException("lengthSize:" + lengthSize);
+        }
+        this.buffer = buffer;
+        this.begin = offset;
+        this.end = offset + size;
+        this.format = FORMAT_AVCC;
+        this.lengthSize = lengthSize;
+        this.cursor = offset;
+        this.nalOffset = -1;
+        this.nalSize = 0;
+        return this;
+    }
+
+    /**
+     * 移到下一个 NAL，Annex-B 下长度为 0 的 NAL（连续的起始码）直接跳过
+     *
+     * @return 没有更多 NAL 时返回 false
+     * @throws IllegalArgumentException 长度前缀超出数据结尾
+     */
+    public boolean next() {
+        return format == FORMAT_ANNEX_B ? nextAnnexB() : nextAvcc();
+    }
+
+    private boolean nextAnnexB() {
+        while (cursor < end) {
+            int start = cursor;
+            int nalStart = start + 3;
+            int next = NalUnits.nextStartCode(buffer, nalStart, end);
+            int nalEnd = next;
+            //去掉下一个 4 字节起始码的前导 0 和 trailing_zero_8bits
+            while (nalEnd > nalStart && buffer.get(nalEnd - 1) == 0) {
+                nalEnd--;
+            }
+            cursor = next;
+            if (nalEnd > nalStart) {
+                nalOffset = nalStart;
+                nalSize = nalEnd - nalStart;
+                //上一个 NAL 去掉的 0 里紧挨着起始码的那个算作 4 字节起始码
+                prefixSize = start > begin && buffer.get(start - 1) == 0 ? 4 : 3;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean nextAvcc() {
+        if (cursor >= end) {
+            return false;
+        }
+        if (cursor + lengthSize > end) {
+            throw new IllegalArgumentException("truncated length prefix at " + cursor);
+        }
+        int length = 0;
+        for (int i = 0; i < lengthSize; i++) {
+            length = (length << 8) | (buffer.get(cursor + i) & 0xFF);
+        }
+        int nalStart = cursor + lengthSize;
+        if (length < 0 || length > end - nalStart) {
+            throw new IllegalArgumentException("nal length " + (length & 0xFFFFFFFFL) + " exceeds data at " + cursor);
+        }
+        nalOffset = nalStart;
+        nalSize = length;
+        prefixSize = lengthSize;
+        cursor = nalStart + length;
+        if (length == 0) {
+            return nextAvcc();
+        }
+        return true;
+    }
+
+    /**
+     * 当前 NAL 头字节的位置
+     */
+    public int offset() {
+        return nalOffset;
+    }
+
+    /**
+     * 当前 NAL 的长度，含头字节，不含起始码/长度前缀
+     */
+    public int size() {
+        return nalSize;
+    }
+
+    /**
+     * 当前 NAL 前面的起始码或长度前缀字节数
+     */
+    public int prefixSize() {
+        return prefixSize;
+    }
+
+    public int format() {
+        return format;
+    }
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    public int type() {
+        return NalUnits.type(buffer.get(nalOffset));
+    }
+
+    public int refIdc() {
+        return NalUnits.refIdc(buffer.get(nalOffset));
+    }
+
+    /**
+     * 读当前 NAL slice 头里的 slice_type，只解开头两个 Exp-Golomb 数，代价和 NAL 长度无关
+     *
+     * @return {@link NalUnits#SLICE_P} 等，不是 slice 或头不完整时返回 {@link NalUnits#SLICE_NONE}
+     */
+    public int sliceType() {
+        if (nalSize < 2 || !NalUnits.isSlice(type())) {
+            return NalUnits.SLICE_NONE;
+        }
+        reader.reset(buffer, nalOffset + 1, nalSize - 1);
+        try {
+            //first_mb_in_slice
+            reader.readUe();
+            int sliceType = reader.readUe();
+            return sliceType <= 9 ? sliceType % 5 : NalUnits.SLICE_NONE;
+        } catch (IllegalArgumentException e) {
+            return NalUnits.SLICE_NONE;
+        } finally {
+            reader.release();
+        }
+    }
+
+    /**
+     * 遍历整段数据，返回出现过的 NAL 类型，第 n 位表示类型 n。用 {@link NalUnits#hasType} 判断。
+     * 长度前缀损坏时返回已经读到的部分。
+     */
+    public int typeMask(ByteBuffer buffer, int offset, int size) {
+        reset(buffer, offset, size);
+        int mask = 0;
+        try {
+            while (next()) {
+                mask |= 1 << type();
+            }
+        } catch (IllegalArgumentException ignored) {
+        }
+        return mask;
+    }
+
+    /**
+     * 同 {@link #typeMask}，但读到第一个 slice 就停。SPS/PPS/AUD/SEI 都在一帧的第一个 slice 前面，
+     * 判断关键帧和参数集够用了；Annex-B 下不扫描 slice 数据找结尾，代价和帧大小无关。
+     */
+    public int leadingTypeMask(ByteBuffer buffer, int offset, int size) {
+        reset(buffer, offset, size);
+        int mask = 0;
+        if (format == FORMAT_AVCC) {
+            try {
+                while (next()) {
+                    mask |= 1 << type();
+                    if (NalUnits.isSlice(type())) {
+                        break;
+                    }
+                }
+            } catch (IllegalArgumentException ignored) {
+            }
+            return mask;
+        }
+        int start = cursor;
+        while (start + 3 < end) {
+            int header = start + 3;
+            byte value = buffer.get(header);
+            //0 是下一个起始码的开头，这个 NAL 是空的
+            if (value != 0) {
+                int type = NalUnits.type(value);
+                mask |= 1 << type;
+                if (NalUnits.isSlice(type)) {
+                    break;
+                }
+            }
+            start = NalUnits.nextStartCode(buffer, header, end);
+        }
+        return mask;
+    }
+}
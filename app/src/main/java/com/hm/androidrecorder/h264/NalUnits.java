@@ -0,0 +1,105 @@
+package com.hm.androidrecorder.h264;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-29]
+ * @Describe: H.264 NAL 类型、slice 类型和起始码查找
+ * <p>
+ * 所有方法都按绝对下标读 ByteBuffer，不改 position/limit，不分配内存，可以直接用在编码器的输出缓存上。
+ * 逐个遍历 NAL 和读 slice 类型用 {@link NalIterator}。
+ */
+
+
+public final class NalUnits {
+
+    //nal_unit_type
+    public static final int TYPE_SLICE = 1;
+    public static final int TYPE_PARTITION_A = 2;
+    public static final int TYPE_IDR = 5;
+    public static final int TYPE_SEI = 6;
+    public static final int TYPE_SPS = 7;
+    public static final int TYPE_PPS = 8;
+    public static final int TYPE_AUD = 9;
+
+    //slice_type 对 5 取余后的值
+    public static final int SLICE_P = 0;
+    public static final int SLICE_B = 1;
+    public static final int SLICE_I = 2;
+    public static final int SLICE_SP = 3;
+    public static final int SLICE_SI = 4;
+    //不是 slice 或 slice 头读不出来
+    public static final int SLICE_NONE = -1;
+
+    private NalUnits() {
+    }
+
+    /**
+     * 从 from 开始找 00 00 01，返回第一个 0 的位置，没有时返回 end
+     */
+    public static int nextStartCode(ByteBuffer buffer, int from, int end) {
+        for (int i = from; i + 2 < end; i++) {
+            if ((buffer.get(i + 2) & 0xFF) > 1) {
+                //第三个字节大于 1，前两个位置都不可能是起始码
+                i += 2;
+            } else if (buffer.get(i) == 0 && buffer.get(i + 1) == 0 && buffer.get(i + 2) == 1) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * 数据是否以起始码开头（00 00 01 或 00 00 00 01）
+     */
+    public static boolean startsWithStartCode(ByteBuffer buffer, int offset, int size) {
+        int start = nextStartCode(buffer, offset, Math.min(offset + 4, offset + size));
+        return start == offset || (start == offset + 1 && buffer.get(offset) == 0);
+    }
+
+    /**
+     * NAL 头字节里的 nal_unit_type
+     */
+    public static int type(byte header) {
+        return header & 0x1F;
+    }
+
+    /**
+     * NAL 头字节里的 nal_ref_idc，0 表示不被参考，可以丢弃
+     */
+    public static int refIdc(byte header) {
+        return (header >> 5) & 0x03;
+    }
+
+    /**
+     * 是否是图像 slice（非 IDR、IDR 或数据分割 A，它们的头里有 slice_type）
+     */
+    public static boolean isSlice(int type) {
+        return type == TYPE_SLICE || type == TYPE_IDR || type == TYPE_PARTITION_A;
+    }
+
+    /**
+     * {@link NalIterator#typeMask} 的结果里是否有 type
+     */
+    public static boolean hasType(int mask, int type) {
+        return (mask & (1 << type)) != 0;
+    }
+
+    public static String sliceName(int sliceType) {
+        switch (sliceType) {
+            case SLICE_P:
+                return "P";
+            case SLICE_B:
+                return "B";
+            case SLICE_I:
+                return "I";
+            case SLICE_SP:
+                return "SP";
+            case SLICE_SI:
+                return "SI";
+            default:
+                return "-";
+        }
+    }
+}
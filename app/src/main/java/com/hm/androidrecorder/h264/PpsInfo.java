@@ -0,0 +1,115 @@
+package com.hm.androidrecorder.h264;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-29]
+ * @Describe: 解析 PPS（图像参数集）
+ * <p>
+ * 读到 transform_8x8_mode_flag 为止，后面的缩放矩阵和 second_chroma_qp_index_offset 不解析。
+ * 对象可以反复 {@link #parse} 复用。
+ */
+
+
+public final class PpsInfo {
+
+    public int ppsId;
+    public int spsId;
+    //true 为 CABAC，false 为 CAVLC
+    public boolean entropyCodingCabac;
+    public boolean bottomFieldPicOrderInFramePresent;
+    public int numSliceGroups;
+    public int numRefIdxL0DefaultActive;
+    public int numRefIdxL1DefaultActive;
+    public boolean weightedPred;
+    public int weightedBipredIdc;
+    public int picInitQp;
+    public int chromaQpIndexOffset;
+    public boolean deblockingFilterControlPresent;
+    public boolean constrainedIntraPred;
+    public boolean redundantPicCntPresent;
+    //High profile 才有，没有时为 false
+    public boolean transform8x8Mode;
+
+    private final BitReader reader = new BitReader();
+
+    /**
+     * @param offset NAL 头字节（类型 8）的位置
+     * @param size   NAL 长度，含头字节
+     * @return this
+     * @throws IllegalArgumentException 不是 PPS、数据不完整或取值超出范围
+     */
+    public PpsInfo parse(ByteBuffer buffer, int offset, int size) {
+        if (size < 2 || NalUnits.type(buffer.get(offset)) != NalUnits.TYPE_PPS) {
+            throw new IllegalArgumentException("not a pps");
+        }
+        reader.reset(buffer, offset + 1, size - 1);
+        try {
+            parse(reader);
+        } finally {
+            reader.release();
+        }
+        return this;
+    }
+
+    public PpsInfo parse(byte[] nal) {
+        return parse(ByteBuffer.wrap(nal), 0, nal.length);
+    }
+
+    private void parse(BitReader reader) {
+        ppsId = SpsInfo.checkRange("pic_parameter_set_id", reader.readUe(), 255);
+        spsId = SpsInfo.checkRange("seq_parameter_set_id", reader.readUe(), 31);
+        entropyCodingCabac = reader.readFlag();
+        bottomFieldPicOrderInFramePresent = reader.readFlag();
+        numSliceGroups = 1 + SpsInfo.checkRange("num_slice_groups_minus1", reader.readUe(), 7);
+        if (numSliceGroups > 1) {
+            skipSliceGroupMap(reader);
+        }
+        numRefIdxL0DefaultActive = 1 + SpsInfo.checkRange("num_ref_idx_l0_default_active_minus1", reader.readUe(), 31);
+        numRefIdxL1DefaultActive = 1 + SpsInfo.checkRange("num_ref_idx_l1_default_active_minus1", reader.readUe(), 31);
+        weightedPred = reader.readFlag();
+        weightedBipredIdc = reader.readBits(2);
+        picInitQp = 26 + reader.readSe();
+        //pic_init_qs_minus26
+        reader.readSe();
+        chromaQpIndexOffset = reader.readSe();
+        deblockingFilterControlPresent = reader.readFlag();
+        constrainedIntraPred = reader.readFlag();
+        redundantPicCntPresent = reader.readFlag();
+        transform8x8Mode = reader.moreRbspData() && reader.readFlag();
+    }
+
+    /**
+     * slice group（FMO）只在 Baseline/Extended 里出现，编码器基本不用，按语法跳过
+     */
+    private void skipSliceGroupMap(BitReader reader) {
+        int mapType = SpsInfo.checkRange("slice_group_map_type", reader.readUe(), 6);
+        if (mapType == 0) {
+            for (int i = 0; i < numSliceGroups; i++) {
+                //run_length_minus1
+                reader.readUe();
+            }
+        } else if (mapType == 2) {
+            for (int i = 0; i < numSliceGroups - 1; i++) {
+                //top_left, bottom_right
+                reader.readUe();
+                reader.readUe();
+            }
+        } else if (mapType >= 3 && mapType <= 5) {
+            //slice_group_change_direction_flag, slice_group_change_rate_minus1
+            reader.readBit();
+            reader.readUe();
+        } else if (mapType == 6) {
+            int units = 1 + reader.readUe();
+            int bits = 32 - Integer.numberOfLeadingZeros(numSliceGroups - 1);
+            reader.skipBits(units * bits);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "pps " + ppsId + " sps " + spsId + (entropyCodingCabac ? " CABAC" : " CAVLC")
+                + " qp " + picInitQp + (transform8x8Mode ? " 8x8" : "");
+    }
+}
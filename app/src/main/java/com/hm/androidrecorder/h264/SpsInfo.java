@@ -0,0 +1,234 @@
+package com.hm.androidrecorder.h264;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-29]
+ * @Describe: 解析 SPS（序列参数集）
+ * <p>
+ * 读到 frame_cropping 为止，VUI 不解析。宽高是裁剪后的显示尺寸，编码器按 16 对齐编码时
+ * （比如 1080 编成 1088）靠裁剪得到真正的尺寸。对象可以反复 {@link #parse} 复用。
+ */
+
+
+public final class SpsInfo {
+
+    public int profileIdc;
+    //constraint_set0..5_flag 所在的整个字节
+    public int constraintFlags;
+    public int levelIdc;
+    public int spsId;
+    //0 单色，1 为 4:2:0，2 为 4:2:2，3 为 4:4:4
+    public int chromaFormatIdc;
+    public boolean separateColourPlane;
+    public int bitDepthLuma;
+    public int bitDepthChroma;
+    public int log2MaxFrameNum;
+    public int picOrderCntType;
+    public int log2MaxPicOrderCntLsb;
+    public int maxNumRefFrames;
+    public boolean frameMbsOnly;
+    //编码尺寸，宏块的整数倍
+    public int codedWidth;
+    public int codedHeight;
+    //裁剪量，已换算成像素
+    public int cropLeft;
+    public int cropRight;
+    public int cropTop;
+    public int cropBottom;
+    //显示尺寸
+    public int width;
+    public int height;
+    public boolean vuiPresent;
+
+    private final BitReader reader = new BitReader();
+
+    /**
+     * @param offset NAL 头字节（类型 7）的位置
+     * @param size   NAL 长度，含头字节
+     * @return this
+     * @throws IllegalArgumentException 不是 SPS、数据不完整或取值超出范围
+     */
+    public SpsInfo parse(ByteBuffer buffer, int offset, int size) {
+        if (size < 4 || NalUnits.type(buffer.get(offset)) != NalUnits.TYPE_SPS) {
+            throw new IllegalArgumentException("not a sps");
+        }
+        reader.reset(buffer, offset + 1, size - 1);
+        try {
+            parse(reader);
+        } finally {
+            reader.release();
+        }
+        return this;
+    }
+
+    public SpsInfo parse(byte[] nal) {
+        return parse(ByteBuffer.wrap(nal), 0, nal.length);
+    }
+
+    private void parse(BitReader reader) {
+        profileIdc = reader.readBits(8);
+        constraintFlags = reader.readBits(8);
+        levelIdc = reader.readBits(8);
+        spsId = checkRange("seq_parameter_set_id", reader.readUe(), 31);
+
+        chromaFormatIdc = 1;
+        separateColourPlane = false;
+        bitDepthLuma = 8;
+        bitDepthChroma = 8;
+        if (hasChromaInfo(profileIdc)) {
+            chromaFormatIdc = checkRange("chroma_format_idc", reader.readUe(), 3);
+            if (chromaFormatIdc == 3) {
+                separateColourPlane = reader.readFlag();
+            }
+            bitDepthLuma = 8 + checkRange("bit_depth_luma_minus8", reader.readUe(), 6);
+            bitDepthChroma = 8 + checkRange("bit_depth_chroma_minus8", reader.readUe(), 6);
+            //qpprime_y_zero_transform_bypass_flag
+            reader.readBit();
+            if (reader.readFlag()) {
+                int lists = chromaFormatIdc == 3 ? 12 : 8;
+                for (int i = 0; i < lists; i++) {
+                    if (reader.readFlag()) {
+                        skipScalingList(reader, i < 6 ? 16 : 64);
+                    }
+                }
+            }
+        }
+
+        log2MaxFrameNum = 4 + checkRange("log2_max_frame_num_minus4", reader.readUe(), 12);
+        picOrderCntType = checkRange("pic_order_cnt_type", reader.readUe(), 2);
+        log2MaxPicOrderCntLsb = 0;
+        if (picOrderCntType == 0) {
+            log2MaxPicOrderCntLsb = 4 + checkRange("log2_max_pic_order_cnt_lsb_minus4", reader.readUe(), 12);
+        } else if (picOrderCntType == 1) {
+            //delta_pic_order_always_zero_flag, offset_for_non_ref_pic, offset_for_top_to_bottom_field
+            reader.readBit();
+            reader.readSe();
+            reader.readSe();
+            int cycle = checkRange("num_ref_frames_in_pic_order_cnt_cycle", reader.readUe(), 255);
+            for (int i = 0; i < cycle; i++) {
+                reader.readSe();
+            }
+        }
+        maxNumRefFrames = reader.readUe();
+        //gaps_in_frame_num_value_allowed_flag
+        reader.readBit();
+        int widthInMbs = 1 + checkRange("pic_width_in_mbs_minus1", reader.readUe(), 1023);
+        int heightInMapUnits = 1 + checkRange("pic_height_in_map_units_minus1", reader.readUe(), 1023);
+        frameMbsOnly = reader.readFlag();
+        if (!frameMbsOnly) {
+            //mb_adaptive_frame_field_flag
+            reader.readBit();
+        }
+        //direct_8x8_inference_flag
+        reader.readBit();
+        codedWidth = widthInMbs * 16;
+        codedHeight = (frameMbsOnly ? 1 : 2) * heightInMapUnits * 16;
+
+        cropLeft = 0;
+        cropRight = 0;
+        cropTop = 0;
+        cropBottom = 0;
+        if (reader.readFlag()) {
+            int cropUnitX;
+            int cropUnitY;
+            int chromaArrayType = separateColourPlane ? 0 : chromaFormatIdc;
+            if (chromaArrayType == 0) {
+                cropUnitX = 1;
+                cropUnitY = frameMbsOnly ? 1 : 2;
+            } else {
+                cropUnitX = chromaArrayType == 3 ? 1 : 2;
+                cropUnitY = (chromaArrayType == 1 ? 2 : 1) * (frameMbsOnly ? 1 : 2);
+            }
+            cropLeft = reader.readUe() * cropUnitX;
+            cropRight = reader.readUe() * cropUnitX;
+            cropTop = reader.readUe() * cropUnitY;
+            cropBottom = reader.readUe() * cropUnitY;
+        }
+        width = codedWidth - cropLeft - cropRight;
+        height = codedHeight - cropTop - cropBottom;
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("cropping exceeds picture: " + codedWidth + "x" + codedHeight);
+        }
+        vuiPresent = reader.readFlag();
+    }
+
+    /**
+     * High 及以上的 profile 在 SPS 里带色度格式、位深和缩放矩阵
+     */
+    private static boolean hasChromaInfo(int profileIdc) {
+        switch (profileIdc) {
+            case 100:
+            case 110:
+            case 122:
+            case 244:
+            case 44:
+            case 83:
+            case 86:
+            case 118:
+            case 128:
+            case 138:
+            case 139:
+            case 134:
+            case 135:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * scaling_list()：只需要跳过，按语法把 delta_scale 读完
+     */
+    private static void skipScalingList(BitReader reader, int count) {
+        int lastScale = 8;
+        int nextScale = 8;
+        for (int i = 0; i < count && nextScale != 0; i++) {
+            nextScale = (lastScale + reader.readSe() + 256) % 256;
+            if (nextScale != 0) {
+                lastScale = nextScale;
+            }
+        }
+    }
+
+    static int checkRange(String name, int value, int max) {
+        if (value < 0 || value > max) {
+            throw new IllegalArgumentException(name + ":" + value);
+        }
+        return value;
+    }
+
+    /**
+     * profile 名称，toString 里和 level 一起写成 "High@4.1"
+     */
+    public String profileName() {
+        switch (profileIdc) {
+            case 66:
+                //constraint_set1_flag 表示 Constrained Baseline
+                return (constraintFlags & 0x40) != 0 ? "ConstrainedBaseline" : "Baseline";
+            case 77:
+                return "Main";
+            case 88:
+                return "Extended";
+            case 100:
+                return "High";
+            case 110:
+                return "High10";
+            case 122:
+                return "High422";
+            case 244:
+                return "High444";
+            default:
+                return "profile" + profileIdc;
+        }
+    }
+
+    @Override
+    public String toString() {
+        String level = levelIdc == 9 ? "1b" : (levelIdc / 10) + "." + (levelIdc % 10);
+        return profileName() + "@" + level + " " + width + "x" + height
+                + (width != codedWidth || height != codedHeight ? " (coded " + codedWidth + "x" + codedHeight + ")" : "")
+                + " refs " + maxNumRefFrames + (frameMbsOnly ? "" : " interlaced");
+    }
+}
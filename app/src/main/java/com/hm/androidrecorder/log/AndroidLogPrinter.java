@@ -0,0 +1,18 @@
+package com.hm.androidrecorder.log;
+
+import android.util.Log;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-18]
+ * @Describe: 输出到 logcat
+ */
+
+
+public class AndroidLogPrinter implements LogPrinter {
+
+    @Override
+    public void println(int level, String tag, String message) {
+        Log.println(level, tag, message);
+    }
+}
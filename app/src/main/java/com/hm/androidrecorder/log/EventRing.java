@@ -0,0 +1,122 @@
+package com.hm.androidrecorder.log;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-18]
+ * @Describe: 最近日志事件的二进制环形缓存
+ * <p>
+ * 每条事件只存时间、调用点序号和两个 long 参数，写入不格式化、不分配内存，
+ * 级别低于当前打印级别的事件也会记下来。出错后用 {@link #dump} 把最近的事件按顺序打印出来。
+ * <p>
+ * 多个线程可以同时写入。每个槽按顺序锁的方式读写：写入前把序号标成 -1，写完字段再写回序号；
+ * dump 拷出字段后再读一次序号，变了说明拷的过程中槽被覆盖，这一条跳过。
+ * 字段都用 lazySet 写（只要求写入顺序，不需要完整的内存屏障），读取是 volatile 读，保证重读序号在拷贝字段之后。
+ */
+
+
+public final class EventRing {
+
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final AtomicLongArray times;
+    private final AtomicIntegerArray siteIds;
+    private final AtomicLongArray firstArgs;
+    private final AtomicLongArray secondArgs;
+    private final AtomicLong next = new AtomicLong();
+
+    /**
+     * @param capacity 容量，向上取整到 2 的幂
+     */
+    public EventRing(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity:" + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mask = size - 1;
+        sequences = new AtomicLongArray(size);
+        times = new AtomicLongArray(size);
+        siteIds = new AtomicIntegerArray(size);
+        firstArgs = new AtomicLongArray(size);
+        secondArgs = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, -1);
+        }
+    }
+
+    public void record(LogSite site, long a, long b) {
+        long sequence = next.getAndIncrement();
+        int i = (int) sequence & mask;
+        //先标记为写入中，dump 时跳过
+        sequences.lazySet(i, -1);
+        times.lazySet(i, System.nanoTime());
+        siteIds.lazySet(i, site.id);
+        firstArgs.lazySet(i, a);
+        secondArgs.lazySet(i, b);
+        sequences.lazySet(i, sequence);
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * 一共记录过的事件数
+     */
+    public long getRecordedCount() {
+        return next.get();
+    }
+
+    /**
+     * 从旧到新打印还在缓存中的事件，时间是相对最新一条的毫秒数
+     *
+     * @return 打印的条数
+     */
+    public int dump(LogPrinter printer, int level, String tag) {
+        long end = next.get();
+        long start = Math.max(0, end - capacity());
+        long newest = end > 0 ? times.get((int) (end - 1) & mask) : 0;
+        StringBuilder builder = new StringBuilder();
+        int printed = 0;
+        for (long sequence = start; sequence < end; sequence++) {
+            int i = (int) sequence & mask;
+            if (sequences.get(i) != sequence) {
+                continue;
+            }
+            long time = times.get(i);
+            int siteId = siteIds.get(i);
+            long a = firstArgs.get(i);
+            long b = secondArgs.get(i);
+            //拷贝期间被新事件覆盖了，拷到的字段可能新旧混在一起
+            if (sequences.get(i) != sequence) {
+                continue;
+            }
+            LogSite site = LogSite.byId(siteId);
+            if (site == null) {
+                continue;
+            }
+            builder.setLength(0);
+            builder.append('#').append(sequence).append(' ');
+            long agoUs = (newest - time) / 1000;
+            builder.append('-').append(agoUs / 1000).append('.');
+            long fraction = agoUs % 1000;
+            if (fraction < 100) {
+                builder.append('0');
+            }
+            if (fraction < 10) {
+                builder.append('0');
+            }
+            builder.append(fraction).append("ms ").append(site.tag).append(": ");
+            HotLog.format(builder, site.message, a, b);
+            printer.println(level, tag, builder.toString());
+            printed++;
+        }
+        return printed;
+    }
+}
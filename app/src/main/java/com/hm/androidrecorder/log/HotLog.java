@@ -0,0 +1,161 @@
+package com.hm.androidrecorder.log;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-18]
+ * @Describe: 每帧调用的日志
+ * <p>
+ * 和 MyPrintLog 不同，调用点是预先创建的 {@link LogSite}，参数是 long，
+ * 低于当前级别时只比较一次整数就返回，不拼字符串也不分配内存；打印时才格式化消息。
+ * 调用点可以限流，避免卡顿时每帧刷屏。
+ * <p>
+ * 设置了 {@link EventRing} 后，所有级别的事件都会以二进制形式记下来，出错时调用 {@link #dumpEvents()} 输出最近的事件。
+ */
+
+
+public final class HotLog {
+
+    //和 android.util.Log 的优先级相同
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+    //关闭所有输出
+    public static final int NONE = 7;
+
+    private static final String DUMP_TAG = "HotLog";
+
+    //默认不输出每帧的 DEBUG/VERBOSE 日志
+    private static volatile int level = INFO;
+    private static volatile LogPrinter printer = defaultPrinter();
+    private static volatile EventRing eventRing;
+
+    private static final ThreadLocal<StringBuilder> BUILDER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(128);
+        }
+    };
+
+    private HotLog() {
+    }
+
+    /**
+     * Android 上输出到 logcat，JVM 上输出到标准输出。用反射创建，JVM 上不会加载 Android 类。
+     */
+    private static LogPrinter defaultPrinter() {
+        String vm = System.getProperty("java.vm.name");
+        if (vm != null && vm.startsWith("Dalvik")) {
+            try {
+                return (LogPrinter) Class.forName("com.hm.androidrecorder.log.AndroidLogPrinter").newInstance();
+            } catch (Exception e) {
+                //退回标准输出
+            }
+        }
+        return new LogPrinter() {
+            @Override
+            public void println(int level, String tag, String message) {
+                System.out.println(tag + ": " + message);
+            }
+        };
+    }
+
+    /**
+     * 设置打印级别，低于该级别的日志不输出
+     */
+    public static void setLevel(int newLevel) {
+        level = newLevel;
+    }
+
+    public static int getLevel() {
+        return level;
+    }
+
+    public static boolean isLoggable(int logLevel) {
+        return logLevel >= level;
+    }
+
+    /**
+     * 设置输出目标，null 表示恢复默认输出
+     */
+    public static void setPrinter(LogPrinter newPrinter) {
+        printer = newPrinter != null ? newPrinter : defaultPrinter();
+    }
+
+    /**
+     * 设置事件缓存，null 表示不记录
+     */
+    public static void setEventRing(EventRing ring) {
+        eventRing = ring;
+    }
+
+    public static EventRing getEventRing() {
+        return eventRing;
+    }
+
+    public static void log(LogSite site) {
+        log(site, 0, 0);
+    }
+
+    public static void log(LogSite site, long a) {
+        log(site, a, 0);
+    }
+
+    public static void log(LogSite site, long a, long b) {
+        EventRing ring = eventRing;
+        if (ring != null) {
+            ring.record(site, a, b);
+        }
+        if (site.level < level) {
+            return;
+        }
+        int suppressed = site.acquire(System.nanoTime());
+        if (suppressed < 0) {
+            return;
+        }
+        StringBuilder builder = BUILDER.get();
+        builder.setLength(0);
+        format(builder, site.message, a, b);
+        if (suppressed > 0) {
+            builder.append(" (suppressed ").append(suppressed).append(')');
+        }
+        printer.println(site.level, site.tag, builder.toString());
+    }
+
+    /**
+     * 直接输出一条拼好的消息，不看级别也不限流，给 MyPrintLog 这类不在每帧调用的日志用
+     */
+    public static void println(int logLevel, String tag, String message) {
+        printer.println(logLevel, tag, message);
+    }
+
+    /**
+     * 出错后输出事件缓存里最近的事件，没有设置缓存时什么都不做
+     *
+     * @return 输出的条数
+     */
+    public static int dumpEvents() {
+        EventRing ring = eventRing;
+        if (ring == null) {
+            return 0;
+        }
+        return ring.dump(printer, ERROR, DUMP_TAG);
+    }
+
+    /**
+     * 依次把模板中的 {} 替换成 a、b，多出来的 {} 原样保留
+     */
+    static void format(StringBuilder builder, String message, long a, long b) {
+        int argIndex = 0;
+        int start = 0;
+        int p;
+        while (argIndex < 2 && (p = message.indexOf("{}", start)) >= 0) {
+            builder.append(message, start, p);
+            builder.append(argIndex == 0 ? a : b);
+            argIndex++;
+            start = p + 2;
+        }
+        builder.append(message, start, message.length());
+    }
+}
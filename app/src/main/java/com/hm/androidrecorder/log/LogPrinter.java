@@ -0,0 +1,16 @@
+package com.hm.androidrecorder.log;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-18]
+ * @Describe: 日志输出目标，设备上是 logcat（{@link AndroidLogPrinter}），JVM 上默认是标准输出
+ */
+
+
+public interface LogPrinter {
+
+    /**
+     * @param level 和 android.util.Log 的优先级相同
+     */
+    void println(int level, String tag, String message);
+}
@@ -0,0 +1,87 @@
+package com.hm.androidrecorder.log;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-18]
+ * @Describe: 一个日志调用点
+ * <p>
+ * 在调用处声明为 static final，级别、标签和消息模板只在类加载时创建一次，打印时不再拼接类名。
+ * 模板里的 {} 依次替换成参数。设置了最小间隔时，间隔内的调用只计数不打印，下次打印时带上被压掉的次数。
+ * <p>
+ * 限流状态不加锁，同一调用点被多个线程同时使用时计数可能有少量偏差。
+ */
+
+
+public final class LogSite {
+
+    private static LogSite[] sites = new LogSite[64];
+    private static int siteCount = 0;
+
+    final int id;
+    final int level;
+    final String tag;
+    final String message;
+    private final long minIntervalNs;
+
+    private long lastPrintNs;
+    private boolean printed = false;
+    private int suppressed = 0;
+
+    public LogSite(int level, String tag, String message) {
+        this(level, tag, message, 0);
+    }
+
+    /**
+     * @param minIntervalMs 两次打印的最小间隔，0 表示不限流
+     */
+    public LogSite(int level, String tag, String message, long minIntervalMs) {
+        this.level = level;
+        this.tag = tag;
+        this.message = message;
+        this.minIntervalNs = minIntervalMs * 1000000;
+        this.id = register(this);
+    }
+
+    private static synchronized int register(LogSite site) {
+        if (siteCount == sites.length) {
+            LogSite[] grown = new LogSite[sites.length * 2];
+            System.arraycopy(sites, 0, grown, 0, siteCount);
+            sites = grown;
+        }
+        sites[siteCount] = site;
+        return siteCount++;
+    }
+
+    static synchronized LogSite byId(int id) {
+        return id >= 0 && id < siteCount ? sites[id] : null;
+    }
+
+    /**
+     * 是否允许这次打印
+     *
+     * @return -1 表示被限流；否则是上次打印之后被压掉的次数
+     */
+    int acquire(long nowNs) {
+        if (minIntervalNs > 0 && printed && nowNs - lastPrintNs < minIntervalNs) {
+            suppressed++;
+            return -1;
+        }
+        printed = true;
+        lastPrintNs = nowNs;
+        int count = suppressed;
+        suppressed = 0;
+        return count;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
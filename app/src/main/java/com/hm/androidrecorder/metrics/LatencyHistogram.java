@@ -0,0 +1,137 @@
+package com.hm.androidrecorder.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-19]
+ * @Describe: 固定分桶的延迟直方图
+ * <p>
+ * 以微秒为单位按 2 的幂分桶：第 0 桶是 [0, 1us)，第 i 桶是 [2^(i-1), 2^i) us，最后一桶收所有更大的值。
+ * 记录只做几次原子加，不加锁、不分配内存，可以在编码、混合线程的每帧路径上调用。
+ * 分位数按桶的上界估算，误差不超过一倍，用来看趋势和定位卡顿足够。
+ */
+
+
+public final class LatencyHistogram {
+
+    /**
+     * 桶数，最后一桶的下界 2^(BUCKET_COUNT-2) us 约 67 秒
+     */
+    public static final int BUCKET_COUNT = 28;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumUs = new AtomicLong();
+    private final AtomicLong maxUs = new AtomicLong();
+
+    /**
+     * 记录一次耗时，负数按 0 处理
+     */
+    public void record(long us) {
+        if (us < 0) {
+            us = 0;
+        }
+        buckets.incrementAndGet(bucketOf(us));
+        count.incrementAndGet();
+        sumUs.addAndGet(us);
+        long max;
+        while (us > (max = maxUs.get())) {
+            if (maxUs.compareAndSet(max, us)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 记录从 startNanos（System.nanoTime）到现在的耗时
+     */
+    public void recordSince(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * 当前数据的拷贝。记录和拷贝同时进行时各字段之间可能差几次记录。
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = buckets.get(i);
+        }
+        return new Snapshot(copy, count.get(), sumUs.get(), maxUs.get());
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sumUs.set(0);
+        maxUs.set(0);
+    }
+
+    static int bucketOf(long us) {
+        return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(us));
+    }
+
+    /**
+     * 第 bucket 桶的上界（不含），最后一桶返回 Long.MAX_VALUE
+     */
+    public static long bucketUpperBoundUs(int bucket) {
+        return bucket >= BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    /**
+     * 直方图某一时刻的拷贝
+     */
+    public static final class Snapshot {
+        private final long[] buckets;
+        public final long count;
+        public final long sumUs;
+        public final long maxUs;
+
+        Snapshot(long[] buckets, long count, long sumUs, long maxUs) {
+            this.buckets = buckets;
+            this.count = count;
+            this.sumUs = sumUs;
+            this.maxUs = maxUs;
+        }
+
+        public long getBucket(int bucket) {
+            return buckets[bucket];
+        }
+
+        public double meanUs() {
+            return count == 0 ? 0 : (double) sumUs / count;
+        }
+
+        /**
+         * 分位数的估算值：落在目标桶的上界，不超过最大值
+         *
+         * @param quantile 0 到 1
+         */
+        public long percentileUs(double quantile) {
+            long total = 0;
+            for (long bucket : buckets) {
+                total += bucket;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(maxUs, bucketUpperBoundUs(i));
+                }
+            }
+            return maxUs;
+        }
+    }
+}
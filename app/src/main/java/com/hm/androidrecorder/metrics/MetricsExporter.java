@@ -0,0 +1,132 @@
+package com.hm.androidrecorder.metrics;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-19]
+ * @Describe: 定时把指标快照追加写入文件
+ * <p>
+ * 每隔 intervalMs 写一行 {@link PipelineMetrics.Snapshot#toJson()}，每行写完就 flush，
+ * 录制中途被杀也能留下之前的记录。计数是累计值，相邻两行相减得到这段时间的速率，
+ * 比如 encoded 增长跟不上 in、dropped 持续增长、队列一直是满的，说明编码器饱和。
+ * <p>
+ * {@link #stopExport()} 时再写一行最终结果后关闭文件。
+ */
+
+
+public class MetricsExporter extends Thread {
+
+    private final PipelineMetrics metrics;
+    private final File file;
+    private final long intervalMs;
+    private final Object lock = new Object();
+    private volatile boolean isRunning = false;
+    //只在导出线程里写
+    private volatile long exportedCount = 0;
+
+    public MetricsExporter(PipelineMetrics metrics, File file, long intervalMs) {
+        super("MetricsExporter");
+        if (intervalMs <= 0) {
+            throw new IllegalArgumentException("intervalMs:" + intervalMs);
+        }
+        this.metrics = metrics;
+        this.file = file;
+        this.intervalMs = intervalMs;
+        setDaemon(true);
+    }
+
+    public void startExport() {
+        isRunning = true;
+        start();
+    }
+
+    /**
+     * 停止定时导出，等最后一行写完再返回
+     */
+    public void stopExport() {
+        synchronized (lock) {
+            isRunning = false;
+            lock.notifyAll();
+        }
+        try {
+            join(intervalMs + 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * 已写入的行数
+     */
+    public long getExportedCount() {
+        return exportedCount;
+    }
+
+    @Override
+    public void run() {
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), Charset.forName("UTF-8")));
+            while (awaitInterval()) {
+                export(writer);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (writer != null) {
+                try {
+                    //停止时无条件再写一行，记下最终结果
+                    export(writer);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * 等一个导出间隔。按条件等待，stopExport 的 notify 早于 wait 也不会丢。
+     *
+     * @return 停止导出时返回 false
+     */
+    private boolean awaitInterval() {
+        long deadline = System.currentTimeMillis() + intervalMs;
+        synchronized (lock) {
+            while (isRunning) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return true;
+                }
+                try {
+                    lock.wait(remaining);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void export(Writer writer) throws IOException {
+        writer.write(metrics.snapshot().toJson());
+        writer.write('\n');
+        writer.flush();
+        exportedCount++;
+    }
+}
@@ -0,0 +1,215 @@
+package com.hm.androidrecorder.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-19]
+ * @Describe: 录制流水线各阶段的指标
+ * <p>
+ * 按轨道统计：
+ * <ul>
+ * <li>计数：进入编码（相机帧 / 采集的 PCM 块）、编码输出、丢弃、写入混合器的样本数和字节数</li>
+ * <li>阶段延迟：{@link #STAGE_QUEUE} 在待编码队列里等待，{@link #STAGE_ENCODE} 送进编码器到拿到输出，
+ * {@link #STAGE_INTERLEAVE} 在混合器缓存里等待交织，{@link #STAGE_WRITE} writeSampleData 本身</li>
+ * </ul>
+ * 另外可以登记若干队列，快照时读取当前深度。
+ * <p>
+ * 计数和直方图都是原子操作，各线程直接调用，不加锁、不分配内存；{@link #snapshot()} 在任意线程读取。
+ * 不依赖 Android 类，基准测试里也能用。
+ */
+
+
+public final class PipelineMetrics {
+
+    public static final int TRACK_VIDEO = 0;
+    public static final int TRACK_AUDIO = 1;
+    static final String[] TRACK_NAMES = {"video", "audio"};
+
+    //相机帧 / PCM 块进入编码线程
+    public static final int COUNTER_IN = 0;
+    //编码器输出的样本
+    public static final int COUNTER_ENCODED = 1;
+    //因编码跟不上丢掉的输入
+    public static final int COUNTER_DROPPED = 2;
+    //写入混合器的样本
+    public static final int COUNTER_WRITTEN = 3;
+    //写入混合器的字节数
+    public static final int COUNTER_BYTES = 4;
+    //静音时没有送编码、直接写入静音帧的样本
+    public static final int COUNTER_SKIPPED = 5;
+    //静音帧比平均编码输出省下的字节数（估算）
+    public static final int COUNTER_SAVED_BYTES = 6;
+    //没有送编码的静音音频时长，微秒。省下的是这么长的音频，不是编码器耗时
+    public static final int COUNTER_SILENT_SKIPPED_US = 7;
+    //跳过的批次省下的编码耗时（估算），微秒：跳过的批次数 × 当时编码一批的平均耗时
+    public static final int COUNTER_SAVED_ENCODE_US = 8;
+    static final String[] COUNTER_NAMES = {"in", "encoded", "dropped", "written", "bytes", "skipped", "savedBytes", "silentSkippedUs", "savedEncodeUs"};
+
+    public static final int STAGE_QUEUE = 0;
+    public static final int STAGE_ENCODE = 1;
+    public static final int STAGE_INTERLEAVE = 2;
+    public static final int STAGE_WRITE = 3;
+    static final String[] STAGE_NAMES = {"queue", "encode", "interleave", "write"};
+
+    /**
+     * 队列深度，快照时调用，需要线程安全
+     */
+    public interface QueueDepth {
+        int depth();
+    }
+
+    private final AtomicLongArray counters = new AtomicLongArray(TRACK_NAMES.length * COUNTER_NAMES.length);
+    private final LatencyHistogram[] stages = new LatencyHistogram[TRACK_NAMES.length * STAGE_NAMES.length];
+    private final Map<String, QueueDepth> queues = new LinkedHashMap<>();
+    private final long startNanos = System.nanoTime();
+
+    public PipelineMetrics() {
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new LatencyHistogram();
+        }
+    }
+
+    public void increment(int track, int counter) {
+        counters.incrementAndGet(track * COUNTER_NAMES.length + counter);
+    }
+
+    public void add(int track, int counter, long delta) {
+        counters.addAndGet(track * COUNTER_NAMES.length + counter, delta);
+    }
+
+    public long get(int track, int counter) {
+        return counters.get(track * COUNTER_NAMES.length + counter);
+    }
+
+    public LatencyHistogram stage(int track, int stage) {
+        return stages[track * STAGE_NAMES.length + stage];
+    }
+
+    /**
+     * 记录一个阶段的耗时（微秒）
+     */
+    public void recordUs(int track, int stage, long us) {
+        stage(track, stage).record(us);
+    }
+
+    /**
+     * 记录一个阶段从 startNanos（System.nanoTime）到现在的耗时
+     */
+    public void recordSince(int track, int stage, long startNanos) {
+        stage(track, stage).recordSince(startNanos);
+    }
+
+    /**
+     * 登记一个队列，同名的替换，传 null 移除
+     */
+    public void setQueue(String name, QueueDepth depth) {
+        synchronized (queues) {
+            if (depth == null) {
+                queues.remove(name);
+            } else {
+                queues.put(name, depth);
+            }
+        }
+    }
+
+    public Snapshot snapshot() {
+        long[] counterCopy = new long[counters.length()];
+        for (int i = 0; i < counterCopy.length; i++) {
+            counterCopy[i] = counters.get(i);
+        }
+        LatencyHistogram.Snapshot[] stageCopy = new LatencyHistogram.Snapshot[stages.length];
+        for (int i = 0; i < stageCopy.length; i++) {
+            stageCopy[i] = stages[i].snapshot();
+        }
+        Map<String, Integer> depths = new LinkedHashMap<>();
+        synchronized (queues) {
+            for (Map.Entry<String, QueueDepth> entry : queues.entrySet()) {
+                depths.put(entry.getKey(), entry.getValue().depth());
+            }
+        }
+        return new Snapshot(System.currentTimeMillis(), (System.nanoTime() - startNanos) / 1000000, counterCopy, stageCopy, depths);
+    }
+
+    /**
+     * 某一时刻所有指标的拷贝
+     */
+    public static final class Snapshot {
+        //快照时间，System.currentTimeMillis
+        public final long timeMs;
+        //距离开始统计的时间
+        public final long uptimeMs;
+        private final long[] counters;
+        private final LatencyHistogram.Snapshot[] stages;
+        private final Map<String, Integer> queueDepths;
+
+        Snapshot(long timeMs, long uptimeMs, long[] counters, LatencyHistogram.Snapshot[] stages, Map<String, Integer> queueDepths) {
+            this.timeMs = timeMs;
+            this.uptimeMs = uptimeMs;
+            this.counters = counters;
+            this.stages = stages;
+            this.queueDepths = queueDepths;
+        }
+
+        public long get(int track, int counter) {
+            return counters[track * COUNTER_NAMES.length + counter];
+        }
+
+        public LatencyHistogram.Snapshot stage(int track, int stage) {
+            return stages[track * STAGE_NAMES.length + stage];
+        }
+
+        /**
+         * 登记过的队列的深度，没有登记时返回 -1
+         */
+        public int getQueueDepth(String name) {
+            Integer depth = queueDepths.get(name);
+            return depth == null ? -1 : depth;
+        }
+
+        /**
+         * 一行 JSON，延迟给出次数、平均、p50/p90/p99 和最大值（微秒）
+         */
+        public String toJson() {
+            StringBuilder sb = new StringBuilder(1024);
+            sb.append("{\"timeMs\":").append(timeMs).append(",\"uptimeMs\":").append(uptimeMs);
+            for (int track = 0; track < TRACK_NAMES.length; track++) {
+                sb.append(",\"").append(TRACK_NAMES[track]).append("\":{");
+                for (int counter = 0; counter < COUNTER_NAMES.length; counter++) {
+                    if (counter > 0) {
+                        sb.append(',');
+                    }
+                    sb.append('"').append(COUNTER_NAMES[counter]).append("\":").append(get(track, counter));
+                }
+                for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+                    LatencyHistogram.Snapshot s = stage(track, stage);
+                    sb.append(",\"").append(STAGE_NAMES[stage]).append("\":{\"count\":").append(s.count)
+                            .append(",\"meanUs\":").append(Math.round(s.meanUs()))
+                            .append(",\"p50Us\":").append(s.percentileUs(0.5))
+                            .append(",\"p90Us\":").append(s.percentileUs(0.9))
+                            .append(",\"p99Us\":").append(s.percentileUs(0.99))
+                            .append(",\"maxUs\":").append(s.maxUs).append('}');
+                }
+                sb.append('}');
+            }
+            sb.append(",\"queues\":{");
+            boolean first = true;
+            for (Map.Entry<String, Integer> entry : queueDepths.entrySet()) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                sb.append('"').append(entry.getKey()).append("\":").append(entry.getValue());
+            }
+            sb.append("}}");
+            return sb.toString();
+        }
+
+        @Override
+        public String toString() {
+            return toJson();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.hm.androidrecorder.mp4;
+
+import com.hm.androidrecorder.h264.NalIterator;
+import com.hm.androidrecorder.h264.NalUnits;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-13]
+ * @Describe: H.264 Annex-B 起始码处理
+ * <p>
+ * MediaCodec 输出的 H.264 是 00 00 00 01 分隔的 Annex-B 格式，MP4 里要求每个 NAL 前面是 4 字节长度。
+ * NAL 的拆分走 h264 包里的 {@link NalIterator}，这里只管 MP4 需要的过滤和写法。
+ */
+
+
+final class AnnexB {
+
+    static final int NAL_SPS = NalUnits.TYPE_SPS;
+    static final int NAL_PPS = NalUnits.TYPE_PPS;
+    static final int NAL_AUD = NalUnits.TYPE_AUD;
+
+    private AnnexB() {
+    }
+
+    /**
+     * 把一个 Annex-B 访问单元转成 4 字节长度前缀写入 dst。SPS/PPS/AUD 已经在 avcC 里，直接跳过。
+     * 不是 Annex-B 的数据认为已经是长度前缀格式，原样拷贝。
+     *
+     * @param nals 调用方复用的遍历器，每个样本不再分配
+     * @return 写入的字节数
+     */
+    static int writeLengthPrefixed(NalIterator nals, ByteBuffer src, int offset, int size, BoxBuffer dst) {
+        if (nals.reset(src, offset, size).format() != NalIterator.FORMAT_ANNEX_B) {
+            dst.put(src, offset, size);
+            return size;
+        }
+        int written = 0;
+        while (nals.next()) {
+            int type = nals.type();
+            if (type != NAL_SPS && type != NAL_PPS && type != NAL_AUD) {
+                dst.put32(nals.size());
+                dst.put(src, nals.offset(), nals.size());
+                written += 4 + nals.size();
+            }
+        }
+        return written;
+    }
+
+    /**
+     * 拆出所有 NAL（不带起始码），用于从 csd-0/csd-1 里取 SPS/PPS
+     */
+    static List<byte[]> split(byte[] data) {
+        List<byte[]> nals = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        NalIterator iterator = new NalIterator().reset(buffer, 0, data.length);
+        if (iterator.format() != NalIterator.FORMAT_ANNEX_B) {
+            if (data.length > 0) {
+                nals.add(data.clone());
+            }
+            return nals;
+        }
+        while (iterator.next()) {
+            byte[] nal = new byte[iterator.size()];
+            System.arraycopy(data, iterator.offset(), nal, 0, nal.length);
+            nals.add(nal);
+        }
+        return nals;
+    }
+
+    /**
+     * 在若干段 Annex-B 数据里找第一个指定类型的 NAL，没有时返回 null
+     */
+    static byte[] find(int type, byte[]... datas) {
+        for (byte[] data : datas) {
+            if (data == null) {
+                continue;
+            }
+            for (byte[] nal : split(data)) {
+                if ((nal[0] & 0x1F) == type) {
+                    return nal;
+                }
+            }
+        }
+        return null;
+    }
+}
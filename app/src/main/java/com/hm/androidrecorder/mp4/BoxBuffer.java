@@ -0,0 +1,164 @@
+package com.hm.androidrecorder.mp4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-13]
+ * @Describe: 大端字节缓存
+ * <p>
+ * 用来拼 MP4 box：{@link #startBox} 先占 8 字节，写完内容后 {@link #endBox} 回填长度。
+ * 数组不够时翻倍，{@link #reset()} 后重复使用不再分配。
+ */
+
+
+final class BoxBuffer {
+
+    private byte[] array;
+    private int position;
+
+    BoxBuffer(int initialCapacity) {
+        array = new byte[Math.max(16, initialCapacity)];
+    }
+
+    int position() {
+        return position;
+    }
+
+    void reset() {
+        position = 0;
+    }
+
+    int capacity() {
+        return array.length;
+    }
+
+    byte[] array() {
+        return array;
+    }
+
+    void put8(int value) {
+        ensure(1);
+        array[position++] = (byte) value;
+    }
+
+    void put16(int value) {
+        ensure(2);
+        array[position++] = (byte) (value >>> 8);
+        array[position++] = (byte) value;
+    }
+
+    void put24(int value) {
+        ensure(3);
+        array[position++] = (byte) (value >>> 16);
+        array[position++] = (byte) (value >>> 8);
+        array[position++] = (byte) value;
+    }
+
+    void put32(int value) {
+        ensure(4);
+        set32(position, value);
+        position += 4;
+    }
+
+    void put64(long value) {
+        put32((int) (value >>> 32));
+        put32((int) value);
+    }
+
+    void putFourCC(String type) {
+        ensure(4);
+        for (int i = 0; i < 4; i++) {
+            array[position++] = (byte) type.charAt(i);
+        }
+    }
+
+    void putZeros(int count) {
+        ensure(count);
+        for (int i = 0; i < count; i++) {
+            array[position++] = 0;
+        }
+    }
+
+    void put(byte[] src) {
+        put(src, 0, src.length);
+    }
+
+    void put(byte[] src, int offset, int length) {
+        ensure(length);
+        System.arraycopy(src, offset, array, position, length);
+        position += length;
+    }
+
+    /**
+     * 拷贝 src 中 [offset, offset+length)，src 的 position/limit 不变
+     */
+    void put(ByteBuffer src, int offset, int length) {
+        ensure(length);
+        int oldPosition = src.position();
+        int oldLimit = src.limit();
+        src.limit(offset + length);
+        src.position(offset);
+        src.get(array, position, length);
+        src.limit(oldLimit);
+        src.position(oldPosition);
+        position += length;
+    }
+
+    void set32(int at, int value) {
+        array[at] = (byte) (value >>> 24);
+        array[at + 1] = (byte) (value >>> 16);
+        array[at + 2] = (byte) (value >>> 8);
+        array[at + 3] = (byte) value;
+    }
+
+    /**
+     * 开始一个 box，返回起始位置，内容写完后传给 {@link #endBox}
+     */
+    int startBox(String type) {
+        int start = position;
+        put32(0);
+        putFourCC(type);
+        return start;
+    }
+
+    int startFullBox(String type, int version, int flags) {
+        int start = startBox(type);
+        put8(version);
+        put24(flags);
+        return start;
+    }
+
+    void endBox(int start) {
+        set32(start, position - start);
+    }
+
+    /**
+     * 把 [0, position) 前移掉开头的 count 个字节
+     */
+    void discard(int count) {
+        System.arraycopy(array, count, array, 0, position - count);
+        position -= count;
+    }
+
+    void writeTo(WritableByteChannel channel, int offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(array, offset, length);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void ensure(int count) {
+        if (position + count > array.length) {
+            int capacity = array.length;
+            while (position + count > capacity) {
+                capacity *= 2;
+            }
+            byte[] grown = new byte[capacity];
+            System.arraycopy(array, 0, grown, 0, position);
+            array = grown;
+        }
+    }
+}
@@ -0,0 +1,575 @@
+package com.hm.androidrecorder.mp4;
+
+import com.hm.androidrecorder.h264.NalIterator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-13]
+ * @Describe: 分片 MP4（fMP4）写入器
+ * <p>
+ * {@link #start()} 时写出 ftyp 和不含样本表的 moov，之后每攒够一段写一个 moof + mdat 分片。
+ * 已经写出的分片就是完整可播放的文件，录制中途崩溃或被杀最多丢掉最后一个没写出的分片。
+ * <p>
+ * 分片时机：视频关键帧到来（可选）、距分片开始超过 fragmentDurationUs、缓存的样本超过 maxFragmentBytes。
+ * 内存只和一个分片的大小有关，与录制时长无关。
+ * <p>
+ * 样本时长要等同轨道下一个样本到来才知道，所以每个轨道的最后一个样本留到下一个分片；
+ * {@link #finish()} 时沿用上一个样本的时长。时间戳要求按解码顺序单调递增（不支持 B 帧）。
+ * H.264 样本可以是 Annex-B 格式，写入时转成长度前缀。
+ * <p>
+ * 不依赖 Android 类，所有方法应在同一个线程调用。
+ */
+
+
+public class FragmentedMp4Writer {
+
+    /**
+     * 和 MediaCodec.BUFFER_FLAG_KEY_FRAME 相同
+     */
+    public static final int FLAG_KEY_FRAME = 1;
+    /**
+     * 和 MediaCodec.BUFFER_FLAG_CODEC_CONFIG 相同，这类样本直接忽略
+     */
+    public static final int FLAG_CODEC_CONFIG = 2;
+
+    public static final long DEFAULT_FRAGMENT_DURATION_US = 1000 * 1000;
+    public static final int DEFAULT_MAX_FRAGMENT_BYTES = 4 * 1024 * 1024;
+
+    //moov 的时间刻度
+    private static final int MOVIE_TIMESCALE = 1000;
+    //'und'
+    private static final int LANGUAGE_UNDEFINED = 0x55C4;
+    //sample_depends_on=2（不依赖其他帧）
+    private static final int SAMPLE_FLAGS_SYNC = 0x02000000;
+    //sample_depends_on=1，sample_is_non_sync_sample=1
+    private static final int SAMPLE_FLAGS_NON_SYNC = 0x01010000;
+    //tfhd: default-base-is-moof
+    private static final int TFHD_DEFAULT_BASE_IS_MOOF = 0x020000;
+    //trun: data-offset、sample-duration、sample-size、sample-flags
+    private static final int TRUN_FLAGS = 0x000001 | 0x000100 | 0x000200 | 0x000400;
+    private static final long NO_PTS = Long.MIN_VALUE;
+
+    private final WritableByteChannel channel;
+    private final long fragmentDurationUs;
+    private final boolean fragmentOnKeyFrame;
+    private final int maxFragmentBytes;
+
+    private final List<Track> tracks = new ArrayList<>();
+    private final BoxBuffer header = new BoxBuffer(4096);
+    //视频样本转长度前缀时复用
+    private final NalIterator nals = new NalIterator();
+
+    private boolean started = false;
+    private boolean finished = false;
+    private long firstPtsUs = NO_PTS;
+    private long fragmentStartUs = NO_PTS;
+    private int sequenceNumber = 0;
+    private long bytesWritten = 0;
+
+    public FragmentedMp4Writer(WritableByteChannel channel) {
+        this(channel, DEFAULT_FRAGMENT_DURATION_US, true, DEFAULT_MAX_FRAGMENT_BYTES);
+    }
+
+    /**
+     * @param channel            输出，不会被关闭
+     * @param fragmentDurationUs 分片最长时间
+     * @param fragmentOnKeyFrame 视频关键帧是否开始新分片
+     * @param maxFragmentBytes   分片缓存的最大字节数
+     */
+    public FragmentedMp4Writer(WritableByteChannel channel, long fragmentDurationUs, boolean fragmentOnKeyFrame, int maxFragmentBytes) {
+        if (fragmentDurationUs <= 0 || maxFragmentBytes <= 0) {
+            throw new IllegalArgumentException("fragmentDurationUs:" + fragmentDurationUs + ",maxFragmentBytes:" + maxFragmentBytes);
+        }
+        this.channel = channel;
+        this.fragmentDurationUs = fragmentDurationUs;
+        this.fragmentOnKeyFrame = fragmentOnKeyFrame;
+        this.maxFragmentBytes = maxFragmentBytes;
+    }
+
+    /**
+     * 添加轨道，只能在 {@link #start()} 之前调用
+     *
+     * @return 轨道序号，写样本时使用
+     */
+    public int addTrack(TrackFormat format) {
+        if (started) {
+            throw new IllegalStateException("addTrack after start");
+        }
+        tracks.add(new Track(tracks.size() + 1, format));
+        return tracks.size() - 1;
+    }
+
+    /**
+     * 写出文件头
+     */
+    public void start() throws IOException {
+        if (started) {
+            throw new IllegalStateException("already started");
+        }
+        if (tracks.isEmpty()) {
+            throw new IllegalStateException("no track");
+        }
+        started = true;
+        header.reset();
+        writeFtyp(header);
+        writeMoov(header);
+        write(header, 0, header.position());
+    }
+
+    /**
+     * 写入一个样本
+     *
+     * @param track  {@link #addTrack} 返回的序号
+     * @param data   样本数据，position/limit 不变
+     * @param offset 数据起始位置
+     * @param size   数据长度
+     * @param ptsUs  时间戳
+     * @param flags  {@link #FLAG_KEY_FRAME} 等
+     */
+    public void writeSample(int track, ByteBuffer data, int offset, int size, long ptsUs, int flags) throws IOException {
+        if (!started || finished) {
+            throw new IllegalStateException("not started or already finished");
+        }
+        if ((flags & FLAG_CODEC_CONFIG) != 0 || size <= 0) {
+            return;
+        }
+        Track t = tracks.get(track);
+        if (firstPtsUs == NO_PTS) {
+            firstPtsUs = ptsUs;
+            fragmentStartUs = ptsUs;
+        }
+        if (t.count > 0) {
+            //上一个样本的时长现在确定了
+            t.durations[t.count - 1] = (int) Math.max(1, t.ticks(ptsUs) - t.ticks(t.lastPtsUs));
+            t.lastDuration = t.durations[t.count - 1];
+            t.pending = false;
+        } else if (t.lastPtsUs == NO_PTS) {
+            t.decodeTime = Math.max(0, t.ticks(ptsUs) - t.ticks(firstPtsUs));
+        }
+
+        boolean keyFrame = !t.format.isVideo() || (flags & FLAG_KEY_FRAME) != 0;
+        if ((fragmentOnKeyFrame && keyFrame && t.format.isVideo())
+                || ptsUs - fragmentStartUs >= fragmentDurationUs
+                || bufferedBytes() + size > maxFragmentBytes) {
+            flush(false);
+            fragmentStartUs = ptsUs;
+        }
+
+        int written = t.format.isVideo()
+                ? AnnexB.writeLengthPrefixed(nals, data, offset, size, t.data)
+                : copy(data, offset, size, t.data);
+        t.add(written, keyFrame ? SAMPLE_FLAGS_SYNC : SAMPLE_FLAGS_NON_SYNC);
+        t.lastPtsUs = ptsUs;
+    }
+
+    /**
+     * 写出剩余样本，之后不能再写入。不会关闭输出。
+     */
+    public void finish() throws IOException {
+        if (!started || finished) {
+            return;
+        }
+        for (Track t : tracks) {
+            if (t.count > 0) {
+                t.durations[t.count - 1] = t.lastDuration > 0 ? t.lastDuration : t.defaultDuration();
+            }
+        }
+        flush(true);
+        finished = true;
+    }
+
+    /**
+     * 累计写出的字节数
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * 已写出的分片数
+     */
+    public int getFragmentCount() {
+        return sequenceNumber;
+    }
+
+    private static int copy(ByteBuffer data, int offset, int size, BoxBuffer dst) {
+        dst.put(data, offset, size);
+        return size;
+    }
+
+    int bufferedBytes() {
+        int bytes = 0;
+        for (Track t : tracks) {
+            bytes += t.data.position();
+        }
+        return bytes;
+    }
+
+    /**
+     * 写出一个分片。不是结束时，时长未知的最后一个样本留到下个分片。
+     */
+    private void flush(boolean all) throws IOException {
+        int total = 0;
+        for (Track t : tracks) {
+            t.flushCount = all || !t.pending ? t.count : t.count - 1;
+            total += t.flushCount;
+        }
+        if (total == 0) {
+            return;
+        }
+        sequenceNumber++;
+        header.reset();
+        int moof = header.startBox("moof");
+        int mfhd = header.startFullBox("mfhd", 0, 0);
+        header.put32(sequenceNumber);
+        header.endBox(mfhd);
+        for (Track t : tracks) {
+            if (t.flushCount > 0) {
+                writeTraf(header, t);
+            }
+        }
+        header.endBox(moof);
+        int moofSize = header.position();
+
+        //mdat 里按轨道顺序存放，回填每个 trun 的 data_offset（相对 moof 起点）
+        int mdatPayload = 0;
+        for (Track t : tracks) {
+            if (t.flushCount > 0) {
+                header.set32(t.dataOffsetPosition, moofSize + 8 + mdatPayload);
+                mdatPayload += t.flushBytes();
+            }
+        }
+        header.put32(8 + mdatPayload);
+        header.putFourCC("mdat");
+        write(header, 0, header.position());
+        for (Track t : tracks) {
+            if (t.flushCount > 0) {
+                int bytes = t.flushBytes();
+                write(t.data, 0, bytes);
+                t.removeFlushed(bytes);
+            }
+        }
+    }
+
+    private void write(BoxBuffer buffer, int offset, int length) throws IOException {
+        buffer.writeTo(channel, offset, length);
+        bytesWritten += length;
+    }
+
+    private static void writeTraf(BoxBuffer b, Track t) {
+        int traf = b.startBox("traf");
+        int tfhd = b.startFullBox("tfhd", 0, TFHD_DEFAULT_BASE_IS_MOOF);
+        b.put32(t.id);
+        b.endBox(tfhd);
+        int tfdt = b.startFullBox("tfdt", 1, 0);
+        b.put64(t.decodeTime);
+        b.endBox(tfdt);
+        int trun = b.startFullBox("trun", 0, TRUN_FLAGS);
+        b.put32(t.flushCount);
+        t.dataOffsetPosition = b.position();
+        b.put32(0);
+        for (int i = 0; i < t.flushCount; i++) {
+            b.put32(t.durations[i]);
+            b.put32(t.sizes[i]);
+            b.put32(t.flags[i]);
+        }
+        b.endBox(trun);
+        b.endBox(traf);
+    }
+
+    private static void writeFtyp(BoxBuffer b) {
+        int ftyp = b.startBox("ftyp");
+        b.putFourCC("iso5");
+        b.put32(512);
+        b.putFourCC("iso5");
+        b.putFourCC("iso6");
+        b.putFourCC("mp41");
+        b.endBox(ftyp);
+    }
+
+    private void writeMoov(BoxBuffer b) {
+        int moov = b.startBox("moov");
+        int mvhd = b.startFullBox("mvhd", 0, 0);
+        b.put32(0);
+        b.put32(0);
+        b.put32(MOVIE_TIMESCALE);
+        //分片文件的总时长由分片决定
+        b.put32(0);
+        b.put32(0x00010000);
+        b.put16(0x0100);
+        b.putZeros(10);
+        putMatrix(b);
+        b.putZeros(24);
+        b.put32(tracks.size() + 1);
+        b.endBox(mvhd);
+        for (Track t : tracks) {
+            writeTrak(b, t);
+        }
+        int mvex = b.startBox("mvex");
+        for (Track t : tracks) {
+            int trex = b.startFullBox("trex", 0, 0);
+            b.put32(t.id);
+            b.put32(1);
+            b.put32(0);
+            b.put32(0);
+            b.put32(0);
+            b.endBox(trex);
+        }
+        b.endBox(mvex);
+        b.endBox(moov);
+    }
+
+    private static void writeTrak(BoxBuffer b, Track t) {
+        TrackFormat format = t.format;
+        boolean video = format.isVideo();
+        int trak = b.startBox("trak");
+        //enabled | in_movie
+        int tkhd = b.startFullBox("tkhd", 0, 0x000003);
+        b.put32(0);
+        b.put32(0);
+        b.put32(t.id);
+        b.put32(0);
+        b.put32(0);
+        b.putZeros(8);
+        b.put16(0);
+        b.put16(0);
+        b.put16(video ? 0 : 0x0100);
+        b.put16(0);
+        putMatrix(b);
+        b.put32(format.width << 16);
+        b.put32(format.height << 16);
+        b.endBox(tkhd);
+
+        int mdia = b.startBox("mdia");
+        int mdhd = b.startFullBox("mdhd", 0, 0);
+        b.put32(0);
+        b.put32(0);
+        b.put32(t.timescale);
+        b.put32(0);
+        b.put16(LANGUAGE_UNDEFINED);
+        b.put16(0);
+        b.endBox(mdhd);
+        int hdlr = b.startFullBox("hdlr", 0, 0);
+        b.put32(0);
+        b.putFourCC(video ? "vide" : "soun");
+        b.putZeros(12);
+        b.put((video ? "VideoHandler" : "SoundHandler").getBytes());
+        b.put8(0);
+        b.endBox(hdlr);
+
+        int minf = b.startBox("minf");
+        if (video) {
+            int vmhd = b.startFullBox("vmhd", 0, 1);
+            b.putZeros(8);
+            b.endBox(vmhd);
+        } else {
+            int smhd = b.startFullBox("smhd", 0, 0);
+            b.putZeros(4);
+            b.endBox(smhd);
+        }
+        int dinf = b.startBox("dinf");
+        int dref = b.startFullBox("dref", 0, 0);
+        b.put32(1);
+        //self-contained
+        int url = b.startFullBox("url ", 0, 1);
+        b.endBox(url);
+        b.endBox(dref);
+        b.endBox(dinf);
+
+        int stbl = b.startBox("stbl");
+        int stsd = b.startFullBox("stsd", 0, 0);
+        b.put32(1);
+        if (video) {
+            writeAvc1(b, format);
+        } else {
+            writeMp4a(b, format, t.id);
+        }
+        b.endBox(stsd);
+        //样本都在分片里，这里的表都是空的
+        for (String type : new String[]{"stts", "stsc", "stco"}) {
+            int box = b.startFullBox(type, 0, 0);
+            b.put32(0);
+            b.endBox(box);
+        }
+        int stsz = b.startFullBox("stsz", 0, 0);
+        b.put32(0);
+        b.put32(0);
+        b.endBox(stsz);
+        b.endBox(stbl);
+        b.endBox(minf);
+        b.endBox(mdia);
+        b.endBox(trak);
+    }
+
+    private static void writeAvc1(BoxBuffer b, TrackFormat format) {
+        int avc1 = b.startBox("avc1");
+        b.putZeros(6);
+        b.put16(1);
+        b.putZeros(16);
+        b.put16(format.width);
+        b.put16(format.height);
+        b.put32(0x00480000);
+        b.put32(0x00480000);
+        b.put32(0);
+        b.put16(1);
+        b.putZeros(32);
+        b.put16(0x0018);
+        b.put16(0xFFFF);
+
+        byte[] sps = format.csd0;
+        byte[] pps = format.csd1;
+        int avcC = b.startBox("avcC");
+        b.put8(1);
+        b.put8(sps[1]);
+        b.put8(sps[2]);
+        b.put8(sps[3]);
+        //lengthSizeMinusOne=3
+        b.put8(0xFF);
+        //1 个 SPS
+        b.put8(0xE1);
+        b.put16(sps.length);
+        b.put(sps);
+        b.put8(1);
+        b.put16(pps.length);
+        b.put(pps);
+        b.endBox(avcC);
+        b.endBox(avc1);
+    }
+
+    private static void writeMp4a(BoxBuffer b, TrackFormat format, int trackId) {
+        int mp4a = b.startBox("mp4a");
+        b.putZeros(6);
+        b.put16(1);
+        b.putZeros(8);
+        b.put16(format.channelCount);
+        b.put16(16);
+        b.put16(0);
+        b.put16(0);
+        b.put32(format.sampleRate << 16);
+
+        byte[] asc = format.csd0;
+        int esds = b.startFullBox("esds", 0, 0);
+        //ES_Descriptor
+        b.put8(0x03);
+        putDescriptorLength(b, 3 + (2 + 13 + 2 + asc.length) + (2 + 1));
+        b.put16(trackId);
+        b.put8(0);
+        //DecoderConfigDescriptor：MPEG-4 音频，音频流
+        b.put8(0x04);
+        putDescriptorLength(b, 13 + 2 + asc.length);
+        b.put8(0x40);
+        b.put8(0x15);
+        b.put24(0);
+        b.put32(0);
+        b.put32(0);
+        //DecoderSpecificInfo
+        b.put8(0x05);
+        putDescriptorLength(b, asc.length);
+        b.put(asc);
+        //SLConfigDescriptor
+        b.put8(0x06);
+        putDescriptorLength(b, 1);
+        b.put8(0x02);
+        b.endBox(esds);
+        b.endBox(mp4a);
+    }
+
+    private static void putDescriptorLength(BoxBuffer b, int length) {
+        if (length > 0x7F) {
+            throw new IllegalArgumentException("descriptor too long: " + length);
+        }
+        b.put8(length);
+    }
+
+    private static void putMatrix(BoxBuffer b) {
+        int[] matrix = {0x00010000, 0, 0, 0, 0x00010000, 0, 0, 0, 0x40000000};
+        for (int value : matrix) {
+            b.put32(value);
+        }
+    }
+
+    /**
+     * 单个轨道当前分片的样本
+     */
+    private static final class Track {
+        final int id;
+        final TrackFormat format;
+        final int timescale;
+        final BoxBuffer data = new BoxBuffer(64 * 1024);
+
+        int[] sizes = new int[64];
+        int[] durations = new int[64];
+        int[] flags = new int[64];
+        int count;
+        //最后一个样本的时长还不知道
+        boolean pending;
+
+        long lastPtsUs = NO_PTS;
+        int lastDuration;
+        //当前分片第一个样本的解码时间（轨道时间刻度）
+        long decodeTime;
+
+        int flushCount;
+        int dataOffsetPosition;
+
+        Track(int id, TrackFormat format) {
+            this.id = id;
+            this.format = format;
+            this.timescale = format.timescale();
+        }
+
+        long ticks(long ptsUs) {
+            return ptsUs * timescale / 1000000;
+        }
+
+        int defaultDuration() {
+            //视频按 30fps，AAC 一帧 1024 个采样
+            return format.isVideo() ? timescale / 30 : 1024;
+        }
+
+        void add(int size, int sampleFlags) {
+            if (count == sizes.length) {
+                sizes = grow(sizes);
+                durations = grow(durations);
+                flags = grow(flags);
+            }
+            sizes[count] = size;
+            durations[count] = 0;
+            flags[count] = sampleFlags;
+            count++;
+            pending = true;
+        }
+
+        int flushBytes() {
+            int bytes = 0;
+            for (int i = 0; i < flushCount; i++) {
+                bytes += sizes[i];
+            }
+            return bytes;
+        }
+
+        void removeFlushed(int bytes) {
+            for (int i = 0; i < flushCount; i++) {
+                decodeTime += durations[i];
+            }
+            int remain = count - flushCount;
+            System.arraycopy(sizes, flushCount, sizes, 0, remain);
+            System.arraycopy(durations, flushCount, durations, 0, remain);
+            System.arraycopy(flags, flushCount, flags, 0, remain);
+            count = remain;
+            data.discard(bytes);
+        }
+
+        private static int[] grow(int[] array) {
+            int[] grown = new int[array.length * 2];
+            System.arraycopy(array, 0, grown, 0, array.length);
+            return grown;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.hm.androidrecorder.mp4;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-28]
+ * @Describe: 从 {@link SampleJournal} 留下的日志重建可以播放的 MP4
+ * <p>
+ * 顺序读一遍日志，样本直接交给 {@link FragmentedMp4Writer}，每个关键帧（最长 1 秒）写出一个分片。
+ * 内存只有读缓存、最大一个样本的数组和一个分片，和录了多长时间无关。
+ * <p>
+ * 遇到写了一半或校验不对的记录就当作日志的结尾，前面的样本照常写出。不依赖 Android 类。
+ */
+
+
+public final class JournalRecovery {
+
+    private static final int READ_BUFFER_BYTES = 64 * 1024;
+    //格式记录的长度上限，超过说明记录头已经坏了
+    private static final int MAX_FORMAT_BYTES = 64 * 1024;
+
+    /**
+     * 恢复结果
+     */
+    public static final class Result {
+        public int trackCount;
+        public long sampleCount;
+        public long sampleBytes;
+        //最后一个样本的时间戳
+        public long lastPtsUs;
+        //日志结尾有不完整或损坏的记录（崩溃时正在写）
+        public boolean truncated;
+
+        @Override
+        public String toString() {
+            return "tracks " + trackCount + ", samples " + sampleCount + ", bytes " + sampleBytes + (truncated ? ", truncated" : "");
+        }
+    }
+
+    private JournalRecovery() {
+    }
+
+    /**
+     * 读取 journal，把 MP4 写到 output
+     *
+     * @throws IOException 不是日志文件、没有任何轨道格式，或读写失败
+     */
+    public static Result recover(File journal, WritableByteChannel output) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal), READ_BUFFER_BYTES));
+        try {
+            return recover(in, journal.length(), output);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Result recover(DataInputStream in, long fileLength, WritableByteChannel output) throws IOException {
+        if (in.readInt() != SampleJournal.MAGIC) {
+            throw new IOException("not a sample journal");
+        }
+        int version = in.readInt();
+        if (version != SampleJournal.VERSION) {
+            throw new IOException("unsupported journal version " + version);
+        }
+        Result result = new Result();
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(output);
+        //日志里的轨道号到 writer 轨道号
+        int[] trackMap = new int[128];
+        Arrays.fill(trackMap, -1);
+        byte[] header = new byte[SampleJournal.RECORD_HEADER_BYTES];
+        ByteBuffer headerView = ByteBuffer.wrap(header);
+        byte[] data = new byte[4096];
+        CRC32 crc = new CRC32();
+        boolean started = false;
+        //还没读的字节数，记录头损坏时长度不会超过它，不会按乱码长度分配数组
+        long remaining = fileLength - SampleJournal.FILE_HEADER_BYTES;
+
+        while (true) {
+            int read = readFully(in, header, header.length);
+            if (read < header.length) {
+                //正好在记录之间结束是正常的结尾
+                result.truncated = read > 0;
+                break;
+            }
+            int length = headerView.getInt(0);
+            byte type = header[4];
+            int track = header[5];
+            int flags = headerView.getInt(6);
+            long ptsUs = headerView.getLong(10);
+            int checksum = headerView.getInt(SampleJournal.RECORD_CHECKED_BYTES);
+            crc.reset();
+            crc.update(header, 0, SampleJournal.RECORD_CHECKED_BYTES);
+            remaining -= header.length;
+            if (length < 0 || length > remaining || track < 0 || (type != SampleJournal.RECORD_FORMAT && type != SampleJournal.RECORD_SAMPLE)
+                    || (type == SampleJournal.RECORD_FORMAT && length > MAX_FORMAT_BYTES)) {
+                result.truncated = true;
+                break;
+            }
+            if (data.length < length) {
+                data = new byte[Math.max(length, data.length * 2)];
+            }
+            if (readFully(in, data, length) < length) {
+                result.truncated = true;
+                break;
+            }
+            remaining -= length;
+
+            crc.update(data, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                //数据没落盘（全零）或写了一半
+                result.truncated = true;
+                break;
+            }
+            if (type == SampleJournal.RECORD_FORMAT) {
+                if (started || trackMap[track] >= 0) {
+                    //开始写样本后不会再有格式记录
+                    result.truncated = true;
+                    break;
+                }
+                trackMap[track] = writer.addTrack(readFormat(ByteBuffer.wrap(data, 0, length)));
+                result.trackCount++;
+                continue;
+            }
+            if (trackMap[track] < 0) {
+                throw new IOException("sample for unknown track " + track);
+            }
+            if (!started) {
+                writer.start();
+                started = true;
+            }
+            writer.writeSample(trackMap[track], ByteBuffer.wrap(data, 0, length), 0, length, ptsUs, flags);
+            result.sampleCount++;
+            result.sampleBytes += length;
+            result.lastPtsUs = ptsUs;
+        }
+
+        if (result.trackCount == 0) {
+            throw new IOException("no track format in journal");
+        }
+        if (!started) {
+            writer.start();
+        }
+        writer.finish();
+        return result;
+    }
+
+    private static TrackFormat readFormat(ByteBuffer payload) throws IOException {
+        try {
+            byte[] mimeBytes = new byte[payload.getShort()];
+            payload.get(mimeBytes);
+            String mime = new String(mimeBytes, SampleJournal.ASCII);
+            int width = payload.getInt();
+            int height = payload.getInt();
+            int sampleRate = payload.getInt();
+            int channelCount = payload.getInt();
+            byte[] csd0 = readBytes(payload);
+            byte[] csd1 = readBytes(payload);
+            if (TrackFormat.MIME_AVC.equals(mime)) {
+                return TrackFormat.avc(width, height, csd0, csd1);
+            } else if (TrackFormat.MIME_AAC.equals(mime)) {
+                return TrackFormat.aac(sampleRate, channelCount, csd0);
+            }
+            throw new IOException("unsupported mime in journal: " + mime);
+        } catch (RuntimeException e) {
+            throw new IOException("invalid track format in journal", e);
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer payload) {
+        int length = payload.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        payload.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return 读到的字节数，小于 length 表示文件已经结束
+     */
+    private static int readFully(DataInputStream in, byte[] buffer, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int n = in.read(buffer, total, length - total);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,235 @@
+package com.hm.androidrecorder.mp4;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-28]
+ * @Describe: 编码样本的追加日志，进程崩溃后用 {@link JournalRecovery} 重建 MP4
+ * <p>
+ * MediaMuxer 的 moov 在 release 时才写出，中途崩溃整个文件都不能播放。日志和 MP4 同时写，
+ * 只顺序追加，每隔 syncIntervalMs 做一次 fsync，崩溃时最多丢掉最后一个同步间隔的数据。
+ * <p>
+ * 文件格式（大端）：文件头 magic(4) version(4)，之后是一条条记录。每条记录的头固定 22 字节：
+ * 数据长度(4) 类型(1) 轨道(1) flags(4) pts(8) 校验(4)，后面跟数据。
+ * <ul>
+ * <li>{@link #RECORD_FORMAT}：轨道格式，添加轨道后立即同步</li>
+ * <li>{@link #RECORD_SAMPLE}：一个编码样本</li>
+ * </ul>
+ * 校验覆盖记录头和数据。写到一半的记录（长度不够）、全零的尾巴或数据没落盘的样本（校验不对）在恢复时当作结尾丢掉。
+ * <p>
+ * 样本数据用 gather write 和记录头一起写出，一个样本一次系统调用。direct 缓存里的数据算校验时
+ * 分块读到一个复用的数组里，不按样本分配内存。不依赖 Android 类，所有方法应在同一个线程调用。
+ */
+
+
+public class SampleJournal implements Closeable {
+
+    static final int MAGIC = 0x484D4A4C;
+    //2：样本记录的校验也覆盖数据
+    static final int VERSION = 2;
+    static final byte RECORD_FORMAT = 1;
+    static final byte RECORD_SAMPLE = 2;
+    static final int FILE_HEADER_BYTES = 8;
+    static final int RECORD_HEADER_BYTES = 22;
+    //记录头里参与校验的部分
+    static final int RECORD_CHECKED_BYTES = 18;
+    static final Charset ASCII = Charset.forName("US-ASCII");
+
+    public static final long DEFAULT_SYNC_INTERVAL_MS = 1000;
+    private static final int CRC_CHUNK_BYTES = 16 * 1024;
+
+    private final FileOutputStream outputStream;
+    private final FileChannel channel;
+    private final long syncIntervalNanos;
+    //记录头在堆上，校验直接算数组
+    private final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES).order(ByteOrder.BIG_ENDIAN);
+    private final ByteBuffer[] gather = new ByteBuffer[2];
+    private final CRC32 crc = new CRC32();
+    //direct 缓存算校验用的中转数组
+    private final byte[] crcScratch = new byte[CRC_CHUNK_BYTES];
+
+    private long lastSyncNanos;
+    private long bytesWritten = 0;
+    private long sampleCount = 0;
+    private long syncCount = 0;
+    private boolean closed = false;
+
+    /**
+     * 创建或清空 file
+     *
+     * @param syncIntervalMs 两次 fsync 的最小间隔，不大于 0 时每个样本都同步
+     */
+    public SampleJournal(File file, long syncIntervalMs) throws IOException {
+        outputStream = new FileOutputStream(file);
+        channel = outputStream.getChannel();
+        syncIntervalNanos = Math.max(0, syncIntervalMs) * 1000000;
+        ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_BYTES);
+        fileHeader.putInt(MAGIC).putInt(VERSION).flip();
+        writeFully(fileHeader);
+        lastSyncNanos = System.nanoTime();
+    }
+
+    /**
+     * 记下轨道格式，轨道号和写 MP4 时用的一致。恢复时轨道按记录的顺序添加。
+     */
+    public void addTrack(int track, TrackFormat format) throws IOException {
+        byte[] mime = format.mime.getBytes(ASCII);
+        ByteBuffer payload = ByteBuffer.allocate(2 + mime.length + 16 + lengthOf(format.csd0) + lengthOf(format.csd1));
+        payload.putShort((short) mime.length).put(mime);
+        payload.putInt(format.width).putInt(format.height).putInt(format.sampleRate).putInt(format.channelCount);
+        putBytes(payload, format.csd0);
+        putBytes(payload, format.csd1);
+        payload.flip();
+
+        putHeader(payload.remaining(), RECORD_FORMAT, track, 0, 0);
+        crc.update(payload.array(), 0, payload.limit());
+        header.putInt((int) crc.getValue()).flip();
+        writeFully(header, payload);
+        //没有格式整个日志都用不了，马上落盘
+        sync();
+    }
+
+    /**
+     * 追加一个样本，data 的 position/limit 不变
+     *
+     * @param offset 数据起始位置
+     * @param size   数据长度
+     * @param flags  和 MediaCodec.BufferInfo.flags 相同
+     */
+    public void writeSample(int track, ByteBuffer data, int offset, int size, long ptsUs, int flags) throws IOException {
+        putHeader(size, RECORD_SAMPLE, track, flags, ptsUs);
+        int position = data.position();
+        int limit = data.limit();
+        try {
+            data.limit(offset + size);
+            data.position(offset);
+            updateCrc(data);
+            header.putInt((int) crc.getValue()).flip();
+            writeFully(header, data);
+        } finally {
+            data.limit(limit);
+            data.position(position);
+        }
+        sampleCount++;
+        if (System.nanoTime() - lastSyncNanos >= syncIntervalNanos) {
+            sync();
+        }
+    }
+
+    /**
+     * 把 data 剩下的部分算进校验，position 不变
+     */
+    private void updateCrc(ByteBuffer data) {
+        if (data.hasArray()) {
+            crc.update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            return;
+        }
+        int start = data.position();
+        try {
+            while (data.hasRemaining()) {
+                int chunk = Math.min(data.remaining(), crcScratch.length);
+                data.get(crcScratch, 0, chunk);
+                crc.update(crcScratch, 0, chunk);
+            }
+        } finally {
+            data.position(start);
+        }
+    }
+
+    /**
+     * 写好记录头的前 18 字节并算出校验，留下 4 字节给校验值
+     */
+    private void putHeader(int length, byte type, int track, int flags, long ptsUs) {
+        if (track < 0 || track > 127) {
+            throw new IllegalArgumentException("track:" + track);
+        }
+        header.clear();
+        header.putInt(length).put(type).put((byte) track).putInt(flags).putLong(ptsUs);
+        crc.reset();
+        crc.update(header.array(), 0, RECORD_CHECKED_BYTES);
+    }
+
+    /**
+     * 把已写入的数据刷到存储上
+     */
+    public void sync() throws IOException {
+        channel.force(false);
+        lastSyncNanos = System.nanoTime();
+        syncCount++;
+    }
+
+    private void writeFully(ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            bytesWritten += channel.write(data);
+        }
+    }
+
+    private void writeFully(ByteBuffer first, ByteBuffer second) throws IOException {
+        gather[0] = first;
+        gather[1] = second;
+        try {
+            //大小为 0 的样本也要写出记录头，写了一部分时接着写完
+            while (first.hasRemaining() || second.hasRemaining()) {
+                bytesWritten += channel.write(gather);
+            }
+        } finally {
+            gather[0] = null;
+            gather[1] = null;
+        }
+    }
+
+    private static int lengthOf(byte[] bytes) {
+        return 4 + (bytes == null ? 0 : bytes.length);
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    /**
+     * 累计写入的字节数
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * fsync 次数
+     */
+    public long getSyncCount() {
+        return syncCount;
+    }
+
+    /**
+     * 同步后关闭。正常结束录制后日志就没用了，由调用方删除。
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            sync();
+        } finally {
+            outputStream.close();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.hm.androidrecorder.mp4;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-13]
+ * @Describe: 轨道格式
+ * <p>
+ * 写 MP4 头需要的最少信息，不依赖 MediaFormat。H.264 的 SPS/PPS 和 AAC 的 AudioSpecificConfig
+ * 都不带起始码。
+ */
+
+
+public final class TrackFormat {
+
+    public static final String MIME_AVC = "video/avc";
+    public static final String MIME_AAC = "audio/mp4a-latm";
+
+    //视频时间刻度，90kHz 是 H.264 的惯例
+    static final int VIDEO_TIMESCALE = 90000;
+    private static final byte[] START_CODE = {0, 0, 0, 1};
+
+    public final String mime;
+    public final int width;
+    public final int height;
+    public final int sampleRate;
+    public final int channelCount;
+    //H.264: SPS；AAC: AudioSpecificConfig
+    final byte[] csd0;
+    //H.264: PPS
+    final byte[] csd1;
+
+    private TrackFormat(String mime, int width, int height, int sampleRate, int channelCount, byte[] csd0, byte[] csd1) {
+        this.mime = mime;
+        this.width = width;
+        this.height = height;
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.csd0 = csd0;
+        this.csd1 = csd1;
+    }
+
+    /**
+     * @param sps 不带起始码的 SPS
+     * @param pps 不带起始码的 PPS
+     */
+    public static TrackFormat avc(int width, int height, byte[] sps, byte[] pps) {
+        if (sps == null || sps.length < 4 || pps == null || pps.length == 0) {
+            throw new IllegalArgumentException("invalid sps/pps");
+        }
+        return new TrackFormat(MIME_AVC, width, height, 0, 0, sps.clone(), pps.clone());
+    }
+
+    /**
+     * 从编码器输出的 csd-0/csd-1 创建，两段数据可以带起始码，SPS/PPS 也可以都在 csd-0 里
+     */
+    public static TrackFormat avcFromAnnexB(int width, int height, byte[] csd0, byte[] csd1) {
+        return avc(width, height, AnnexB.find(AnnexB.NAL_SPS, csd0, csd1), AnnexB.find(AnnexB.NAL_PPS, csd0, csd1));
+    }
+
+    /**
+     * @param audioSpecificConfig 编码器输出的 csd-0
+     */
+    public static TrackFormat aac(int sampleRate, int channelCount, byte[] audioSpecificConfig) {
+        if (audioSpecificConfig == null || audioSpecificConfig.length < 2) {
+            throw new IllegalArgumentException("invalid AudioSpecificConfig");
+        }
+        return new TrackFormat(MIME_AAC, 0, 0, sampleRate, channelCount, audioSpecificConfig.clone(), null);
+    }
+
+    /**
+     * 和编码器输出格式里一样的 csd-0/csd-1：H.264 是带起始码的 SPS、PPS，AAC 的 csd-0 是 AudioSpecificConfig
+     *
+     * @return 没有这一项时返回 null
+     */
+    public byte[] csd(int index) {
+        byte[] data = index == 0 ? csd0 : index == 1 ? csd1 : null;
+        if (data == null) {
+            return null;
+        }
+        if (!isVideo()) {
+            return data.clone();
+        }
+        byte[] annexB = new byte[START_CODE.length + data.length];
+        System.arraycopy(START_CODE, 0, annexB, 0, START_CODE.length);
+        System.arraycopy(data, 0, annexB, START_CODE.length, data.length);
+        return annexB;
+    }
+
+    public boolean isVideo() {
+        return MIME_AVC.equals(mime);
+    }
+
+    /**
+     * 媒体时间刻度：视频 90kHz，音频用采样率
+     */
+    public int timescale() {
+        return isVideo() ? VIDEO_TIMESCALE : sampleRate;
+    }
+
+    @Override
+    public String toString() {
+        return isVideo() ? mime + " " + width + "x" + height : mime + " " + sampleRate + "Hz x" + channelCount;
+    }
+}
@@ -1,15 +1,19 @@
 package com.hm.androidrecorder.muxer;
 
-import android.media.AudioFormat;
-import android.media.AudioRecord;
-import android.media.MediaCodec;
-import android.media.MediaCodecInfo;
-import android.media.MediaCodecList;
-import android.media.MediaFormat;
-import android.media.MediaRecorder;
-import android.util.Log;
-
-import com.hm.androidrecorder.constant.GlobalConfig;
+import com.hm.androidrecorder.audio.PcmProcessor;
+import com.hm.androidrecorder.audio.SilenceDetector;
+import com.hm.androidrecorder.buffer.PcmRing;
+import com.hm.androidrecorder.codec.AacFrameBatcher;
+import com.hm.androidrecorder.codec.AsyncInputQueue;
+import com.hm.androidrecorder.codec.AudioClock;
+import com.hm.androidrecorder.codec.AudioSource;
+import com.hm.androidrecorder.codec.Encoder;
+import com.hm.androidrecorder.codec.MediaFactory;
+import com.hm.androidrecorder.codec.SampleInfo;
+import com.hm.androidrecorder.log.HotLog;
+import com.hm.androidrecorder.log.LogSite;
+import com.hm.androidrecorder.metrics.PipelineMetrics;
+import com.hm.androidrecorder.mp4.TrackFormat;
 import com.hm.androidrecorder.utils.MyPrintLog;
 
 import java.io.IOException;
@@ -24,25 +28,101 @@ public class AudioEncoderThread extends Thread {
 
     public static final String TAG = "AudioEncoderThread";
 
+    //每个音频缓存的日志，默认级别下不输出
+    private static final LogSite LOG_READ = new LogSite(HotLog.VERBOSE, TAG, "encode {} bytes");
+    private static final LogSite LOG_INPUT_TIMEOUT = new LogSite(HotLog.WARN, TAG, "input buffer timeout, {} pcm blocks waiting", 1000);
+    private static final LogSite LOG_FORMAT_CHANGED = new LogSite(HotLog.INFO, TAG, "output format changed");
+    private static final LogSite LOG_OUTPUT_TIMEOUT = new LogSite(HotLog.VERBOSE, TAG, "output timeout");
+    private static final LogSite LOG_OUTPUT_STATUS = new LogSite(HotLog.DEBUG, TAG, "output status {}");
+    private static final LogSite LOG_SENT = new LogSite(HotLog.VERBOSE, TAG, "sent {} bytes to muxer, pts {}");
+    private static final LogSite LOG_SKEW = new LogSite(HotLog.INFO, TAG, "audio skew {}us, correction {}us", 10000);
+    private static final LogSite LOG_OVERRUN = new LogSite(HotLog.WARN, TAG, "pcm ring full, {} bytes dropped, overruns {}", 1000);
+    private static final LogSite LOG_UNDERRUN = new LogSite(HotLog.WARN, TAG, "no pcm for {}ms, underruns {}", 1000);
+    private static final LogSite LOG_SILENCE = new LogSite(HotLog.DEBUG, TAG, "silence, {} frames skipped, level {}dB", 1000);
+
     public int min_buffer_size = 0;
 //    public static final int FRAMES_PER_BUFFER = 25;
     private static final int TIMEOUT_USEC = 10000;
-    private static final String MIME_TYPE = "audio/mp4a-latm";
+    //编码采样率，采集采样率见 captureRate
     private static final int SAMPLE_RATE = 16000;
+    //单声道 16 位
+    private static final int BYTES_PER_SAMPLE = 2;
     private static final int BIT_RATE = 64000;
+    //异步模式下等待空闲输入缓存的时间
+    private static final long INPUT_WAIT_MS = 100;
+    //PCM 缓冲能存多长时间的录音，编码卡住不超过这个时间不会丢数据
+    private static final int PCM_BUFFER_MS = 1000;
+    //编码线程等 PCM 的时间，超时算一次下溢
+    private static final long PCM_WAIT_MS = 200;
+    //每次送编码最多几个 AAC 帧，16kHz 时两帧 128ms
+    private static final int AAC_FRAMES_PER_BATCH = 2;
+    //一个 AAC 帧的时长
+    private static final long FRAME_US = AacFrameBatcher.SAMPLES_PER_FRAME * 1000000L / SAMPLE_RATE;
+    //编码器落后超过这个时长时不跳过，避免用静音帧盖掉还没输出的有声数据
+    private static final long MAX_SKIP_BACKLOG_US = 500 * 1000;
+    //停止时把剩余 PCM 送完、等编码器输出结束标记的最长时间
+    private static final long FLUSH_TIMEOUT_MS = 500;
+    //停止时等待编码线程退出的时间，比 FLUSH_TIMEOUT_MS 长
+    private static final long STOP_TIMEOUT_MS = 1000;
+    //记住最近几批的送入时间，比编码器里同时压着的批次多就够了
+    private static final int QUEUED_BATCHES = 8;
 
 
     private final Object lock = new Object();
-    private MediaCodec mMediaCodec = null;                // API >= 16(Android4.1.2)
+    private Encoder mEncoder = null;                // AAC 编码器，设备上是 MediaCodec
     private WeakReference<MediaMuxerThread> mediaMuxerRunnable;
-    private AudioRecord audioRecord = null;
-    private MediaCodec.BufferInfo mBufferInfo;        // API >= 16(Android4.1.2)
-    private boolean isRecording = false;
+    private AudioSource audioSource = null;         // 设备上是 AudioRecord
+    private SampleInfo mBufferInfo;
+    private volatile boolean isRecording = false;
     private volatile boolean isPause = false;
-    private ByteBuffer bufferAudioRecoder = null;
-
-    //前一个解码音频时间
-    private long prevOutputPTSUs = 0;
+    //采集线程写、编码线程读，编码卡顿时不影响 AudioRecord 的读取
+    private PcmRing pcmRing = null;
+    private CaptureThread captureThread;
+    //把 PCM 块拼成整数个 AAC 帧，直接拷进编码器输入缓存，只在编码线程使用
+    private AacFrameBatcher batcher;
+    private int batchInputIndex = -1;
+    //异步模式：编码器回调的空闲输入缓存，采集数据直接读进去
+    private AsyncInputQueue<Object> inputQueue;
+    private boolean asyncMode = false;
+
+    //前一个解码音频时间，异步模式下在回调线程更新
+    private volatile long prevOutputPTSUs = 0;
+    //按采样数推算时间戳，锚定在视频也在用的 System.nanoTime 上，按采集采样率计数
+    private AudioClock audioClock = new AudioClock(SAMPLE_RATE);
+    //实际采集的采样率和声道数，设备不支持设置的值时是 16kHz 单声道
+    private int captureRate = SAMPLE_RATE;
+    private int captureChannels = 1;
+    //下混、重采样、增益，在采集线程运行
+    private PcmProcessor pcmProcessor;
+    private short[] captureBuffer;
+    //重采样滤波器的固定延迟，从时间戳里减掉
+    private long pcmDelayUs = 0;
+    //静音检测，未开启时为空，只在编码线程使用
+    private SilenceDetector silenceDetector;
+    //静音帧的输出信息和数据，写入混合器时拷贝
+    private final SampleInfo silentInfo = new SampleInfo();
+    private final ByteBuffer silentFrame = ByteBuffer.wrap(AacFrameBatcher.SILENT_FRAME_MONO);
+    //编码输出和静音帧都在这把锁里写入混合器，保证时间戳单调
+    private final Object outputLock = new Object();
+    //已写入混合器的音频结束时间，也就是下一帧应有的时间戳
+    private long writtenEndUs = -1;
+    //最后一个静音帧的时间戳，编码器之后吐出的更早的数据已被静音帧代替
+    private long silentUntilUs = -1;
+    //编码输出帧的平均字节数（指数平均），用来估算静音帧省下的字节数
+    private int avgFrameBytes = 0;
+    //一批从送进编码器到这一批最后一帧输出的平均耗时（指数平均，微秒），用来估算跳过静音批次省下的编码耗时
+    private long avgBatchEncodeUs = 0;
+    //上一个输出帧所属批次送入编码器的时间，换批次时把上一批的耗时计入平均值
+    private long lastOutputQueuedAt = -1;
+    private long lastOutputEncodeUs = 0;
+    //编码器已经输出了结束标记，由 outputLock 保护
+    private boolean outputEnded = false;
+    //最近送进编码器的批次：时间戳和送入时的 System.nanoTime，按送入顺序循环写，由 outputLock 保护
+    private final long[] queuedPtsUs = new long[QUEUED_BATCHES];
+    private final long[] queuedAtNanos = new long[QUEUED_BATCHES];
+    private int queuedBatches = 0;
+    //流水线指标，由混合器设置
+    private volatile PipelineMetrics metrics = new PipelineMetrics();
 
 
     public AudioEncoderThread(WeakReference<MediaMuxerThread> mediaMuxerRunnable) {
@@ -63,269 +143,652 @@ public class AudioEncoderThread extends Thread {
      * 4. 比特率----传输速度
      */
     private void init() {
-        //选择对应格式的编码器
-        MediaCodecInfo audioCodecInfo = selectAudioCodec(MIME_TYPE);
-        if (audioCodecInfo == null) {
-            MyPrintLog.LogProcess(AudioEncoderThread.class, "没有找到对应的音频解码器信息");
-            return;
+        asyncMode = MediaMuxerThread.useAsyncEncoding();
+        if (asyncMode) {
+            inputQueue = new AsyncInputQueue<>(1);
         }
-
-
-        MyPrintLog.LogProcess(AudioEncoderThread.class, "获得音频解码器信息");
-        MediaFormat format = MediaFormat.createAudioFormat(MIME_TYPE, SAMPLE_RATE, 1);
-        format.setInteger(MediaFormat.KEY_BIT_RATE, BIT_RATE);
-        //声道
-//        format.setInteger(MediaFormat.KEY_CHANNEL_COUNT, 1);
-        //设置采样率
-//        format.setInteger(MediaFormat.KEY_SAMPLE_RATE, SAMPLE_RATE);
         try {
-            mMediaCodec = MediaCodec.createEncoderByType(MIME_TYPE);
+            mEncoder = MediaMuxerThread.mediaFactory().createAudioEncoder(SAMPLE_RATE, 1, BIT_RATE, asyncMode ? new EncoderCallback() : null);
         } catch (IOException e) {
             MyPrintLog.LogErr("创建音频解码器失败", e);
         }
-        mMediaCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
         MyPrintLog.LogProcess(AudioEncoderThread.class, "音频解码器创建成功");
 
 
         //获取缓冲信息
         //每个缓冲区元数据包括一个偏移量和大小，指定关联编解码器（输出）缓冲区中有效数据的范围。
-        mBufferInfo = new MediaCodec.BufferInfo();
+        mBufferInfo = new SampleInfo();
 
         //创建录音
         createAudioRecord();
     }
 
 
+    /**
+     * 设置流水线指标，记录采集块数、丢弃和编码耗时
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     @Override
     public void run() {
 
-        int readBytes;
         MyPrintLog.LogProcess(AudioEncoderThread.class, "isRecording:" + isRecording);
+        //正在拷贝的 PCM 块和块内已拷走的字节数
+        int slot = -1;
+        int offset = 0;
         while (isRecording) {
 
-            if (isPause) {
-                //暂停
+            if (isPause && slot < 0 && pcmRing.isEmpty()) {
+                //暂停，暂停前采集的数据已经拷完，不满一批的也先送出
+                queueBatch();
                 synchronized (lock) {
                     try {
-                        Log.e(GlobalConfig.LOG_PROCESS, "等待录音...");
                         MyPrintLog.LogProcess(AudioEncoderThread.class, "音频线程睡眠等待");
-                        lock.wait();
-                        Log.e(GlobalConfig.LOG_PROCESS, "录音线程被唤醒...");
+                        if (isPause) {
+                            lock.wait();
+                        }
                         MyPrintLog.LogProcess(AudioEncoderThread.class, "音频线程被唤醒");
                     } catch (InterruptedException e) {
                         e.printStackTrace();
                     }
                 }
-            } else if (audioRecord != null) {
-
-                readBytes = audioRecord.read(bufferAudioRecoder, min_buffer_size);
-                if (readBytes > 0) {
-                    // set audio data to encoder
-                    bufferAudioRecoder.position(readBytes);
-                    //ByteBuffer取数据前调用
-                    bufferAudioRecoder.flip();
-                    MyPrintLog.LogProcess(AudioEncoderThread.class.getName(), "音频解码一次数据");
-                    encode(bufferAudioRecoder, readBytes, getPTSUs());
-                    bufferAudioRecoder.clear();
+                continue;
+            }
+            if (slot < 0) {
+                slot = pollPcm();
+                offset = 0;
+                if (slot < 0) {
+                    continue;
                 }
             }
+            if (!beginBatch()) {
+                //没有空闲输入缓存，数据留在 PCM 缓冲里等下一次
+                continue;
+            }
+            offset = appendPcm(slot, offset);
+            if (offset < 0) {
+                slot = -1;
+            }
 
         }
 
+        finishStream(slot, offset);
         MyPrintLog.LogProcess(AudioEncoderThread.class, "Audio 录制线程 退出...");
     }
 
-
     /**
-     * 选择解码器
+     * 把一块 PCM 从 offset 起尽量拼进当前批次，批次满了就送出
      *
-     * @param mimeType
-     * @return
+     * @return 块内新的偏移，这一块已拷完并还给 PCM 缓冲时返回 -1
      */
-    private MediaCodecInfo selectAudioCodec(final String mimeType) {
-        MediaCodecInfo result = null;
-        // get the list of available codecs
-
-        //获得可获得的解码器数
-        final int numCodecs = MediaCodecList.getCodecCount();
-        for (int i = 0; i < numCodecs; i++) {
-            final MediaCodecInfo codecInfo = MediaCodecList.getCodecInfoAt(i);
-            //查询编解码器是否为编码器
-            if (!codecInfo.isEncoder()) {    // skipp decoder
+    private int appendPcm(int slot, int offset) {
+        int length = pcmRing.length(slot);
+        int consumed = batcher.append(pcmRing.data(slot), offset, length, pcmRing.ptsUs(slot));
+        if (silenceDetector != null) {
+            silenceDetector.accumulate(pcmRing.data(slot), offset, consumed);
+        }
+        offset += consumed;
+        if (offset >= length) {
+            pcmRing.release();
+            offset = -1;
+        }
+        if (batcher.isFull()) {
+            queueBatch();
+        }
+        return offset;
+    }
+
+    /**
+     * 停止后的收尾：等采集线程关掉 PCM 缓冲，把剩下的数据拼完，最后一批（可能不满或为空）
+     * 带 FLAG_END_OF_STREAM 送出，再等编码器把结束标记之前的输出都交给混合器。
+     * 整个过程不超过 FLUSH_TIMEOUT_MS，之后由 stopAudio 停编码器。
+     */
+    private void finishStream(int slot, int offset) {
+        long deadline = System.nanoTime() + FLUSH_TIMEOUT_MS * 1000000L;
+        while (System.nanoTime() < deadline) {
+            if (slot < 0) {
+                slot = pcmRing.poll(PCM_WAIT_MS);
+                offset = 0;
+                if (slot < 0) {
+                    if (pcmRing.isClosed() && pcmRing.isEmpty()) {
+                        break;
+                    }
+                    continue;
+                }
+            }
+            if (!beginBatch()) {
                 continue;
             }
-            final String[] types = codecInfo.getSupportedTypes();
-            for (int j = 0; j < types.length; j++) {
-                Log.i(TAG, "supportedType:" + codecInfo.getName() + ",MIME=" + types[j]);
-                if (types[j].equalsIgnoreCase(mimeType)) {
-                    if (result == null) {
-                        result = codecInfo;
-                        break;
+            offset = appendPcm(slot, offset);
+            if (offset < 0) {
+                slot = -1;
+            }
+        }
+        if (!beginBatch() || !queueBatch(true)) {
+            MyPrintLog.LogProcess(AudioEncoderThread.class, "音频结束标记没有送进编码器");
+            return;
+        }
+        if (asyncMode) {
+            synchronized (outputLock) {
+                long remaining;
+                while (!outputEnded && (remaining = deadline - System.nanoTime()) > 0) {
+                    try {
+                        outputLock.wait(remaining / 1000000L + 1);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
                     }
                 }
             }
+        } else {
+            while (!outputEnded && System.nanoTime() < deadline) {
+                drainOutput();
+            }
         }
-        return result;
     }
 
-    private void createAudioRecord() {
+    /**
+     * 编码器吐出了结束标记，之后不会再有输出
+     */
+    private void onOutputEnded() {
+        synchronized (outputLock) {
+            outputEnded = true;
+            outputLock.notifyAll();
+        }
+    }
+
+    /**
+     * 从 PCM 缓冲取一块，记录排队时间；超时没有数据时记一次下溢
+     *
+     * @return 块号，没有数据时返回 -1
+     */
+    private int pollPcm() {
+        long underruns = pcmRing.getUnderrunCount();
+        int slot = pcmRing.poll(PCM_WAIT_MS);
+        if (slot < 0) {
+            if (pcmRing.getUnderrunCount() != underruns && isRecording && !isPause) {
+                HotLog.log(LOG_UNDERRUN, PCM_WAIT_MS, pcmRing.getUnderrunCount());
+            }
+            return -1;
+        }
+        metrics.recordSince(PipelineMetrics.TRACK_AUDIO, PipelineMetrics.STAGE_QUEUE, pcmRing.commitTimeNanos(slot));
+        return slot;
+    }
+
+    /**
+     * 采集线程：只读 AudioRecord 写 PCM 缓冲，不碰编码器，编码卡住时 AudioRecord 照常被读空。
+     * 时间戳在读取返回时推算，不受数据在缓冲里等待的时间影响。线程优先级由 {@link AudioSource} 在第一次读取时设置。
+     */
+    private class CaptureThread extends Thread {
+
+        CaptureThread() {
+            super("AudioCapture");
+        }
 
-        min_buffer_size = AudioRecord.getMinBufferSize(
-                SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO,
-                AudioFormat.ENCODING_PCM_16BIT);
-//            int buffer_size = SAMPLES_PER_FRAME * FRAMES_PER_BUFFER;
-//            if (buffer_size < min_buffer_size)
-//                buffer_size = ((min_buffer_size / SAMPLES_PER_FRAME) + 1) * SAMPLES_PER_FRAME * 2;
-        //(min_buffer_size+SAMPLES_PER_FRAME)*2
+        @Override
+        public void run() {
+            while (isRecording) {
+                if (isPause) {
+                    synchronized (lock) {
+                        try {
+                            if (isPause && isRecording) {
+                                lock.wait();
+                            }
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    continue;
+                }
+                AudioSource source = audioSource;
+                if (source == null) {
+                    return;
+                }
+                short[] buffer = captureBuffer;
+                int read = source.read(buffer, 0, buffer.length);
+                if (read <= 0) {
+                    continue;
+                }
+                int frames = read / captureChannels;
+                long ptsUs = nextPTSUs(frames) - pcmDelayUs;
+                metrics.increment(PipelineMetrics.TRACK_AUDIO, PipelineMetrics.COUNTER_IN);
+                //转换成编码格式，直接写进 PCM 缓冲的块里
+                int bytes = pcmProcessor.process(buffer, frames, pcmRing.writeBlock(), 0);
+                if (bytes > 0 && !pcmRing.commit(bytes, ptsUs)) {
+                    //编码线程跟不上，缓冲满了
+                    metrics.increment(PipelineMetrics.TRACK_AUDIO, PipelineMetrics.COUNTER_DROPPED);
+                    HotLog.log(LOG_OVERRUN, bytes, pcmRing.getOverrunCount());
+                }
+            }
+        }
+    }
+
+
+    /**
+     * 拿一个编码器输入缓存开始拼下一批，已经拿着时直接返回。
+     * 同步模式用 dequeueInputBuffer，异步模式等编码器回调空闲缓存。
+     *
+     * @return 是否拿到了输入缓存
+     */
+    private boolean beginBatch() {
+        if (batcher != null && batcher.hasTarget()) {
+            return true;
+        }
+        Encoder codec = mEncoder;
+        if (codec == null) {
+            return false;
+        }
+        int index;
+        ByteBuffer inputBuffer;
         try {
-            audioRecord = new AudioRecord(MediaRecorder.AudioSource.DEFAULT, SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT, min_buffer_size);
-        } catch (IllegalArgumentException e) {
-            MyPrintLog.LogErr("创建audioRecord失败", e);
+            if (asyncMode) {
+                index = inputQueue.takeInputBuffer(INPUT_WAIT_MS);
+            } else {
+                // TIMEOUT_USEC 单位为微秒，当前没有空闲缓存时返回 INFO_TRY_AGAIN_LATER
+                index = codec.dequeueInputBuffer(TIMEOUT_USEC);
+            }
+            if (index < 0) {
+                if (isRecording) {
+                    HotLog.log(LOG_INPUT_TIMEOUT, pcmRing.size());
+                }
+                if (!asyncMode) {
+                    //输入满了通常是输出没取走
+                    drainOutput();
+                }
+                return false;
+            }
+            inputBuffer = codec.getInputBuffer(index);
+        } catch (IllegalStateException e) {
+            //编码器已停止
+            MyPrintLog.LogErr("音频取输入缓存失败", e);
+            return false;
         }
+        if (batcher == null) {
+            batcher = new AacFrameBatcher(SAMPLE_RATE, 1, AacFrameBatcher.framesFor(inputBuffer.capacity(), 1, AAC_FRAMES_PER_BATCH));
+        }
+        batcher.begin(inputBuffer);
+        batchInputIndex = index;
+        return true;
+    }
 
-        bufferAudioRecoder = ByteBuffer.allocateDirect(min_buffer_size);
+    /**
+     * 送出当前批次，时间戳是这批第一个采样的时间；同步模式下随后取一次输出
+     */
+    private void queueBatch() {
+        queueBatch(false);
+    }
 
-        MyPrintLog.LogProcess(AudioEncoderThread.class.getName(), "创建audioRecord成功");
+    /**
+     * @param endOfStream 最后一批：空批次也要送，不按静音跳过，带 FLAG_END_OF_STREAM
+     * @return 是否送进了编码器
+     */
+    private boolean queueBatch(boolean endOfStream) {
+        if (batcher == null || !batcher.hasTarget() || (batcher.size() == 0 && !endOfStream)) {
+            //空批次不送，输入缓存留到下一批
+            return false;
+        }
+        if (!endOfStream && silenceDetector != null && silenceDetector.finish() && skipSilentBatch()) {
+            //输入缓存没有用掉，留给下一批
+            return false;
+        }
+        Encoder codec = mEncoder;
+        int size = batcher.size();
+        //空批次没有自己的时间戳，接着已输出的数据
+        long ptsUs = size > 0 ? batcher.ptsUs() : prevOutputPTSUs;
+        int index = batchInputIndex;
+        batcher.reset();
+        batchInputIndex = -1;
+        if (codec == null) {
+            return false;
+        }
+        if (size > 0) {
+            //先记下再送，异步回调可能马上就有输出
+            onBatchQueued(ptsUs);
+        }
+        try {
+            HotLog.log(LOG_READ, size);
+            codec.queueInputBuffer(index, 0, size, ptsUs, endOfStream ? SampleInfo.FLAG_END_OF_STREAM : 0);
+        } catch (IllegalStateException e) {
+            MyPrintLog.LogErr("音频送数据失败", e);
+            return false;
+        }
+        if (!asyncMode) {
+            drainOutput();
+        }
+        return true;
+    }
 
+    private void onBatchQueued(long ptsUs) {
+        synchronized (outputLock) {
+            int i = queuedBatches % QUEUED_BATCHES;
+            queuedPtsUs[i] = ptsUs;
+            queuedAtNanos[i] = System.nanoTime();
+            queuedBatches++;
+        }
     }
 
+    /**
+     * 输出帧所在批次送进编码器的时间：时间戳不晚于它的最近一批。批次时间戳单调，一批里的几帧都落在这一批上。
+     * 调用时持有 outputLock。
+     *
+     * @return 找不到（批次太旧已被覆盖）时返回 -1
+     */
+    private long queuedAtNanos(long ptsUs) {
+        int oldest = Math.max(0, queuedBatches - QUEUED_BATCHES);
+        for (int n = queuedBatches - 1; n >= oldest; n--) {
+            int i = n % QUEUED_BATCHES;
+            if (queuedPtsUs[i] <= ptsUs) {
+                return queuedAtNanos[i];
+            }
+        }
+        return -1;
+    }
 
-    //使用MediaCodec硬解码
-    private void encode(final ByteBuffer buffer, int length, long presentationTimeUs) {
-
-        //获得输入缓存区数组
-        ByteBuffer[] inputBuffers = mMediaCodec.getInputBuffers();
-        //返回有效的输入缓冲区的索引。
-        // TIMEOUT_USEC<0,则无限期等待输入缓冲区的可用性；
-        // TIMEOUT_USEC=0，立即返回。
-        // 如果超时时间>0，则最多等待“超时”微秒
-        // 当前没有此类缓冲区，返回-1。
-        // 单位为微秒
-        int inputBufferIndex = mMediaCodec.dequeueInputBuffer(TIMEOUT_USEC);
-        /*向编码器输入数据*/
-        if (inputBufferIndex >= 0) {
-            //拿到可有输入缓存区对象
-            final ByteBuffer inputBuffer = inputBuffers[inputBufferIndex];
-            //清空缓存区里的数据
-            inputBuffer.clear();
-            if (buffer != null) {
-                inputBuffer.put(buffer);
+    /**
+     * 一批的几帧按顺序输出，换到下一批时上一批最后一帧的耗时就是上一批的编码耗时。调用时持有 outputLock。
+     */
+    private void onBatchOutput(long queuedAt, long encodeUs) {
+        if (queuedAt != lastOutputQueuedAt) {
+            if (lastOutputQueuedAt >= 0) {
+                avgBatchEncodeUs = avgBatchEncodeUs == 0 ? lastOutputEncodeUs : avgBatchEncodeUs + (lastOutputEncodeUs - avgBatchEncodeUs) / 8;
             }
+            lastOutputQueuedAt = queuedAt;
+        }
+        lastOutputEncodeUs = encodeUs;
+    }
 
-            //如果有内容就去解码
-            if (length <= 0) {
-                //发送结束标示
-//                Log.i(TAG, "send BUFFER_FLAG_END_OF_STREAM");
-                MyPrintLog.LogProcess(AudioEncoderThread.class.getName(), "音频解码结束", 297);
-                mMediaCodec.queueInputBuffer(inputBufferIndex, 0, 0, presentationTimeUs, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
-            } else {
-                //让缓存区去排队
-                mMediaCodec.queueInputBuffer(inputBufferIndex, 0, length, presentationTimeUs, 0);
+    /**
+     * 长时间静音时不送编码器，按这批的帧数写入静音帧，时间戳接着已写入的数据。
+     * 编码器里还没输出的帧（AAC 编码器通常压着一两帧）也在判定静音的保持时间内，一并用静音帧代替，
+     * 之后编码器吐出的这些帧按时间戳丢掉，时间线没有空洞也不会倒退。
+     *
+     * @return 是否已跳过，false 时照常编码
+     */
+    private boolean skipSilentBatch() {
+        WeakReference<MediaMuxerThread> muxerRef = mediaMuxerRunnable;
+        MediaMuxerThread muxer = muxerRef == null ? null : muxerRef.get();
+        //不满一批（暂停前的尾巴）照常编码，编码器还没有输出过时混合器也还没有音频轨道
+        if (muxer == null || batcher.size() < batcher.batchBytes()) {
+            return false;
+        }
+        long batchPtsUs = batcher.ptsUs();
+        int frames = batcher.size() / (AacFrameBatcher.SAMPLES_PER_FRAME * BYTES_PER_SAMPLE);
+        int written = 0;
+        long savedEncodeUs;
+        synchronized (outputLock) {
+            if (writtenEndUs < 0 || batchPtsUs - writtenEndUs > MAX_SKIP_BACKLOG_US) {
+                return false;
             }
-        } else if (inputBufferIndex == MediaCodec.INFO_TRY_AGAIN_LATER) {
-            //如果在对{@link#dequeueOutputBuffer}的调用中指定了非负超时，则表示调用超时。
-            MyPrintLog.LogProcess(AudioEncoderThread.class.getName(), "音频解码超时", 305);
-            return;
+            savedEncodeUs = avgBatchEncodeUs;
+            //先补编码器里还压着的部分，再写这一批
+            long ptsUs = writtenEndUs;
+            long endUs = batchPtsUs + frames * FRAME_US;
+            while (ptsUs + FRAME_US / 2 < endUs) {
+                silentInfo.set(0, silentFrame.capacity(), ptsUs, 0);
+                muxer.addMuxerData(muxer.obtainMuxerData(MediaMuxerThread.TRACK_AUDIO, silentFrame, silentInfo));
+                silentUntilUs = ptsUs;
+                prevOutputPTSUs = ptsUs;
+                ptsUs += FRAME_US;
+                written++;
+            }
+            writtenEndUs = ptsUs;
         }
+        batcher.discard();
+        metrics.add(PipelineMetrics.TRACK_AUDIO, PipelineMetrics.COUNTER_SKIPPED, written);
+        metrics.add(PipelineMetrics.TRACK_AUDIO, PipelineMetrics.COUNTER_SAVED_BYTES, (long) frames * Math.max(0, avgFrameBytes - silentFrame.capacity()));
+        metrics.add(PipelineMetrics.TRACK_AUDIO, PipelineMetrics.COUNTER_SILENT_SKIPPED_US, frames * FRAME_US);
+        metrics.add(PipelineMetrics.TRACK_AUDIO, PipelineMetrics.COUNTER_SAVED_ENCODE_US, savedEncodeUs);
+        HotLog.log(LOG_SILENCE, written, (int) silenceDetector.getLevelDb());
+        return true;
+    }
+
+    /**
+     * 异步模式下编码器的回调，运行在编码器的回调线程
+     */
+    private class EncoderCallback implements Encoder.Callback {
+
+        @Override
+        public void onInputBufferAvailable(int index) {
+            inputQueue.offerInputBuffer(index);
+        }
+
+        @Override
+        public void onOutputBufferAvailable(int index, SampleInfo info) {
+            Encoder codec = mEncoder;
+            if (codec == null) {
+                return;
+            }
+            boolean endOfStream = info.isEndOfStream();
+            try {
+                WeakReference<MediaMuxerThread> muxerRef = mediaMuxerRunnable;
+                MediaMuxerThread muxer = muxerRef == null ? null : muxerRef.get();
+                if (muxer != null) {
+                    sendToMuxer(muxer, codec.getOutputBuffer(index), info);
+                }
+            } finally {
+                codec.releaseOutputBuffer(index);
+            }
+            if (endOfStream) {
+                onOutputEnded();
+            }
+        }
+
+        @Override
+        public void onError(Exception e) {
+            MyPrintLog.LogErr("音频编码器错误", e);
+            HotLog.dumpEvents();
+        }
+
+        @Override
+        public void onOutputFormatChanged(TrackFormat format) {
+            WeakReference<MediaMuxerThread> muxerRef = mediaMuxerRunnable;
+            MediaMuxerThread muxer = muxerRef == null ? null : muxerRef.get();
+            if (muxer != null) {
+                muxer.addTrackIndex(MediaMuxerThread.TRACK_AUDIO, format);
+            }
+        }
+    }
+
+    private void createAudioRecord() {
+
+        MediaFactory factory = MediaMuxerThread.mediaFactory();
+        captureRate = MediaMuxerThread.audioCaptureRate();
+        captureChannels = MediaMuxerThread.audioCaptureChannels();
+        audioSource = factory.createAudioSource(captureRate, captureChannels);
+        if (audioSource == null && (captureRate != SAMPLE_RATE || captureChannels != 1)) {
+            MyPrintLog.LogProcess(AudioEncoderThread.class, "不支持 " + captureRate + "Hz " + captureChannels + " 声道采集，改用编码格式采集");
+            captureRate = SAMPLE_RATE;
+            captureChannels = 1;
+            audioSource = factory.createAudioSource(captureRate, captureChannels);
+        }
+        if (audioSource != null) {
+            min_buffer_size = audioSource.getMinBufferSize();
+        }
+        if (min_buffer_size <= 0) {
+            //取不到最小缓存时按 40ms
+            min_buffer_size = captureRate / 25 * captureChannels * BYTES_PER_SAMPLE;
+        }
+
+        int frames = min_buffer_size / (captureChannels * BYTES_PER_SAMPLE);
+        captureBuffer = new short[frames * captureChannels];
+        pcmProcessor = MediaMuxerThread.createAudioProcessor(captureRate, captureChannels, SAMPLE_RATE, frames);
+        pcmDelayUs = pcmProcessor.resampler().getDelayUs();
+        audioClock = new AudioClock(captureRate);
+        silenceDetector = MediaMuxerThread.createSilenceDetector(SAMPLE_RATE);
+        pcmRing = PcmRing.forDuration(pcmProcessor.maxOutputSamples(frames) * BYTES_PER_SAMPLE, SAMPLE_RATE * BYTES_PER_SAMPLE, PCM_BUFFER_MS);
+
+        MyPrintLog.LogProcess(AudioEncoderThread.class.getName(), "创建音频采集成功");
+
+    }
+
+
+    /**
+     * 同步模式：取出编码器当前所有的输出送给混合器
+     */
+    private void drainOutput() {
 
         /*获取解码后的数据*/
 
         //获取混合器
-        MediaMuxerThread WeakReferenceMediaMuxerThread = mediaMuxerRunnable.get();
+        WeakReference<MediaMuxerThread> muxerRef = mediaMuxerRunnable;
+        MediaMuxerThread WeakReferenceMediaMuxerThread = muxerRef == null ? null : muxerRef.get();
         if (WeakReferenceMediaMuxerThread == null) {
-            Log.w(TAG, "MediaMuxerRunnable is unexpectedly null");
+            MyPrintLog.LogProcess(AudioEncoderThread.class, "MediaMuxerRunnable is unexpectedly null");
             return;
         }
-        ByteBuffer[] encoderOutputBuffers = mMediaCodec.getOutputBuffers();
         int encoderStatus;
 
         do {
             //返回已成功解码的输出缓冲区的索引或一个信息常数。
             //mBufferInfo为一个容器，传入后，会被填充缓存数据信息eg，输出数据大小等
-            encoderStatus = mMediaCodec.dequeueOutputBuffer(mBufferInfo, TIMEOUT_USEC);
+            encoderStatus = mEncoder.dequeueOutputBuffer(mBufferInfo, TIMEOUT_USEC);
             if (encoderStatus >= 0) {
                 //获得输出数据
-                ByteBuffer encodedData = encoderOutputBuffers[encoderStatus];
-                //表示该数据不是媒体数据
-                if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-                    mBufferInfo.size = 0;
-                }
-
-                //待确认
-                //if (mBufferInfo.size != 0  && WeakReferenceMediaMuxerThread.checkMuxerStacks()) {
-                if (mBufferInfo.size != 0) {
-                    mBufferInfo.presentationTimeUs = getPTSUs();
-                    MyPrintLog.LogProcess(AudioEncoderThread.class.getName(), "向混合器中添加一次音频数据");
-                    WeakReferenceMediaMuxerThread.addMuxerData(new MediaMuxerThread.MuxerData(MediaMuxerThread.TRACK_AUDIO, encodedData, mBufferInfo));
-                    prevOutputPTSUs = mBufferInfo.presentationTimeUs;
-                }
+                ByteBuffer encodedData = mEncoder.getOutputBuffer(encoderStatus);
+                boolean endOfStream = mBufferInfo.isEndOfStream();
+                sendToMuxer(WeakReferenceMediaMuxerThread, encodedData, mBufferInfo);
                 //释放资源
-                mMediaCodec.releaseOutputBuffer(encoderStatus, false);
-            } else if (encoderStatus == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
-                //输出缓冲区已更改，客户端必须引用{@link#getOutputBuffers}从此点返回的新输出缓冲区集。
-                encoderOutputBuffers = mMediaCodec.getOutputBuffers();
-            } else if (encoderStatus == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                mEncoder.releaseOutputBuffer(encoderStatus);
+                if (endOfStream) {
+                    onOutputEnded();
+                }
+            } else if (encoderStatus == Encoder.INFO_OUTPUT_FORMAT_CHANGED) {
                 //输出格式已更改，后续数据将遵循新格式。
                 //MediaCodec在一开始调用dequeueOutputBuffer()时会返回一次INFO_OUTPUT_FORMAT_CHANGED消息。
                 // 我们只需在这里获取该MediaCodec的format，并注册到MediaMuxer里
-                final MediaFormat format = mMediaCodec.getOutputFormat(); // API >= 16
-                MyPrintLog.LogProcess(AudioEncoderThread.class.getName(), "获得新的音频输出格式", 320);
+                final TrackFormat format = mEncoder.getOutputFormat();
+                HotLog.log(LOG_FORMAT_CHANGED);
                 WeakReferenceMediaMuxerThread.addTrackIndex(MediaMuxerThread.TRACK_AUDIO, format);
 
-            } else if (encoderStatus == MediaCodec.INFO_TRY_AGAIN_LATER) {
+            } else if (encoderStatus == Encoder.INFO_TRY_AGAIN_LATER) {
                 //超时
-                MyPrintLog.LogProcess(AudioEncoderThread.class, "编码超时！");
+                HotLog.log(LOG_OUTPUT_TIMEOUT);
             } else if (encoderStatus < 0) {
                 //没成功解码，或者结束
-                MyPrintLog.LogProcess(AudioEncoderThread.class, "没有成功编码或者结束");
+                HotLog.log(LOG_OUTPUT_STATUS, encoderStatus);
             }
 
         } while (encoderStatus >= 0 );
     }
 
     /**
-     * get next encoding presentationTimeUs
+     * 把一个输出缓存拷贝给混合器，同步循环和异步回调共用
+     */
+    private void sendToMuxer(MediaMuxerThread muxer, ByteBuffer encodedData, SampleInfo info) {
+        //表示该数据不是媒体数据
+        if ((info.flags & SampleInfo.FLAG_CODEC_CONFIG) != 0 || info.size == 0 || encodedData == null) {
+            return;
+        }
+        metrics.increment(PipelineMetrics.TRACK_AUDIO, PipelineMetrics.COUNTER_ENCODED);
+        synchronized (outputLock) {
+            //时间戳是采集时间，含 PCM 缓冲和拼批次的等待，编码耗时要从这一批送进编码器时算起
+            long queuedAt = queuedAtNanos(info.presentationTimeUs);
+            if (queuedAt >= 0) {
+                long encodeUs = (System.nanoTime() - queuedAt) / 1000;
+                metrics.recordUs(PipelineMetrics.TRACK_AUDIO, PipelineMetrics.STAGE_ENCODE, encodeUs);
+                onBatchOutput(queuedAt, encodeUs);
+            }
+            if (info.presentationTimeUs <= silentUntilUs) {
+                //这一帧已经用静音帧代替了
+                return;
+            }
+            avgFrameBytes = avgFrameBytes == 0 ? info.size : avgFrameBytes + (info.size - avgFrameBytes) / 8;
+            //待确认
+            //if (info.size != 0  && muxer.checkMuxerStacks()) {
+            //保留送编码时的采集时间，混合器据此去掉暂停时间；只保证单调
+            info.presentationTimeUs = Math.max(info.presentationTimeUs, prevOutputPTSUs);
+            HotLog.log(LOG_SENT, info.size, info.presentationTimeUs);
+            //拷贝一次，之后输出缓存可以马上释放
+            muxer.addMuxerData(muxer.obtainMuxerData(MediaMuxerThread.TRACK_AUDIO, encodedData, info));
+            prevOutputPTSUs = info.presentationTimeUs;
+            writtenEndUs = info.presentationTimeUs + FRAME_US;
+        }
+    }
+
+    /**
+     * 刚读到的一块 PCM 的时间戳：按累计采样数推算，不用每次读取时的系统时间，没有调度抖动
      *
-     * @return
+     * @param frames 这一块的帧数（每声道采样数）
+     */
+    private long nextPTSUs(int frames) {
+        long pts = audioClock.onRead(frames, System.nanoTime());
+        HotLog.log(LOG_SKEW, audioClock.getSkewUs(), audioClock.getCorrectionUs());
+        return pts;
+    }
+
+    /**
+     * 测得的音频采样时钟和系统时钟（视频时间戳用的时钟）之间的偏差，正数表示录音采样率偏慢
+     */
+    public long getAudioSkewUs() {
+        return audioClock.getSkewUs();
+    }
+
+    /**
+     * 当前加在音频时间戳上的校正量，会缓慢追上 {@link #getAudioSkewUs()}
      */
-    private long getPTSUs() {
-        //获得纳秒时间
-        long result = System.nanoTime() / 1000L;
-        // presentationTimeUs should be monotonic
-        // otherwise muxer fail to write
-        if (result < prevOutputPTSUs)
-            result = (prevOutputPTSUs - result) + result;
-        return result;
+    public long getAudioCorrectionUs() {
+        return audioClock.getCorrectionUs();
+    }
+
+    /**
+     * 采集线程和编码线程之间 PCM 缓冲的当前块数
+     */
+    public int getPcmQueueDepth() {
+        PcmRing ring = pcmRing;
+        return ring == null ? 0 : ring.size();
+    }
+
+    /**
+     * PCM 缓冲上溢次数：编码跟不上，采集数据被丢弃
+     */
+    public long getPcmOverrunCount() {
+        PcmRing ring = pcmRing;
+        return ring == null ? 0 : ring.getOverrunCount();
+    }
+
+    /**
+     * PCM 缓冲下溢次数：录音中编码线程超时没等到数据
+     */
+    public long getPcmUnderrunCount() {
+        PcmRing ring = pcmRing;
+        return ring == null ? 0 : ring.getUnderrunCount();
     }
 
 
     public void startAudio() {
-        if (audioRecord != null) {
-            audioRecord.startRecording();
+        if (audioSource != null) {
+            audioSource.startRecording();
         }
-        if (mMediaCodec != null) {
-            mMediaCodec.start();
+        if (mEncoder != null) {
+            mEncoder.start();
         }
         isRecording = true;
+        captureThread = new CaptureThread();
+        captureThread.start();
         start();
         MyPrintLog.LogProcess("音频线程已开启");
     }
 
     public void pauseAudio() {
-        if (audioRecord != null) {
-            audioRecord.stop();
+        if (audioSource != null) {
+            audioSource.stop();
         }
         isPause = true;
         MyPrintLog.LogProcess("音频线程已暂停");
     }
 
     public void rePlayAudio() {
-        if (audioRecord != null) {
-            audioRecord.startRecording();
+        if (audioSource != null) {
+            //停止期间没有采样，下一块直接对齐系统时钟
+            audioClock.resync();
+            audioSource.startRecording();
             if (isRecording && isPause) {
                 isPause = false;
                 synchronized (lock) {
-                    lock.notify();
+                    //采集线程和编码线程都可能在等
+                    lock.notifyAll();
                 }
             }
         }
@@ -335,25 +798,47 @@ public class AudioEncoderThread extends Thread {
     public void stopAudio() {
         isRecording = false;
         isPause = false;
-        if (audioRecord != null) {
-            audioRecord.release();
-            audioRecord = null;
+        synchronized (lock) {
+            lock.notifyAll();
         }
-
-        //等待已采集数据处理完毕在关
-        try {
-            Thread.sleep(10);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        if (audioSource != null) {
+            //stop 让阻塞中的 read 返回，等采集线程退出后再释放
+            audioSource.stop();
+            if (captureThread != null) {
+                try {
+                    captureThread.join(500);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+            audioSource.release();
+            audioSource = null;
+        }
+        captureThread = null;
+        if (pcmRing != null) {
+            //不会再有新数据，编码线程把剩下的送完、送出结束标记后退出
+            pcmRing.close();
+        }
+        if (isAlive() && Thread.currentThread() != this) {
+            try {
+                join(STOP_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (isAlive()) {
+                MyPrintLog.LogProcess(AudioEncoderThread.class, "音频编码线程没有在超时前退出");
+            }
         }
 
-
-        if (mMediaCodec != null) {
-            mMediaCodec.stop();
-            mMediaCodec.release();
-            mMediaCodec = null;
+        if (inputQueue != null) {
+            //唤醒还在等输入缓存的编码线程
+            inputQueue.close();
+        }
+        if (mEncoder != null) {
+            mEncoder.stop();
+            mEncoder.release();
+            mEncoder = null;
         }
-        bufferAudioRecoder = null;
         mediaMuxerRunnable = null;
         MyPrintLog.LogProcess("音频线程已关闭");
     }
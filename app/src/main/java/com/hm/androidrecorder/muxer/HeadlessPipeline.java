@@ -0,0 +1,181 @@
+package com.hm.androidrecorder.muxer;
+
+import com.hm.androidrecorder.buffer.FrameBufferPool;
+import com.hm.androidrecorder.codec.FakeMediaFactory;
+import com.hm.androidrecorder.codec.FakeMuxer;
+import com.hm.androidrecorder.metrics.PipelineMetrics;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author hm
+ * @version [v1, 2020-06-02]
+ * @Describe: 在 JVM 上跑完整的录制流水线
+ * <p>
+ * 用的就是录制时的 {@link MediaMuxerThread}、{@link VideoEncoderThread}、{@link AudioEncoderThread}，
+ * 只是通过 {@link MediaMuxerThread#setMediaFactory} 把编码器、音频采集和混合器换成 {@link FakeMediaFactory} 里的假设备，
+ * 再用一个假相机按 {@link FrameBufferPool} 的方式循环送 NV21 帧。用来测吞吐和各阶段延迟，
+ * 结果取自 {@link FakeMuxer} 和 {@link PipelineMetrics}。
+ * <p>
+ * 其它录制参数（分片、异步编码、预录等）照常用 MediaMuxerThread 的静态方法设置。
+ */
+
+
+public class HeadlessPipeline {
+
+    //和 MediaMuxerThread 创建的视频编码线程一致
+    private static final int WIDTH = VideoEncoderThread.IMAGE_WIDTH;
+    private static final int HEIGHT = VideoEncoderThread.IMAGE_HEIGHT;
+    //采集结束后等编码线程交还所有缓存的上限
+    private static final long DRAIN_TIMEOUT_MS = 5000;
+
+    /**
+     * 一次运行的结果
+     */
+    public static final class Result {
+        public long framesCaptured;
+        //相机没有空闲缓存、编码队列满或没有输入缓存丢掉的帧
+        public long framesDropped;
+        public long videoSamples;
+        public long audioSamples;
+        public long bytesWritten;
+        public long elapsedNs;
+        //停止时的指标
+        public PipelineMetrics.Snapshot metrics;
+
+        public double framesPerSecond() {
+            return elapsedNs == 0 ? 0 : videoSamples * 1e9 / elapsedNs;
+        }
+
+        /**
+         * 视频帧在待编码队列和编码器里的平均时间
+         */
+        public double averageLatencyUs() {
+            if (metrics == null) {
+                return 0;
+            }
+            return metrics.stage(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.STAGE_QUEUE).meanUs()
+                    + metrics.stage(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.STAGE_ENCODE).meanUs();
+        }
+
+        @Override
+        public String toString() {
+            return "frames=" + framesCaptured + " dropped=" + framesDropped + " video=" + videoSamples + " audio=" + audioSamples
+                    + " bytes=" + bytesWritten + " fps=" + String.format("%.1f", framesPerSecond())
+                    + " latencyAvgUs=" + String.format("%.0f", averageLatencyUs());
+        }
+    }
+
+    private final FakeMediaFactory factory;
+    private int frameRate = 30;
+    private boolean paced = false;
+    private final ArrayBlockingQueue<byte[]> cameraBuffers = new ArrayBlockingQueue<>(FrameBufferPool.DEFAULT_BUFFER_COUNT);
+    private Result result;
+
+    public HeadlessPipeline(FakeMediaFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * @param fps   采集帧率
+     * @param paced true 时按帧率采集，没有空闲缓存就丢帧，和相机一样；
+     *              false 时等到有空闲缓存就采集下一帧，测整条流水线的最大吞吐
+     */
+    public void setFrameRate(int fps, boolean paced) {
+        if (fps <= 0) {
+            throw new IllegalArgumentException("fps:" + fps);
+        }
+        this.frameRate = fps;
+        this.paced = paced;
+    }
+
+    /**
+     * 开始录制，采集 frameCount 帧后停止，只能调用一次
+     */
+    public Result run(int frameCount) throws InterruptedException {
+        if (result != null) {
+            throw new IllegalStateException("already run");
+        }
+        result = new Result();
+        MediaMuxerThread.setMediaFactory(factory);
+        FrameBufferPool framePool = new FrameBufferPool(FrameBufferPool.nv21FrameSize(WIDTH, HEIGHT));
+        framePool.attach(new FrameBufferPool.Recycler() {
+            @Override
+            public void onRecycle(byte[] buffer) {
+                cameraBuffers.offer(buffer);
+            }
+        });
+        MediaMuxerThread muxerThread = MediaMuxerThread.getInstance();
+        muxerThread.setFrameBufferPool(framePool);
+
+        long start = System.nanoTime();
+        muxerThread.startMuxer();
+        long cameraDropped = capture(muxerThread, frameCount);
+        //编码线程把已经送出的帧处理完、缓存都交还之后再停止
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MS;
+        while (cameraBuffers.size() < framePool.getBufferCount() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        PipelineMetrics metrics = muxerThread.getMetrics();
+        //停止在后台线程完成，等回调之后再读结果
+        final CountDownLatch stopped = new CountDownLatch(1);
+        muxerThread.stopMuxer(new MediaMuxerThread.StopListener() {
+            @Override
+            public void onStopped(String mediaFilePath) {
+                stopped.countDown();
+            }
+        });
+        if (!stopped.await(DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            throw new IllegalStateException("stop timeout");
+        }
+        result.elapsedNs = System.nanoTime() - start;
+        framePool.detach();
+
+        result.metrics = metrics.snapshot();
+        result.framesDropped = cameraDropped + result.metrics.get(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.COUNTER_DROPPED);
+        for (FakeMuxer muxer : factory.getMuxers()) {
+            for (int track = 0; track < muxer.getTrackCount(); track++) {
+                if (muxer.getTrackFormat(track).isVideo()) {
+                    result.videoSamples += muxer.getSampleCount(track);
+                } else {
+                    result.audioSamples += muxer.getSampleCount(track);
+                }
+            }
+            result.bytesWritten += muxer.getBytesWritten();
+        }
+        return result;
+    }
+
+    /**
+     * 假相机：取一块空闲缓存填一帧交给混合线程，限速时没有空闲缓存这一帧丢掉
+     *
+     * @return 没有空闲缓存丢掉的帧数
+     */
+    private long capture(MediaMuxerThread muxerThread, int frameCount) throws InterruptedException {
+        long intervalNs = 1000000000L / frameRate;
+        long start = System.nanoTime();
+        long dropped = 0;
+        for (int i = 0; i < frameCount; i++) {
+            if (paced) {
+                long waitNs = start + i * intervalNs - System.nanoTime();
+                if (waitNs > 0) {
+                    LockSupport.parkNanos(waitNs);
+                }
+            }
+            result.framesCaptured++;
+            byte[] frame = paced ? cameraBuffers.poll() : cameraBuffers.poll(DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (frame == null) {
+                dropped++;
+                continue;
+            }
+            //亮度按序号填充，色度保持不变
+            Arrays.fill(frame, 0, WIDTH * HEIGHT, (byte) i);
+            muxerThread.addVideoData(frame);
+        }
+        return dropped;
+    }
+}
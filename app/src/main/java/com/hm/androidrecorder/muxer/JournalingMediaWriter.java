@@ -0,0 +1,182 @@
+package com.hm.androidrecorder.muxer;
+
+import com.hm.androidrecorder.codec.Muxer;
+import com.hm.androidrecorder.codec.SampleInfo;
+import com.hm.androidrecorder.mp4.JournalRecovery;
+import com.hm.androidrecorder.mp4.SampleJournal;
+import com.hm.androidrecorder.mp4.TrackFormat;
+import com.hm.androidrecorder.utils.MyPrintLog;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-28]
+ * @Describe: 写文件的同时把样本追加到 {@link SampleJournal}
+ * <p>
+ * 包装真正的 {@link Muxer}，日志放在输出文件旁边（路径加 {@link #SUFFIX}）。
+ * release 成功说明文件已经完整，日志随即删除；进程中途退出时日志留下来，
+ * 下次启动用 {@link #recoverAll(File)} 重建成分片 MP4，覆盖掉那个不能播放的文件。
+ * <p>
+ * 日志写失败只停止记录日志，不影响正常录制。写样本和 release 互斥，日志不会在最后一次写入前关闭；
+ * 调用方没能等到全部数据写完时用 {@link #keepJournal()} 保留日志，下次启动照样恢复。
+ */
+
+
+public class JournalingMediaWriter implements Muxer {
+
+    public static final String SUFFIX = ".journal";
+    //恢复时的临时文件，完成后改名成原来的文件
+    private static final String RECOVERING_SUFFIX = ".recovering";
+
+    private final Muxer target;
+    private final File journalFile;
+    private SampleJournal journal;
+    //release 时只关闭不删除日志
+    private boolean keepJournal = false;
+    private boolean released = false;
+
+    /**
+     * @param path           target 写入的文件
+     * @param syncIntervalMs 日志两次 fsync 的间隔
+     */
+    public JournalingMediaWriter(Muxer target, String path, long syncIntervalMs) throws IOException {
+        this.target = target;
+        this.journalFile = new File(path + SUFFIX);
+        this.journal = new SampleJournal(journalFile, syncIntervalMs);
+    }
+
+    @Override
+    public synchronized int addTrack(TrackFormat format) {
+        int track = target.addTrack(format);
+        if (journal != null) {
+            try {
+                journal.addTrack(track, format);
+            } catch (IOException | RuntimeException e) {
+                abandonJournal("日志记录轨道格式失败", e);
+            }
+        }
+        return track;
+    }
+
+    @Override
+    public void start() {
+        target.start();
+    }
+
+    @Override
+    public synchronized void writeSampleData(int trackIndex, ByteBuffer byteBuf, SampleInfo bufferInfo) {
+        if (released) {
+            //release 之后才到的样本，文件已经关闭
+            return;
+        }
+        if (journal != null) {
+            try {
+                journal.writeSample(trackIndex, byteBuf, bufferInfo.offset, bufferInfo.size, bufferInfo.presentationTimeUs, bufferInfo.flags);
+            } catch (IOException e) {
+                abandonJournal("日志写入失败", e);
+            }
+        }
+        target.writeSampleData(trackIndex, byteBuf, bufferInfo);
+    }
+
+    @Override
+    public void stop() {
+        target.stop();
+    }
+
+    /**
+     * release 时保留日志：混合器线程没有按时写完，文件可能缺少最后的数据
+     */
+    public synchronized void keepJournal() {
+        keepJournal = true;
+    }
+
+    /**
+     * 文件写完整后删除日志；target 释放失败或要求保留时日志留下来，用来恢复
+     */
+    @Override
+    public synchronized void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        target.release();
+        if (keepJournal) {
+            closeJournal();
+        } else {
+            abandonJournal(null, null);
+        }
+    }
+
+    private void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                MyPrintLog.LogErr("日志关闭失败", e);
+            }
+            journal = null;
+        }
+    }
+
+    private void abandonJournal(String message, Exception e) {
+        if (message != null) {
+            MyPrintLog.LogErr(message, e);
+        }
+        closeJournal();
+        journalFile.delete();
+    }
+
+    /**
+     * 把目录里上次录制留下的日志都恢复成 MP4
+     *
+     * @return 成功恢复的文件数
+     */
+    public static int recoverAll(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        int recovered = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(SUFFIX) && recover(file)) {
+                recovered++;
+            }
+        }
+        return recovered;
+    }
+
+    /**
+     * 用日志重建它旁边的输出文件，成功后删除日志
+     */
+    public static boolean recover(File journal) {
+        String path = journal.getPath();
+        File output = new File(path.substring(0, path.length() - SUFFIX.length()));
+        File temp = new File(output.getPath() + RECOVERING_SUFFIX);
+        try {
+            FileOutputStream outputStream = new FileOutputStream(temp);
+            JournalRecovery.Result result;
+            try {
+                result = JournalRecovery.recover(journal, outputStream.getChannel());
+                outputStream.getFD().sync();
+            } finally {
+                outputStream.close();
+            }
+            output.delete();
+            if (!temp.renameTo(output)) {
+                throw new IOException("rename failed: " + temp);
+            }
+            journal.delete();
+            MyPrintLog.LogProcess(JournalingMediaWriter.class, "录制恢复完成：" + output + "，" + result);
+            return true;
+        } catch (IOException e) {
+            MyPrintLog.LogErr("录制恢复失败：" + journal, e);
+            temp.delete();
+            return false;
+        }
+    }
+}
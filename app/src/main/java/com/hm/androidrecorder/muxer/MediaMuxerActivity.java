@@ -17,6 +17,7 @@ import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.hm.androidrecorder.buffer.FrameBufferPool;
 import com.renhui.androidrecorder.R;
 
 import java.io.IOException;
@@ -32,6 +33,8 @@ public class MediaMuxerActivity extends AppCompatActivity implements SurfaceHold
     Camera camera;
     SurfaceHolder surfaceHolder;
     MediaMuxerThread mediaMuxerThread;
+    //预览帧缓存池，尺寸和预览尺寸一致
+    FrameBufferPool framePool;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -50,21 +53,40 @@ public class MediaMuxerActivity extends AppCompatActivity implements SurfaceHold
                     Manifest.permission.WRITE_EXTERNAL_STORAGE, Manifest.permission.READ_EXTERNAL_STORAGE}, 100);
         }
 
+        framePool = new FrameBufferPool(FrameBufferPool.nv21FrameSize(VideoEncoderThread.IMAGE_WIDTH, VideoEncoderThread.IMAGE_HEIGHT));
+
         surfaceView = (SurfaceView) findViewById(R.id.surface_view);
         startStopButton = (Button) findViewById(R.id.startStop);
         startStopButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
                 if (view.getTag().toString().equalsIgnoreCase("stop")) {
-                    view.setTag("start");
-                    ((TextView) view).setText("开始");
-                    mediaMuxerThread.stopMuxer();
+                    //停止在后台完成，完成前不能重新开始
+                    view.setEnabled(false);
+                    ((TextView) view).setText("停止中");
                     stopCamera();
+                    stopMuxer(new MediaMuxerThread.StopListener() {
+                        @Override
+                        public void onStopped(final String mediaFilePath) {
+                            runOnUiThread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    startStopButton.setTag("start");
+                                    startStopButton.setText("开始");
+                                    startStopButton.setEnabled(true);
+                                    if (!mediaFilePath.isEmpty()) {
+                                        Toast.makeText(MediaMuxerActivity.this, "已保存：" + mediaFilePath, Toast.LENGTH_SHORT).show();
+                                    }
+                                }
+                            });
+                        }
+                    });
                 } else {
+                    mediaMuxerThread = MediaMuxerThread.getInstance();
+                    mediaMuxerThread.setFrameBufferPool(framePool);
                     startCamera();
                     view.setTag("stop");
                     ((TextView) view).setText("停止");
-                    mediaMuxerThread = MediaMuxerThread.getInstance();
                     mediaMuxerThread.startMuxer();
                 }
             }
@@ -90,16 +112,34 @@ public class MediaMuxerActivity extends AppCompatActivity implements SurfaceHold
     @Override
     public void surfaceDestroyed(SurfaceHolder surfaceHolder) {
         Log.w("MainActivity", "enter surfaceDestroyed method");
-        if (mediaMuxerThread != null) {
-            mediaMuxerThread.stopMuxer();
-        }
         stopCamera();
+        //界面销毁不等停止完成，文件在后台写完
+        stopMuxer(null);
 
     }
 
+    /**
+     * 停止录制，马上返回，不在界面线程等编码器和混合器
+     */
+    private void stopMuxer(MediaMuxerThread.StopListener listener) {
+        if (mediaMuxerThread != null) {
+            mediaMuxerThread.stopMuxer(listener);
+            //之后的预览帧直接还给相机
+            mediaMuxerThread = null;
+        } else if (listener != null) {
+            //已经停过（比如界面销毁时），直接恢复按钮
+            listener.onStopped("");
+        }
+    }
+
     @Override
     public void onPreviewFrame(byte[] bytes, Camera camera) {
-        mediaMuxerThread.addVideoData(bytes);
+        if (mediaMuxerThread != null) {
+            //编码完成后由编码线程交还给相机
+            mediaMuxerThread.addVideoData(bytes);
+        } else {
+            camera.addCallbackBuffer(bytes);
+        }
     }
 
     //----------------------- 摄像头操作相关 --------------------------------------
@@ -113,7 +153,7 @@ public class MediaMuxerActivity extends AppCompatActivity implements SurfaceHold
         Camera.Parameters parameters = camera.getParameters();
         parameters.setPreviewFormat(ImageFormat.NV21);
         // 这个宽高的设置必须和后面编解码的设置一样，否则不能正常处理
-        parameters.setPreviewSize(1920, 1080);
+        parameters.setPreviewSize(VideoEncoderThread.IMAGE_WIDTH, VideoEncoderThread.IMAGE_HEIGHT);
         // 横竖屏镜头自动调整
         if (this.
 
@@ -132,7 +172,15 @@ public class MediaMuxerActivity extends AppCompatActivity implements SurfaceHold
         try {
             camera.setParameters(parameters);
             camera.setPreviewDisplay(surfaceHolder);
-            camera.setPreviewCallback(MediaMuxerActivity.this);
+            //使用预先分配的缓存接收预览帧，避免每帧分配新数组
+            final Camera previewCamera = camera;
+            framePool.attach(new FrameBufferPool.Recycler() {
+                @Override
+                public void onRecycle(byte[] buffer) {
+                    previewCamera.addCallbackBuffer(buffer);
+                }
+            });
+            camera.setPreviewCallbackWithBuffer(MediaMuxerActivity.this);
             camera.startPreview();
         } catch (
                 IOException e) {
@@ -147,7 +195,8 @@ public class MediaMuxerActivity extends AppCompatActivity implements SurfaceHold
     private void stopCamera() {
         // 停止预览并释放资源
         if (camera != null) {
-            camera.setPreviewCallback(null);
+            framePool.detach();
+            camera.setPreviewCallbackWithBuffer(null);
             camera.stopPreview();
             camera.release();
             camera = null;
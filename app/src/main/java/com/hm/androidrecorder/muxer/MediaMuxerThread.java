@@ -1,19 +1,32 @@
 package com.hm.androidrecorder.muxer;
 
 
-import android.media.MediaCodec;
-import android.media.MediaFormat;
-import android.media.MediaMuxer;
-import android.util.Log;
-
+import com.hm.androidrecorder.audio.PcmProcessor;
+import com.hm.androidrecorder.audio.SilenceDetector;
+import com.hm.androidrecorder.buffer.FrameBufferPool;
+import com.hm.androidrecorder.buffer.SampleArena;
+import com.hm.androidrecorder.codec.AdaptiveRateController;
+import com.hm.androidrecorder.codec.MediaFactory;
+import com.hm.androidrecorder.codec.Mp4Muxer;
+import com.hm.androidrecorder.codec.Muxer;
+import com.hm.androidrecorder.codec.SampleInfo;
 import com.hm.androidrecorder.constant.GlobalConfig;
+import com.hm.androidrecorder.log.HotLog;
+import com.hm.androidrecorder.log.LogSite;
+import com.hm.androidrecorder.metrics.MetricsExporter;
+import com.hm.androidrecorder.mp4.SampleJournal;
+import com.hm.androidrecorder.mp4.TrackFormat;
+import com.hm.androidrecorder.metrics.PipelineMetrics;
 import com.hm.androidrecorder.utils.FileUtil;
 import com.hm.androidrecorder.utils.MyPrintLog;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
-import java.util.Vector;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 音视频混合线程
@@ -21,29 +34,118 @@ import java.util.Vector;
 public class MediaMuxerThread extends Thread {
 
     private static final String TAG = "MediaMuxerThread";
+
+    //每个样本的日志，默认级别下不输出
+    private static final LogSite LOG_IDLE = new LogSite(HotLog.VERBOSE, TAG, "no sample to write, waiting");
+    private static final LogSite LOG_WRITE = new LogSite(HotLog.VERBOSE, TAG, "write track {} size {}");
+    private static final LogSite LOG_PAUSED_SAMPLE = new LogSite(HotLog.DEBUG, TAG, "drop track {} sample captured while paused, pts {}");
+    private static final LogSite LOG_PRE_ROLL = new LogSite(HotLog.INFO, TAG, "pre-roll flushed {} samples, {}us");
     //视频存储目录
-    private String mediaFilePathDir = FileUtil.getSDPath() + "/hm_muxer/media/";
+    private static final String MEDIA_DIR = "/hm_muxer/media/";
+    private String mediaFilePathDir = mediaFactory().getStorageRoot() + MEDIA_DIR;
     private String BASE_EXT = ".mp4";
     private String currentMediaFilePath = "";
     public static final int TRACK_VIDEO = 0;
     public static final int TRACK_AUDIO = 1;
+    //音视频交织时等待落后轨道的最长时间
+    private static final long INTERLEAVE_WINDOW_US = 500 * 1000;
+    //落后超过这个时间认为轨道卡住
+    private static final long TRACK_STALL_US = 2 * 1000 * 1000;
+    //混合器线程等待数据的超时时间
+    private static final long WAIT_MS = 100;
+    //停止时等混合器线程写完剩余数据的上限
+    private static final long STOP_TIMEOUT_MS = 3000;
+    //预录只限制时长时的默认内存上限
+    private static final long DEFAULT_PRE_ROLL_BYTES = 32 * 1024 * 1024;
 
     private final Object lock = new Object();
 
+    /**
+     * 停止完成通知，在停止线程回调，更新界面需要切回主线程
+     */
+    public interface StopListener {
+        /**
+         * @param mediaFilePath 最后写的文件，没有产生文件（没录或预录没触发）时为空串
+         */
+        void onStopped(String mediaFilePath);
+    }
+
     private static MediaMuxerThread mediaMuxerThread;
 
     private AudioEncoderThread audioThread = null;
     private VideoEncoderThread videoThread = null;
-
-    private MediaMuxer mediaMuxer;
-    //缓存数组
-    private Vector<MuxerData> muxerDatas = null;
+    //预览帧缓存池
+    private FrameBufferPool framePool = null;
+
+    private Muxer mediaMuxer;
+    //编码器、音频采集、混合器的创建入口，设备上默认是 AndroidMediaFactory
+    private static volatile MediaFactory mediaFactory = defaultMediaFactory();
+    //是否写分片 MP4，在 getInstance 之前设置
+    private static boolean fragmentedOutput = false;
+    //分段录制的单文件时长/大小上限，都不大于 0 时不分段
+    private static long segmentDurationUs = 0;
+    private static long segmentBytes = 0;
+    //编码器是否使用异步回调模式，在 getInstance 之前设置
+    private static boolean asyncEncoding = false;
+    //是否按积压自动调整视频码率和帧率，以及调整的下限，不大于 0 时用默认值
+    private static boolean adaptiveRate = false;
+    private static int adaptiveMinBitRate = 0;
+    private static int adaptiveMinFrameRate = 0;
+    //指标导出间隔，不大于 0 时不导出
+    private static long metricsExportIntervalMs = 0;
+    //音频采集的采样率和声道数，编码固定 16kHz 单声道，中间重采样、下混
+    private static int audioCaptureRate = GlobalConfig.SAMPLE_RATE_INHZ;
+    private static int audioCaptureChannels = 1;
+    //音频增益（dB）和限幅门限（dBFS），门限大于 0 时不限幅
+    private static double audioGainDb = 0;
+    private static double audioLimiterDb = 1;
+    //长时间静音时是否跳过音频编码，以及静音能量上限（dBFS）
+    private static boolean audioSilenceSkip = false;
+    private static double audioSilenceDb = SilenceDetector.DEFAULT_MAX_SILENCE_DB;
+    //预录：触发前保留的时长和内存上限，都不大于 0 时 startMuxer 后直接写文件
+    private static long preRollDurationUs = 0;
+    private static long preRollBytes = 0;
+    //样本日志的 fsync 间隔，不大于 0 时不写日志
+    private static long journalSyncIntervalMs = 0;
+    //指标文件目录
+    private String metricsFilePathDir = mediaFactory().getStorageRoot() + "/hm_muxer/metrics/";
+    //各阶段指标，在 initMuxer 之前创建
+    private final PipelineMetrics metrics = new PipelineMetrics();
+    private MetricsExporter metricsExporter = null;
+    //分段切换时机，不分段时为空
+    private SegmentPolicy segmentPolicy = null;
+    //提前准备好的下一个文件，已添加轨道，切换时 start
+    private Muxer nextMuxer = null;
+    private String nextMediaFilePath = "";
+    private int nextVideoTrackIndex = -1;
+    private int nextAudioTrackIndex = -1;
+    //轨道格式，新文件添加轨道时使用
+    private TrackFormat videoFormat = null;
+    private TrackFormat audioFormat = null;
+    //缓存数组，按时间戳交织音视频
+    private SampleInterleaver<MuxerData> muxerDatas = null;
+    //编码数据缓存池，编码线程拷贝一次输出数据，写完后归还
+    private final SampleArena sampleArena = new SampleArena();
+    //空闲的 MuxerData 对象
+    private final ArrayDeque<MuxerData> muxerDataPool = new ArrayDeque<>();
+    //预录缓存，不预录时为空；触发后写进文件
+    private PreRollBuffer<MuxerData> preRoll = null;
+    private volatile boolean triggered = false;
 
     private int videoTrackIndex = -1;
     private int audioTrackIndex = -1;
 
+    //去掉暂停时间的时间轴，两条轨道共用
+    private final TimelineClock timeline = new TimelineClock();
+    //每条轨道上一个写入的时间戳，保证单调
+    private final long[] lastPtsUs = {Long.MIN_VALUE, Long.MIN_VALUE};
+
 
-    private boolean isRunning = false;
+    private volatile boolean isRunning = false;
+    //编码已停止，混合器线程写完交织缓存里的数据后退出
+    private volatile boolean stopRequested = false;
+    //执行停止的线程，只启动一次
+    private Thread stopThread = null;
     //标记混合器运行状态
     private int muxerState = MUXER_STATE_UNINITIALIZED;
 
@@ -62,7 +164,31 @@ public class MediaMuxerThread extends Thread {
     // 初始化混合器
     private void initMuxer() {
         //创建缓存数组
-        muxerDatas = new Vector<>();
+        muxerDatas = new SampleInterleaver<>(2, 64, INTERLEAVE_WINDOW_US, TRACK_STALL_US);
+        muxerDatas.setStallListener(new SampleInterleaver.StallListener() {
+            @Override
+            public void onTrackStalled(int track, long lagUs) {
+                MyPrintLog.LogProcess(MediaMuxerThread.class, (track == TRACK_VIDEO ? "视频" : "音频") + "轨道没有数据，已落后(us)：" + lagUs);
+            }
+
+            @Override
+            public void onTrackRecovered(int track, long stalledUs) {
+                MyPrintLog.LogProcess(MediaMuxerThread.class, (track == TRACK_VIDEO ? "视频" : "音频") + "轨道恢复，中断(us)：" + stalledUs);
+            }
+        });
+
+        if (segmentDurationUs > 0 || segmentBytes > 0) {
+            segmentPolicy = new SegmentPolicy(segmentDurationUs, segmentBytes);
+        }
+        if (isPreRollEnabled()) {
+            preRoll = new PreRollBuffer<>(preRollDurationUs, preRollBytes > 0 ? preRollBytes : DEFAULT_PRE_ROLL_BYTES,
+                    new PreRollBuffer.Releaser<MuxerData>() {
+                        @Override
+                        public void release(MuxerData sample) {
+                            sample.release();
+                        }
+                    });
+        }
 
         //支持用户自定义set
         if (audioThread == null) {
@@ -74,6 +200,9 @@ public class MediaMuxerThread extends Thread {
             //创建视频编码器和规定了视频格式
             videoThread = new VideoEncoderThread(1920, 1080, new WeakReference<MediaMuxerThread>(this));
         }
+        audioThread.setMetrics(metrics);
+        videoThread.setMetrics(metrics);
+        registerQueues();
 
         //创建视频混合器
         createMediaMuxer();
@@ -87,6 +216,9 @@ public class MediaMuxerThread extends Thread {
      */
     public void setAudioThread(AudioEncoderThread at) {
         audioThread = at;
+        if (audioThread != null) {
+            audioThread.setMetrics(metrics);
+        }
     }
 
     /**
@@ -96,71 +228,466 @@ public class MediaMuxerThread extends Thread {
      */
     public void setVideoThread(VideoEncoderThread vt) {
         videoThread = vt;
+        if (videoThread != null) {
+            videoThread.setFrameBufferPool(framePool);
+            videoThread.setMetrics(metrics);
+        }
+    }
+
+    /**
+     * 登记快照时要读取深度的队列
+     */
+    private void registerQueues() {
+        metrics.setQueue("videoFrames", new PipelineMetrics.QueueDepth() {
+            @Override
+            public int depth() {
+                VideoEncoderThread vt = videoThread;
+                return vt == null ? 0 : vt.getQueueDepth();
+            }
+        });
+        metrics.setQueue("audioPcm", new PipelineMetrics.QueueDepth() {
+            @Override
+            public int depth() {
+                AudioEncoderThread at = audioThread;
+                return at == null ? 0 : at.getPcmQueueDepth();
+            }
+        });
+        metrics.setQueue("muxerVideo", new PipelineMetrics.QueueDepth() {
+            @Override
+            public int depth() {
+                SampleInterleaver<MuxerData> datas = muxerDatas;
+                return datas == null ? 0 : datas.size(TRACK_VIDEO);
+            }
+        });
+        metrics.setQueue("muxerAudio", new PipelineMetrics.QueueDepth() {
+            @Override
+            public int depth() {
+                SampleInterleaver<MuxerData> datas = muxerDatas;
+                return datas == null ? 0 : datas.size(TRACK_AUDIO);
+            }
+        });
+        metrics.setQueue("preRoll", new PipelineMetrics.QueueDepth() {
+            @Override
+            public int depth() {
+                PreRollBuffer<MuxerData> buffer = preRoll;
+                return buffer == null ? 0 : buffer.size();
+            }
+        });
+    }
+
+    /**
+     * 各阶段指标，计数是本次录制的累计值
+     */
+    public PipelineMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 当前指标的快照，可以在任意线程调用
+     */
+    public PipelineMetrics.Snapshot getMetricsSnapshot() {
+        return metrics.snapshot();
+    }
+
+    /**
+     * 设置预览帧缓存池，编码完的帧会交还给相机重复使用
+     *
+     * @param pool
+     */
+    public void setFrameBufferPool(FrameBufferPool pool) {
+        framePool = pool;
+        if (videoThread != null) {
+            videoThread.setFrameBufferPool(pool);
+        }
     }
 
 
     @Override
     public void run() {
         super.run();
-        Log.e(GlobalConfig.LOG_PROCESS, "run--------isRunning：" + isRunning);
-        Log.e(GlobalConfig.LOG_PROCESS, "混合器是否启动：isMuxerStart" + isStartMuxer());
-        Log.e(GlobalConfig.LOG_PROCESS, "混合器缓存是否有数据：" + muxerDatas.isEmpty());
+        MyPrintLog.LogProcess(MediaMuxerThread.class, "run--------isRunning：" + isRunning);
+        MyPrintLog.LogProcess(MediaMuxerThread.class, "混合器是否启动：isMuxerStart" + isStartMuxer());
+        MyPrintLog.LogProcess(MediaMuxerThread.class, "混合器缓存是否有数据：" + muxerDatas.isEmpty());
         while (isRunning) {
-            if (!isStartMuxer() || muxerDatas.isEmpty()) {
-                //没有音视频轨或者没有数据
+            if (triggered && !isStartMuxer() && checkMuxerStacks()) {
+                flushPreRoll();
+            }
+            //预录时两条轨道都有了就开始取数据，放进预录缓存
+            boolean preRolling = preRoll != null && !isStartMuxer() && checkMuxerStacks();
+            MuxerData data = isStartMuxer() || preRolling ? muxerDatas.poll() : null;
+            if (data == null) {
+                if (stopRequested) {
+                    //停止时交织缓存已经写空
+                    break;
+                }
+                //没有音视频轨或者没有可以写入的数据
                 synchronized (lock) {
                     try {
-                        MyPrintLog.LogProcess(MediaMuxerThread.class,"混合器线程睡眠等待");
-                        lock.wait();
-                        MyPrintLog.LogProcess(MediaMuxerThread.class,"混合器线程被唤醒");
+                        HotLog.log(LOG_IDLE);
+                        lock.wait(WAIT_MS);
                     } catch (InterruptedException e) {
                         e.printStackTrace();
                     }
                 }
             } else {
-                MuxerData data = muxerDatas.remove(0);
-                int track;
-                //？？？？？videoTrackIndex和audioTrackIndex都是-1
-                if (data.trackIndex == TRACK_VIDEO) {
-                    track = videoTrackIndex;
-                } else {
-                    track = audioTrackIndex;
+                if (!applyTimeline(data)) {
+                    HotLog.log(LOG_PAUSED_SAMPLE, data.trackIndex, data.bufferInfo.presentationTimeUs);
+                    data.release();
+                    continue;
                 }
-                MyPrintLog.LogProcess(MediaMuxerThread.class.getName(), "向混合器写入数据：" + data.bufferInfo.size);
-                try {
-                    mediaMuxer.writeSampleData(track, data.byteBuf, data.bufferInfo);
-                } catch (Exception e) {
-                    MyPrintLog.LogErr("混合器写入数据失败", e);
+                //TRACK_VIDEO/TRACK_AUDIO 和 PipelineMetrics 的轨道序号一致
+                metrics.recordSince(data.trackIndex, PipelineMetrics.STAGE_INTERLEAVE, data.queuedNanos);
+                if (!isStartMuxer()) {
+                    //还没触发，按 GOP 缓存，超出的部分在里面释放；按缓存池实际分出的容量计内存，不是样本长度
+                    boolean keyFrame = data.trackIndex == TRACK_VIDEO && data.bufferInfo.isKeyFrame();
+                    preRoll.add(keyFrame, data.bufferInfo.presentationTimeUs, data.byteBuf.capacity(), data);
+                    continue;
                 }
+                writeSample(data);
             }
         }
+        if (preRoll != null) {
+            //没有触发就停止时缓存里的数据直接丢掉
+            preRoll.clear();
+        }
 
         MyPrintLog.LogProcess(MediaMuxerThread.class, "MediaMuxerThread停止！！！！！");
     }
 
+    /**
+     * 写入一个已换算时间轴的样本，写完释放
+     */
+    private void writeSample(MuxerData data) {
+        HotLog.log(LOG_WRITE, data.trackIndex, data.bufferInfo.size);
+        try {
+            if (segmentPolicy != null) {
+                checkSegment(data);
+            }
+            int track;
+            //？？？？？videoTrackIndex和audioTrackIndex都是-1
+            if (data.trackIndex == TRACK_VIDEO) {
+                track = videoTrackIndex;
+            } else {
+                track = audioTrackIndex;
+            }
+            long writeStart = System.nanoTime();
+            mediaMuxer.writeSampleData(track, data.byteBuf, data.bufferInfo);
+            metrics.recordSince(data.trackIndex, PipelineMetrics.STAGE_WRITE, writeStart);
+            metrics.increment(data.trackIndex, PipelineMetrics.COUNTER_WRITTEN);
+            metrics.add(data.trackIndex, PipelineMetrics.COUNTER_BYTES, data.bufferInfo.size);
+        } catch (Exception e) {
+            MyPrintLog.LogErr("混合器写入数据失败", e);
+            HotLog.dumpEvents();
+        } finally {
+            data.release();
+        }
+    }
+
+    /**
+     * 触发后启动文件，先按顺序写完预录缓存，之后的实时数据照常写入
+     */
+    private void flushPreRoll() {
+        requestStartMuxer();
+        if (!isStartMuxer()) {
+            return;
+        }
+        long durationUs = preRoll.durationUs();
+        int count = 0;
+        MuxerData data;
+        while ((data = preRoll.poll()) != null) {
+            writeSample(data);
+            count++;
+        }
+        HotLog.log(LOG_PRE_ROLL, count, durationUs);
+        MyPrintLog.LogProcess(MediaMuxerThread.class, "预录触发，写入触发前(us)：" + durationUs);
+    }
+
+    /**
+     * 把样本的采集时间换成去掉暂停后的时间，每条轨道单调不减
+     *
+     * @return false 表示样本采集于暂停期间，不写入
+     */
+    private boolean applyTimeline(MuxerData data) {
+        long pts = timeline.toTimelineUs(data.bufferInfo.presentationTimeUs);
+        if (pts == TimelineClock.DROPPED) {
+            return false;
+        }
+        pts = Math.max(pts, lastPtsUs[data.trackIndex]);
+        lastPtsUs[data.trackIndex] = pts;
+        data.bufferInfo.presentationTimeUs = pts;
+        return true;
+    }
+
     // 开始音视频混合任务
-    public static MediaMuxerThread getInstance() {
+    public static synchronized MediaMuxerThread getInstance() {
 
         if (mediaMuxerThread == null) {
             mediaMuxerThread = new MediaMuxerThread();
-            Log.e(GlobalConfig.LOG_PROCESS, "获取音视频混合器单例");
+            MyPrintLog.LogProcess(MediaMuxerThread.class, "获取音视频混合器单例");
         }
 
         return mediaMuxerThread;
     }
 
 
+    /**
+     * 选择输出格式：true 写分片 MP4，录制中途崩溃时已写出的部分仍可播放；false 使用系统 MediaMuxer。
+     * 对之后创建的混合器生效。
+     *
+     * @param fragmented
+     */
+    public static void setFragmentedOutput(boolean fragmented) {
+        fragmentedOutput = fragmented;
+    }
+
+    /**
+     * 分段录制：单个文件超过时长或大小后，在下一个视频关键帧切换到新文件，编码器不停。
+     * 都不大于 0 时不分段。对之后创建的混合器生效。
+     *
+     * @param maxDurationUs 单个文件最长时间
+     * @param maxBytes      单个文件最大字节数
+     */
+    public static void setSegmentLimits(long maxDurationUs, long maxBytes) {
+        segmentDurationUs = maxDurationUs;
+        segmentBytes = maxBytes;
+    }
+
+    /**
+     * 预录模式：startMuxer 后编码器照常运行，但不写文件，只在内存里保留最近的编码数据（按整个 GOP，
+     * 从关键帧开始）。调用 {@link #triggerRecording()} 后先写入这段历史，再接着写实时数据。
+     * 都不大于 0 时关闭预录。对之后创建的混合器生效。
+     *
+     * @param durationUs 触发前至少保留的时长
+     * @param maxBytes   预录缓存最多占用的内存，不大于 0 时默认 32MB
+     */
+    public static void setPreRoll(long durationUs, long maxBytes) {
+        preRollDurationUs = durationUs;
+        preRollBytes = maxBytes;
+    }
+
+    /**
+     * 样本日志：写文件的同时把编码样本追加到旁边的日志，每隔 syncIntervalMs 落盘一次。
+     * 进程在 stopMuxer 之前退出时，下次用 {@link #recoverInterruptedRecordings()} 把日志重建成可播放的 MP4。
+     * 不大于 0 时关闭。对之后创建的文件生效。
+     *
+     * @param syncIntervalMs fsync 间隔，崩溃时最多丢这么长时间的数据，建议 {@link SampleJournal#DEFAULT_SYNC_INTERVAL_MS}
+     */
+    public static void setSampleJournal(long syncIntervalMs) {
+        journalSyncIntervalMs = syncIntervalMs;
+    }
+
+    /**
+     * 恢复上次异常退出留下的录制，应在开始新的录制之前调用，耗时和文件大小成正比，不要在主线程调用
+     *
+     * @return 恢复的文件数
+     */
+    public static int recoverInterruptedRecordings() {
+        return JournalingMediaWriter.recoverAll(new File(mediaFactory().getStorageRoot() + MEDIA_DIR));
+    }
+
+    /**
+     * 设备上用 AndroidMediaFactory，用反射创建，JVM 上不会加载 Android 类，需要先 {@link #setMediaFactory(MediaFactory)}
+     */
+    private static MediaFactory defaultMediaFactory() {
+        String vm = System.getProperty("java.vm.name");
+        if (vm != null && vm.startsWith("Dalvik")) {
+            try {
+                return (MediaFactory) Class.forName("com.hm.androidrecorder.codec.AndroidMediaFactory").newInstance();
+            } catch (Exception e) {
+                MyPrintLog.LogErr("创建 AndroidMediaFactory 失败", e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 替换编码器、音频采集、混合器的创建入口，JVM 上传 FakeMediaFactory 跑整条流水线。在 getInstance 之前设置
+     */
+    public static void setMediaFactory(MediaFactory factory) {
+        mediaFactory = factory;
+    }
+
+    static MediaFactory mediaFactory() {
+        MediaFactory factory = mediaFactory;
+        if (factory == null) {
+            throw new IllegalStateException("no MediaFactory, call setMediaFactory first");
+        }
+        return factory;
+    }
+
+    static boolean isPreRollEnabled() {
+        return preRollDurationUs > 0 || preRollBytes > 0;
+    }
+
+    /**
+     * 编码器使用 MediaCodec 异步回调（API 23 以上生效，以下仍用同步轮询）：
+     * 输入缓存可用时才送帧，帧不会因为等缓存超时被丢掉。对之后创建的编码线程生效。
+     *
+     * @param async
+     */
+    public static void setAsyncEncoding(boolean async) {
+        asyncEncoding = async;
+    }
+
+    /**
+     * 视频编码跟不上或写文件跟不上时自动降低码率、抽帧降低帧率，恢复后逐步升回配置值。
+     * 对之后创建的编码线程生效。
+     *
+     * @param adaptive
+     */
+    public static void setAdaptiveRate(boolean adaptive) {
+        adaptiveRate = adaptive;
+    }
+
+    /**
+     * 自动调整的下限，不大于 0 时码率默认配置值的 1/4，帧率默认配置值的 2/5
+     *
+     * @param minBitRate   最低码率
+     * @param minFrameRate 最低帧率
+     */
+    public static void setAdaptiveRateBounds(int minBitRate, int minFrameRate) {
+        adaptiveMinBitRate = minBitRate;
+        adaptiveMinFrameRate = minFrameRate;
+    }
+
+    /**
+     * 按当前设置创建码率控制器，没有开启时返回 null
+     *
+     * @param bitRate   编码器配置的码率，也是上限
+     * @param frameRate 编码器配置的帧率，也是上限
+     */
+    static AdaptiveRateController createRateController(int bitRate, int frameRate) {
+        if (!adaptiveRate) {
+            return null;
+        }
+        int minBitRate = adaptiveMinBitRate > 0 ? Math.min(adaptiveMinBitRate, bitRate) : bitRate / 4;
+        int minFrameRate = adaptiveMinFrameRate > 0 ? Math.min(adaptiveMinFrameRate, frameRate) : Math.max(1, frameRate * 2 / 5);
+        return new AdaptiveRateController(minBitRate, bitRate, minFrameRate, frameRate);
+    }
+
+    /**
+     * 录制期间每隔 intervalMs 把指标快照追加写到 hm_muxer/metrics/ 下的文件，每次录制一个文件，
+     * 不大于 0 时不导出。对之后开始的录制生效。
+     *
+     * @param intervalMs
+     */
+    public static void setMetricsExportInterval(long intervalMs) {
+        metricsExportIntervalMs = intervalMs;
+    }
+
+    /**
+     * 音频按设备原生的采样率、声道数采集，再转换成编码用的 16kHz 单声道。
+     * 设备不支持时退回 16kHz 单声道采集。对之后创建的编码线程生效。
+     *
+     * @param sampleRate   采集采样率，默认 {@link GlobalConfig#SAMPLE_RATE_INHZ}
+     * @param channelCount 1 或 2
+     */
+    public static void setAudioCapture(int sampleRate, int channelCount) {
+        if (sampleRate <= 0 || (channelCount != 1 && channelCount != 2)) {
+            throw new IllegalArgumentException("sampleRate:" + sampleRate + ",channelCount:" + channelCount);
+        }
+        audioCaptureRate = sampleRate;
+        audioCaptureChannels = channelCount;
+    }
+
+    /**
+     * 音频送编码前的增益和限幅。对之后创建的编码线程生效。
+     *
+     * @param gainDb      增益分贝数，0 为不变
+     * @param limiterDb   限幅门限（相对满幅，不大于 0），大于 0 时不限幅
+     */
+    public static void setAudioGain(double gainDb, double limiterDb) {
+        audioGainDb = gainDb;
+        audioLimiterDb = limiterDb;
+    }
+
+    /**
+     * 长时间静音（默认连续 1 秒）时不送音频编码器，直接写入最小的静音 AAC 帧，省电也省空间。
+     * 有声音时立即恢复编码。对之后创建的编码线程生效。
+     *
+     * @param enabled 是否开启，默认关闭
+     */
+    public static void setSilenceSkip(boolean enabled) {
+        setSilenceSkip(enabled, SilenceDetector.DEFAULT_MAX_SILENCE_DB);
+    }
+
+    /**
+     * @param thresholdDb 能量低于这个值（dBFS，不大于 0）且接近底噪才算静音
+     */
+    public static void setSilenceSkip(boolean enabled, double thresholdDb) {
+        if (thresholdDb > 0) {
+            throw new IllegalArgumentException("thresholdDb:" + thresholdDb);
+        }
+        audioSilenceSkip = enabled;
+        audioSilenceDb = thresholdDb;
+    }
+
+    /**
+     * 按当前设置创建静音检测，未开启时返回 null
+     */
+    static SilenceDetector createSilenceDetector(int sampleRate) {
+        if (!audioSilenceSkip) {
+            return null;
+        }
+        SilenceDetector detector = new SilenceDetector(sampleRate);
+        detector.setThresholds(audioSilenceDb, SilenceDetector.DEFAULT_MARGIN_DB);
+        return detector;
+    }
+
+    static int audioCaptureRate() {
+        return audioCaptureRate;
+    }
+
+    static int audioCaptureChannels() {
+        return audioCaptureChannels;
+    }
+
+    /**
+     * 按当前增益设置创建采集到编码之间的 PCM 处理
+     *
+     * @param maxFrames 每次最多处理的帧数
+     */
+    static PcmProcessor createAudioProcessor(int captureRate, int captureChannels, int encodeRate, int maxFrames) {
+        PcmProcessor processor = new PcmProcessor(captureRate, captureChannels, encodeRate, maxFrames);
+        processor.gain().setGainDb(audioGainDb);
+        if (audioLimiterDb <= 0) {
+            //释放时间 50ms，快到不会压住下一句话
+            processor.gain().setLimiter(audioLimiterDb, 50);
+        }
+        return processor;
+    }
+
+    /**
+     * 当前系统上编码线程是否走异步回调
+     */
+    static boolean useAsyncEncoding() {
+        return asyncEncoding && mediaFactory().supportsAsyncEncoding();
+    }
+
     private String getNewFullPath() {
-        return mediaFilePathDir + FileUtil.getSystemTime() + BASE_EXT;
+        return FileUtil.createUniqueFile(mediaFilePathDir, BASE_EXT);
+    }
+
+    private Muxer createWriter(String path) throws IOException {
+        Muxer writer = fragmentedOutput ? new Mp4Muxer(new FileOutputStream(path).getChannel()) : mediaFactory().createMuxer(path);
+        if (journalSyncIntervalMs > 0) {
+            try {
+                return new JournalingMediaWriter(writer, path, journalSyncIntervalMs);
+            } catch (IOException e) {
+                //日志文件建不了也照常录制
+                MyPrintLog.LogErr("创建样本日志失败", e);
+            }
+        }
+        return writer;
     }
 
     private void createMediaMuxer() {
         //创建存储文件
-        currentMediaFilePath = FileUtil.createNewFile(getNewFullPath());
+        currentMediaFilePath = getNewFullPath();
 
         //创建混合器
         try {
-            mediaMuxer = new MediaMuxer(currentMediaFilePath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            mediaMuxer = createWriter(currentMediaFilePath);
         } catch (IOException e) {
             MyPrintLog.LogErr("创建MediaMuxer失败", e);
             e.printStackTrace();
@@ -169,26 +696,137 @@ public class MediaMuxerThread extends Thread {
         MyPrintLog.LogProcess("创建音视频线程完成");
     }
 
+    /**
+     * 写入前检查是否需要切换文件。超过阈值后先准备好下一个文件并请求关键帧，
+     * 关键帧到来时关闭当前文件、启动下一个，关键帧写进新文件。
+     */
+    private void checkSegment(MuxerData data) {
+        boolean video = data.trackIndex == TRACK_VIDEO;
+        boolean keyFrame = data.bufferInfo.isKeyFrame();
+        if (segmentPolicy.onSample(video, data.bufferInfo.presentationTimeUs, data.bufferInfo.size, keyFrame)) {
+            rolloverMuxer();
+        }
+        if (segmentPolicy.isRolloverPending() && nextMuxer == null) {
+            prepareNextMuxer();
+            VideoEncoderThread vt = videoThread;
+            if (vt != null) {
+                vt.requestKeyFrame();
+            }
+        }
+    }
+
+    private void prepareNextMuxer() {
+        String path = getNewFullPath();
+        try {
+            Muxer writer = createWriter(path);
+            nextVideoTrackIndex = writer.addTrack(videoFormat);
+            nextAudioTrackIndex = writer.addTrack(audioFormat);
+            nextMuxer = writer;
+            nextMediaFilePath = path;
+        } catch (Exception e) {
+            MyPrintLog.LogErr("准备下一个分段文件失败", e);
+        }
+    }
+
+    private void rolloverMuxer() {
+        if (nextMuxer == null) {
+            prepareNextMuxer();
+            if (nextMuxer == null) {
+                //新文件创建失败，继续写当前文件
+                return;
+            }
+        }
+        synchronized (lock) {
+            Muxer previous = mediaMuxer;
+            String previousPath = currentMediaFilePath;
+            try {
+                previous.stop();
+            } catch (Exception e) {
+                MyPrintLog.LogErr("分段文件关闭异常：", e);
+            } finally {
+                previous.release();
+            }
+            mediaMuxer = nextMuxer;
+            currentMediaFilePath = nextMediaFilePath;
+            nextMuxer = null;
+            nextMediaFilePath = "";
+            videoTrackIndex = nextVideoTrackIndex;
+            audioTrackIndex = nextAudioTrackIndex;
+            mediaMuxer.start();
+            MyPrintLog.LogProcess(MediaMuxerThread.class, "分段切换：" + previousPath + " -> " + currentMediaFilePath);
+        }
+    }
+
+    private void releaseNextMuxer() {
+        if (nextMuxer != null) {
+            try {
+                nextMuxer.release();
+            } catch (Exception e) {
+                MyPrintLog.LogErr("释放未使用的分段文件异常：", e);
+            }
+            new File(nextMediaFilePath).delete();
+            nextMuxer = null;
+            nextMediaFilePath = "";
+        }
+    }
+
 
     // 添加视频数据
     public void addVideoData(byte[] data) {
         if (videoThread != null) {
             videoThread.add(data);
+        } else if (framePool != null) {
+            framePool.recycle(data);
         }
     }
 
 
+    /**
+     * 把编码器输出拷贝到缓存池，返回的数据不再引用编码器的输出缓存，
+     * 调用方可以立即 releaseOutputBuffer
+     *
+     * @param trackIndex TRACK_VIDEO / TRACK_AUDIO
+     * @param encoded    编码器输出缓存
+     * @param info       编码器输出信息
+     * @return 引用计数为 1 的数据，写入混合器后释放
+     */
+    public MuxerData obtainMuxerData(int trackIndex, ByteBuffer encoded, SampleInfo info) {
+        MuxerData data;
+        synchronized (muxerDataPool) {
+            data = muxerDataPool.poll();
+        }
+        if (data == null) {
+            data = new MuxerData(this);
+        }
+        data.trackIndex = trackIndex;
+        data.byteBuf = sampleArena.copyOf(encoded, info.offset, info.size);
+        data.bufferInfo.set(0, info.size, info.presentationTimeUs, info.flags);
+        data.refCount.set(1);
+        return data;
+    }
+
+    private void recycleMuxerData(MuxerData data) {
+        sampleArena.release(data.byteBuf);
+        data.byteBuf = null;
+        synchronized (muxerDataPool) {
+            muxerDataPool.push(data);
+        }
+    }
+
     public void addMuxerData(MuxerData data) {
 //        if (!checkMuxerStacks()) {
 //            return;
 //        }
         if (muxerDatas!=null){
-            muxerDatas.add(data);
+            data.queuedNanos = System.nanoTime();
+            muxerDatas.offer(data.trackIndex, data.bufferInfo.presentationTimeUs, data);
             if (isRunning&&checkMuxerStacks()){
                 synchronized (lock){
                     lock.notify();
                 }
             }
+        } else {
+            data.release();
         }
 
     }
@@ -199,7 +837,7 @@ public class MediaMuxerThread extends Thread {
      * @param index
      * @param newFormat
      */
-    public synchronized void addTrackIndex(int index, MediaFormat newFormat) {
+    public synchronized void addTrackIndex(int index, TrackFormat newFormat) {
 
 
         if (mediaMuxer != null) {
@@ -213,17 +851,19 @@ public class MediaMuxerThread extends Thread {
             }
 
             if (index == TRACK_VIDEO) {
+                videoFormat = newFormat;
                 videoTrackIndex = track;
-                Log.e(TAG, "添加视频轨完成");
+                MyPrintLog.LogProcess(MediaMuxerThread.class, "添加视频轨完成");
             } else {
+                audioFormat = newFormat;
                 audioTrackIndex = track;
-                Log.e(TAG, "添加音轨完成");
+                MyPrintLog.LogProcess(MediaMuxerThread.class, "添加音轨完成");
             }
 
 
             if (checkMuxerStacks()) {
-                //启动Muxer
-                if (!isStartMuxer()){
+                //启动Muxer，预录时等触发后在混合器线程启动
+                if (!isStartMuxer() && preRoll == null){
                     requestStartMuxer();
                 }
 
@@ -272,6 +912,27 @@ public class MediaMuxerThread extends Thread {
         return videoTrackIndex != -1 && audioTrackIndex != -1;
     }
 
+    /**
+     * 预录模式下开始写文件：触发前缓存的数据先写进去，之后接着写实时数据，编码器不受影响。
+     * 不是预录模式或已经触发过时忽略。
+     */
+    public void triggerRecording() {
+        if (preRoll == null || triggered) {
+            return;
+        }
+        triggered = true;
+        synchronized (lock) {
+            lock.notify();
+        }
+    }
+
+    /**
+     * 是否正在预录：编码数据只保留在内存里，还没有写文件
+     */
+    public boolean isPreRolling() {
+        return preRoll != null && !isStartMuxer();
+    }
+
 
     public void startMuxer() {
         isRunning = true;
@@ -281,6 +942,10 @@ public class MediaMuxerThread extends Thread {
         if (audioThread != null) {
             audioThread.startAudio();
         }
+        if (metricsExportIntervalMs > 0) {
+            metricsExporter = new MetricsExporter(metrics, new File(FileUtil.createUniqueFile(metricsFilePathDir, ".jsonl")), metricsExportIntervalMs);
+            metricsExporter.startExport();
+        }
         start();
     }
 
@@ -292,18 +957,68 @@ public class MediaMuxerThread extends Thread {
         videoTrackIndex = -1;
         isRunning = false;
         mediaMuxer = null;
-        muxerDatas.clear();
+        muxerDatas.setDraining(true);
+        MuxerData data;
+        while ((data = muxerDatas.poll()) != null) {
+            data.release();
+        }
         muxerDatas = null;
-        mediaMuxerThread=null;
         currentMediaFilePath = "";
+        if (segmentPolicy != null) {
+            segmentPolicy.reset();
+        }
+        timeline.reset();
+        lastPtsUs[TRACK_VIDEO] = Long.MIN_VALUE;
+        lastPtsUs[TRACK_AUDIO] = Long.MIN_VALUE;
         muxerState = MUXER_STATE_UNINITIALIZED;
     }
 
 
     /**
-     * 完成混合，关闭muxer
+     * 完成混合，关闭muxer，见 {@link #stopMuxer(StopListener)}
      */
     public void stopMuxer() {
+        stopMuxer(null);
+    }
+
+    /**
+     * 完成混合，关闭muxer。马上返回，不阻塞调用线程：
+     * 编码器送结束标记、混合器写完剩余数据最多要几秒，放在单独的停止线程上做，界面线程上等会 ANR。
+     * 调用后单例立即清空，getInstance 拿到的是新的实例；停止完成后回调 listener，重复调用只有第一次的 listener 生效。
+     *
+     * @param listener 可以为空
+     */
+    public void stopMuxer(final StopListener listener) {
+        synchronized (MediaMuxerThread.class) {
+            if (mediaMuxerThread == this) {
+                mediaMuxerThread = null;
+            }
+        }
+        synchronized (lock) {
+            if (stopThread != null) {
+                MyPrintLog.LogProcess(MediaMuxerThread.class, "已经在停止");
+                return;
+            }
+            stopThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    String path = finishMuxer();
+                    if (listener != null) {
+                        listener.onStopped(path);
+                    }
+                }
+            }, "MediaMuxerStop");
+        }
+        stopThread.start();
+    }
+
+    /**
+     * 在停止线程上执行：停编码器，等混合器线程写完后关闭文件
+     *
+     * @return 最后写的文件，没有产生文件时为空串
+     */
+    private String finishMuxer() {
+        String path = "";
         if (isRunning&&mediaMuxer!=null) {
             if (videoThread!=null){
                 videoThread.stopVideo();
@@ -313,71 +1028,102 @@ public class MediaMuxerThread extends Thread {
                audioThread.stopAudio();
                audioThread=null;
            }
+            //编码已停止，不再等待落后的轨道，剩余数据按时间顺序写完后线程退出
+            muxerDatas.setDraining(true);
+            synchronized (lock) {
+                stopRequested = true;
+                lock.notify();
+            }
+            try {
+                join(STOP_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (isAlive()) {
+                MyPrintLog.LogProcess(MediaMuxerThread.class, "混合器线程没有在超时前写完剩余数据");
+                //文件可能不完整，日志留到下次启动恢复
+                if (mediaMuxer instanceof JournalingMediaWriter) {
+                    ((JournalingMediaWriter) mediaMuxer).keepJournal();
+                }
+            }
 
-
+            //没有触发过的预录不产生文件
+            boolean written = isStartMuxer();
             try {
-                //等待muxerDatas缓存中的数据全部写完
-                Thread.sleep(100);
-                //release会帮我们调用muxer.stop
-                mediaMuxer.release();
+                synchronized (lock) {
+                    //混合器线程已经退出，最后的样本写进文件和日志之后才关闭日志；release会帮我们调用muxer.stop
+                    mediaMuxer.release();
+                    releaseNextMuxer();
+                }
+                if (!written && preRoll != null) {
+                    new File(currentMediaFilePath).delete();
+                } else {
+                    path = currentMediaFilePath;
+                }
 
                 MyPrintLog.LogProcess(MediaMuxerThread.class, "mediaMuxer关闭成功");
             } catch (Exception e) {
                 MyPrintLog.LogErr("Muxer.release() 异常：", e);
             }
 
+            if (metricsExporter != null) {
+                //写最后一行
+                metricsExporter.stopExport();
+                metricsExporter = null;
+            }
             resetParameters();
         }
+        return path;
     }
 
     /**
-     * 停止Muxer
+     * 暂停录制。混合器、编码器和文件都不关闭，编码线程不再送新数据，
+     * 暂停前采集的数据照常写完；暂停的这段时间不出现在输出的时间轴上。
      */
     public void pauseMuxer() {
-        if (muxerState != MUXER_STATE_STARTED) {
-            MyPrintLog.LogProcess(MediaMuxerThread.class, "Muxer还开始，你就想暂停了");
+        if (!isRunning || timeline.isPaused()) {
+            MyPrintLog.LogProcess(MediaMuxerThread.class, "没有在录制，不需要暂停");
             return;
         }
+        //先记时间，之后采集到的数据都会被丢掉
+        timeline.pause();
         if (videoThread!=null){
             videoThread.pauseVideo();
         }
         if (audioThread!=null){
             audioThread.pauseAudio();
         }
-        if (mediaMuxer!=null){
-            try {
-                mediaMuxer.stop();
-                muxerState = MUXER_STATE_STOPPED;
-                MyPrintLog.LogProcess(MediaMuxerThread.class, "Muxer已暂停");
-            } catch (IllegalStateException e) {
-                MyPrintLog.LogErr("Muxer.stop() 异常:", e);
-            }
-        }
-
-
+        MyPrintLog.LogProcess(MediaMuxerThread.class, "录制已暂停");
     }
 
-
-    private void rePlayMuexr() {
+    /**
+     * 恢复录制，时间戳接着暂停前继续
+     */
+    public void resumeMuxer() {
+        if (!isRunning || !timeline.isPaused()) {
+            return;
+        }
+        timeline.resume();
         if (videoThread != null) {
             videoThread.rePlayVideo();
+            //暂停期间的帧都丢了，恢复后第一帧最好是关键帧
+            videoThread.requestKeyFrame();
         }
         if (audioThread != null) {
             audioThread.rePlayAudio();
         }
+        MyPrintLog.LogProcess(MediaMuxerThread.class, "录制已恢复，累计暂停(us)：" + timeline.getPausedDurationUs());
+    }
 
-        requestStartMuxer();
-        //唤醒MediaMuxerThread
-        if (isRunning){
-            synchronized (lock){
-                lock.notify();
-            }
-        }
-
+    public boolean isPaused() {
+        return timeline.isPaused();
     }
 
     /**
      * 封装需要传输的数据类型
+     * <p>
+     * 通过 {@link #obtainMuxerData} 得到的数据持有缓存池中的一块缓存，带引用计数，
+     * 最后一次 {@link #release()} 时缓存和对象本身都回到池里。
      */
     public static class MuxerData {
 
@@ -388,12 +1134,47 @@ public class MediaMuxerThread extends Thread {
         ByteBuffer byteBuf;
 
         //数据信息描述类
-        MediaCodec.BufferInfo bufferInfo;
+        SampleInfo bufferInfo;
+
+        //放进混合器缓存的时间（System.nanoTime）
+        long queuedNanos;
 
-        public MuxerData(int trackIndex, ByteBuffer byteBuf, MediaCodec.BufferInfo bufferInfo) {
+        final AtomicInteger refCount = new AtomicInteger(1);
+        //所属混合器，为空表示不是从缓存池取的
+        private final MediaMuxerThread owner;
+
+        public MuxerData(int trackIndex, ByteBuffer byteBuf, SampleInfo bufferInfo) {
             this.trackIndex = trackIndex;
             this.byteBuf = byteBuf;
             this.bufferInfo = bufferInfo;
+            this.owner = null;
+        }
+
+        private MuxerData(MediaMuxerThread owner) {
+            this.bufferInfo = new SampleInfo();
+            this.owner = owner;
+        }
+
+        /**
+         * 增加一次引用，每次 retain 都要对应一次 release
+         */
+        public MuxerData retain() {
+            refCount.incrementAndGet();
+            return this;
+        }
+
+        /**
+         * 释放一次引用，引用为 0 时归还缓存
+         */
+        public void release() {
+            int count = refCount.decrementAndGet();
+            if (count == 0) {
+                if (owner != null) {
+                    owner.recycleMuxerData(this);
+                }
+            } else if (count < 0) {
+                throw new IllegalStateException("MuxerData released too many times");
+            }
         }
     }
 
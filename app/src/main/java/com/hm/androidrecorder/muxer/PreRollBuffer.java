@@ -0,0 +1,237 @@
+package com.hm.androidrecorder.muxer;
+
+import java.util.ArrayDeque;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-27]
+ * @Describe: 预录缓存：触发前的编码数据按整个 GOP 保留在内存里
+ * <p>
+ * 样本按写入文件的顺序（交织后的时间顺序）传入，缓存里第一个样本永远是视频关键帧，
+ * 触发后从头 {@link #poll()} 出来写进文件，文件一开头就能解码。
+ * <ul>
+ * <li>时长：最新样本离第二个 GOP 的起点已经超过 maxDurationUs 时丢掉最旧的 GOP，保证至少保留 maxDurationUs</li>
+ * <li>字节数：超过 maxBytes 时无条件丢掉最旧的 GOP；只剩一个 GOP 还超时整个丢掉，等下一个关键帧重新开始</li>
+ * </ul>
+ * 内存按字节封顶，和样本个数无关；实际保留的时长按 GOP 取整，GOP 越短越接近 maxDurationUs。
+ * <p>
+ * 不依赖 Android 类，可以直接在 JVM 上测试。只在混合器线程调用，{@link #size()} 可以在任意线程读取。
+ */
+
+
+public class PreRollBuffer<T> {
+
+    /**
+     * 丢弃的样本交给它释放
+     */
+    public interface Releaser<T> {
+        void release(T sample);
+    }
+
+    private static final class Entry<T> {
+        T sample;
+        boolean keyFrame;
+        int bytes;
+    }
+
+    private final long maxDurationUs;
+    private final long maxBytes;
+    private final Releaser<T> releaser;
+
+    private final ArrayDeque<Entry<T>> entries = new ArrayDeque<>();
+    //用过的 Entry，稳定运行后不再分配
+    private final ArrayDeque<Entry<T>> spare = new ArrayDeque<>();
+    //缓存里每个关键帧的时间戳，第一个就是缓存起点
+    private long[] keyPts = new long[8];
+    private int keyHead = 0;
+    private int keyCount = 0;
+
+    private long bytes = 0;
+    private long newestPtsUs = Long.MIN_VALUE;
+    private volatile int count = 0;
+    private long droppedSamples = 0;
+    private long droppedBytes = 0;
+
+    /**
+     * @param maxDurationUs 至少保留的时长，小于等于 0 时只按字节数限制
+     * @param maxBytes      最多占用的字节数
+     */
+    public PreRollBuffer(long maxDurationUs, long maxBytes, Releaser<T> releaser) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes:" + maxBytes);
+        }
+        this.maxDurationUs = maxDurationUs;
+        this.maxBytes = maxBytes;
+        this.releaser = releaser;
+    }
+
+    /**
+     * 放入一个样本，缓存为空时只接受视频关键帧
+     *
+     * @param videoKeyFrame 是否视频关键帧
+     * @param size          样本实际占用的内存，计入 maxBytes
+     * @return false 表示样本没有放进缓存，已经释放
+     */
+    public boolean add(boolean videoKeyFrame, long ptsUs, int size, T sample) {
+        if (entries.isEmpty() && !videoKeyFrame) {
+            drop(sample, size);
+            return false;
+        }
+        Entry<T> entry = spare.poll();
+        if (entry == null) {
+            entry = new Entry<>();
+        }
+        entry.sample = sample;
+        entry.keyFrame = videoKeyFrame;
+        entry.bytes = size;
+        entries.add(entry);
+        count = entries.size();
+        bytes += size;
+        newestPtsUs = Math.max(newestPtsUs, ptsUs);
+        if (videoKeyFrame) {
+            pushKeyPts(ptsUs);
+        }
+        trim();
+        return true;
+    }
+
+    private void trim() {
+        while (keyCount > 1 && (bytes > maxBytes
+                || (maxDurationUs > 0 && newestPtsUs - keyPts[(keyHead + 1) % keyPts.length] >= maxDurationUs))) {
+            dropOldestGop();
+        }
+        if (bytes > maxBytes) {
+            //只剩一个 GOP 还超出上限
+            dropOldestGop();
+        }
+    }
+
+    /**
+     * 丢掉开头的关键帧和它之后直到下一个关键帧的样本
+     */
+    private void dropOldestGop() {
+        Entry<T> entry = entries.poll();
+        while (entry != null) {
+            bytes -= entry.bytes;
+            drop(entry.sample, entry.bytes);
+            recycle(entry);
+            Entry<T> next = entries.peek();
+            if (next == null || next.keyFrame) {
+                break;
+            }
+            entry = entries.poll();
+        }
+        popKeyPts();
+        count = entries.size();
+    }
+
+    /**
+     * 取出最旧的样本，调用方负责释放
+     *
+     * @return 缓存为空时返回 null
+     */
+    public T poll() {
+        Entry<T> entry = entries.poll();
+        if (entry == null) {
+            return null;
+        }
+        if (entry.keyFrame) {
+            popKeyPts();
+        }
+        T sample = entry.sample;
+        bytes -= entry.bytes;
+        recycle(entry);
+        count = entries.size();
+        return sample;
+    }
+
+    /**
+     * 释放所有样本
+     */
+    public void clear() {
+        Entry<T> entry;
+        while ((entry = entries.poll()) != null) {
+            releaser.release(entry.sample);
+            recycle(entry);
+        }
+        keyHead = 0;
+        keyCount = 0;
+        bytes = 0;
+        newestPtsUs = Long.MIN_VALUE;
+        count = 0;
+    }
+
+    private void drop(T sample, int size) {
+        droppedSamples++;
+        droppedBytes += size;
+        releaser.release(sample);
+    }
+
+    private void recycle(Entry<T> entry) {
+        entry.sample = null;
+        spare.add(entry);
+    }
+
+    private void pushKeyPts(long ptsUs) {
+        if (keyCount == keyPts.length) {
+            long[] grown = new long[keyPts.length * 2];
+            for (int i = 0; i < keyCount; i++) {
+                grown[i] = keyPts[(keyHead + i) % keyPts.length];
+            }
+            keyPts = grown;
+            keyHead = 0;
+        }
+        keyPts[(keyHead + keyCount) % keyPts.length] = ptsUs;
+        keyCount++;
+    }
+
+    private void popKeyPts() {
+        if (keyCount > 0) {
+            keyHead = (keyHead + 1) % keyPts.length;
+            keyCount--;
+        }
+    }
+
+    /**
+     * 缓存的样本数
+     */
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * 缓存占用的字节数
+     */
+    public long bytes() {
+        return bytes;
+    }
+
+    /**
+     * 缓存覆盖的时长：从第一个关键帧到最新的样本
+     */
+    public long durationUs() {
+        return keyCount == 0 || entries.isEmpty() ? 0 : newestPtsUs - keyPts[keyHead];
+    }
+
+    /**
+     * 缓存里的 GOP 个数，最后一个可能还没结束
+     */
+    public int gopCount() {
+        return keyCount;
+    }
+
+    /**
+     * 因超出时长、字节数或不是从关键帧开始而丢掉的样本数
+     */
+    public long getDroppedSamples() {
+        return droppedSamples;
+    }
+
+    public long getDroppedBytes() {
+        return droppedBytes;
+    }
+}
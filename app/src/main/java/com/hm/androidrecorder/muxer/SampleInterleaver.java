@@ -0,0 +1,263 @@
+package com.hm.androidrecorder.muxer;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-09]
+ * @Describe: 音视频交织队列
+ * <p>
+ * 每个轨道一个 FIFO，{@link #poll()} 总是取出各轨队头中时间戳最小的样本，
+ * 这样写进 MediaMuxer 的音视频是按时间交错的，播放器不用来回跳。
+ * <p>
+ * 只有确定不会再来更早的样本时才放行：所有轨道都有数据，或者空轨道最后一个样本的时间已经超过候选样本。
+ * 某个轨道迟迟没有数据时，最多等待 windowUs（按样本时间计算），超过后照常放行，
+ * 落后超过 stallThresholdUs 时通过 {@link StallListener} 报告该轨道卡住。
+ * <p>
+ * 不依赖 Android 类，全部按时间戳判断，可以直接在 JVM 上用构造的时间戳测试。
+ */
+
+
+public class SampleInterleaver<T> {
+
+    /**
+     * 轨道卡住/恢复通知，在调用 offer/poll 的线程回调
+     */
+    public interface StallListener {
+        void onTrackStalled(int track, long lagUs);
+
+        void onTrackRecovered(int track, long stalledUs);
+    }
+
+    private static final long NO_PTS = Long.MIN_VALUE;
+
+    private final TrackQueue[] queues;
+    private final long windowUs;
+    private final long stallThresholdUs;
+
+    //所有轨道中见过的最大时间戳
+    private long newestPtsUs = NO_PTS;
+    //最先见到的时间戳，用于计算从未来过数据的轨道落后多少
+    private long firstPtsUs = NO_PTS;
+    private boolean draining = false;
+    private long stallCount = 0;
+    private long forcedCount = 0;
+    private StallListener stallListener;
+
+    /**
+     * @param trackCount       轨道数
+     * @param initialCapacity  每个轨道的初始容量，不够时翻倍
+     * @param windowUs         等待落后轨道的最长时间（样本时间）
+     * @param stallThresholdUs 落后超过这个时间报告卡住
+     */
+    public SampleInterleaver(int trackCount, int initialCapacity, long windowUs, long stallThresholdUs) {
+        if (trackCount <= 0 || initialCapacity <= 0 || windowUs < 0) {
+            throw new IllegalArgumentException("trackCount:" + trackCount + ",initialCapacity:" + initialCapacity + ",windowUs:" + windowUs);
+        }
+        this.queues = new TrackQueue[trackCount];
+        for (int i = 0; i < trackCount; i++) {
+            queues[i] = new TrackQueue(initialCapacity);
+        }
+        this.windowUs = windowUs;
+        this.stallThresholdUs = stallThresholdUs;
+    }
+
+    public synchronized void setStallListener(StallListener listener) {
+        this.stallListener = listener;
+    }
+
+    /**
+     * 添加一个样本，同一轨道内时间戳应单调递增
+     */
+    public synchronized void offer(int track, long ptsUs, T sample) {
+        TrackQueue q = queues[track];
+        q.add(ptsUs, sample);
+        if (firstPtsUs == NO_PTS) {
+            firstPtsUs = ptsUs;
+        }
+        if (ptsUs > newestPtsUs) {
+            newestPtsUs = ptsUs;
+        }
+        if (q.stalled) {
+            q.stalled = false;
+            if (stallListener != null) {
+                stallListener.onTrackRecovered(track, newestPtsUs - q.stalledSinceUs);
+            }
+        }
+    }
+
+    /**
+     * 取出下一个可以写入的样本，没有时返回 null
+     */
+    public synchronized T poll() {
+        int candidate = -1;
+        long candidatePts = 0;
+        for (int i = 0; i < queues.length; i++) {
+            TrackQueue q = queues[i];
+            if (q.count > 0 && (candidate < 0 || q.headPts() < candidatePts)) {
+                candidate = i;
+                candidatePts = q.headPts();
+            }
+        }
+        if (candidate < 0) {
+            return null;
+        }
+        if (!draining) {
+            boolean ready = true;
+            for (int i = 0; i < queues.length; i++) {
+                TrackQueue q = queues[i];
+                if (q.count > 0) {
+                    continue;
+                }
+                //空轨道已经走到候选样本之后，不会再来更早的样本
+                if (q.lastPts != NO_PTS && q.lastPts >= candidatePts) {
+                    continue;
+                }
+                checkStall(i, q);
+                ready = false;
+            }
+            if (!ready) {
+                if (newestPtsUs - candidatePts <= windowUs) {
+                    return null;
+                }
+                forcedCount++;
+            }
+        }
+        return queues[candidate].remove();
+    }
+
+    private void checkStall(int track, TrackQueue q) {
+        if (q.stalled) {
+            return;
+        }
+        long since = q.lastPts != NO_PTS ? q.lastPts : firstPtsUs;
+        long lag = newestPtsUs - since;
+        if (lag > stallThresholdUs) {
+            q.stalled = true;
+            q.stalledSinceUs = since;
+            stallCount++;
+            if (stallListener != null) {
+                stallListener.onTrackStalled(track, lag);
+            }
+        }
+    }
+
+    /**
+     * 结束时调用，之后 poll 不再等待落后轨道，按时间顺序取空所有数据
+     */
+    public synchronized void setDraining(boolean draining) {
+        this.draining = draining;
+    }
+
+    /**
+     * 清空所有数据
+     */
+    public synchronized void clear() {
+        for (TrackQueue q : queues) {
+            q.clear();
+        }
+        newestPtsUs = NO_PTS;
+        firstPtsUs = NO_PTS;
+    }
+
+    public synchronized int size() {
+        int size = 0;
+        for (TrackQueue q : queues) {
+            size += q.count;
+        }
+        return size;
+    }
+
+    public synchronized int size(int track) {
+        return queues[track].count;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public synchronized boolean isStalled(int track) {
+        return queues[track].stalled;
+    }
+
+    /**
+     * 累计报告卡住的次数
+     */
+    public synchronized long getStallCount() {
+        return stallCount;
+    }
+
+    /**
+     * 因等待超过窗口而强制放行的次数
+     */
+    public synchronized long getForcedCount() {
+        return forcedCount;
+    }
+
+    public long getWindowUs() {
+        return windowUs;
+    }
+
+    /**
+     * 单个轨道的循环队列
+     */
+    private static final class TrackQueue {
+        long[] pts;
+        Object[] items;
+        int head;
+        int count;
+        long lastPts = NO_PTS;
+        boolean stalled;
+        long stalledSinceUs;
+
+        TrackQueue(int capacity) {
+            pts = new long[capacity];
+            items = new Object[capacity];
+        }
+
+        long headPts() {
+            return pts[head];
+        }
+
+        void add(long ptsUs, Object item) {
+            if (count == items.length) {
+                grow();
+            }
+            int index = (head + count) % items.length;
+            pts[index] = ptsUs;
+            items[index] = item;
+            count++;
+            lastPts = ptsUs;
+        }
+
+        @SuppressWarnings("unchecked")
+        <E> E remove() {
+            E item = (E) items[head];
+            items[head] = null;
+            head = (head + 1) % items.length;
+            count--;
+            return item;
+        }
+
+        void clear() {
+            while (count > 0) {
+                remove();
+            }
+            head = 0;
+            lastPts = NO_PTS;
+            stalled = false;
+        }
+
+        private void grow() {
+            int capacity = items.length * 2;
+            long[] newPts = new long[capacity];
+            Object[] newItems = new Object[capacity];
+            for (int i = 0; i < count; i++) {
+                int index = (head + i) % items.length;
+                newPts[i] = pts[index];
+                newItems[i] = items[index];
+            }
+            pts = newPts;
+            items = newItems;
+            head = 0;
+        }
+    }
+}
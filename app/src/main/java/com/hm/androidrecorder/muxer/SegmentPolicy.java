@@ -0,0 +1,92 @@
+package com.hm.androidrecorder.muxer;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-15]
+ * @Describe: 分段录制的切换时机
+ * <p>
+ * 当前文件的时长或大小超过阈值后进入待切换状态，等下一个视频关键帧到来时切换：
+ * 关键帧和它之后的样本写进新文件，之前的样本留在旧文件，样本不丢也不重复。
+ * 样本必须按写入文件的顺序（交织后的时间顺序）传入。
+ * <p>
+ * 不依赖 Android 类，可以直接在 JVM 上测试。只在混合器线程调用。
+ */
+
+
+public class SegmentPolicy {
+
+    private static final long NO_PTS = Long.MIN_VALUE;
+
+    private final long maxDurationUs;
+    private final long maxBytes;
+
+    private long segmentStartUs = NO_PTS;
+    private long segmentBytes = 0;
+    private boolean pending = false;
+    private int segmentIndex = 0;
+
+    /**
+     * @param maxDurationUs 单个文件最长时间，小于等于 0 不限制
+     * @param maxBytes      单个文件最大字节数，小于等于 0 不限制
+     */
+    public SegmentPolicy(long maxDurationUs, long maxBytes) {
+        this.maxDurationUs = maxDurationUs;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 写入一个样本前调用
+     *
+     * @return true 表示从这个样本开始写新文件
+     */
+    public boolean onSample(boolean video, long ptsUs, int size, boolean keyFrame) {
+        boolean rollover = false;
+        if (segmentStartUs == NO_PTS) {
+            segmentStartUs = ptsUs;
+        } else if (pending && video && keyFrame) {
+            pending = false;
+            segmentIndex++;
+            segmentStartUs = ptsUs;
+            segmentBytes = 0;
+            rollover = true;
+        }
+        segmentBytes += size;
+        if (!pending && limitReached(ptsUs)) {
+            pending = true;
+        }
+        return rollover;
+    }
+
+    private boolean limitReached(long ptsUs) {
+        return (maxDurationUs > 0 && ptsUs - segmentStartUs >= maxDurationUs)
+                || (maxBytes > 0 && segmentBytes >= maxBytes);
+    }
+
+    /**
+     * 是否已经超过阈值、在等关键帧。可以趁这时提前准备下一个文件、请求关键帧。
+     */
+    public boolean isRolloverPending() {
+        return pending;
+    }
+
+    /**
+     * 当前是第几个文件，从 0 开始
+     */
+    public int getSegmentIndex() {
+        return segmentIndex;
+    }
+
+    public long getSegmentBytes() {
+        return segmentBytes;
+    }
+
+    /**
+     * 新的录制开始前调用
+     */
+    public void reset() {
+        segmentStartUs = NO_PTS;
+        segmentBytes = 0;
+        pending = false;
+        segmentIndex = 0;
+    }
+}
@@ -0,0 +1,123 @@
+package com.hm.androidrecorder.muxer;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-21]
+ * @Describe: 去掉暂停时间的录制时间轴
+ * <p>
+ * 两条轨道的时间戳都是采集时间，单位 us，和 {@link #nowUs()} 同一个时钟（System.nanoTime / 1000）：
+ * 视频是相机把这一帧交给编码线程的时间（待编码队列的入队时间），不是送进编码器的时间；
+ * 音频是 AudioClock 按读到的采样数推算的这块 PCM 的采集时间。调用方必须传这个时间，
+ * 排队、转换、编码的耗时都不能算进时间戳，否则暂停点附近的样本会被错误地保留或丢掉。
+ * <p>
+ * 暂停时记下起点，恢复时记下终点，{@link #toTimelineUs(long)} 按样本的采集时间减去在它之前累计的暂停时长，
+ * 暂停前后的时间戳首尾相接，不会留下空白，也不会倒退。
+ * 按采集时间而不是写入时间换算：暂停前采集、暂停后才从队列或编码器出来的样本仍按暂停前的偏移处理；
+ * 采集时间落在暂停区间里的样本返回 {@link #DROPPED}，不写入文件。
+ */
+
+
+public class TimelineClock {
+
+    /**
+     * 样本采集于暂停期间
+     */
+    public static final long DROPPED = -1;
+
+    //每次暂停的起止时间，以及恢复后累计的暂停时长
+    private long[] pauseTimes = new long[4];
+    private long[] resumeTimes = new long[4];
+    private long[] offsets = new long[4];
+    private int pauseCount = 0;
+    //正在暂停时是暂停起点，否则为 -1
+    private long pausedAtUs = -1;
+
+    public static long nowUs() {
+        return System.nanoTime() / 1000;
+    }
+
+    public void pause() {
+        pause(nowUs());
+    }
+
+    public void resume() {
+        resume(nowUs());
+    }
+
+    /**
+     * 开始暂停，已经在暂停时忽略
+     */
+    public synchronized void pause(long nowUs) {
+        if (pausedAtUs < 0) {
+            pausedAtUs = nowUs;
+        }
+    }
+
+    /**
+     * 结束暂停，没有暂停时忽略
+     */
+    public synchronized void resume(long nowUs) {
+        if (pausedAtUs < 0) {
+            return;
+        }
+        if (pauseCount == pauseTimes.length) {
+            int size = pauseCount * 2;
+            pauseTimes = copyOf(pauseTimes, size);
+            resumeTimes = copyOf(resumeTimes, size);
+            offsets = copyOf(offsets, size);
+        }
+        long previous = pauseCount == 0 ? 0 : offsets[pauseCount - 1];
+        pauseTimes[pauseCount] = pausedAtUs;
+        resumeTimes[pauseCount] = Math.max(nowUs, pausedAtUs);
+        offsets[pauseCount] = previous + resumeTimes[pauseCount] - pausedAtUs;
+        pauseCount++;
+        pausedAtUs = -1;
+    }
+
+    /**
+     * 采集时间换算成输出时间
+     *
+     * @return 去掉暂停后的时间，采集于暂停期间时返回 {@link #DROPPED}
+     */
+    public synchronized long toTimelineUs(long captureUs) {
+        if (pausedAtUs >= 0 && captureUs >= pausedAtUs) {
+            return DROPPED;
+        }
+        //一般是最近一次暂停之后的样本，从后往前找
+        for (int i = pauseCount - 1; i >= 0; i--) {
+            if (captureUs >= resumeTimes[i]) {
+                return captureUs - offsets[i];
+            }
+            if (captureUs >= pauseTimes[i]) {
+                return DROPPED;
+            }
+        }
+        return captureUs;
+    }
+
+    public synchronized boolean isPaused() {
+        return pausedAtUs >= 0;
+    }
+
+    /**
+     * 已结束的暂停的总时长
+     */
+    public synchronized long getPausedDurationUs() {
+        return pauseCount == 0 ? 0 : offsets[pauseCount - 1];
+    }
+
+    public synchronized int getPauseCount() {
+        return pauseCount;
+    }
+
+    public synchronized void reset() {
+        pauseCount = 0;
+        pausedAtUs = -1;
+    }
+
+    private static long[] copyOf(long[] array, int size) {
+        long[] copy = new long[size];
+        System.arraycopy(array, 0, copy, 0, array.length);
+        return copy;
+    }
+}
@@ -1,17 +1,23 @@
 package com.hm.androidrecorder.muxer;
 
-import android.media.MediaCodec;
-import android.media.MediaCodecInfo;
-import android.media.MediaCodecList;
-import android.media.MediaFormat;
-import android.util.Log;
-
+import com.hm.androidrecorder.buffer.FrameBufferPool;
+import com.hm.androidrecorder.buffer.FrameRing;
+import com.hm.androidrecorder.codec.AdaptiveRateController;
+import com.hm.androidrecorder.codec.AsyncInputQueue;
+import com.hm.androidrecorder.codec.Encoder;
+import com.hm.androidrecorder.codec.SampleInfo;
+import com.hm.androidrecorder.log.HotLog;
+import com.hm.androidrecorder.log.LogSite;
+import com.hm.androidrecorder.metrics.PipelineMetrics;
+import com.hm.androidrecorder.mp4.TrackFormat;
 import com.hm.androidrecorder.utils.MyPrintLog;
+import com.hm.androidrecorder.yuv.ParallelYuvConverter;
+import com.hm.androidrecorder.yuv.YuvFormat;
+import com.hm.androidrecorder.yuv.YuvLayout;
 
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
-import java.util.Vector;
 
 /**
  * 视频编码线程
@@ -23,36 +29,72 @@ public class VideoEncoderThread extends Thread {
 
     private static final String TAG = "VideoEncoderThread";
 
+    //每帧的日志，默认级别下不输出
+    private static final LogSite LOG_ENCODE = new LogSite(HotLog.VERBOSE, TAG, "encode frame, queue depth {}");
+    private static final LogSite LOG_NO_INPUT = new LogSite(HotLog.WARN, TAG, "input buffer not available, frame dropped", 1000);
+    private static final LogSite LOG_BAD_OUTPUT = new LogSite(HotLog.WARN, TAG, "outputBufferIndex {} < 0", 1000);
+    private static final LogSite LOG_CODEC_CONFIG = new LogSite(HotLog.DEBUG, TAG, "ignoring FLAG_CODEC_CONFIG");
+    private static final LogSite LOG_SENT = new LogSite(HotLog.VERBOSE, TAG, "sent {} bytes to muxer, pts {}");
+    private static final LogSite LOG_RATE = new LogSite(HotLog.INFO, TAG, "rate adjusted: bitrate {}, frame rate {}");
+
     // 编码相关参数
-    private static final String MIME_TYPE = "video/avc"; // H.264 Advanced Video
     private static final int FRAME_RATE = 25; // 帧率
     private static final int IFRAME_INTERVAL = 10; // I帧间隔（GOP）
+    private static final int PRE_ROLL_IFRAME_INTERVAL = 2; // 预录时的 I帧间隔，预录缓存按 GOP 取舍
     private static final int TIMEOUT_USEC = 10000; // 编码超时时间
+    private static final int FRAME_QUEUE_SIZE = 4; // 待编码帧队列容量
+    private static final long FRAME_WAIT_MS = 100; // 队列为空时编码线程等待时间
+    private static final long STOP_TIMEOUT_MS = 1000; // 停止时等待编码线程退出的时间
+    private static final long FLUSH_TIMEOUT_MS = 500; // 停止时送出剩余帧和结束标记、等编码器输出完的时间
+    private static final long RATE_CHECK_INTERVAL_NS = 500 * 1000 * 1000L; // 码率控制的统计周期
+    private static final int QUEUED_FRAMES = 16; // 记录送入时间的帧数，大于编码器里同时压着的帧数
 
     // 视频宽高参数
     private int mWidth;
     private int mHeight;
 
-    // 存储每一帧的数据 Vector 自增数组
-    private Vector<byte[]> frameBytes;
-    //n21数据转为I420的输出缓存
-    private byte[] mFrameData;
+    // 待编码帧队列，有界，满了丢最旧的一帧
+    private FrameRing<byte[]> frameBytes;
+    //异步模式：待编码帧等编码器回调空闲输入缓存，代替 frameBytes
+    private AsyncInputQueue<byte[]> inputQueue;
+    private final AsyncInputQueue.Match<byte[]> inputMatch = new AsyncInputQueue.Match<>();
+    private boolean asyncMode = false;
+    //预览帧缓存池，编码完的帧交还给相机
+    private volatile FrameBufferPool framePool;
+    //相机输出的 NV21 排布
+    private YuvLayout mCameraLayout;
+    //编码器输入排布，由编码器支持的颜色格式和 stride 决定
+    private YuvLayout mInputLayout;
+    //相机数据直接转换写入编码器输入缓存，4K 等大分辨率按行分段并行转换
+    private final ParallelYuvConverter yuvConverter = new ParallelYuvConverter(CONVERT_PARALLELISM);
+    //并行转换线程数，编码器和相机也要占用 CPU，最多用 4 个
+    private static final int CONVERT_PARALLELISM = Math.min(4, Runtime.getRuntime().availableProcessors());
     //自定义的压缩比
     private static final int COMPRESS_RATIO = 256;
     //RGB24 一帧=一个像素为3字节 ，COMPRESS_RATIO
     private static final int BIT_RATE = IMAGE_HEIGHT * IMAGE_WIDTH * 3 * 8 * FRAME_RATE / COMPRESS_RATIO; // bit rate CameraWrapper.
 
-    private final Object lock = new Object();
-
-    //解码器信息
-    private MediaCodecInfo mCodecInfo;
-    private MediaCodec mMediaCodec;  // Android压缩编码器，能够对Surface内容进行编码
-    private MediaCodec.BufferInfo mBufferInfo; //  编解码Buffer相关信息
+    private Encoder mEncoder;  // H.264 编码器，设备上是 MediaCodec
+    private SampleInfo mBufferInfo; //  编解码Buffer相关信息
 
     private WeakReference<MediaMuxerThread> mediaMuxer; // 音视频混合器
-    private MediaFormat mediaFormat; // 音视频格式
-    private boolean isRunning = false;
+    private volatile boolean isRunning = false;
     private volatile boolean isPause = false;
+    //流水线指标，由混合器设置
+    private volatile PipelineMetrics metrics = new PipelineMetrics();
+    //按积压调整码率和帧率，没有开启时为空
+    private AdaptiveRateController rateController;
+    private final AdaptiveRateController.Load rateLoad = new AdaptiveRateController.Load();
+    //最近送进编码器的帧：时间戳和送入时的 System.nanoTime，按送入顺序循环写，由 queuedLock 保护
+    private final Object queuedLock = new Object();
+    private final long[] queuedPtsUs = new long[QUEUED_FRAMES];
+    private final long[] queuedAtNanos = new long[QUEUED_FRAMES];
+    private int queuedFrames = 0;
+    //编码器已经输出了结束标记，由 outputLock 保护
+    private final Object outputLock = new Object();
+    private boolean outputEnded = false;
+    private PipelineMetrics.Snapshot lastRateSnapshot;
+    private long lastRateCheckNs;
 
     public VideoEncoderThread(int mWidth, int mHeight, WeakReference<MediaMuxerThread> mediaMuxer) {
         // 初始化相关对象和参数
@@ -66,74 +108,103 @@ public class VideoEncoderThread extends Thread {
     // 执行相关准备工作
     private void prepare() {
 
-        frameBytes = new Vector<byte[]>();
-        mFrameData = new byte[this.mWidth * this.mHeight * 3 / 2];
-
-        //获取缓存信息
-        mBufferInfo = new MediaCodec.BufferInfo();
-
-        //选择视频编码器--H.264
-        mCodecInfo = selectCodec(MIME_TYPE);
-        if (mCodecInfo == null) {
-            MyPrintLog.LogProcess(VideoEncoderThread.class, "没有找到需要的视频解码器信息");
-            return;
+        frameBytes = new FrameRing<>(FRAME_QUEUE_SIZE, FrameRing.OverflowPolicy.DROP_OLDEST);
+        frameBytes.setDropListener(new FrameRing.DropListener<byte[]>() {
+            @Override
+            public void onDrop(byte[] frame) {
+                metrics.increment(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.COUNTER_DROPPED);
+                recycleFrame(frame);
+            }
+        });
+        asyncMode = MediaMuxerThread.useAsyncEncoding();
+        if (asyncMode) {
+            inputQueue = new AsyncInputQueue<>(FRAME_QUEUE_SIZE);
+            inputQueue.setDropListener(new FrameRing.DropListener<byte[]>() {
+                @Override
+                public void onDrop(byte[] frame) {
+                    metrics.increment(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.COUNTER_DROPPED);
+                    recycleFrame(frame);
+                }
+            });
         }
-        mediaFormat = MediaFormat.createVideoFormat(MIME_TYPE, this.mWidth, this.mHeight);
-        //设置比特率
-        mediaFormat.setInteger(MediaFormat.KEY_BIT_RATE, BIT_RATE);
-        //设置帧率
-        mediaFormat.setInteger(MediaFormat.KEY_FRAME_RATE, FRAME_RATE);
-//        mediaFormat.setInteger(MediaFormat.KEY_ROTATION,90);
-        //编辑器输入的颜色，确保所有硬件平台都支持的颜色
-        mediaFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar);
-        //I帧间隔时间
-        mediaFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, IFRAME_INTERVAL);
+        mCameraLayout = YuvLayout.packed(YuvFormat.NV21, this.mWidth, this.mHeight);
 
+        //获取缓存信息
+        mBufferInfo = new SampleInfo();
 
-        //创建解码器
+        //创建 H.264 编码器，输入颜色格式由编码器决定；I帧间隔预录时缩短，触发前的历史不会因为 GOP 太长而多占内存
         try {
-            mMediaCodec = MediaCodec.createByCodecName(mCodecInfo.getName());
+            mEncoder = MediaMuxerThread.mediaFactory().createVideoEncoder(this.mWidth, this.mHeight, BIT_RATE, FRAME_RATE,
+                    MediaMuxerThread.isPreRollEnabled() ? PRE_ROLL_IFRAME_INTERVAL : IFRAME_INTERVAL, asyncMode ? new EncoderCallback() : null);
         } catch (IOException e) {
             MyPrintLog.LogErr("视频解码器创建失败", e);
-            e.printStackTrace();
+            return;
         }
-        //配置解码器参数
-        // MediaCodec.CONFIGURE_FLAG_ENCOD如果该解码器已被占用时，返回该值。
-        mMediaCodec.configure(mediaFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        mInputLayout = mEncoder.getInputLayout();
+        rateController = MediaMuxerThread.createRateController(BIT_RATE, FRAME_RATE);
 
 
-        MyPrintLog.LogProcess(VideoEncoderThread.class, "视频准备完成");
+        MyPrintLog.LogProcess(VideoEncoderThread.class, "视频准备完成，输入排布：" + mInputLayout);
     }
 
-    //获得内置h.264解码器信息
-    private static MediaCodecInfo selectCodec(String mimeType) {
-        int numCodecs = MediaCodecList.getCodecCount();
-        for (int i = 0; i < numCodecs; i++) {
-            MediaCodecInfo codecInfo = MediaCodecList.getCodecInfoAt(i);
-            if (!codecInfo.isEncoder()) {
-                continue;
-            }
-            String[] types = codecInfo.getSupportedTypes();
-            for (int j = 0; j < types.length; j++) {
-                if (types[j].equalsIgnoreCase(mimeType)) {
-                    return codecInfo;
-                }
-            }
-        }
-        return null;
+
+    /**
+     * 设置预览帧缓存池，编码完的帧通过它交还给相机
+     *
+     * @param pool
+     */
+    public void setFrameBufferPool(FrameBufferPool pool) {
+        this.framePool = pool;
     }
 
+    /**
+     * 设置流水线指标，记录帧数、丢帧和排队、编码耗时
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
 
+    /**
+     * 添加一帧，只能在相机回调线程调用
+     */
     public void add(byte[] data) {
-        if (frameBytes != null) {
-            frameBytes.add(data);
+        if (!isRunning || isPause || (!asyncMode && frameBytes == null)) {
+            //不会被编码的帧直接交还
+            recycleFrame(data);
+            return;
+        }
+        AdaptiveRateController controller = rateController;
+        if (controller != null && !controller.acceptFrame(System.nanoTime())) {
+            //降帧率时抽掉的帧
+            recycleFrame(data);
+            return;
+        }
+        metrics.increment(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.COUNTER_IN);
+        if (asyncMode) {
+            inputQueue.offerFrame(data);
+        } else {
+            frameBytes.offer(data);
         }
+    }
 
-        if (isRunning && !isPause) {
-            synchronized (lock) {
-                lock.notify();
-            }
+    /**
+     * 当前待编码帧数
+     */
+    public int getQueueDepth() {
+        if (asyncMode) {
+            return inputQueue.getPendingFrameCount();
         }
+        return frameBytes == null ? 0 : frameBytes.size();
+    }
+
+    /**
+     * 因编码跟不上而丢弃的帧数
+     */
+    public long getDroppedFrameCount() {
+        if (asyncMode) {
+            return inputQueue.getDroppedCount();
+        }
+        return frameBytes == null ? 0 : frameBytes.getDroppedCount();
     }
 
 
@@ -141,121 +212,393 @@ public class VideoEncoderThread extends Thread {
     public void run() {
         super.run();
 
-        MyPrintLog.LogProcess(VideoEncoderThread.class, "视频循环：isRunning:" + isRunning);
+        MyPrintLog.LogProcess(VideoEncoderThread.class, "视频循环：isRunning:" + isRunning + " async:" + asyncMode);
+        if (asyncMode) {
+            runAsync();
+        }
+        while (isRunning && !asyncMode) {
+
+            adjustRate();
+            byte[] frame = frameBytes.poll(FRAME_WAIT_MS);
+            if (frame == null) {
+                //队列为空，继续等待
+            } else {
+                //暂停后 add 不再收帧，队列里剩下的是暂停前采集的，照常编码，由混合器按时间轴取舍
+                encodePolled(frame);
+            }
+
+        }
+
+        finishStream();
+        MyPrintLog.LogProcess(VideoEncoderThread.class, "Video 录制线程 退出...");
+    }
+
+    /**
+     * 同步模式：编码刚从队列取出的一帧，用完交还相机
+     */
+    private void encodePolled(byte[] frame) {
+        long offerTimeNanos = frameBytes.getLastPolledOfferTimeNanos();
+        metrics.recordSince(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.STAGE_QUEUE, offerTimeNanos);
+        HotLog.log(LOG_ENCODE, frameBytes.size());
+        try {
+            encodeFrame(frame, offerTimeNanos);
+        } catch (Exception e) {
+            MyPrintLog.LogErr("视频线程错误",e,160);
+            e.printStackTrace();
+            HotLog.dumpEvents();
+        } finally {
+            recycleFrame(frame);
+        }
+    }
+
+
+    /**
+     * 异步模式循环：取出配对好的帧和输入缓存，转换后送入编码器，输出由回调处理
+     */
+    private void runAsync() {
         while (isRunning) {
+            adjustRate();
+            if (inputQueue.take(inputMatch, FRAME_WAIT_MS) && !encodeMatched()) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 异步模式：把 inputMatch 里配对好的帧转换后送入编码器
+     *
+     * @return 编码器已释放时返回 false
+     */
+    private boolean encodeMatched() {
+        byte[] frame = inputMatch.frame;
+        int index = inputMatch.index;
+        inputMatch.frame = null;
+        metrics.recordSince(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.STAGE_QUEUE, inputMatch.offerTimeNanos);
+        Encoder codec = mEncoder;
+        if (codec == null) {
+            recycleFrame(frame);
+            return false;
+        }
+        int size = 0;
+        try {
+            ByteBuffer inputBuffer = codec.getInputBuffer(index);
+            size = yuvConverter.convert(frame, mCameraLayout, inputBuffer, mInputLayout);
+        } catch (Exception e) {
+            MyPrintLog.LogErr("视频线程错误", e);
+            HotLog.dumpEvents();
+        } finally {
+            recycleFrame(frame);
+        }
+        try {
+            //转换失败也要把缓存还给编码器，送空数据；时间戳是相机交出这一帧的时间
+            long ptsUs = inputMatch.offerTimeNanos / 1000;
+            onFrameQueued(ptsUs);
+            codec.queueInputBuffer(index, 0, size, ptsUs, 0);
+        } catch (IllegalStateException e) {
+            //编码器已停止
+            MyPrintLog.LogErr("视频送帧失败", e);
+        }
+        return true;
+    }
 
-            if (frameBytes.isEmpty() || isPause) {
-                synchronized (lock) {
+    /**
+     * 停止后的收尾：停止前已经入队的帧照常编码，然后送出带 FLAG_END_OF_STREAM 的空输入，
+     * 再等编码器把结束标记之前的输出都交给混合器。整个过程不超过 FLUSH_TIMEOUT_MS，之后由 stopVideo 停编码器。
+     */
+    private void finishStream() {
+        if (mEncoder == null) {
+            return;
+        }
+        long deadline = System.nanoTime() + FLUSH_TIMEOUT_MS * 1000000L;
+        if (asyncMode) {
+            while (inputQueue.getPendingFrameCount() > 0 && System.nanoTime() < deadline) {
+                if (inputQueue.take(inputMatch, FRAME_WAIT_MS) && !encodeMatched()) {
+                    return;
+                }
+            }
+        } else {
+            byte[] frame;
+            while (System.nanoTime() < deadline && (frame = frameBytes.poll()) != null) {
+                encodePolled(frame);
+            }
+        }
+        if (!queueEndOfStream(deadline)) {
+            MyPrintLog.LogProcess(VideoEncoderThread.class, "视频结束标记没有送进编码器");
+            return;
+        }
+        if (asyncMode) {
+            synchronized (outputLock) {
+                long remaining;
+                while (!outputEnded && (remaining = deadline - System.nanoTime()) > 0) {
                     try {
-                        MyPrintLog.LogProcess(VideoEncoderThread.class, "视频线程睡眠等待");
-                        lock.wait();
-                        MyPrintLog.LogProcess(VideoEncoderThread.class, "视频线程被唤醒");
+                        outputLock.wait(remaining / 1000000L + 1);
                     } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
                     }
                 }
+            }
+        } else {
+            while (!isOutputEnded() && System.nanoTime() < deadline) {
+                drainOutput();
+            }
+        }
+        if (!isOutputEnded()) {
+            MyPrintLog.LogProcess(VideoEncoderThread.class, "视频编码器没有在超时前输出结束标记");
+        }
+    }
+
+    /**
+     * 取一个空闲输入缓存送结束标记，同步模式下边等边取输出，输出积压时编码器腾不出输入缓存
+     *
+     * @return 是否已送出
+     */
+    private boolean queueEndOfStream(long deadline) {
+        Encoder codec = mEncoder;
+        int index = -1;
+        while (index < 0 && System.nanoTime() < deadline) {
+            if (asyncMode) {
+                index = inputQueue.takeInputBuffer(FRAME_WAIT_MS);
             } else {
-                MyPrintLog.LogProcess("视频一次解码");
-                try {
-                    encodeFrame(frameBytes.remove(0));
-                } catch (Exception e) {
-                    MyPrintLog.LogErr("视频线程错误",e,160);
-                    e.printStackTrace();
+                index = codec.dequeueInputBuffer(TIMEOUT_USEC);
+                if (index < 0) {
+                    drainOutput();
                 }
             }
+        }
+        if (index < 0) {
+            return false;
+        }
+        try {
+            codec.queueInputBuffer(index, 0, 0, System.nanoTime() / 1000, SampleInfo.FLAG_END_OF_STREAM);
+        } catch (IllegalStateException e) {
+            MyPrintLog.LogErr("视频送结束标记失败", e);
+            return false;
+        }
+        return true;
+    }
 
+    /**
+     * 编码器吐出了结束标记，之后不会再有输出
+     */
+    private void onOutputEnded() {
+        synchronized (outputLock) {
+            outputEnded = true;
+            outputLock.notifyAll();
         }
+    }
 
+    private boolean isOutputEnded() {
+        synchronized (outputLock) {
+            return outputEnded;
+        }
+    }
 
-        MyPrintLog.LogProcess(VideoEncoderThread.class, "Video 录制线程 退出...");
+    /**
+     * 每个统计周期把这段时间的指标交给码率控制器，码率变了就通知编码器，帧率由 add 抽帧实现
+     */
+    private void adjustRate() {
+        AdaptiveRateController controller = rateController;
+        long now = System.nanoTime();
+        if (controller == null || now - lastRateCheckNs < RATE_CHECK_INTERVAL_NS) {
+            return;
+        }
+        lastRateCheckNs = now;
+        PipelineMetrics.Snapshot snapshot = metrics.snapshot();
+        if (lastRateSnapshot != null) {
+            int result = controller.update(rateLoad.set(lastRateSnapshot, snapshot, getQueueDepth(), FRAME_QUEUE_SIZE));
+            if (result == AdaptiveRateController.BITRATE_DOWN || result == AdaptiveRateController.BITRATE_UP) {
+                setBitRate(controller.getBitRate());
+            }
+            if (result != AdaptiveRateController.NO_CHANGE) {
+                HotLog.log(LOG_RATE, controller.getBitRate(), controller.getFrameRate());
+            }
+        }
+        lastRateSnapshot = snapshot;
     }
 
+    private void setBitRate(int bitRate) {
+        Encoder codec = mEncoder;
+        if (codec == null) {
+            return;
+        }
+        try {
+            codec.setBitRate(bitRate);
+        } catch (IllegalStateException e) {
+            MyPrintLog.LogErr("设置码率失败", e);
+        }
+    }
 
     /**
-     * 编码每一帧的数据
-     *
-     * @param input 每一帧的数据
+     * 当前码率控制器，没有开启自动调整时为空
      */
-    private void encodeFrame(byte[] input) throws Exception{
-        Log.w(TAG, "VideoEncoderThread.encodeFrame()");
-
-        // 将原始的N21数据转为I420
-        NV21toI420SemiPlanar(input, mFrameData, this.mWidth, this.mHeight);
+    public AdaptiveRateController getRateController() {
+        return rateController;
+    }
 
-        ByteBuffer[] inputBuffers = mMediaCodec.getInputBuffers();
+    /**
+     * 异步模式下编码器的回调，运行在编码器自己的 callbackThread 上，和编码线程并发
+     */
+    private class EncoderCallback implements Encoder.Callback {
 
-        int inputBufferIndex = mMediaCodec.dequeueInputBuffer(TIMEOUT_USEC);
-        if (inputBufferIndex >= 0) {
+        @Override
+        public void onInputBufferAvailable(int index) {
+            inputQueue.offerInputBuffer(index);
+        }
 
-            if (mFrameData.length>0){
-                ByteBuffer inputBuffer = inputBuffers[inputBufferIndex];
-                inputBuffer.clear();
-                inputBuffer.put(mFrameData);
-                mMediaCodec.queueInputBuffer(inputBufferIndex, 0, mFrameData.length, System.nanoTime() / 1000, 0);
-            }else {
-                mMediaCodec.queueInputBuffer(inputBufferIndex, 0, 0, System.nanoTime() / 1000, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+        @Override
+        public void onOutputBufferAvailable(int index, SampleInfo info) {
+            Encoder codec = mEncoder;
+            if (codec == null) {
+                return;
+            }
+            boolean endOfStream = info.isEndOfStream();
+            try {
+                sendToMuxer(codec.getOutputBuffer(index), info);
+            } finally {
+                codec.releaseOutputBuffer(index);
             }
+            if (endOfStream) {
+                onOutputEnded();
+            }
+        }
+
+        @Override
+        public void onError(Exception e) {
+            MyPrintLog.LogErr("视频编码器错误", e);
+            HotLog.dumpEvents();
+        }
+
+        @Override
+        public void onOutputFormatChanged(TrackFormat format) {
+            onFormatChanged(format);
+        }
+    }
+
+    /**
+     * 编码每一帧的数据
+     *
+     * @param input          每一帧的数据
+     * @param offerTimeNanos 相机交出这一帧的时间（System.nanoTime），作为时间戳，和音频一样是采集时间
+     */
+    private void encodeFrame(byte[] input, long offerTimeNanos) throws Exception{
+        int inputBufferIndex = mEncoder.dequeueInputBuffer(TIMEOUT_USEC);
+        if (inputBufferIndex >= 0) {
+            ByteBuffer inputBuffer = mEncoder.getInputBuffer(inputBufferIndex);
+            // 将原始的N21数据按编码器要求的格式直接写入输入缓存
+            int size = yuvConverter.convert(input, mCameraLayout, inputBuffer, mInputLayout);
+            long ptsUs = offerTimeNanos / 1000;
+            onFrameQueued(ptsUs);
+            mEncoder.queueInputBuffer(inputBufferIndex, 0, size, ptsUs, 0);
         } else {
             //？？？？？如果不可用怎么办？？？
-            Log.e(TAG, "input buffer not available");
+            HotLog.log(LOG_NO_INPUT);
+            metrics.increment(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.COUNTER_DROPPED);
             return;
         }
+        drainOutput();
+    }
 
-        ByteBuffer[] outputBuffers = mMediaCodec.getOutputBuffers();
+    /**
+     * 同步模式：取出编码器当前所有的输出送给混合器，遇到结束标记时记下
+     */
+    private void drainOutput() {
         int outputBufferIndex;
         do {
-            outputBufferIndex = mMediaCodec.dequeueOutputBuffer(mBufferInfo, TIMEOUT_USEC);
-            if (outputBufferIndex == MediaCodec.INFO_TRY_AGAIN_LATER) {
+            outputBufferIndex = mEncoder.dequeueOutputBuffer(mBufferInfo, TIMEOUT_USEC);
+            if (outputBufferIndex == Encoder.INFO_TRY_AGAIN_LATER) {
                 //标明执行函数超时，将不会继续等待。
-            } else if (outputBufferIndex == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
-                outputBuffers = mMediaCodec.getOutputBuffers();
-            } else if (outputBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                MediaFormat newFormat = mMediaCodec.getOutputFormat();
-                MediaMuxerThread mediaMuxerRunnable = this.mediaMuxer.get();
-                if (mediaMuxerRunnable != null) {
-                    mediaMuxerRunnable.addTrackIndex(MediaMuxerThread.TRACK_VIDEO, newFormat);
-                }
+            } else if (outputBufferIndex == Encoder.INFO_OUTPUT_FORMAT_CHANGED) {
+                onFormatChanged(mEncoder.getOutputFormat());
             } else if (outputBufferIndex < 0) {
-                Log.e(TAG, "outputBufferIndex < 0");
+                HotLog.log(LOG_BAD_OUTPUT, outputBufferIndex);
 
             } else if (outputBufferIndex>=0){
-                Log.d(TAG, "perform encoding");
-                ByteBuffer outputBuffer = outputBuffers[outputBufferIndex];
+                ByteBuffer outputBuffer = mEncoder.getOutputBuffer(outputBufferIndex);
                 if (outputBuffer == null) {
                     throw new RuntimeException("encoderOutputBuffer " + outputBufferIndex + " was null");
                 }
-                if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-                    Log.d(TAG, "ignoring BUFFER_FLAG_CODEC_CONFIG");
-                    mBufferInfo.size = 0;
+                boolean endOfStream = mBufferInfo.isEndOfStream();
+                sendToMuxer(outputBuffer, mBufferInfo);
+                mEncoder.releaseOutputBuffer(outputBufferIndex);
+                if (endOfStream) {
+                    onOutputEnded();
+                    break;
                 }
-                if (mBufferInfo.size != 0) {
-                    MediaMuxerThread mediaMuxer = this.mediaMuxer.get();
-
-//                    if (mediaMuxer != null && !mediaMuxer.isVideoTrackAdd()) {
-//                        MediaFormat newFormat = mMediaCodec.getOutputFormat();
-//                        mediaMuxer.addTrackIndex(MediaMuxerThread.TRACK_VIDEO, newFormat);
-//                    }
-                    // adjust the ByteBuffer values to match BufferInfo (not needed?)
-                    outputBuffer.position(mBufferInfo.offset);
-                    outputBuffer.limit(mBufferInfo.offset + mBufferInfo.size);
-
+            }
+        } while (outputBufferIndex >= 0);
+    }
 
-                    if (mediaMuxer != null) {
-                        mediaMuxer.addMuxerData(new MediaMuxerThread.MuxerData(MediaMuxerThread.TRACK_VIDEO, outputBuffer, mBufferInfo));
-                    }
+    private void onFrameQueued(long ptsUs) {
+        synchronized (queuedLock) {
+            int i = queuedFrames % QUEUED_FRAMES;
+            queuedPtsUs[i] = ptsUs;
+            queuedAtNanos[i] = System.nanoTime();
+            queuedFrames++;
+        }
+    }
 
-                    Log.d(TAG, "sent " + mBufferInfo.size + " frameBytes to muxer");
+    /**
+     * 时间戳为 ptsUs 的帧送进编码器的时间，输出和输入一一对应，时间戳原样带出
+     *
+     * @return 找不到（帧太旧已被覆盖）时返回 -1
+     */
+    private long queuedAtNanos(long ptsUs) {
+        synchronized (queuedLock) {
+            int oldest = Math.max(0, queuedFrames - QUEUED_FRAMES);
+            for (int n = queuedFrames - 1; n >= oldest; n--) {
+                int i = n % QUEUED_FRAMES;
+                if (queuedPtsUs[i] == ptsUs) {
+                    return queuedAtNanos[i];
                 }
-                mMediaCodec.releaseOutputBuffer(outputBufferIndex, false);
             }
-        } while (outputBufferIndex >= 0);
+        }
+        return -1;
+    }
+
+    private void onFormatChanged(TrackFormat newFormat) {
+        WeakReference<MediaMuxerThread> muxerRef = this.mediaMuxer;
+        MediaMuxerThread mediaMuxerRunnable = muxerRef == null ? null : muxerRef.get();
+        if (mediaMuxerRunnable != null) {
+            mediaMuxerRunnable.addTrackIndex(MediaMuxerThread.TRACK_VIDEO, newFormat);
+        }
+    }
+
+    /**
+     * 把一个输出缓存拷贝给混合器，同步循环和异步回调共用
+     */
+    private void sendToMuxer(ByteBuffer outputBuffer, SampleInfo info) {
+        if ((info.flags & SampleInfo.FLAG_CODEC_CONFIG) != 0) {
+            HotLog.log(LOG_CODEC_CONFIG);
+            return;
+        }
+        if (info.size == 0 || outputBuffer == null) {
+            return;
+        }
+        //时间戳是采集时间，含排队和转换，编码耗时从送进编码器时算起
+        long queuedAt = queuedAtNanos(info.presentationTimeUs);
+        if (queuedAt >= 0) {
+            metrics.recordSince(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.STAGE_ENCODE, queuedAt);
+        }
+        metrics.increment(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.COUNTER_ENCODED);
+        WeakReference<MediaMuxerThread> muxerRef = this.mediaMuxer;
+        MediaMuxerThread mediaMuxer = muxerRef == null ? null : muxerRef.get();
+        // adjust the ByteBuffer values to match BufferInfo (not needed?)
+        outputBuffer.position(info.offset);
+        outputBuffer.limit(info.offset + info.size);
+        if (mediaMuxer != null) {
+            //拷贝一次，之后输出缓存可以马上释放
+            mediaMuxer.addMuxerData(mediaMuxer.obtainMuxerData(MediaMuxerThread.TRACK_VIDEO, outputBuffer, info));
+        }
+        HotLog.log(LOG_SENT, info.size, info.presentationTimeUs);
     }
 
     /**
      * 开始视频编码
      */
     public void startVideo() {
-        if (mMediaCodec != null) {
-            mMediaCodec.start();
+        if (mEncoder != null) {
+            mEncoder.start();
             isRunning = true;
             start();
         }
@@ -268,44 +611,66 @@ public class VideoEncoderThread extends Thread {
         isRunning = false;
         isPause = false;
 
-        try {
-            Thread.sleep(10);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        if (frameBytes != null) {
+            frameBytes.wakeConsumer();
+        }
+        //编码线程把已入队的帧编完、送出结束标记并取完输出后退出，等它退出后再停编码器、关转换线程池
+        if (isAlive() && Thread.currentThread() != this) {
+            try {
+                join(STOP_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (isAlive()) {
+                MyPrintLog.LogProcess(VideoEncoderThread.class, "视频编码线程没有在超时前退出");
+            }
         }
-        if (mMediaCodec != null) {
-            mMediaCodec.stop();
-            mMediaCodec.release();
-            mMediaCodec = null;
+        if (inputQueue != null) {
+            //唤醒还在等配对的编码线程，待编码帧交还
+            inputQueue.close();
+        }
+        if (mEncoder != null) {
+            mEncoder.stop();
+            mEncoder.release();
+            mEncoder = null;
         }
         if (frameBytes != null) {
             frameBytes.clear();
         }
+        yuvConverter.shutdown();
         mBufferInfo = null;
-        mFrameData = null;
         mediaMuxer = null;
         MyPrintLog.LogProcess(VideoEncoderThread.class, "视频退出.");
     }
 
 
+    /**
+     * 请求编码器尽快输出一个关键帧（分段切换文件时使用），可以在任意线程调用
+     */
+    public void requestKeyFrame() {
+        Encoder codec = mEncoder;
+        if (codec == null || !isRunning) {
+            return;
+        }
+        try {
+            codec.requestKeyFrame();
+        } catch (IllegalStateException e) {
+            MyPrintLog.LogErr("请求关键帧失败", e);
+        }
+    }
+
     public void pauseVideo() {
         isPause = true;
     }
 
     public void rePlayVideo() {
         isPause = false;
-        if (isRunning) {
-            synchronized (lock) {
-                lock.notify();
-            }
-        }
     }
 
-    private static void NV21toI420SemiPlanar(byte[] nv21bytes, byte[] i420bytes, int width, int height) {
-        System.arraycopy(nv21bytes, 0, i420bytes, 0, width * height);
-        for (int i = width * height; i < nv21bytes.length; i += 2) {
-            i420bytes[i] = nv21bytes[i + 1];
-            i420bytes[i + 1] = nv21bytes[i];
+    private void recycleFrame(byte[] frame) {
+        FrameBufferPool pool = framePool;
+        if (pool != null) {
+            pool.recycle(frame);
         }
     }
 
@@ -1,16 +1,27 @@
 package com.hm.androidrecorder.onlyh264;
 
 import android.media.MediaCodec;
-import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
 import android.os.Environment;
 
-import java.io.BufferedOutputStream;
+import com.hm.androidrecorder.buffer.FrameBufferPool;
+import com.hm.androidrecorder.h264.NalIterator;
+import com.hm.androidrecorder.h264.NalUnits;
+import com.hm.androidrecorder.h264.SpsInfo;
+import com.hm.androidrecorder.output.ChannelSink;
+import com.hm.androidrecorder.output.MappedFileSink;
+import com.hm.androidrecorder.output.StreamSink;
+import com.hm.androidrecorder.utils.CodecUtil;
+import com.hm.androidrecorder.utils.MyPrintLog;
+import com.hm.androidrecorder.yuv.YuvConverter;
+import com.hm.androidrecorder.yuv.YuvFormat;
+import com.hm.androidrecorder.yuv.YuvLayout;
+
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * H264 编码类
@@ -18,17 +29,30 @@ import java.util.concurrent.ArrayBlockingQueue;
 public class H264Encoder {
 
     private final static int TIMEOUT_USEC = 12000;
+    private final static long FRAME_WAIT_MS = 100;
 
     private MediaCodec mediaCodec;
 
     public boolean isRuning = false;
     private int width, height, framerate;
     public byte[] configbyte;
+    //SPS/PPS 的 direct 缓存，关键帧前和帧数据一起写出
+    private ByteBuffer configBuffer;
 
-    private BufferedOutputStream outputStream;
+    //码流输出，直接写编码器输出缓存
+    private StreamSink sink;
+    //是否使用内存映射输出
+    private final boolean mappedOutput;
 
     public ArrayBlockingQueue<byte[]> yuv420Queue = new ArrayBlockingQueue<>(10);
 
+    //预览帧缓存池，转换完的帧交还给相机
+    private volatile FrameBufferPool framePool;
+
+    //相机 NV21 排布和编码器输入排布
+    private YuvLayout cameraLayout;
+    private YuvLayout inputLayout;
+
     /***
      * 构造函数
      * @param width
@@ -36,18 +60,35 @@ public class H264Encoder {
      * @param framerate
      */
     public H264Encoder(int width, int height, int framerate) {
+        this(width, height, framerate, false);
+    }
+
+    /***
+     * 构造函数
+     * @param width
+     * @param height
+     * @param framerate
+     * @param mappedOutput true 使用预分配的内存映射文件输出，false 使用 FileChannel
+     */
+    public H264Encoder(int width, int height, int framerate, boolean mappedOutput) {
         this.width = width;
         this.height = height;
         this.framerate = framerate;
+        this.mappedOutput = mappedOutput;
+
+        cameraLayout = YuvLayout.packed(YuvFormat.NV21, width, height);
 
         MediaFormat mediaFormat = MediaFormat.createVideoFormat("video/avc", width, height);
-        mediaFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar);
         mediaFormat.setInteger(MediaFormat.KEY_BIT_RATE, width * height * 5);
         mediaFormat.setInteger(MediaFormat.KEY_FRAME_RATE, 30);
         mediaFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 1);
         try {
             mediaCodec = MediaCodec.createEncoderByType("video/avc");
+            // 从编码器支持的颜色格式中选一个能转换的
+            int colorFormat = CodecUtil.selectColorFormat(mediaCodec.getCodecInfo(), "video/avc");
+            mediaFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT, colorFormat);
             mediaCodec.configure(mediaFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            inputLayout = CodecUtil.createInputLayout(mediaCodec.getInputFormat(), colorFormat, width, height);
             mediaCodec.start();
             createfile();
         } catch (IOException e) {
@@ -62,19 +103,34 @@ public class H264Encoder {
             file.delete();
         }
         try {
-            outputStream = new BufferedOutputStream(new FileOutputStream(file));
+            sink = mappedOutput ? new MappedFileSink(file) : new ChannelSink(file);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * 设置预览帧缓存池
+     * @param pool
+     */
+    public void setFrameBufferPool(FrameBufferPool pool) {
+        this.framePool = pool;
+    }
+
     public void putData(byte[] buffer) {
         if (yuv420Queue.size() >= 10) {
-            yuv420Queue.poll();
+            recycleFrame(yuv420Queue.poll());
         }
         yuv420Queue.add(buffer);
     }
 
+    private void recycleFrame(byte[] frame) {
+        FrameBufferPool pool = framePool;
+        if (pool != null && frame != null) {
+            pool.recycle(frame);
+        }
+    }
+
     /***
      * 开始编码
      */
@@ -84,17 +140,18 @@ public class H264Encoder {
             @Override
             public void run() {
                 isRuning = true;
-                byte[] input = null;
                 long pts = 0;
                 long generateIndex = 0;
+                YuvConverter converter = new YuvConverter();
+                MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+                NalIterator nals = new NalIterator();
 
                 while (isRuning) {
-                    if (yuv420Queue.size() > 0) {
-                        input = yuv420Queue.poll();
-                        byte[] yuv420sp = new byte[width * height * 3 / 2];
-                        // 必须要转格式，否则录制的内容播放出来为绿屏
-                        NV21ToNV12(input, yuv420sp, width, height);
-                        input = yuv420sp;
+                    byte[] input = null;
+                    try {
+                        input = yuv420Queue.poll(FRAME_WAIT_MS, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
                     }
                     if (input != null) {
                         try {
@@ -104,30 +161,37 @@ public class H264Encoder {
                             if (inputBufferIndex >= 0) {
                                 pts = computePresentationTime(generateIndex);
                                 ByteBuffer inputBuffer = inputBuffers[inputBufferIndex];
-                                inputBuffer.clear();
-                                inputBuffer.put(input);
-                                mediaCodec.queueInputBuffer(inputBufferIndex, 0, input.length, System.currentTimeMillis(), 0);
+                                // 必须要转格式，否则录制的内容播放出来为绿屏；直接写入编码器输入缓存
+                                int size = converter.convert(input, cameraLayout, inputBuffer, inputLayout);
+                                mediaCodec.queueInputBuffer(inputBufferIndex, 0, size, System.currentTimeMillis(), 0);
                                 generateIndex += 1;
                             }
+                            // 转换后原始帧已经用完，交还给相机
+                            recycleFrame(input);
+                            input = null;
 
-                            MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
                             int outputBufferIndex = mediaCodec.dequeueOutputBuffer(bufferInfo, TIMEOUT_USEC);
                             while (outputBufferIndex >= 0) {
                                 ByteBuffer outputBuffer = outputBuffers[outputBufferIndex];
-                                byte[] outData = new byte[bufferInfo.size];
-                                outputBuffer.get(outData);
+                                outputBuffer.limit(bufferInfo.offset + bufferInfo.size);
+                                outputBuffer.position(bufferInfo.offset);
 
                                 //输出帧信息
-                                if (bufferInfo.flags == MediaCodec.BUFFER_FLAG_CODEC_CONFIG) {
+                                if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+                                    //只在开始时出现一次，保存一份 direct 拷贝
+                                    configBuffer = ByteBuffer.allocateDirect(bufferInfo.size);
+                                    configBuffer.put(outputBuffer);
+                                    configBuffer.flip();
                                     configbyte = new byte[bufferInfo.size];
-                                    configbyte = outData;
-                                } else if (bufferInfo.flags == MediaCodec.BUFFER_FLAG_SYNC_FRAME) {
-                                    byte[] keyframe = new byte[bufferInfo.size + configbyte.length];
-                                    System.arraycopy(configbyte, 0, keyframe, 0, configbyte.length);
-                                    System.arraycopy(outData, 0, keyframe, configbyte.length, outData.length);
-                                    outputStream.write(keyframe, 0, keyframe.length);
+                                    configBuffer.get(configbyte);
+                                    configBuffer.rewind();
+                                    logConfig(nals);
+                                } else if (configBuffer != null && needsConfig(nals, outputBuffer, bufferInfo)) {
+                                    // SPS/PPS 和关键帧一次写出
+                                    configBuffer.rewind();
+                                    sink.write(configBuffer, outputBuffer);
                                 } else {
-                                    outputStream.write(outData, 0, outData.length);
+                                    sink.write(outputBuffer);
                                 }
 
                                 mediaCodec.releaseOutputBuffer(outputBufferIndex, false);
@@ -136,12 +200,8 @@ public class H264Encoder {
 
                         } catch (Throwable t) {
                             t.printStackTrace();
-                        }
-                    } else {
-                        try {
-                            Thread.sleep(500);
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
+                        } finally {
+                            recycleFrame(input);
                         }
                     }
                 }
@@ -156,8 +216,7 @@ public class H264Encoder {
 
                 // 关闭数据流
                 try {
-                    outputStream.flush();
-                    outputStream.close();
+                    sink.close();
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
@@ -166,40 +225,38 @@ public class H264Encoder {
     }
 
     /**
-     * 停止编码数据
+     * 关键帧前要不要补 SPS/PPS。按 NAL 判断：IDR 帧即使没带 BUFFER_FLAG_SYNC_FRAME 也要补，
+     * 编码器已经在帧里带了 SPS 时不重复写。
      */
-    public void stopEncoder() {
-        isRuning = false;
+    private static boolean needsConfig(NalIterator nals, ByteBuffer frame, MediaCodec.BufferInfo info) {
+        int mask = nals.leadingTypeMask(frame, info.offset, info.size);
+        boolean keyFrame = (info.flags & MediaCodec.BUFFER_FLAG_SYNC_FRAME) != 0 || NalUnits.hasType(mask, NalUnits.TYPE_IDR);
+        return keyFrame && !NalUnits.hasType(mask, NalUnits.TYPE_SPS);
     }
 
     /**
-     * 将一帧NV21转换为NV12
-     * @param nv21
-     * @param nv12
-     * @param width
-     * @param height
+     * 打印编码器实际使用的 profile/level 和尺寸，和请求的不一致时容易看出来
      */
-    private void NV21ToNV12(byte[] nv21, byte[] nv12, int width, int height) {
-        if (nv21 == null || nv12 == null) return;
-        int framesize = width * height;//100
-        int i = 0, j = 0;
-        System.arraycopy(nv21, 0, nv12, 0, framesize);
-        //前50为Y,不用转换
-        for (i = 0; i < framesize/2; i++) {
-            nv12[i] = nv21[i];
+    private void logConfig(NalIterator nals) {
+        nals.reset(configBuffer, 0, configBuffer.limit());
+        try {
+            while (nals.next()) {
+                if (nals.type() == NalUnits.TYPE_SPS) {
+                    SpsInfo sps = new SpsInfo().parse(configBuffer, nals.offset(), nals.size());
+                    MyPrintLog.LogProcess(H264Encoder.class, "H264 SPS " + sps + "，请求 " + width + "x" + height);
+                    return;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            MyPrintLog.LogErr("H264 SPS 解析失败", e);
         }
+    }
 
-        byte temp;
-        //将后面50的u，v交换位置
-        for (j = 0; j < framesize / 2; j += 2) {
-            //49+ 奇数   =    100 +2
-
-            nv12[framesize + j - 1] = nv21[j + framesize];
-        }
-            // 50+ 偶数       =99 +2
-        for (j = 0; j < framesize / 2; j += 2) {
-            nv12[framesize + j] = nv21[j + framesize - 1];
-        }
+    /**
+     * 停止编码数据
+     */
+    public void stopEncoder() {
+        isRuning = false;
     }
 
     /**
@@ -19,6 +19,7 @@ import android.view.View;
 import android.widget.Button;
 import android.widget.Toast;
 
+import com.hm.androidrecorder.buffer.FrameBufferPool;
 import com.hm.androidrecorder.muxer.MediaMuxerActivity;
 import com.renhui.androidrecorder.R;
 
@@ -35,6 +36,7 @@ public class MainActivity extends AppCompatActivity implements SurfaceHolder.Cal
     int height = 720;
     int framerate = 30;
     H264Encoder encoder;
+    FrameBufferPool framePool;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -101,18 +103,29 @@ public class MainActivity extends AppCompatActivity implements SurfaceHolder.Cal
         camera.setDisplayOrientation(90);
         Camera.Parameters parameters = camera.getParameters();
         parameters.setPreviewFormat(ImageFormat.NV21);
-        parameters.setPreviewSize(1280, 720);
+        parameters.setPreviewSize(width, height);
+
+        encoder = new H264Encoder(width, height, framerate);
+        //预览帧在相机和编码器之间循环使用
+        framePool = new FrameBufferPool(FrameBufferPool.nv21FrameSize(width, height));
+        encoder.setFrameBufferPool(framePool);
 
         try {
             camera.setParameters(parameters);
             camera.setPreviewDisplay(surfaceHolder);
-            camera.setPreviewCallback(this);
+            final Camera previewCamera = camera;
+            framePool.attach(new FrameBufferPool.Recycler() {
+                @Override
+                public void onRecycle(byte[] buffer) {
+                    previewCamera.addCallbackBuffer(buffer);
+                }
+            });
+            camera.setPreviewCallbackWithBuffer(this);
             camera.startPreview();
         } catch (IOException e) {
             e.printStackTrace();
         }
 
-        encoder = new H264Encoder(width, height, framerate);
         encoder.startEncoder();
     }
 
@@ -127,7 +140,10 @@ public class MainActivity extends AppCompatActivity implements SurfaceHolder.Cal
 
         // 停止预览并释放资源
         if (camera != null) {
-            camera.setPreviewCallback(null);
+            if (framePool != null) {
+                framePool.detach();
+            }
+            camera.setPreviewCallbackWithBuffer(null);
             camera.stopPreview();
             camera = null;
         }
@@ -141,6 +157,8 @@ public class MainActivity extends AppCompatActivity implements SurfaceHolder.Cal
     public void onPreviewFrame(byte[] bytes, Camera camera) {
         if (encoder != null) {
             encoder.putData(bytes);
+        } else {
+            camera.addCallbackBuffer(bytes);
         }
     }
 }
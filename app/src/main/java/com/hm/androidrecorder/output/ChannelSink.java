@@ -0,0 +1,65 @@
+package com.hm.androidrecorder.output;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-14]
+ * @Describe: FileChannel 输出
+ * <p>
+ * 两段数据用 gather write 一次系统调用写出。传入 direct ByteBuffer（编解码器的输出缓存就是）时
+ * 不经过任何堆拷贝；堆上的 ByteBuffer 会被 JDK 先拷贝到临时的 direct 缓存。
+ */
+
+
+public class ChannelSink implements StreamSink {
+
+    private final FileOutputStream outputStream;
+    private final FileChannel channel;
+    //gather write 用的数组，重复使用
+    private final ByteBuffer[] pair = new ByteBuffer[2];
+    private long bytesWritten = 0;
+
+    /**
+     * 创建或清空 file
+     */
+    public ChannelSink(File file) throws IOException {
+        outputStream = new FileOutputStream(file);
+        channel = outputStream.getChannel();
+    }
+
+    @Override
+    public void write(ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            bytesWritten += channel.write(data);
+        }
+    }
+
+    @Override
+    public void write(ByteBuffer prefix, ByteBuffer data) throws IOException {
+        pair[0] = prefix;
+        pair[1] = data;
+        try {
+            while (data.hasRemaining()) {
+                bytesWritten += channel.write(pair);
+            }
+        } finally {
+            pair[0] = null;
+            pair[1] = null;
+        }
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void close() throws IOException {
+        outputStream.close();
+    }
+}
@@ -0,0 +1,113 @@
+package com.hm.androidrecorder.output;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-14]
+ * @Describe: 内存映射输出
+ * <p>
+ * 文件按 regionSize 一段段预先扩展并映射，写入就是内存拷贝，没有系统调用；写满一段再映射下一段。
+ * 写进映射区的数据由内核回写，进程崩溃也不会丢。{@link #close()} 时把文件截断到实际写入的长度。
+ * <p>
+ * 没有 close 就崩溃时文件不会被截断，长度停在已映射的段尾，实际数据后面最多跟着一段（默认 16M）全 0 的尾巴，
+ * 读取方要按内容判断结尾。Annex-B 的 H.264 流里全 0 的尾巴相当于 trailing_zero_8bits，解码器会忽略。
+ */
+
+
+public class MappedFileSink implements StreamSink {
+
+    /**
+     * 默认每段 16M
+     */
+    public static final int DEFAULT_REGION_SIZE = 16 * 1024 * 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int regionSize;
+    private MappedByteBuffer region;
+    //当前映射段在文件中的起点
+    private long regionStart = 0;
+    private long bytesWritten = 0;
+    private int regionCount = 0;
+
+    public MappedFileSink(File file) throws IOException {
+        this(file, DEFAULT_REGION_SIZE);
+    }
+
+    /**
+     * 创建或清空 file
+     */
+    public MappedFileSink(File file, int regionSize) throws IOException {
+        if (regionSize <= 0) {
+            throw new IllegalArgumentException("regionSize:" + regionSize);
+        }
+        this.file = new RandomAccessFile(file, "rw");
+        this.file.setLength(0);
+        this.channel = this.file.getChannel();
+        this.regionSize = regionSize;
+        mapRegion(0);
+    }
+
+    @Override
+    public void write(ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            if (!region.hasRemaining()) {
+                mapRegion(regionStart + regionSize);
+            }
+            int count = Math.min(data.remaining(), region.remaining());
+            int limit = data.limit();
+            data.limit(data.position() + count);
+            region.put(data);
+            data.limit(limit);
+            bytesWritten += count;
+        }
+    }
+
+    @Override
+    public void write(ByteBuffer prefix, ByteBuffer data) throws IOException {
+        write(prefix);
+        write(data);
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * 已映射的段数
+     */
+    public int getRegionCount() {
+        return regionCount;
+    }
+
+    /**
+     * 把映射区的数据刷到存储设备
+     */
+    public void force() {
+        region.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            region.force();
+            //映射区域在 GC 时才解除，Linux 上截断已映射的文件是允许的
+            channel.truncate(bytesWritten);
+        } finally {
+            file.close();
+        }
+    }
+
+    private void mapRegion(long start) throws IOException {
+        region = channel.map(FileChannel.MapMode.READ_WRITE, start, regionSize);
+        regionStart = start;
+        regionCount++;
+    }
+}
@@ -0,0 +1,30 @@
+package com.hm.androidrecorder.output;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-14]
+ * @Describe: 码流输出
+ * <p>
+ * 直接写编解码器的 ByteBuffer，写入 [position, limit)，写完后 position=limit。
+ * 实现不拷贝到堆数组，所有方法应在同一个线程调用。
+ */
+
+
+public interface StreamSink extends Closeable {
+
+    void write(ByteBuffer data) throws IOException;
+
+    /**
+     * prefix 和 data 连续写出（关键帧前面加 SPS/PPS）
+     */
+    void write(ByteBuffer prefix, ByteBuffer data) throws IOException;
+
+    /**
+     * 累计写入的字节数
+     */
+    long getBytesWritten();
+}
@@ -0,0 +1,56 @@
+package com.hm.androidrecorder.utils;
+
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+
+import com.hm.androidrecorder.yuv.ColorFormats;
+import com.hm.androidrecorder.yuv.YuvFormat;
+import com.hm.androidrecorder.yuv.YuvLayout;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-11]
+ * @Describe: 编码器相关的公共方法
+ */
+
+
+public class CodecUtil {
+
+    /**
+     * 选择编码器支持且能转换的颜色格式，查不到时按 YUV420SemiPlanar 处理
+     */
+    public static int selectColorFormat(MediaCodecInfo codecInfo, String mimeType) {
+        int colorFormat = -1;
+        try {
+            MediaCodecInfo.CodecCapabilities capabilities = codecInfo.getCapabilitiesForType(mimeType);
+            colorFormat = ColorFormats.select(capabilities.colorFormats);
+        } catch (IllegalArgumentException e) {
+            MyPrintLog.LogErr("获取编码器颜色格式失败", e);
+        }
+        if (colorFormat < 0) {
+            colorFormat = MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar;
+        }
+        return colorFormat;
+    }
+
+    /**
+     * 根据编码器输入格式中的 stride / slice-height 确定输入排布，没有给出时按紧凑排布
+     */
+    public static YuvLayout createInputLayout(MediaFormat inputFormat, int colorFormat, int width, int height) {
+        YuvFormat yuvFormat = ColorFormats.toYuvFormat(colorFormat);
+        if (yuvFormat == null) {
+            yuvFormat = YuvFormat.NV12;
+        }
+        int stride = width;
+        int sliceHeight = height;
+        if (inputFormat != null) {
+            if (inputFormat.containsKey(MediaFormat.KEY_STRIDE)) {
+                stride = Math.max(width, inputFormat.getInteger(MediaFormat.KEY_STRIDE));
+            }
+            if (inputFormat.containsKey(MediaFormat.KEY_SLICE_HEIGHT)) {
+                sliceHeight = Math.max(height, inputFormat.getInteger(MediaFormat.KEY_SLICE_HEIGHT));
+            }
+        }
+        return YuvLayout.of(yuvFormat, width, height, stride, sliceHeight);
+    }
+}
@@ -1,13 +1,9 @@
 package com.hm.androidrecorder.utils;
 
-import android.os.Environment;
-import android.util.Log;
-
-import com.hm.androidrecorder.constant.GlobalConfig;
-
 import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.Locale;
 
 /**
  * @author hm
@@ -18,19 +14,6 @@ import java.text.SimpleDateFormat;
 
 public class FileUtil {
 
-    // 获取sdcard的目�?
-    public static String getSDPath()
-    {
-        // 判断sdcard是否存在
-        if (Environment.getExternalStorageState().equals(android.os.Environment.MEDIA_MOUNTED))
-        {
-            // 获取根目�?
-            File sdDir = Environment.getExternalStorageDirectory();
-            return sdDir.getPath();
-        }
-        return GlobalConfig.PACKAGE_NAME;
-    }
-
     public static String createNewFile(String path)
     {
 
@@ -43,9 +26,9 @@ public class FileUtil {
         if(!file.exists()) {
             try {
                 if(file.createNewFile()){
-                    Log.e(GlobalConfig.LOG_PROCESS,"文件创建完成:"+path);
+                    MyPrintLog.LogProcess("文件创建完成:"+path);
                 }else {
-                    Log.e(GlobalConfig.LOG_PROCESS,"文件创建失败:"+path);
+                    MyPrintLog.LogProcess("文件创建失败:"+path);
                 }
 
             } catch (IOException e) {
@@ -63,4 +46,32 @@ public class FileUtil {
         String format = simpleDateFormat.format(System.currentTimeMillis());
         return format;
     }
+
+    /**
+     * 在 dir 下创建一个不重名的新文件并返回路径。文件名精确到毫秒，已存在时加序号；
+     * createNewFile 是原子操作，多个线程同时调用也不会拿到同一个文件。
+     *
+     * @param dir 目录，不存在时创建
+     * @param ext 扩展名，例如 ".mp4"
+     */
+    public static String createUniqueFile(String dir, String ext) {
+        File parent = new File(dir);
+        if (!parent.exists()) {
+            parent.mkdirs();
+        }
+        String base = new SimpleDateFormat("yyyy_MM_dd_HH_mm_ss_SSS", Locale.US).format(System.currentTimeMillis());
+        for (int i = 0; ; i++) {
+            File file = new File(parent, i == 0 ? base + ext : base + "_" + i + ext);
+            try {
+                if (file.createNewFile()) {
+                    MyPrintLog.LogProcess("文件创建完成:" + file.getPath());
+                    return file.getPath();
+                }
+            } catch (IOException e) {
+                //目录不可写，重试也没用
+                MyPrintLog.LogProcess("文件创建失败:" + file.getPath());
+                return file.getPath();
+            }
+        }
+    }
 }
@@ -1,13 +1,12 @@
 package com.hm.androidrecorder.utils;
 
-import android.util.Log;
-
 import com.hm.androidrecorder.constant.GlobalConfig;
+import com.hm.androidrecorder.log.HotLog;
 
 /**
  * @author hm
  * @version [v1, 2020-04-27]
- * @Describe:
+ * @Describe: 流程日志，经过 {@link HotLog} 的输出目标，设备上写 logcat，JVM 上写标准输出
  */
 
 
@@ -22,18 +21,18 @@ public class MyPrintLog {
         LogProcess(c.getName(),printContent,printLineNum);
     }
     public static void LogProcess(String className,String printContent){
-        Log.e(GlobalConfig.LOG_PROCESS,className+":---------"+printContent);
+        HotLog.println(HotLog.ERROR, GlobalConfig.LOG_PROCESS,className+":---------"+printContent);
     }
 
     public static void LogProcess(String className,String printContent,int printLineNum){
-        Log.e(GlobalConfig.LOG_PROCESS,className+":---------"+printContent+"----------打印行数："+printLineNum);
+        HotLog.println(HotLog.ERROR, GlobalConfig.LOG_PROCESS,className+":---------"+printContent+"----------打印行数："+printLineNum);
     }
 
 
     public static void LogErr(String errStr,Exception e){
-        Log.e(GlobalConfig.LOG_ERR,errStr+"，异常："+e.toString());
+        HotLog.println(HotLog.ERROR, GlobalConfig.LOG_ERR,errStr+"，异常："+e.toString());
     }
     public static void LogErr(String errStr,Exception e,int errLineNum){
-        Log.e(GlobalConfig.LOG_ERR,errStr+"，异常："+e.toString()+"-------打印行数："+errLineNum);
+        HotLog.println(HotLog.ERROR, GlobalConfig.LOG_ERR,errStr+"，异常："+e.toString()+"-------打印行数："+errLineNum);
     }
 }
@@ -0,0 +1,67 @@
+package com.hm.androidrecorder.yuv;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-11]
+ * @Describe: 编码器颜色格式选择
+ * <p>
+ * 常量与 MediaCodecInfo.CodecCapabilities 中的取值一致，这里单独定义是为了能在 JVM 上测试。
+ */
+
+
+public class ColorFormats {
+
+    public static final int COLOR_FormatYUV420Planar = 19;
+    public static final int COLOR_FormatYUV420PackedPlanar = 20;
+    public static final int COLOR_FormatYUV420SemiPlanar = 21;
+    public static final int COLOR_FormatYUV420PackedSemiPlanar = 39;
+    public static final int COLOR_TI_FormatYUV420PackedSemiPlanar = 0x7f000100;
+
+    /**
+     * 优先顺序：交错格式和 NV21 最接近，转换最便宜
+     */
+    private static final int[] PREFERRED = {
+            COLOR_FormatYUV420SemiPlanar,
+            COLOR_FormatYUV420PackedSemiPlanar,
+            COLOR_TI_FormatYUV420PackedSemiPlanar,
+            COLOR_FormatYUV420Planar,
+            COLOR_FormatYUV420PackedPlanar
+    };
+
+    /**
+     * 从编码器支持的颜色格式中选一个能转换的
+     *
+     * @param colorFormats CodecCapabilities.colorFormats
+     * @return 选中的颜色格式，都不支持时返回 -1
+     */
+    public static int select(int[] colorFormats) {
+        if (colorFormats == null) {
+            return -1;
+        }
+        for (int preferred : PREFERRED) {
+            for (int format : colorFormats) {
+                if (format == preferred) {
+                    return format;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 颜色格式对应的内存排布，不支持时返回 null
+     */
+    public static YuvFormat toYuvFormat(int colorFormat) {
+        switch (colorFormat) {
+            case COLOR_FormatYUV420SemiPlanar:
+            case COLOR_FormatYUV420PackedSemiPlanar:
+            case COLOR_TI_FormatYUV420PackedSemiPlanar:
+                return YuvFormat.NV12;
+            case COLOR_FormatYUV420Planar:
+            case COLOR_FormatYUV420PackedPlanar:
+                return YuvFormat.I420;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.hm.androidrecorder.yuv;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-10]
+ * @Describe: NV21 转 NV12
+ * <p>
+ * 两种格式 Y 平面相同，只是交错的 VU 要换成 UV。{@link #convert} 一次处理 8 个字节（4 对色度），
+ * 用位运算交换每个 16 位里的两个字节；{@link #convertScalar} 是逐对交换的参考实现，用于校验和对比性能。
+ * <p>
+ * 实例会缓存最近一次输入输出数组的 LongBuffer 视图，同一组缓存反复转换时不产生新对象。
+ * 一个实例只能在一个线程里使用。
+ */
+
+
+public class NV21Converter {
+
+    //每个 16 位里的低字节
+    private static final long LOW_BYTES = 0x00FF00FF00FF00FFL;
+
+    private byte[] srcArray;
+    private int srcOffset = -1;
+    private LongBuffer srcWords;
+
+    private byte[] dstArray;
+    private int dstOffset = -1;
+    private LongBuffer dstWords;
+
+    /**
+     * 按 8 字节一组交换色度，nv21 和 nv12 可以是同一个数组
+     *
+     * @param nv21   输入，至少 width*height*3/2
+     * @param nv12   输出，至少 width*height*3/2
+     * @param width  宽，必须是偶数
+     * @param height 高，必须是偶数
+     */
+    public void convert(byte[] nv21, byte[] nv12, int width, int height) {
+        int frameSize = width * height;
+        int chromaSize = frameSize / 2;
+        if (nv21 != nv12) {
+            System.arraycopy(nv21, 0, nv12, 0, frameSize);
+        }
+        LongBuffer src = srcWords(nv21, frameSize, chromaSize);
+        LongBuffer dst = dstWords(nv12, frameSize, chromaSize);
+        int words = chromaSize >> 3;
+        for (int i = 0; i < words; i++) {
+            dst.put(i, swapPairs(src.get(i)));
+        }
+        //剩余不足 8 字节的部分逐对交换
+        for (int i = frameSize + (words << 3); i < frameSize + chromaSize; i += 2) {
+            byte v = nv21[i];
+            nv12[i] = nv21[i + 1];
+            nv12[i + 1] = v;
+        }
+    }
+
+    /**
+     * 交换 8 个字节中每两个相邻字节的位置，与字节序无关
+     */
+    public static long swapPairs(long word) {
+        return ((word & LOW_BYTES) << 8) | ((word >>> 8) & LOW_BYTES);
+    }
+
+    /**
+     * 逐对交换的参考实现
+     */
+    public static void convertScalar(byte[] nv21, byte[] nv12, int width, int height) {
+        int frameSize = width * height;
+        int end = frameSize + frameSize / 2;
+        if (nv21 != nv12) {
+            System.arraycopy(nv21, 0, nv12, 0, frameSize);
+        }
+        for (int i = frameSize; i < end; i += 2) {
+            byte v = nv21[i];
+            nv12[i] = nv21[i + 1];
+            nv12[i + 1] = v;
+        }
+    }
+
+    private LongBuffer srcWords(byte[] array, int offset, int length) {
+        if (array != srcArray || offset != srcOffset || srcWords.capacity() != length >> 3) {
+            srcWords = wordsOf(array, offset, length);
+            srcArray = array;
+            srcOffset = offset;
+        }
+        return srcWords;
+    }
+
+    private LongBuffer dstWords(byte[] array, int offset, int length) {
+        if (array != dstArray || offset != dstOffset || dstWords.capacity() != length >> 3) {
+            dstWords = wordsOf(array, offset, length);
+            dstArray = array;
+            dstOffset = offset;
+        }
+        return dstWords;
+    }
+
+    private static LongBuffer wordsOf(byte[] array, int offset, int length) {
+        ByteBuffer bytes = ByteBuffer.wrap(array, offset, length).slice();
+        return bytes.order(ByteOrder.nativeOrder()).asLongBuffer();
+    }
+}
@@ -0,0 +1,124 @@
+package com.hm.androidrecorder.yuv;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-12]
+ * @Describe: 按行分段的并行 YUV 转换
+ * <p>
+ * 把一帧按行切成若干段，每段的 Y 行和对应的色度行交给一个专用的 ForkJoinPool 并行转换。
+ * 各段写入目标缓存中互不重叠的区域，每个任务使用自己的 dst 副本和线程本地的 {@link YuvConverter}。
+ * <p>
+ * 像素数低于阈值或并行度为 1 时直接在调用线程串行转换，小分辨率下分段调度的开销比收益大。
+ * 不再使用时调用 {@link #shutdown()} 结束线程池。
+ */
+
+
+public class ParallelYuvConverter {
+
+    /**
+     * 默认阈值：2K（2560x1440）以下串行转换
+     */
+    public static final int DEFAULT_THRESHOLD_PIXELS = 2560 * 1440;
+
+    /**
+     * 每段最少的行数，太小的段调度开销大于转换本身
+     */
+    private static final int MIN_BAND_ROWS = 64;
+
+    private final ForkJoinPool pool;
+    private final int parallelism;
+    private final int thresholdPixels;
+    private final YuvConverter serial = new YuvConverter();
+
+    private final ThreadLocal<YuvConverter> converters = new ThreadLocal<YuvConverter>() {
+        @Override
+        protected YuvConverter initialValue() {
+            return new YuvConverter();
+        }
+    };
+
+    public ParallelYuvConverter(int parallelism) {
+        this(parallelism, DEFAULT_THRESHOLD_PIXELS);
+    }
+
+    /**
+     * @param parallelism     线程数，小于等于 1 时始终串行转换
+     * @param thresholdPixels 像素数达到这个值才并行
+     */
+    public ParallelYuvConverter(int parallelism, int thresholdPixels) {
+        this.parallelism = Math.max(1, parallelism);
+        this.thresholdPixels = thresholdPixels;
+        this.pool = this.parallelism > 1 ? new ForkJoinPool(this.parallelism) : null;
+    }
+
+    /**
+     * 转换一帧，参数和返回值同 {@link YuvConverter#convert}。同一时间只能有一个线程调用。
+     */
+    public int convert(byte[] src, YuvLayout in, ByteBuffer dst, YuvLayout out) {
+        if (pool == null || in.width * in.height < thresholdPixels) {
+            return serial.convert(src, in, dst, out);
+        }
+        YuvConverter.checkLayouts(src, in, dst, out);
+        int bands = Math.min(parallelism, Math.max(1, in.height / MIN_BAND_ROWS));
+        //段的行数取偶数，保证每段的色度行完整
+        int bandRows = ((in.height + bands - 1) / bands + 1) & ~1;
+        pool.invoke(new BandTask(src, in, dst, out, 0, in.height, bandRows));
+        return YuvConverter.finish(dst, out);
+    }
+
+    public boolean isParallel(int width, int height) {
+        return pool != null && width * height >= thresholdPixels;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    private final class BandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] src;
+        private final YuvLayout in;
+        private final ByteBuffer dst;
+        private final YuvLayout out;
+        private final int rowStart;
+        private final int rowEnd;
+        private final int bandRows;
+
+        BandTask(byte[] src, YuvLayout in, ByteBuffer dst, YuvLayout out, int rowStart, int rowEnd, int bandRows) {
+            this.src = src;
+            this.in = in;
+            this.dst = dst;
+            this.out = out;
+            this.rowStart = rowStart;
+            this.rowEnd = rowEnd;
+            this.bandRows = bandRows;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = rowEnd - rowStart;
+            if (rows <= bandRows) {
+                //duplicate 的字节序总是 BIG_ENDIAN，交换色度与字节序无关
+                ByteBuffer band = dst.duplicate();
+                band.clear();
+                converters.get().convertRows(src, in, band, out, rowStart, rowEnd);
+                return;
+            }
+            int bands = (rows + bandRows - 1) / bandRows;
+            int mid = rowStart + (bands / 2) * bandRows;
+            invokeAll(new BandTask(src, in, dst, out, rowStart, mid, bandRows),
+                    new BandTask(src, in, dst, out, mid, rowEnd, bandRows));
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.hm.androidrecorder.yuv;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-11]
+ * @Describe: YUV420 格式转换
+ * <p>
+ * 在 NV21、NV12、I420、YV12 之间转换，输入输出都可以带 stride / sliceHeight 填充。
+ * 结果直接写进目标 ByteBuffer（一般是编码器的输入缓存），不经过整帧的中间数组；
+ * 交错格式之间交换色度时一次处理 8 个字节。
+ * <p>
+ * 只缓存一行大小的临时数组，一个实例只能在一个线程里使用。
+ */
+
+
+public class YuvConverter {
+
+    private byte[] srcArray;
+    private ByteBuffer srcView;
+
+    private byte[] uRow = new byte[0];
+    private byte[] vRow = new byte[0];
+    private byte[] pairRow = new byte[0];
+
+    /**
+     * 转换一帧
+     *
+     * @param src 输入数据
+     * @param in  输入排布
+     * @param dst 输出缓存，从下标 0 开始写
+     * @param out 输出排布，宽高必须和输入一致
+     * @return 写入的帧长度，同时设置为 dst 的 limit，position 为 0
+     */
+    public int convert(byte[] src, YuvLayout in, ByteBuffer dst, YuvLayout out) {
+        checkLayouts(src, in, dst, out);
+        dst.clear();
+        convertRows(src, in, dst, out, 0, in.height);
+        return finish(dst, out);
+    }
+
+    static void checkLayouts(byte[] src, YuvLayout in, ByteBuffer dst, YuvLayout out) {
+        if (in.width != out.width || in.height != out.height) {
+            throw new IllegalArgumentException("size mismatch: " + in + " -> " + out);
+        }
+        if (src.length < contentEnd(in)) {
+            throw new IllegalArgumentException("source too small: " + src.length + " < " + contentEnd(in));
+        }
+        if (dst.capacity() < contentEnd(out)) {
+            throw new IllegalArgumentException("destination too small: " + dst.capacity() + " < " + contentEnd(out));
+        }
+    }
+
+    static int finish(ByteBuffer dst, YuvLayout out) {
+        int size = Math.min(out.frameSize(), dst.capacity());
+        dst.clear();
+        dst.limit(size);
+        return size;
+    }
+
+    /**
+     * 只转换 Y 平面的 [rowStart, rowEnd) 行及对应的色度行，行号必须是偶数。
+     * 不同行段写入的区域互不重叠，可以用各自的实例和 dst 副本并行转换。
+     */
+    void convertRows(byte[] src, YuvLayout in, ByteBuffer dst, YuvLayout out, int rowStart, int rowEnd) {
+        copyLuma(src, in, dst, out, rowStart, rowEnd);
+        int chromaStart = rowStart / 2;
+        int chromaEnd = rowEnd / 2;
+        if (in.format.isSemiPlanar() && out.format.isSemiPlanar()) {
+            semiPlanarToSemiPlanar(src, in, dst, out, chromaStart, chromaEnd);
+        } else if (in.format.isSemiPlanar()) {
+            semiPlanarToPlanar(src, in, dst, out, chromaStart, chromaEnd);
+        } else if (out.format.isSemiPlanar()) {
+            planarToSemiPlanar(src, in, dst, out, chromaStart, chromaEnd);
+        } else {
+            planarToPlanar(src, in, dst, out, chromaStart, chromaEnd);
+        }
+    }
+
+    /**
+     * 实际有数据的最后一个字节之后的位置，最后一行之后的填充可以不存在
+     */
+    static int contentEnd(YuvLayout layout) {
+        int lastChromaRow = layout.height / 2 - 1;
+        if (layout.format.isSemiPlanar()) {
+            return layout.chromaOffset() + layout.chromaStride * lastChromaRow + layout.width;
+        }
+        return layout.secondChromaOffset() + layout.chromaStride * lastChromaRow + layout.width / 2;
+    }
+
+    private static void copyLuma(byte[] src, YuvLayout in, ByteBuffer dst, YuvLayout out, int rowStart, int rowEnd) {
+        int width = in.width;
+        if (in.stride == width && out.stride == width) {
+            //没有填充，连续的行一次拷贝
+            dst.position(rowStart * width);
+            dst.put(src, rowStart * width, width * (rowEnd - rowStart));
+            return;
+        }
+        for (int row = rowStart; row < rowEnd; row++) {
+            dst.position(row * out.stride);
+            dst.put(src, row * in.stride, width);
+        }
+    }
+
+    private void semiPlanarToSemiPlanar(byte[] src, YuvLayout in, ByteBuffer dst, YuvLayout out, int rowStart, int rowEnd) {
+        int rows = rowEnd - rowStart;
+        int rowBytes = in.width;
+        int inStride = in.chromaStride;
+        int outStride = out.chromaStride;
+        if (inStride == rowBytes && outStride == rowBytes) {
+            //两边都没有填充，连续的色度行当作一行处理
+            rowBytes *= rows;
+            rows = 1;
+        }
+        boolean swap = in.format.isUFirst() != out.format.isUFirst();
+        int inBase = in.chromaOffset() + rowStart * inStride;
+        int outBase = out.chromaOffset() + rowStart * outStride;
+        if (!swap) {
+            for (int row = 0; row < rows; row++) {
+                dst.position(outBase + row * outStride);
+                dst.put(src, inBase + row * inStride, rowBytes);
+            }
+            return;
+        }
+        ByteBuffer view = srcView(src, dst);
+        int words = rowBytes >> 3;
+        for (int row = 0; row < rows; row++) {
+            int s = inBase + row * inStride;
+            int d = outBase + row * outStride;
+            for (int i = 0; i < words; i++) {
+                dst.putLong(d + (i << 3), NV21Converter.swapPairs(view.getLong(s + (i << 3))));
+            }
+            for (int i = words << 3; i < rowBytes; i += 2) {
+                dst.put(d + i, src[s + i + 1]);
+                dst.put(d + i + 1, src[s + i]);
+            }
+        }
+    }
+
+    private void semiPlanarToPlanar(byte[] src, YuvLayout in, ByteBuffer dst, YuvLayout out, int rowStart, int rowEnd) {
+        int pairs = in.width / 2;
+        ensureRows(pairs);
+        byte[] first = in.format.isUFirst() ? uRow : vRow;
+        byte[] second = in.format.isUFirst() ? vRow : uRow;
+        int uBase = out.format.isUFirst() ? out.chromaOffset() : out.secondChromaOffset();
+        int vBase = out.format.isUFirst() ? out.secondChromaOffset() : out.chromaOffset();
+        for (int row = rowStart; row < rowEnd; row++) {
+            int s = in.chromaOffset() + row * in.chromaStride;
+            for (int i = 0; i < pairs; i++) {
+                first[i] = src[s + 2 * i];
+                second[i] = src[s + 2 * i + 1];
+            }
+            dst.position(uBase + row * out.chromaStride);
+            dst.put(uRow, 0, pairs);
+            dst.position(vBase + row * out.chromaStride);
+            dst.put(vRow, 0, pairs);
+        }
+    }
+
+    private void planarToSemiPlanar(byte[] src, YuvLayout in, ByteBuffer dst, YuvLayout out, int rowStart, int rowEnd) {
+        int pairs = in.width / 2;
+        ensureRows(pairs);
+        int uBase = in.format.isUFirst() ? in.chromaOffset() : in.secondChromaOffset();
+        int vBase = in.format.isUFirst() ? in.secondChromaOffset() : in.chromaOffset();
+        int firstBase = out.format.isUFirst() ? uBase : vBase;
+        int secondBase = out.format.isUFirst() ? vBase : uBase;
+        for (int row = rowStart; row < rowEnd; row++) {
+            int first = firstBase + row * in.chromaStride;
+            int second = secondBase + row * in.chromaStride;
+            for (int i = 0; i < pairs; i++) {
+                pairRow[2 * i] = src[first + i];
+                pairRow[2 * i + 1] = src[second + i];
+            }
+            dst.position(out.chromaOffset() + row * out.chromaStride);
+            dst.put(pairRow, 0, in.width);
+        }
+    }
+
+    private static void planarToPlanar(byte[] src, YuvLayout in, ByteBuffer dst, YuvLayout out, int rowStart, int rowEnd) {
+        int pairs = in.width / 2;
+        int inU = in.format.isUFirst() ? in.chromaOffset() : in.secondChromaOffset();
+        int inV = in.format.isUFirst() ? in.secondChromaOffset() : in.chromaOffset();
+        int outU = out.format.isUFirst() ? out.chromaOffset() : out.secondChromaOffset();
+        int outV = out.format.isUFirst() ? out.secondChromaOffset() : out.chromaOffset();
+        for (int row = rowStart; row < rowEnd; row++) {
+            dst.position(outU + row * out.chromaStride);
+            dst.put(src, inU + row * in.chromaStride, pairs);
+            dst.position(outV + row * out.chromaStride);
+            dst.put(src, inV + row * in.chromaStride, pairs);
+        }
+    }
+
+    private ByteBuffer srcView(byte[] src, ByteBuffer dst) {
+        if (src != srcArray) {
+            srcView = ByteBuffer.wrap(src);
+            srcArray = src;
+        }
+        //交换与字节序无关，只要读写两边一致
+        if (srcView.order() != dst.order()) {
+            srcView.order(dst.order());
+        }
+        return srcView;
+    }
+
+    private void ensureRows(int pairs) {
+        if (uRow.length < pairs) {
+            uRow = new byte[pairs];
+            vRow = new byte[pairs];
+            pairRow = new byte[pairs * 2];
+        }
+    }
+}
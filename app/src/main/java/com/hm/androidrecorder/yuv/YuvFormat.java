@@ -0,0 +1,42 @@
+package com.hm.androidrecorder.yuv;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-11]
+ * @Describe: 支持的 YUV420 格式
+ */
+
+
+public enum YuvFormat {
+
+    //Y 平面 + VU 交错，Camera 预览默认格式
+    NV21(true, false),
+    //Y 平面 + UV 交错，对应 COLOR_FormatYUV420SemiPlanar
+    NV12(true, true),
+    //Y、U、V 三个平面，对应 COLOR_FormatYUV420Planar
+    I420(false, true),
+    //Y、V、U 三个平面
+    YV12(false, false);
+
+    private final boolean semiPlanar;
+    private final boolean uFirst;
+
+    YuvFormat(boolean semiPlanar, boolean uFirst) {
+        this.semiPlanar = semiPlanar;
+        this.uFirst = uFirst;
+    }
+
+    /**
+     * 色度是否交错存放在一个平面里
+     */
+    public boolean isSemiPlanar() {
+        return semiPlanar;
+    }
+
+    /**
+     * U 是否在 V 前面（交错时指每对的顺序，分平面时指平面顺序）
+     */
+    public boolean isUFirst() {
+        return uFirst;
+    }
+}
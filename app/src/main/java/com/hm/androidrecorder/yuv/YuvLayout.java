@@ -0,0 +1,99 @@
+package com.hm.androidrecorder.yuv;
+
+/**
+ * @author hm
+ * @version [v1, 2020-05-11]
+ * @Describe: 一帧 YUV420 在内存中的排布
+ * <p>
+ * stride 为 Y 平面每行字节数，sliceHeight 为 Y 平面的行数（含对齐填充）。
+ * 交错格式的色度平面行宽与 stride 相同；分平面格式的 U、V 行宽为 chromaStride，
+ * 按 Android 编码器的约定默认取 stride/2。
+ */
+
+
+public final class YuvLayout {
+
+    public final YuvFormat format;
+    public final int width;
+    public final int height;
+    public final int stride;
+    public final int sliceHeight;
+    public final int chromaStride;
+
+    public YuvLayout(YuvFormat format, int width, int height, int stride, int sliceHeight, int chromaStride) {
+        if (width <= 0 || height <= 0 || (width & 1) != 0 || (height & 1) != 0) {
+            throw new IllegalArgumentException("width/height must be positive and even: " + width + "x" + height);
+        }
+        if (stride < width || sliceHeight < height) {
+            throw new IllegalArgumentException("stride:" + stride + ",sliceHeight:" + sliceHeight + " smaller than " + width + "x" + height);
+        }
+        int minChromaStride = format.isSemiPlanar() ? width : width / 2;
+        if (chromaStride < minChromaStride) {
+            throw new IllegalArgumentException("chromaStride:" + chromaStride);
+        }
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+        this.sliceHeight = sliceHeight;
+        this.chromaStride = chromaStride;
+    }
+
+    /**
+     * 没有填充的紧凑排布，例如 Camera 回调的 NV21
+     */
+    public static YuvLayout packed(YuvFormat format, int width, int height) {
+        return of(format, width, height, width, height);
+    }
+
+    /**
+     * 指定 stride 和 sliceHeight 的排布，色度行宽按 Android 约定推导
+     */
+    public static YuvLayout of(YuvFormat format, int width, int height, int stride, int sliceHeight) {
+        return new YuvLayout(format, width, height, stride, sliceHeight, format.isSemiPlanar() ? stride : stride / 2);
+    }
+
+    /**
+     * stride 和 sliceHeight 都向上对齐到 alignment（16、64 等）
+     */
+    public static YuvLayout aligned(YuvFormat format, int width, int height, int alignment) {
+        return of(format, width, height, align(width, alignment), align(height, alignment));
+    }
+
+    public static int align(int value, int alignment) {
+        return (value + alignment - 1) / alignment * alignment;
+    }
+
+    /**
+     * 第一个色度平面（交错格式即唯一的色度平面）的起始位置
+     */
+    public int chromaOffset() {
+        return stride * sliceHeight;
+    }
+
+    /**
+     * 分平面格式第二个色度平面的起始位置
+     */
+    public int secondChromaOffset() {
+        return chromaOffset() + chromaStride * (sliceHeight / 2);
+    }
+
+    /**
+     * 一帧占用的字节数（含填充）
+     */
+    public int frameSize() {
+        if (format.isSemiPlanar()) {
+            return chromaOffset() + chromaStride * (sliceHeight / 2);
+        }
+        return secondChromaOffset() + chromaStride * (sliceHeight / 2);
+    }
+
+    public boolean isPacked() {
+        return stride == width && sliceHeight == height && chromaStride == (format.isSemiPlanar() ? width : width / 2);
+    }
+
+    @Override
+    public String toString() {
+        return format + " " + width + "x" + height + " stride=" + stride + " sliceHeight=" + sliceHeight + " chromaStride=" + chromaStride;
+    }
+}
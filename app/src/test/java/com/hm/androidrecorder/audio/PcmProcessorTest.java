@@ -0,0 +1,96 @@
+package com.hm.androidrecorder.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * PcmProcessor、PcmGainLimiter 单元测试
+ */
+public class PcmProcessorTest {
+
+    @Test
+    public void stereoIsAveragedToMono() {
+        PcmProcessor processor = new PcmProcessor(16000, 2, 16000, 4);
+        short[] stereo = {1000, 3000, -2000, -4000, Short.MAX_VALUE, Short.MAX_VALUE, Short.MIN_VALUE, Short.MAX_VALUE};
+        short[] mono = new short[4];
+        assertEquals(4, processor.process(stereo, 4, mono, 0));
+        assertArrayEquals(new short[]{2000, -3000, Short.MAX_VALUE, -1}, mono);
+        assertFalse(processor.isPassThrough());
+    }
+
+    @Test
+    public void bytesAreLittleEndian() {
+        PcmProcessor processor = new PcmProcessor(16000, 1, 16000, 2);
+        assertTrue(processor.isPassThrough());
+        byte[] out = new byte[6];
+        assertEquals(4, processor.process(new short[]{0x1234, -2}, 2, out, 2));
+        assertArrayEquals(new byte[]{0, 0, 0x34, 0x12, (byte) 0xFE, (byte) 0xFF}, out);
+    }
+
+    @Test
+    public void gainScalesAndSaturates() {
+        PcmGainLimiter gain = new PcmGainLimiter(16000);
+        gain.setGainDb(6.0206);
+        assertEquals(2 * PcmGainLimiter.UNITY, gain.getGainQ12());
+        short[] data = {100, -100, 20000, -20000};
+        gain.process(data, 0, data.length);
+        assertArrayEquals(new short[]{200, -200, Short.MAX_VALUE, Short.MIN_VALUE}, data);
+
+        gain.setGainDb(-6.0206);
+        data = new short[]{100, -100, 3};
+        gain.process(data, 0, data.length);
+        assertEquals(50, data[0]);
+        assertEquals(-50, data[1]);
+    }
+
+    @Test
+    public void limiterHoldsPeaksAtThresholdAndReleases() {
+        PcmGainLimiter limiter = new PcmGainLimiter(16000);
+        limiter.setGainDb(12);
+        //-3dBFS 门限，20ms 释放
+        limiter.setLimiter(-3, 20);
+        int threshold = (int) Math.round(Short.MAX_VALUE * Math.pow(10, -3 / 20.0));
+        short[] data = new short[1600];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (short) Math.round(16000 * Math.sin(2 * Math.PI * 440 * i / 16000));
+        }
+        limiter.process(data, 0, data.length);
+        int peak = 0;
+        for (short v : data) {
+            peak = Math.max(peak, Math.abs(v));
+        }
+        //乘 4 倍后远超满幅，限幅后不超过门限，也没有削波
+        assertTrue("peak " + peak, peak <= threshold && peak > threshold - 100);
+        assertTrue(limiter.getLimitedSamples() > 0);
+        assertTrue(limiter.getReduction() < 0.5);
+
+        //安静下来后衰减量回到 1.0，小信号按增益原样放大
+        short[] quiet = new short[16000];
+        java.util.Arrays.fill(quiet, (short) 100);
+        limiter.process(quiet, 0, quiet.length);
+        assertEquals(1.0, limiter.getReduction(), 0);
+        assertEquals(100 * Math.pow(10, 12 / 20.0), quiet[quiet.length - 1], 1);
+    }
+
+    @Test
+    public void nativeStereoCaptureToEncoderRate() {
+        //48kHz 立体声每次读 20ms，输出 16kHz 单声道
+        PcmProcessor processor = new PcmProcessor(48000, 2, 16000, 960);
+        processor.gain().setLimiter(-1, 50);
+        short[] in = new short[960 * 2];
+        byte[] out = new byte[processor.maxOutputSamples(960) * 2];
+        int total = 0;
+        for (int block = 0; block < 50; block++) {
+            for (int i = 0; i < 960; i++) {
+                short v = (short) Math.round(8000 * Math.sin(2 * Math.PI * 300 * (block * 960 + i) / 48000.0));
+                in[2 * i] = v;
+                in[2 * i + 1] = v;
+            }
+            total += processor.process(in, 960, out, 0);
+        }
+        //一秒正好 16000 个采样
+        assertEquals(32000, total);
+        assertEquals(0, processor.gain().getLimitedSamples());
+    }
+}
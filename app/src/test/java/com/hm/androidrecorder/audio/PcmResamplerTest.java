@@ -0,0 +1,111 @@
+package com.hm.androidrecorder.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * PcmResampler 单元测试：用正弦波测通带增益、混叠抑制和分块一致性
+ */
+public class PcmResamplerTest {
+
+    private static short[] sine(int rate, double freq, double amplitude, int count) {
+        short[] data = new short[count];
+        for (int i = 0; i < count; i++) {
+            data[i] = (short) Math.round(amplitude * Math.sin(2 * Math.PI * freq * i / rate));
+        }
+        return data;
+    }
+
+    /**
+     * 按 block 大小分块重采样整段数据
+     */
+    private static short[] resample(int inRate, int outRate, short[] in, int block) {
+        PcmResampler resampler = new PcmResampler(inRate, outRate, block);
+        short[] out = new short[resampler.maxOutput(in.length) + block];
+        int o = 0;
+        for (int i = 0; i < in.length; i += block) {
+            o += resampler.process(in, i, Math.min(block, in.length - i), out, o);
+        }
+        short[] result = new short[o];
+        System.arraycopy(out, 0, result, 0, o);
+        return result;
+    }
+
+    /**
+     * 指定频率的幅度（跳过开头的滤波器延迟）
+     */
+    private static double amplitudeAt(short[] data, int rate, double freq, int skip) {
+        double re = 0;
+        double im = 0;
+        int n = data.length - skip;
+        for (int i = skip; i < data.length; i++) {
+            double phase = 2 * Math.PI * freq * i / rate;
+            re += data[i] * Math.cos(phase);
+            im += data[i] * Math.sin(phase);
+        }
+        return 2 * Math.sqrt(re * re + im * im) / n;
+    }
+
+    @Test
+    public void passbandToneKeepsFrequencyAndLevel() {
+        short[] in = sine(44100, 1000, 16000, 44100);
+        short[] out = resample(44100, 16000, in, 1764);
+        //每秒正好 16000 个输出
+        assertEquals(16000, out.length, 1);
+        double level = amplitudeAt(out, 16000, 1000, 200);
+        assertEquals(16000, level, 16000 * 0.02);
+        //其余频率几乎没有能量
+        assertTrue(amplitudeAt(out, 16000, 3000, 200) < 16);
+    }
+
+    @Test
+    public void toneAboveOutputNyquistIsRejected() {
+        //12kHz 在 16kHz 输出里会混叠到 4kHz
+        short[] in = sine(44100, 12000, 16000, 44100);
+        short[] out = resample(44100, 16000, in, 1764);
+        double alias = amplitudeAt(out, 16000, 4000, 200);
+        //至少 -50dB
+        assertTrue("alias " + alias, alias < 16000 * 0.0032);
+    }
+
+    @Test
+    public void blockSizeDoesNotChangeOutput() {
+        short[] in = sine(48000, 440, 12000, 9600);
+        short[] whole = resample(48000, 16000, in, 9600);
+        short[] small = resample(48000, 16000, in, 97);
+        assertArrayEquals(whole, small);
+        assertEquals(3200, whole.length);
+    }
+
+    @Test
+    public void upsamplingAndPassThrough() {
+        short[] in = sine(8000, 500, 10000, 8000);
+        short[] up = resample(8000, 16000, in, 800);
+        assertEquals(16000, up.length);
+        assertEquals(10000, amplitudeAt(up, 16000, 500, 100), 200);
+
+        PcmResampler same = new PcmResampler(16000, 16000, 100);
+        assertTrue(same.isPassThrough());
+        assertEquals(0, same.getDelayUs());
+        short[] out = new short[100];
+        assertEquals(100, same.process(in, 0, 100, out, 0));
+        assertEquals(in[37], out[37]);
+    }
+
+    @Test
+    public void dcGainIsExactAndFullScaleDoesNotWrap() {
+        short[] in = new short[4410];
+        java.util.Arrays.fill(in, Short.MAX_VALUE);
+        short[] out = resample(44100, 16000, in, 441);
+        //跳过开头从 0 爬升的部分
+        for (int i = 50; i < out.length; i++) {
+            assertEquals(Short.MAX_VALUE, out[i], 1);
+        }
+        java.util.Arrays.fill(in, Short.MIN_VALUE);
+        out = resample(44100, 16000, in, 441);
+        for (int i = 50; i < out.length; i++) {
+            assertTrue(out[i] < -32000);
+        }
+    }
+}
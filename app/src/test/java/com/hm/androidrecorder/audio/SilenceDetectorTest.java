@@ -0,0 +1,103 @@
+package com.hm.androidrecorder.audio;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * SilenceDetector 单元测试：16kHz，每批 2048 个采样（128ms）
+ */
+public class SilenceDetectorTest {
+
+    private static final int RATE = 16000;
+    private static final int BATCH = 2048;
+
+    private final Random random = new Random(7);
+    private long sampleIndex = 0;
+
+    /**
+     * 正弦波加白噪声，幅度都是满幅的比例
+     */
+    private byte[] batch(double toneLevel, double noiseLevel) {
+        byte[] data = new byte[BATCH * 2];
+        for (int i = 0; i < BATCH; i++, sampleIndex++) {
+            double v = toneLevel * Math.sin(2 * Math.PI * 440 * sampleIndex / RATE) + noiseLevel * (2 * random.nextDouble() - 1);
+            short s = (short) Math.round(v * Short.MAX_VALUE);
+            data[2 * i] = (byte) s;
+            data[2 * i + 1] = (byte) (s >> 8);
+        }
+        return data;
+    }
+
+    private static boolean feed(SilenceDetector detector, byte[] data) {
+        //分两次累加，和编码线程按块拷贝一样
+        detector.accumulate(data, 0, 1000);
+        detector.accumulate(data, 1000, data.length - 1000);
+        return detector.finish();
+    }
+
+    @Test
+    public void quietRoomBecomesSilentAfterHoldAndSpeechEndsItImmediately() {
+        SilenceDetector detector = new SilenceDetector(RATE);
+        //-60dB 左右的底噪，1 秒是 7.8 批
+        int batches = 0;
+        while (!feed(detector, batch(0, 0.002))) {
+            batches++;
+            assertTrue(batches < 20);
+        }
+        assertEquals(7, batches);
+        assertEquals(-58.7, detector.getLevelDb(), 1);
+        //一批说话马上退出静音
+        assertFalse(feed(detector, batch(0.1, 0.002)));
+        assertFalse(detector.isSilent());
+        //说完重新计保持时间
+        for (int i = 0; i < 7; i++) {
+            assertFalse(feed(detector, batch(0, 0.002)));
+        }
+        assertTrue(feed(detector, batch(0, 0.002)));
+        assertEquals(BATCH * 2, detector.getSilentSamples());
+        assertEquals(BATCH * 17, detector.getAnalyzedSamples());
+    }
+
+    @Test
+    public void steadyToneIsNeverSilent() {
+        SilenceDetector detector = new SilenceDetector(RATE);
+        detector.setHoldMs(0);
+        for (int i = 0; i < 100; i++) {
+            assertFalse(feed(detector, batch(0.05, 0)));
+        }
+        //底噪上升到上限为止，不会追上持续的声音
+        assertEquals(SilenceDetector.DEFAULT_MAX_SILENCE_DB, detector.getNoiseFloorDb(), 0.1);
+    }
+
+    @Test
+    public void softSoundAboveNoiseFloorIsNotSilence() {
+        SilenceDetector detector = new SilenceDetector(RATE);
+        detector.setHoldMs(0);
+        //-70dB 的安静环境
+        for (int i = 0; i < 10; i++) {
+            assertTrue(feed(detector, batch(0, 0.0006)));
+        }
+        //-50dB 的轻声低于固定上限，但比底噪高 15dB 以上
+        assertFalse(feed(detector, batch(0.004, 0.0006)));
+    }
+
+    @Test
+    public void digitalSilenceAndThresholdSetting() {
+        SilenceDetector detector = new SilenceDetector(RATE);
+        detector.setHoldMs(0);
+        assertTrue(feed(detector, new byte[BATCH * 2]));
+        //底噪为 0 时门限不低于 -70dB，-75dB 的底噪仍算静音
+        assertTrue(feed(detector, batch(0, 0.0003)));
+
+        detector.setThresholds(-80, 10);
+        assertFalse(feed(detector, batch(0, 0.002)));
+        try {
+            detector.setThresholds(3, 10);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
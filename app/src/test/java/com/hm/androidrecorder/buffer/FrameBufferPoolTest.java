@@ -0,0 +1,95 @@
+package com.hm.androidrecorder.buffer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * FrameBufferPool 单元测试
+ */
+public class FrameBufferPoolTest {
+
+    @Test
+    public void recycle_onlyReturnsOwnBuffersWhileAttached() {
+        final List<byte[]> returned = new ArrayList<>();
+        FrameBufferPool pool = new FrameBufferPool(8, 2);
+        pool.attach(new FrameBufferPool.Recycler() {
+            @Override
+            public void onRecycle(byte[] buffer) {
+                returned.add(buffer);
+            }
+        });
+        assertEquals(2, returned.size());
+        byte[] own = returned.get(0);
+
+        pool.recycle(new byte[8]);
+        assertEquals(2, returned.size());
+        pool.recycle(own);
+        assertEquals(3, returned.size());
+
+        pool.detach();
+        pool.recycle(own);
+        assertEquals(3, returned.size());
+    }
+
+    @Test
+    public void detach_waitsForRecycleInProgress() throws Exception {
+        //模拟编码线程正在 addCallbackBuffer 时界面线程停止相机
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final List<byte[]> attached = new ArrayList<>();
+        final boolean[] released = {false};
+        final boolean[] usedAfterRelease = {false};
+        final FrameBufferPool pool = new FrameBufferPool(8, 1);
+        pool.attach(new FrameBufferPool.Recycler() {
+            @Override
+            public void onRecycle(byte[] buffer) {
+                if (attached.isEmpty()) {
+                    attached.add(buffer);
+                    return;
+                }
+                entered.countDown();
+                try {
+                    proceed.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                synchronized (released) {
+                    usedAfterRelease[0] |= released[0];
+                }
+            }
+        });
+        Thread encoder = new Thread() {
+            @Override
+            public void run() {
+                pool.recycle(attached.get(0));
+            }
+        };
+        encoder.start();
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        Thread ui = new Thread() {
+            @Override
+            public void run() {
+                pool.detach();
+                synchronized (released) {
+                    released[0] = true;
+                }
+            }
+        };
+        ui.start();
+        Thread.sleep(50);
+        //交还还没做完，detach 不能返回
+        assertTrue(ui.isAlive());
+        proceed.countDown();
+        ui.join(5000);
+        encoder.join(5000);
+        assertFalse(ui.isAlive());
+        assertFalse(usedAfterRelease[0]);
+    }
+}
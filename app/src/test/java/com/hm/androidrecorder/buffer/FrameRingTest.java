@@ -0,0 +1,110 @@
+package com.hm.androidrecorder.buffer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * FrameRing 单元测试
+ */
+public class FrameRingTest {
+
+    @Test
+    public void capacity_roundsUpToPowerOfTwo() {
+        FrameRing<Integer> ring = new FrameRing<>(5, FrameRing.OverflowPolicy.DROP_NEWEST);
+        assertEquals(8, ring.capacity());
+    }
+
+    @Test
+    public void dropOldest_keepsNewestFrames() {
+        final List<Integer> dropped = new ArrayList<>();
+        FrameRing<Integer> ring = new FrameRing<>(2, FrameRing.OverflowPolicy.DROP_OLDEST);
+        ring.setDropListener(new FrameRing.DropListener<Integer>() {
+            @Override
+            public void onDrop(Integer item) {
+                dropped.add(item);
+            }
+        });
+        for (int i = 0; i < 5; i++) {
+            assertTrue(ring.offer(i));
+        }
+        assertEquals(2, ring.size());
+        assertEquals(3, ring.getDroppedCount());
+        assertEquals(5, ring.getOfferedCount());
+        assertEquals(Integer.valueOf(3), ring.poll());
+        assertEquals(Integer.valueOf(4), ring.poll());
+        assertNull(ring.poll());
+        assertEquals(3, dropped.size());
+        assertEquals(Integer.valueOf(0), dropped.get(0));
+    }
+
+    @Test
+    public void dropNewest_rejectsWhenFull() {
+        FrameRing<Integer> ring = new FrameRing<>(2, FrameRing.OverflowPolicy.DROP_NEWEST);
+        assertTrue(ring.offer(1));
+        assertTrue(ring.offer(2));
+        assertFalse(ring.offer(3));
+        assertEquals(1, ring.getDroppedCount());
+        assertEquals(Integer.valueOf(1), ring.poll());
+    }
+
+    @Test
+    public void block_timesOutWhenConsumerStalls() {
+        FrameRing<Integer> ring = new FrameRing<>(1, FrameRing.OverflowPolicy.BLOCK, 20);
+        assertTrue(ring.offer(1));
+        long start = System.nanoTime();
+        assertFalse(ring.offer(2));
+        assertTrue(System.nanoTime() - start >= 15000000L);
+        assertEquals(1, ring.getDroppedCount());
+    }
+
+    @Test
+    public void pollWithTimeout_returnsNullWhenEmpty() {
+        FrameRing<Integer> ring = new FrameRing<>(4, FrameRing.OverflowPolicy.DROP_OLDEST);
+        assertNull(ring.poll(5));
+    }
+
+    @Test
+    public void producerConsumer_deliversInOrderWithoutLoss() throws Exception {
+        final int count = 200000;
+        final FrameRing<Integer> ring = new FrameRing<>(16, FrameRing.OverflowPolicy.BLOCK, 10000);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < count; i++) {
+                    ring.offer(i);
+                }
+            }
+        });
+        producer.start();
+        int expected = 0;
+        while (expected < count) {
+            Integer item = ring.poll(1000);
+            assertNotNull(item);
+            assertEquals(expected, item.intValue());
+            expected++;
+        }
+        producer.join();
+        assertEquals(0, ring.getDroppedCount());
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    public void poll_reportsOfferTimeOfPolledItem() throws Exception {
+        FrameRing<Integer> ring = new FrameRing<>(2, FrameRing.OverflowPolicy.DROP_OLDEST);
+        long before = System.nanoTime();
+        ring.offer(1);
+        Thread.sleep(20);
+        long middle = System.nanoTime();
+        ring.offer(2);
+        //丢掉最旧的不影响剩下元素的时间
+        ring.offer(3);
+        assertEquals(Integer.valueOf(2), ring.poll());
+        long offered = ring.getLastPolledOfferTimeNanos();
+        assertTrue(offered >= middle);
+        assertTrue(offered - before >= 15000000L);
+    }
+}
@@ -0,0 +1,176 @@
+package com.hm.androidrecorder.buffer;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * PcmRing 单元测试
+ */
+public class PcmRingTest {
+
+    private static void write(PcmRing ring, int value, int length, long pts) {
+        byte[] block = ring.writeBlock();
+        Arrays.fill(block, 0, length, (byte) value);
+        ring.commit(length, pts);
+    }
+
+    @Test
+    public void blocksComeOutInOrderWithTimestamps() {
+        PcmRing ring = new PcmRing(16, 4);
+        write(ring, 1, 16, 1000);
+        write(ring, 2, 10, 2000);
+        assertEquals(2, ring.size());
+
+        int slot = ring.poll(0);
+        assertEquals(16, ring.length(slot));
+        assertEquals(1000, ring.ptsUs(slot));
+        assertEquals(1, ring.data(slot)[15]);
+        ring.release();
+
+        slot = ring.poll(0);
+        assertEquals(10, ring.length(slot));
+        assertEquals(2000, ring.ptsUs(slot));
+        assertEquals(2, ring.data(slot)[0]);
+        ring.release();
+
+        assertEquals(-1, ring.poll(0));
+        assertEquals(2, ring.getCommittedCount());
+        assertEquals(0, ring.getUnderrunCount());
+    }
+
+    @Test
+    public void fullRingCountsOverrunWithoutTouchingHeldBlock() {
+        PcmRing ring = new PcmRing(8, 2);
+        write(ring, 1, 8, 1);
+        write(ring, 2, 8, 2);
+        //编码线程拿着最旧的一块
+        int held = ring.poll(0);
+        byte[] heldData = ring.data(held);
+
+        //满了：采集线程照样能拿到一块去读，但提交失败
+        byte[] block = ring.writeBlock();
+        assertNotSame(heldData, block);
+        Arrays.fill(block, (byte) 9);
+        assertFalse(ring.commit(8, 3));
+        assertEquals(1, ring.getOverrunCount());
+        assertEquals(1, heldData[0]);
+
+        ring.release();
+        write(ring, 4, 8, 4);
+        assertEquals(2, ring.ptsUs(ring.poll(0)));
+        ring.release();
+        assertEquals(4, ring.ptsUs(ring.poll(0)));
+        ring.release();
+    }
+
+    @Test
+    public void emptyPollTimesOutAsUnderrun() {
+        PcmRing ring = new PcmRing(8, 2);
+        long start = System.nanoTime();
+        assertEquals(-1, ring.poll(20));
+        assertTrue(System.nanoTime() - start >= 15000000L);
+        assertEquals(1, ring.getUnderrunCount());
+        //不等待的 poll 不算
+        assertEquals(-1, ring.poll(0));
+        assertEquals(1, ring.getUnderrunCount());
+    }
+
+    @Test
+    public void closeWakesWaitingConsumer() throws Exception {
+        final PcmRing ring = new PcmRing(8, 2);
+        final int[] result = {0};
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                result[0] = ring.poll(5000);
+            }
+        };
+        consumer.start();
+        Thread.sleep(20);
+        ring.close();
+        consumer.join(1000);
+        assertFalse(consumer.isAlive());
+        assertEquals(-1, result[0]);
+        assertEquals(0, ring.getUnderrunCount());
+    }
+
+    @Test
+    public void blocksCommittedBeforeCloseCanStillBePolled() {
+        //停止时编码线程要把关闭前采集的数据送完
+        PcmRing ring = new PcmRing(8, 2);
+        System.arraycopy(new byte[]{1, 2}, 0, ring.writeBlock(), 0, 2);
+        assertTrue(ring.commit(2, 100));
+        ring.close();
+        assertTrue(ring.isClosed());
+        int slot = ring.poll(5000);
+        assertTrue(slot >= 0);
+        assertEquals(2, ring.length(slot));
+        assertEquals(100, ring.ptsUs(slot));
+        ring.release();
+        assertTrue(ring.isEmpty());
+        assertEquals(-1, ring.poll(5000));
+    }
+
+    @Test
+    public void stalledEncoderDoesNotBlockCapture() throws Exception {
+        //16kHz 单声道，每块 40ms，缓冲 400ms
+        final PcmRing ring = PcmRing.forDuration(1280, 32000, 400);
+        assertEquals(10, ring.capacity());
+        final int blocks = 2000;
+        final AssertionError[] failure = {null};
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    consume();
+                } catch (AssertionError e) {
+                    failure[0] = e;
+                }
+            }
+
+            private void consume() {
+                long expected = 0;
+                int received = 0;
+                while (received + ring.getOverrunCount() < blocks) {
+                    int slot = ring.poll(100);
+                    if (slot < 0) {
+                        continue;
+                    }
+                    long pts = ring.ptsUs(slot);
+                    //丢块只会跳过，不会乱序，数据和时间戳是同一块的
+                    assertTrue(pts >= expected);
+                    assertEquals((byte) pts, ring.data(slot)[ring.length(slot) - 1]);
+                    expected = pts + 1;
+                    received++;
+                    ring.release();
+                    if (received % 500 == 0) {
+                        //模拟编码器卡住
+                        try {
+                            Thread.sleep(30);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            }
+        };
+        consumer.start();
+        long start = System.nanoTime();
+        for (int i = 0; i < blocks; i++) {
+            byte[] block = ring.writeBlock();
+            Arrays.fill(block, (byte) i);
+            ring.commit(block.length, i);
+        }
+        //生产者从不等待
+        assertTrue(System.nanoTime() - start < 1000000000L);
+        consumer.join(5000);
+        assertFalse(consumer.isAlive());
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        assertEquals(blocks, ring.getCommittedCount() + ring.getOverrunCount());
+    }
+}
@@ -0,0 +1,65 @@
+package com.hm.androidrecorder.buffer;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * SampleArena 单元测试
+ */
+public class SampleArenaTest {
+
+    @Test
+    public void acquire_picksSmallestFittingClass() {
+        SampleArena arena = new SampleArena(new int[]{16, 64}, 4);
+        ByteBuffer small = arena.acquire(10);
+        assertEquals(16, small.capacity());
+        assertEquals(10, small.limit());
+        assertTrue(small.isDirect());
+        assertEquals(64, arena.acquire(17).capacity());
+    }
+
+    @Test
+    public void release_reusesBufferWithoutAllocating() {
+        SampleArena arena = new SampleArena(new int[]{16, 64}, 4);
+        ByteBuffer first = arena.acquire(40);
+        arena.release(first);
+        long allocations = arena.getAllocationCount();
+        for (int i = 0; i < 100; i++) {
+            ByteBuffer buffer = arena.acquire(50);
+            assertSame(first, buffer);
+            arena.release(buffer);
+        }
+        assertEquals(allocations, arena.getAllocationCount());
+    }
+
+    @Test
+    public void oversize_isAllocatedAndNotPooled() {
+        SampleArena arena = new SampleArena(new int[]{16}, 4);
+        ByteBuffer big = arena.acquire(100);
+        assertEquals(100, big.capacity());
+        assertEquals(1, arena.getOversizeCount());
+        arena.release(big);
+        assertNotSame(big, arena.acquire(100));
+    }
+
+    @Test
+    public void copyOf_copiesOnlyTheRequestedRange() {
+        SampleArena arena = new SampleArena();
+        ByteBuffer src = ByteBuffer.allocateDirect(8);
+        for (int i = 0; i < 8; i++) {
+            src.put((byte) i);
+        }
+        ByteBuffer copy = arena.copyOf(src, 2, 4);
+        assertEquals(0, copy.position());
+        assertEquals(4, copy.remaining());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i + 2, copy.get(i));
+        }
+        //覆盖源数据不影响拷贝
+        src.put(2, (byte) 99);
+        assertEquals(2, copy.get(0));
+    }
+}
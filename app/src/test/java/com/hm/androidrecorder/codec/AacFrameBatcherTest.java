@@ -0,0 +1,126 @@
+package com.hm.androidrecorder.codec;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * AacFrameBatcher 单元测试：AudioRecord 每次读 640 个采样，拼成 1024 采样的整帧
+ */
+public class AacFrameBatcherTest {
+
+    private static final int SAMPLE_RATE = 16000;
+    //640 个采样，40ms
+    private static final int BLOCK_BYTES = 1280;
+    private static final long BLOCK_US = 40000;
+
+    private static byte[] block(int index) {
+        byte[] data = new byte[BLOCK_BYTES];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (index * BLOCK_BYTES + i);
+        }
+        return data;
+    }
+
+    @Test
+    public void assemblesExactFramesWithExactTimestamps() {
+        AacFrameBatcher batcher = new AacFrameBatcher(SAMPLE_RATE, 1, 1);
+        ByteBuffer input = ByteBuffer.allocate(4096);
+        long start = 1000000;
+        int batches = 0;
+        long expectedPts = start;
+        int expectedByte = 0;
+        for (int b = 0; b < 16; b++) {
+            byte[] data = block(b);
+            int offset = 0;
+            while (offset < data.length) {
+                if (!batcher.hasTarget()) {
+                    batcher.begin(input);
+                }
+                offset += batcher.append(data, offset, data.length, start + b * BLOCK_US);
+                if (batcher.isFull()) {
+                    assertEquals(2048, batcher.size());
+                    //每帧正好 64ms，和块边界无关
+                    assertEquals(expectedPts, batcher.ptsUs());
+                    input.flip();
+                    while (input.hasRemaining()) {
+                        assertEquals((byte) expectedByte++, input.get());
+                    }
+                    expectedPts += 64000;
+                    batches++;
+                    batcher.reset();
+                }
+            }
+        }
+        //16 块 10240 个采样，正好 10 帧
+        assertEquals(10, batches);
+        assertEquals(10, batcher.getBatchCount());
+        assertFalse(batcher.hasTarget());
+    }
+
+    @Test
+    public void batchSizeFollowsInputCapacity() {
+        assertEquals(2, AacFrameBatcher.framesFor(8192, 1, 2));
+        assertEquals(1, AacFrameBatcher.framesFor(3000, 1, 2));
+        assertEquals(1, AacFrameBatcher.framesFor(1000, 1, 2));
+        assertEquals(2, AacFrameBatcher.framesFor(8192, 2, 4));
+
+        //输入缓存比一帧还小：按缓存大小送，对齐到采样
+        AacFrameBatcher batcher = new AacFrameBatcher(SAMPLE_RATE, 2, 1);
+        batcher.begin(ByteBuffer.allocate(1003));
+        byte[] data = block(0);
+        assertEquals(1000, batcher.append(data, 0, data.length, 0));
+        assertTrue(batcher.isFull());
+    }
+
+    @Test
+    public void partialBatchKeepsFirstSampleTimestamp() {
+        AacFrameBatcher batcher = new AacFrameBatcher(SAMPLE_RATE, 1, 2);
+        assertEquals(4096, batcher.batchBytes());
+        batcher.begin(ByteBuffer.allocate(8192));
+        byte[] data = block(0);
+        //从块中间开始：偏移 320 个采样，20ms
+        assertEquals(640, batcher.append(data, 640, data.length, 500000));
+        assertEquals(520000, batcher.ptsUs());
+        assertEquals(BLOCK_BYTES, batcher.append(data, 0, data.length, 540000));
+        assertEquals(520000, batcher.ptsUs());
+        assertFalse(batcher.isFull());
+        assertEquals(1920, batcher.size());
+        //暂停时送出不满的一批
+        batcher.reset();
+        assertEquals(1, batcher.getBatchCount());
+    }
+
+    @Test
+    public void discardKeepsInputBufferForNextBatch() {
+        AacFrameBatcher batcher = new AacFrameBatcher(SAMPLE_RATE, 1, 1);
+        ByteBuffer input = ByteBuffer.allocate(2048);
+        batcher.begin(input);
+        byte[] data = block(0);
+        batcher.append(data, 0, data.length, 0);
+        batcher.discard();
+        assertTrue(batcher.hasTarget());
+        assertEquals(0, batcher.size());
+        assertEquals(0, input.position());
+        assertEquals(0, batcher.getBatchCount());
+        //丢掉后重新计时间戳
+        batcher.append(data, 0, data.length, 80000);
+        assertEquals(80000, batcher.ptsUs());
+    }
+
+    @Test
+    public void silentFrameIsSingleChannelElementThenEnd() {
+        byte[] frame = AacFrameBatcher.SILENT_FRAME_MONO;
+        int bits = ((frame[0] & 0xFF) << 24) | ((frame[1] & 0xFF) << 16) | ((frame[2] & 0xFF) << 8) | (frame[3] & 0xFF);
+        //id_syn_ele = SCE
+        assertEquals(0, bits >>> 29);
+        //global_gain
+        assertEquals(160, (bits >>> 17) & 0xFF);
+        //max_sfb = 0
+        assertEquals(0, (bits >>> 6) & 0x3F);
+        //id_syn_ele = END
+        assertEquals(7, bits & 0x7);
+    }
+}
@@ -0,0 +1,187 @@
+package com.hm.androidrecorder.codec;
+
+import com.hm.androidrecorder.metrics.PipelineMetrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * AdaptiveRateController 单元测试，用负载序列回放
+ * <p>
+ * 每行是一个 500ms 周期：丢帧数,待编码队列深度,平均编码延迟ms,写入耗时ms。队列容量 4，帧率 10-25，码率 1M-4M。
+ */
+public class AdaptiveRateControllerTest {
+
+    private static final int MAX_BIT_RATE = 4000000;
+    private static final int MIN_BIT_RATE = 1000000;
+
+    //编码器饱和：队列满、持续丢帧、延迟 200ms
+    private static final String ENCODER_SATURATED = "3,4,200,30";
+    //写文件慢：编码正常，500ms 里 400ms 在写
+    private static final String STORAGE_SLOW = "0,0,15,400";
+    private static final String CALM = "0,0,15,20";
+    //队列有积压但没丢帧，不升也不降
+    private static final String BUSY = "0,2,50,60";
+
+    //设备上录下来的一段：SD 卡写入卡顿 3 秒，之后恢复
+    private static final String[] SD_CARD_STALL = {
+            "0,0,14,22", "0,0,15,25", "0,1,16,21", "0,0,15,24", "0,1,18,310", "0,2,22,420",
+            "0,2,25,455", "0,1,21,390", "0,1,19,445", "0,0,16,298", "0,0,15,60", "0,0,14,35",
+            "0,0,15,28", "0,0,15,24", "0,0,14,26", "0,0,15,23", "0,1,15,25", "0,0,14,22",
+            "0,0,15,21", "0,0,15,24", "0,0,14,20", "0,0,15,22", "0,0,15,23", "0,0,14,21",
+    };
+
+    private static AdaptiveRateController create() {
+        return new AdaptiveRateController(MIN_BIT_RATE, MAX_BIT_RATE, 10, 25);
+    }
+
+    private static List<Integer> replay(AdaptiveRateController controller, String... rows) {
+        List<Integer> changes = new ArrayList<>();
+        AdaptiveRateController.Load load = new AdaptiveRateController.Load();
+        for (String row : rows) {
+            String[] v = row.split(",");
+            load.set(500000, Integer.parseInt(v[1]), 4, Long.parseLong(v[0]), Long.parseLong(v[2]) * 1000, Long.parseLong(v[3]) * 1000);
+            int result = controller.update(load);
+            if (result != AdaptiveRateController.NO_CHANGE) {
+                changes.add(result);
+            }
+            assertTrue(controller.getBitRate() >= MIN_BIT_RATE && controller.getBitRate() <= MAX_BIT_RATE);
+            assertTrue(controller.getFrameRate() >= 10 && controller.getFrameRate() <= 25);
+        }
+        return changes;
+    }
+
+    private static String[] repeat(String row, int count) {
+        String[] rows = new String[count];
+        for (int i = 0; i < count; i++) {
+            rows[i] = row;
+        }
+        return rows;
+    }
+
+    @Test
+    public void steadyLoadKeepsConfiguredRates() {
+        AdaptiveRateController controller = create();
+        assertTrue(replay(controller, repeat(CALM, 100)).isEmpty());
+        assertTrue(replay(controller, repeat(BUSY, 100)).isEmpty());
+        assertEquals(MAX_BIT_RATE, controller.getBitRate());
+        assertEquals(25, controller.getFrameRate());
+    }
+
+    @Test
+    public void encoderSaturationDecimatesFirstThenRecovers() {
+        AdaptiveRateController controller = create();
+        List<Integer> down = replay(controller, repeat(ENCODER_SATURATED, 40));
+        //帧率 25→20→15→10 后才降码率
+        assertEquals(AdaptiveRateController.FRAME_RATE_DOWN, (int) down.get(0));
+        assertEquals(AdaptiveRateController.FRAME_RATE_DOWN, (int) down.get(2));
+        assertEquals(AdaptiveRateController.BITRATE_DOWN, (int) down.get(3));
+        assertEquals(10, controller.getFrameRate());
+        assertEquals(MIN_BIT_RATE, controller.getBitRate());
+
+        List<Integer> up = replay(controller, repeat(CALM, 200));
+        assertEquals(AdaptiveRateController.FRAME_RATE_UP, (int) up.get(0));
+        assertEquals(AdaptiveRateController.FRAME_RATE_UP, (int) up.get(2));
+        assertEquals(AdaptiveRateController.BITRATE_UP, (int) up.get(3));
+        assertEquals(25, controller.getFrameRate());
+        assertEquals(MAX_BIT_RATE, controller.getBitRate());
+        //升的次数比降的多：升码率步子小
+        assertTrue(up.size() > down.size());
+    }
+
+    @Test
+    public void slowStorageLowersBitRateBeforeFrameRate() {
+        AdaptiveRateController controller = create();
+        List<Integer> changes = replay(controller, repeat(STORAGE_SLOW, 12));
+        assertEquals(3, changes.size());
+        for (int change : changes) {
+            assertEquals(AdaptiveRateController.BITRATE_DOWN, change);
+        }
+        assertEquals(25, controller.getFrameRate());
+        assertEquals((int) (MAX_BIT_RATE * 0.75 * 0.75 * 0.75), controller.getBitRate());
+    }
+
+    @Test
+    public void shortSpikesDoNotOscillate() {
+        AdaptiveRateController controller = create();
+        replay(controller, repeat(ENCODER_SATURATED, 2));
+        assertEquals(20, controller.getFrameRate());
+        //单个过载周期和不足 6 个的空闲周期交替，两个方向都不动
+        List<String> rows = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            rows.add(ENCODER_SATURATED);
+            rows.add(CALM);
+            rows.add(CALM);
+            rows.add(CALM);
+        }
+        assertTrue(replay(controller, rows.toArray(new String[0])).isEmpty());
+        assertEquals(20, controller.getFrameRate());
+        assertEquals(1, controller.getAdjustCount());
+    }
+
+    @Test
+    public void recordedSdCardStallRecoversAfterwards() {
+        AdaptiveRateController controller = create();
+        List<Integer> changes = replay(controller, SD_CARD_STALL);
+        assertEquals(AdaptiveRateController.BITRATE_DOWN, (int) changes.get(0));
+        assertFalse(changes.contains(AdaptiveRateController.FRAME_RATE_DOWN));
+        assertEquals(25, controller.getFrameRate());
+        assertTrue(controller.getBitRate() < MAX_BIT_RATE);
+        replay(controller, repeat(CALM, 60));
+        assertEquals(MAX_BIT_RATE, controller.getBitRate());
+    }
+
+    @Test
+    public void decimationKeepsTargetFrameRate() {
+        AdaptiveRateController controller = create();
+        long frameNs = 1000000000L / 30;
+        int accepted = 0;
+        for (int i = 0; i < 300; i++) {
+            if (controller.acceptFrame(i * frameNs)) {
+                accepted++;
+            }
+        }
+        //帧率在上限时不抽帧
+        assertEquals(300, accepted);
+
+        replay(controller, repeat(ENCODER_SATURATED, 6));
+        assertEquals(15, controller.getFrameRate());
+        accepted = 0;
+        //相机 30fps，带 ±3ms 抖动，10 秒
+        for (int i = 0; i < 300; i++) {
+            long jitter = (i % 3 - 1) * 3000000L;
+            if (controller.acceptFrame(20000000000L + i * frameNs + jitter)) {
+                accepted++;
+            }
+        }
+        assertTrue("accepted " + accepted, accepted >= 148 && accepted <= 152);
+        assertEquals(150, controller.getDecimatedCount(), 2);
+    }
+
+    @Test
+    public void loadFromMetricsSnapshots() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.recordUs(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.STAGE_ENCODE, 90000);
+        metrics.recordUs(PipelineMetrics.TRACK_AUDIO, PipelineMetrics.STAGE_WRITE, 5000);
+        PipelineMetrics.Snapshot before = metrics.snapshot();
+        metrics.recordUs(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.STAGE_ENCODE, 10000);
+        metrics.recordUs(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.STAGE_ENCODE, 30000);
+        metrics.recordUs(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.STAGE_WRITE, 7000);
+        metrics.recordUs(PipelineMetrics.TRACK_AUDIO, PipelineMetrics.STAGE_WRITE, 1000);
+        metrics.add(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.COUNTER_DROPPED, 2);
+        metrics.add(PipelineMetrics.TRACK_AUDIO, PipelineMetrics.COUNTER_DROPPED, 5);
+        PipelineMetrics.Snapshot after = metrics.snapshot();
+
+        AdaptiveRateController.Load load = new AdaptiveRateController.Load().set(before, after, 3, 4);
+        assertEquals(20000, load.encodeLatencyUs);
+        assertEquals(8000, load.writeBusyUs);
+        assertEquals(2, load.droppedFrames);
+        assertEquals(3, load.queueDepth);
+        assertEquals(4, load.queueCapacity);
+        assertEquals((after.uptimeMs - before.uptimeMs) * 1000, load.elapsedUs);
+    }
+}
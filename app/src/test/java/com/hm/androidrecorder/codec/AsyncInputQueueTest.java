@@ -0,0 +1,197 @@
+package com.hm.androidrecorder.codec;
+
+import com.hm.androidrecorder.buffer.FrameRing;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * AsyncInputQueue 单元测试，用一个按回调方式工作的假编码器模拟 MediaCodec 异步模式
+ */
+public class AsyncInputQueueTest {
+
+    /**
+     * 假编码器：start 时回调所有输入缓存，送入的帧经过 latencyMs 后"输出"，
+     * 同时把输入缓存再回调一次，回调都在单独的线程上，和 MediaCodec 的 Handler 线程一样
+     */
+    private static final class FakeAsyncEncoder {
+        private final ScheduledExecutorService callbackThread = new ScheduledThreadPoolExecutor(1);
+        private final AsyncInputQueue<?> queue;
+        private final int bufferCount;
+        private final long latencyMs;
+        final List<Integer> outputs = Collections.synchronizedList(new ArrayList<Integer>());
+
+        FakeAsyncEncoder(AsyncInputQueue<?> queue, int bufferCount, long latencyMs) {
+            this.queue = queue;
+            this.bufferCount = bufferCount;
+            this.latencyMs = latencyMs;
+        }
+
+        void start() {
+            for (int i = 0; i < bufferCount; i++) {
+                final int index = i;
+                callbackThread.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        queue.offerInputBuffer(index);
+                    }
+                });
+            }
+        }
+
+        void queueInputBuffer(final int index, final int frameId) {
+            callbackThread.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    outputs.add(frameId);
+                    queue.offerInputBuffer(index);
+                }
+            }, latencyMs, TimeUnit.MILLISECONDS);
+        }
+
+        void release() throws InterruptedException {
+            callbackThread.shutdown();
+            callbackThread.awaitTermination(1, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * 编码线程：和 VideoEncoderThread.runAsync 一样取出一对就送给编码器
+     */
+    private static Thread startEncoderLoop(final AsyncInputQueue<Integer> queue, final FakeAsyncEncoder encoder) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                AsyncInputQueue.Match<Integer> match = new AsyncInputQueue.Match<>();
+                while (!Thread.currentThread().isInterrupted()) {
+                    if (queue.take(match, 50)) {
+                        encoder.queueInputBuffer(match.index, match.frame);
+                    }
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void noFrameIsLostWhenCodecKeepsUp() throws Exception {
+        AsyncInputQueue<Integer> queue = new AsyncInputQueue<>(4);
+        FakeAsyncEncoder encoder = new FakeAsyncEncoder(queue, 2, 8);
+        encoder.start();
+        Thread loop = startEncoderLoop(queue, encoder);
+        //两个缓存，每帧 8ms，吞吐约 250 帧/秒；帧间隔 5ms，偶尔会短暂排队但不应丢帧
+        for (int i = 0; i < 100; i++) {
+            queue.offerFrame(i);
+            Thread.sleep(5);
+        }
+        long deadline = System.currentTimeMillis() + 2000;
+        while (encoder.outputs.size() < 100 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        loop.interrupt();
+        loop.join(1000);
+        encoder.release();
+
+        assertEquals(0, queue.getDroppedCount());
+        assertEquals(100, queue.getMatchedCount());
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            expected.add(i);
+        }
+        assertEquals(expected, encoder.outputs);
+    }
+
+    @Test
+    public void stalledCodecKeepsNewestFrames() {
+        AsyncInputQueue<Integer> queue = new AsyncInputQueue<>(4);
+        final List<Integer> dropped = new ArrayList<>();
+        queue.setDropListener(new FrameRing.DropListener<Integer>() {
+            @Override
+            public void onDrop(Integer frame) {
+                dropped.add(frame);
+            }
+        });
+        //编码器没有空闲缓存时帧在槽里等，不再超时丢弃
+        for (int i = 0; i < 10; i++) {
+            assertTrue(queue.offerFrame(i));
+        }
+        assertEquals(4, queue.getPendingFrameCount());
+        assertEquals(6, queue.getDroppedCount());
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5), dropped);
+
+        AsyncInputQueue.Match<Integer> match = new AsyncInputQueue.Match<>();
+        assertFalse(queue.take(match, 10));
+
+        //缓存序号数量超过初始容量时扩容，顺序不变
+        for (int i = 0; i < 20; i++) {
+            queue.offerInputBuffer(100 + i);
+        }
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.take(match, 10));
+            assertEquals(6 + i, (int) match.frame);
+            assertEquals(100 + i, match.index);
+        }
+        assertEquals(16, queue.getFreeInputBufferCount());
+        assertFalse(queue.take(match, 10));
+    }
+
+    @Test
+    public void closeWakesWaitingConsumerAndDropsPendingFrames() throws Exception {
+        final AsyncInputQueue<Integer> queue = new AsyncInputQueue<>(4);
+        final List<Integer> dropped = Collections.synchronizedList(new ArrayList<Integer>());
+        queue.setDropListener(new FrameRing.DropListener<Integer>() {
+            @Override
+            public void onDrop(Integer frame) {
+                dropped.add(frame);
+            }
+        });
+        queue.offerFrame(1);
+        queue.offerFrame(2);
+        final boolean[] result = {true};
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                result[0] = queue.take(new AsyncInputQueue.Match<Integer>(), 10000);
+            }
+        });
+        consumer.start();
+        Thread.sleep(50);
+        long start = System.currentTimeMillis();
+        queue.close();
+        consumer.join(2000);
+        assertFalse(consumer.isAlive());
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertFalse(result[0]);
+        assertEquals(Arrays.asList(1, 2), dropped);
+
+        //关闭后放入的帧直接交还
+        assertFalse(queue.offerFrame(3));
+        assertEquals(3, (int) dropped.get(2));
+        queue.offerInputBuffer(0);
+        assertEquals(-1, queue.takeInputBuffer(10));
+    }
+
+    @Test
+    public void takeInputBufferWithoutFrames() {
+        AsyncInputQueue<Object> queue = new AsyncInputQueue<>(1);
+        assertEquals(-1, queue.takeInputBuffer(10));
+        queue.offerInputBuffer(3);
+        queue.offerInputBuffer(1);
+        assertEquals(3, queue.takeInputBuffer(10));
+        assertEquals(1, queue.takeInputBuffer(10));
+        queue.offerInputBuffer(2);
+        queue.clear();
+        assertEquals(0, queue.getFreeInputBufferCount());
+        assertEquals(-1, queue.takeInputBuffer(10));
+    }
+}
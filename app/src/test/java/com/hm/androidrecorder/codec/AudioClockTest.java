@@ -0,0 +1,130 @@
+package com.hm.androidrecorder.codec;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * AudioClock 单元测试，模拟实际采样率有偏差、读取有调度抖动的录音
+ */
+public class AudioClockTest {
+
+    private static final int SAMPLE_RATE = 16000;
+    private static final int BLOCK = 1024;
+    private static final long START_NS = 5000000000000L;
+
+    /**
+     * 模拟一段录音，返回最大的时间戳误差（时间戳 - 真实采集时间）
+     *
+     * @param ppm      实际采样率比标称快多少 ppm
+     * @param seconds  录音时长
+     * @param jitterUs 读取返回的最大延迟
+     */
+    private static long simulate(AudioClock clock, double ppm, int seconds, long jitterUs, long settleSeconds) {
+        Random random = new Random(42);
+        double actualRate = SAMPLE_RATE * (1 + ppm / 1e6);
+        long blocks = (long) (seconds * actualRate / BLOCK);
+        long lastPts = Long.MIN_VALUE;
+        long maxError = 0;
+        for (long i = 0; i < blocks; i++) {
+            double captureStartUs = START_NS / 1000 + i * BLOCK * 1e6 / actualRate;
+            double captureEndUs = captureStartUs + BLOCK * 1e6 / actualRate;
+            long readEndNs = (long) ((captureEndUs + random.nextDouble() * jitterUs) * 1000);
+            long pts = clock.onRead(BLOCK, readEndNs);
+            //单调，且间隔接近一块的时长
+            assertTrue(pts > lastPts);
+            if (lastPts != Long.MIN_VALUE) {
+                assertEquals(64000, pts - lastPts, 100);
+            }
+            lastPts = pts;
+            if (captureStartUs - START_NS / 1000 > settleSeconds * 1e6) {
+                maxError = Math.max(maxError, Math.abs(pts - (long) captureStartUs));
+            }
+        }
+        return maxError;
+    }
+
+    @Test
+    public void timestampsFollowSampleCount() {
+        AudioClock clock = new AudioClock(SAMPLE_RATE);
+        long first = clock.onRead(BLOCK, 1000000000L);
+        //第二次读取晚了 30ms，时间戳不受影响
+        long second = clock.onRead(BLOCK, 1000000000L + 94000000L);
+        long third = clock.onRead(BLOCK, 1000000000L + 128000000L);
+        assertEquals(1000000 - 64000, first);
+        assertEquals(first + 64000, second);
+        assertEquals(second + 64000, third);
+        assertEquals(0, clock.getCorrectionUs());
+    }
+
+    @Test
+    public void hourLongDriftStaysInSync() {
+        AudioClock clock = new AudioClock(SAMPLE_RATE);
+        //实际采样率快 80ppm：按采样数推算的时间一小时快 288ms
+        long maxError = simulate(clock, 80, 3600, 8000, 60);
+        assertTrue("max error " + maxError, maxError < 12000);
+        assertEquals(-288000, clock.getSkewUs(), 10000);
+        assertEquals(clock.getSkewUs(), clock.getCorrectionUs(), 2000);
+        assertEquals(0, clock.getResyncCount());
+    }
+
+    @Test
+    public void slowClockIsCorrectedTheOtherWay() {
+        AudioClock clock = new AudioClock(SAMPLE_RATE);
+        long maxError = simulate(clock, -150, 1800, 5000, 120);
+        assertTrue("max error " + maxError, maxError < 12000);
+        assertEquals(270000, clock.getSkewUs(), 10000);
+    }
+
+    @Test
+    public void withoutCorrectionDriftWouldAccumulate() {
+        //对照：只按采样数，不做校正时一小时的误差
+        double ppm = 80;
+        double actualRate = SAMPLE_RATE * (1 + ppm / 1e6);
+        long samples = (long) (3600 * actualRate);
+        double trueUs = samples * 1e6 / actualRate;
+        double nominalUs = samples * 1e6 / SAMPLE_RATE;
+        assertTrue(nominalUs - trueUs > 280000);
+    }
+
+    @Test
+    public void resyncAfterPauseJumpsToWallClock() {
+        AudioClock clock = new AudioClock(SAMPLE_RATE);
+        long t = 2000000000L;
+        long pts = 0;
+        for (int i = 0; i < 50; i++) {
+            t += 64000000L;
+            pts = clock.onRead(BLOCK, t);
+        }
+        //AudioRecord 停了 5 秒
+        t += 5000000000L;
+        clock.resync();
+        t += 64000000L;
+        long resumed = clock.onRead(BLOCK, t);
+        assertEquals(t / 1000 - 64000, resumed);
+        assertTrue(resumed - pts > 5000000);
+        assertEquals(1, clock.getResyncCount());
+        assertEquals(resumed + 64000, clock.onRead(BLOCK, t + 64000000L));
+    }
+
+    @Test
+    public void lostSamplesBeyondThresholdSnap() {
+        AudioClock clock = new AudioClock(SAMPLE_RATE);
+        long t = 2000000000L;
+        for (int i = 0; i < 40; i++) {
+            t += 64000000L;
+            clock.onRead(BLOCK, t);
+        }
+        //采集线程被卡住，丢了 300ms 数据
+        t += 300000000L;
+        for (int i = 0; i < 40; i++) {
+            t += 64000000L;
+            clock.onRead(BLOCK, t);
+        }
+        assertEquals(1, clock.getResyncCount());
+        assertEquals(300000, clock.getCorrectionUs(), 1000);
+        assertEquals(t / 1000, clock.onRead(BLOCK, t + 64000000L), 1000);
+    }
+}
@@ -0,0 +1,120 @@
+package com.hm.androidrecorder.codec;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * FakeEncoder 单元测试
+ */
+public class FakeEncoderTest {
+
+    private static FakeEncoder video() {
+        FakeEncoder encoder = new FakeEncoder(FakeEncoder.videoFormat(64, 48), 64 * 48 * 3 / 2);
+        encoder.setOutputSizes(64, 32);
+        encoder.setKeyFrameInterval(4);
+        return encoder;
+    }
+
+    private static int next(Encoder encoder, SampleInfo info) {
+        int index;
+        do {
+            index = encoder.dequeueOutputBuffer(info, 100 * 1000);
+        } while (index == Encoder.INFO_OUTPUT_FORMAT_CHANGED);
+        return index;
+    }
+
+    @Test
+    public void outputArrivesAfterLatency() {
+        FakeEncoder encoder = video();
+        encoder.setLatencyUs(20 * 1000, 0);
+        encoder.start();
+        SampleInfo info = new SampleInfo();
+        long start = System.nanoTime();
+        encoder.queueInputBuffer(encoder.dequeueInputBuffer(0), 0, 100, 1234, 0);
+        assertEquals(Encoder.INFO_TRY_AGAIN_LATER, encoder.dequeueOutputBuffer(info, 0));
+        assertEquals(Encoder.INFO_OUTPUT_FORMAT_CHANGED, encoder.dequeueOutputBuffer(info, 100 * 1000));
+        assertTrue(System.nanoTime() - start >= 20 * 1000 * 1000);
+        assertEquals("video/avc", encoder.getOutputFormat().mime);
+        int index = encoder.dequeueOutputBuffer(info, 0);
+        assertTrue(index >= 0);
+        assertEquals(1234, info.presentationTimeUs);
+        assertTrue(info.isKeyFrame());
+        assertEquals(64, info.size);
+        assertEquals(1, encoder.getOutputCount());
+    }
+
+    @Test
+    public void outputIsDeterministicWithKeyFrameInterval() {
+        FakeEncoder a = video();
+        FakeEncoder b = video();
+        a.start();
+        b.start();
+        SampleInfo infoA = new SampleInfo();
+        SampleInfo infoB = new SampleInfo();
+        for (int i = 0; i < 10; i++) {
+            if (i == 6) {
+                a.requestKeyFrame();
+                b.requestKeyFrame();
+            }
+            a.queueInputBuffer(a.dequeueInputBuffer(-1), 0, 10, i, 0);
+            b.queueInputBuffer(b.dequeueInputBuffer(-1), 0, 10, i, 0);
+            int ia = next(a, infoA);
+            int ib = next(b, infoB);
+            ByteBuffer outA = a.getOutputBuffer(ia);
+            assertEquals(outA, b.getOutputBuffer(ib));
+            boolean key = i % 4 == 0 || i == 6;
+            assertEquals(key, infoA.isKeyFrame());
+            assertEquals(key ? 64 : 32, infoA.size);
+            assertEquals(0, outA.get(0));
+            assertEquals(1, outA.get(3));
+            assertEquals(key ? 0x65 : 0x41, outA.get(4));
+            a.releaseOutputBuffer(ia);
+            b.releaseOutputBuffer(ib);
+        }
+    }
+
+    @Test
+    public void inputBufferReturnsWhenOutputIsTaken() {
+        FakeEncoder encoder = video();
+        encoder.setBufferCount(2, 1);
+        encoder.start();
+        SampleInfo info = new SampleInfo();
+        encoder.queueInputBuffer(encoder.dequeueInputBuffer(0), 0, 10, 0, 0);
+        encoder.queueInputBuffer(encoder.dequeueInputBuffer(0), 0, 10, 1, 0);
+        assertEquals(Encoder.INFO_TRY_AGAIN_LATER, encoder.dequeueInputBuffer(1000));
+
+        int output = next(encoder, info);
+        assertTrue(encoder.dequeueInputBuffer(0) >= 0);
+        //唯一的输出缓存没释放，第二个输出取不出来
+        assertEquals(Encoder.INFO_TRY_AGAIN_LATER, encoder.dequeueOutputBuffer(info, 1000));
+        encoder.releaseOutputBuffer(output);
+        assertTrue(encoder.dequeueOutputBuffer(info, 0) >= 0);
+        assertEquals(1, info.presentationTimeUs);
+    }
+
+    @Test
+    public void endOfStreamIsPassedThrough() {
+        FakeEncoder encoder = new FakeEncoder(FakeEncoder.audioFormat(16000, 1), 2048);
+        encoder.start();
+        SampleInfo info = new SampleInfo();
+        encoder.queueInputBuffer(encoder.dequeueInputBuffer(0), 0, 2048, 0, 0);
+        encoder.queueInputBuffer(encoder.dequeueInputBuffer(0), 0, 0, 64000, SampleInfo.FLAG_END_OF_STREAM);
+        encoder.releaseOutputBuffer(next(encoder, info));
+        assertEquals(256, info.size);
+        encoder.releaseOutputBuffer(next(encoder, info));
+        assertTrue(info.isEndOfStream());
+        assertEquals(0, info.size);
+        assertEquals(1, encoder.getOutputCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void dequeueAfterStopFails() {
+        FakeEncoder encoder = video();
+        encoder.start();
+        encoder.stop();
+        encoder.dequeueInputBuffer(0);
+    }
+}
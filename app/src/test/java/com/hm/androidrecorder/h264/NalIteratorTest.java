@@ -0,0 +1,131 @@
+package com.hm.androidrecorder.h264;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+/**
+ * NalIterator / NalConverter 单元测试：起始码拆分、Annex-B 和 AVCC 互转、原地转换
+ */
+public class NalIteratorTest {
+
+    private static final byte[] SPS = {0x67, 0x42, (byte) 0x80, 0x1F, 0x11};
+    private static final byte[] PPS = {0x68, (byte) 0xCE, 0x06, (byte) 0xE2};
+    private static final byte[] IDR = {0x65, (byte) 0x88, (byte) 0x84, 0x21};
+
+    /**
+     * 编码器的关键帧输出：SPS PPS IDR，全部 4 字节起始码
+     */
+    private static byte[] keyFrame() {
+        return new byte[]{0, 0, 0, 1, 0x67, 0x42, (byte) 0x80, 0x1F, 0x11,
+                0, 0, 0, 1, 0x68, (byte) 0xCE, 0x06, (byte) 0xE2,
+                0, 0, 0, 1, 0x65, (byte) 0x88, (byte) 0x84, 0x21};
+    }
+
+    private static byte[] slice(ByteBuffer buffer, int offset, int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return bytes;
+    }
+
+    @Test
+    public void splitsMixedStartCodesAndTrailingZeros() {
+        //前面有无关数据，3 字节和 4 字节起始码混用，NAL 之间有多余的 0
+        byte[] data = {9, 9, 0, 0, 1, 0x67, 0x42, (byte) 0x80, 0x1F, 0x11, 0, 0,
+                0, 0, 0, 1, 0x68, (byte) 0xCE, 0x06, (byte) 0xE2,
+                0, 0, 1, 0, 0, 1, 0x65, (byte) 0x88, (byte) 0x84, 0x21, 0};
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data).position(2);
+        NalIterator iterator = new NalIterator().reset(buffer, 2, data.length - 2);
+        assertEquals(NalIterator.FORMAT_ANNEX_B, iterator.format());
+
+        assertTrue(iterator.next());
+        assertEquals(NalUnits.TYPE_SPS, iterator.type());
+        assertEquals(3, iterator.prefixSize());
+        assertArrayEquals(SPS, slice(buffer, iterator.offset(), iterator.size()));
+        assertTrue(iterator.next());
+        assertEquals(NalUnits.TYPE_PPS, iterator.type());
+        assertEquals(4, iterator.prefixSize());
+        assertArrayEquals(PPS, slice(buffer, iterator.offset(), iterator.size()));
+        //空的 NAL 跳过
+        assertTrue(iterator.next());
+        assertEquals(NalUnits.TYPE_IDR, iterator.type());
+        assertEquals(3, iterator.refIdc());
+        assertArrayEquals(IDR, slice(buffer, iterator.offset(), iterator.size()));
+        assertFalse(iterator.next());
+        //不改 position/limit
+        assertEquals(2, buffer.position());
+        assertEquals(data.length, buffer.limit());
+    }
+
+    @Test
+    public void convertsBetweenAnnexBAndAvcc() {
+        ByteBuffer annexB = ByteBuffer.wrap(keyFrame());
+        NalConverter converter = new NalConverter();
+        assertEquals(25, converter.avccSize(annexB, 0, 25));
+        ByteBuffer avcc = ByteBuffer.allocate(32);
+        avcc.put((byte) 7);
+        assertEquals(25, converter.annexBToAvcc(annexB, 0, 25, avcc));
+        assertEquals(26, avcc.position());
+        assertArrayEquals(new byte[]{0, 0, 0, 5, 0x67, 0x42, (byte) 0x80, 0x1F, 0x11,
+                0, 0, 0, 4, 0x68, (byte) 0xCE, 0x06, (byte) 0xE2,
+                0, 0, 0, 4, 0x65, (byte) 0x88, (byte) 0x84, 0x21}, slice(avcc, 1, 25));
+
+        NalIterator iterator = new NalIterator().reset(avcc, 1, 25);
+        assertEquals(NalIterator.FORMAT_AVCC, iterator.format());
+        int mask = iterator.typeMask(avcc, 1, 25);
+        assertTrue(NalUnits.hasType(mask, NalUnits.TYPE_SPS));
+        assertTrue(NalUnits.hasType(mask, NalUnits.TYPE_IDR));
+        assertFalse(NalUnits.hasType(mask, NalUnits.TYPE_SLICE));
+
+        //只看到第一个 slice，和全部遍历结果一样
+        assertEquals(mask, iterator.leadingTypeMask(avcc, 1, 25));
+        assertEquals(mask, iterator.leadingTypeMask(annexB, 0, 25));
+        byte[] twoSlices = {0, 0, 0, 1, 0x09, (byte) 0xF0, 0, 0, 1, 0, 0, 0, 1, 0x41, 1, 0, 0, 1, 0x65, 2};
+        mask = iterator.leadingTypeMask(ByteBuffer.wrap(twoSlices), 0, twoSlices.length);
+        assertEquals((1 << NalUnits.TYPE_AUD) | (1 << NalUnits.TYPE_SLICE), mask);
+
+        ByteBuffer back = ByteBuffer.allocateDirect(25);
+        assertEquals(25, converter.avccToAnnexB(avcc, 1, 25, 4, back));
+        assertArrayEquals(keyFrame(), slice(back, 0, 25));
+        assertEquals(0, annexB.position());
+    }
+
+    @Test
+    public void convertsInPlaceWhenStartCodesAreFourBytes() {
+        //小端的 direct 缓存，长度前缀仍然按大端写
+        ByteBuffer buffer = ByteBuffer.allocateDirect(25).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(keyFrame()).flip();
+        NalConverter converter = new NalConverter();
+        assertTrue(converter.annexBToAvccInPlace(buffer, 0, 25));
+        assertEquals(5, buffer.get(3));
+        assertEquals(4, buffer.get(12));
+        assertEquals(4, buffer.get(20));
+        assertTrue(converter.avccToAnnexBInPlace(buffer, 0, 25));
+        assertArrayEquals(keyFrame(), slice(buffer, 0, 25));
+
+        //有 3 字节起始码时不能原地转换，数据不动
+        byte[] mixed = {0, 0, 0, 1, 0x67, 0x42, 0, 0, 1, 0x65, (byte) 0x88};
+        ByteBuffer wrapped = ByteBuffer.wrap(mixed.clone());
+        assertFalse(converter.annexBToAvccInPlace(wrapped, 0, mixed.length));
+        assertArrayEquals(mixed, wrapped.array());
+        //长度超出数据
+        byte[] broken = {0, 0, 0, 9, 0x65, 1};
+        assertFalse(converter.avccToAnnexBInPlace(ByteBuffer.wrap(broken), 0, broken.length));
+        assertEquals(9, broken[3]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void avccLengthBeyondDataIsRejected() {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[]{0, 0, 0, 2, 0x41, 1, 0, 0, 0, 9, 0x41});
+        NalIterator iterator = new NalIterator().resetAvcc(buffer, 0, 11, 4);
+        assertTrue(iterator.next());
+        assertEquals(2, iterator.size());
+        iterator.next();
+    }
+}
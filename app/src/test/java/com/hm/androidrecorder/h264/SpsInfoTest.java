@@ -0,0 +1,236 @@
+package com.hm.androidrecorder.h264;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * SpsInfo / PpsInfo / slice 类型单元测试。参数集用 {@link BitWriter} 按语法拼出来，字段值都是已知的。
+ */
+public class SpsInfoTest {
+
+    /**
+     * 按位写 RBSP，结束时补停止位并插入防竞争字节
+     */
+    private static final class BitWriter {
+        private final ByteArrayOutputStream rbsp = new ByteArrayOutputStream();
+        private int current;
+        private int bits;
+
+        BitWriter bits(int value, int count) {
+            for (int i = count - 1; i >= 0; i--) {
+                current = (current << 1) | ((value >> i) & 1);
+                if (++bits == 8) {
+                    rbsp.write(current);
+                    current = 0;
+                    bits = 0;
+                }
+            }
+            return this;
+        }
+
+        BitWriter ue(int value) {
+            int code = value + 1;
+            int length = 32 - Integer.numberOfLeadingZeros(code);
+            return bits(0, length - 1).bits(code, length);
+        }
+
+        BitWriter se(int value) {
+            return ue(value > 0 ? 2 * value - 1 : -2 * value);
+        }
+
+        byte[] nal(int header) {
+            bits(1, 1);
+            while (bits != 0) {
+                bits(0, 1);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(header);
+            int zeros = 0;
+            for (byte b : rbsp.toByteArray()) {
+                if (zeros == 2 && (b & 0xFF) <= 3) {
+                    out.write(3);
+                    zeros = 0;
+                }
+                out.write(b);
+                zeros = b == 0 ? zeros + 1 : 0;
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * High@4.0 1920x1080：编码 1088 行，底部裁掉 8 行；带一组缩放矩阵
+     */
+    private static byte[] highSps1080() {
+        BitWriter w = new BitWriter();
+        w.bits(100, 8).bits(0, 8).bits(40, 8).ue(0);
+        //chroma_format_idc, bit_depth_luma/chroma, bypass
+        w.ue(1).ue(0).ue(0).bits(0, 1);
+        //seq_scaling_matrix_present_flag，只有第一组列表，delta 让 nextScale 变成 0 提前结束
+        w.bits(1, 1).bits(1, 1).se(3).se(-11);
+        w.bits(0, 7);
+        //log2_max_frame_num_minus4, poc type 0, lsb_minus4
+        w.ue(0).ue(0).ue(2);
+        //refs, gaps
+        w.ue(1).bits(0, 1);
+        w.ue(119).ue(67).bits(1, 1).bits(1, 1);
+        //cropping：bottom 4 个单位 = 8 行
+        w.bits(1, 1).ue(0).ue(0).ue(0).ue(4);
+        w.bits(0, 1);
+        return w.nal(0x67);
+    }
+
+    @Test
+    public void parsesHighProfileSpsWithCropping() {
+        SpsInfo sps = new SpsInfo().parse(highSps1080());
+        assertEquals(100, sps.profileIdc);
+        assertEquals(40, sps.levelIdc);
+        assertEquals(1, sps.chromaFormatIdc);
+        assertEquals(8, sps.bitDepthLuma);
+        assertEquals(4, sps.log2MaxFrameNum);
+        assertEquals(6, sps.log2MaxPicOrderCntLsb);
+        assertEquals(1, sps.maxNumRefFrames);
+        assertTrue(sps.frameMbsOnly);
+        assertEquals(1920, sps.codedWidth);
+        assertEquals(1088, sps.codedHeight);
+        assertEquals(8, sps.cropBottom);
+        assertEquals(1920, sps.width);
+        assertEquals(1080, sps.height);
+        assertFalse(sps.vuiPresent);
+        assertEquals("High@4.0 1920x1080 (coded 1920x1088) refs 1", sps.toString());
+    }
+
+    @Test
+    public void parsesRealEncoderSps() {
+        //x264 输出的 720p SPS，带防竞争字节和 VUI
+        int[] bytes = {0x67, 0x64, 0x00, 0x1F, 0xAC, 0xD9, 0x40, 0x50, 0x05, 0xBB, 0x01, 0x10, 0x00, 0x00, 0x03,
+                0x00, 0x10, 0x00, 0x00, 0x03, 0x03, 0xC0, 0xF1, 0x83, 0x19, 0x60};
+        byte[] nal = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            nal[i] = (byte) bytes[i];
+        }
+        SpsInfo sps = new SpsInfo().parse(nal);
+        assertEquals("High@3.1 1280x720 refs 4", sps.toString());
+        assertTrue(sps.vuiPresent);
+    }
+
+    @Test
+    public void parsesBaselineSpsInsideBufferSlice() {
+        BitWriter w = new BitWriter();
+        //Constrained Baseline@3.1 640x480，POC type 2，没有裁剪，带 VUI
+        w.bits(66, 8).bits(0xC0, 8).bits(31, 8).ue(1);
+        w.ue(6).ue(2).ue(1).bits(0, 1);
+        w.ue(39).ue(29).bits(1, 1).bits(1, 1).bits(0, 1).bits(1, 1);
+        byte[] nal = w.nal(0x67);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(nal.length + 8);
+        buffer.position(5);
+        buffer.put(nal);
+        buffer.position(1);
+
+        SpsInfo sps = new SpsInfo().parse(buffer, 5, nal.length);
+        assertEquals(1, sps.spsId);
+        assertEquals(10, sps.log2MaxFrameNum);
+        assertEquals(2, sps.picOrderCntType);
+        assertEquals(640, sps.width);
+        assertEquals(480, sps.height);
+        assertTrue(sps.vuiPresent);
+        assertEquals("ConstrainedBaseline", sps.profileName());
+        assertEquals(1, buffer.position());
+
+        //截断的 SPS
+        try {
+            new SpsInfo().parse(buffer, 5, 6);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void parsesPpsUpToTransform8x8() {
+        BitWriter w = new BitWriter();
+        w.ue(0).ue(0).bits(1, 1).bits(0, 1).ue(0).ue(2).ue(0);
+        //weighted_pred, weighted_bipred_idc, qp -2, qs 0, chroma offset -2
+        w.bits(0, 1).bits(2, 2).se(-2).se(0).se(-2);
+        w.bits(1, 1).bits(0, 1).bits(0, 1);
+        byte[] main = w.nal(0x68);
+        PpsInfo pps = new PpsInfo().parse(main);
+        assertTrue(pps.entropyCodingCabac);
+        assertEquals(3, pps.numRefIdxL0DefaultActive);
+        assertEquals(2, pps.weightedBipredIdc);
+        assertEquals(24, pps.picInitQp);
+        assertEquals(-2, pps.chromaQpIndexOffset);
+        assertTrue(pps.deblockingFilterControlPresent);
+        assertFalse(pps.transform8x8Mode);
+
+        //High profile 的 PPS 后面还有 transform_8x8_mode_flag 等字段
+        w = new BitWriter();
+        w.ue(3).ue(0).bits(1, 1).bits(0, 1).ue(0).ue(0).ue(0);
+        w.bits(0, 1).bits(0, 2).se(0).se(0).se(0);
+        w.bits(1, 1).bits(0, 1).bits(0, 1);
+        w.bits(1, 1).bits(0, 1).se(0);
+        PpsInfo high = new PpsInfo().parse(w.nal(0x68));
+        assertEquals(3, high.ppsId);
+        assertTrue(high.transform8x8Mode);
+    }
+
+    @Test
+    public void classifiesSliceTypes() {
+        //first_mb_in_slice 0，slice_type 7（I，整帧相同类型），后面是随便的数据
+        byte[] idr = new BitWriter().ue(0).ue(7).ue(0).bits(0xABCD, 16).nal(0x65);
+        byte[] p = new BitWriter().ue(0).ue(5).ue(0).nal(0x41);
+        byte[] b = new BitWriter().ue(120).ue(1).ue(0).nal(0x01);
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        for (byte[] nal : new byte[][]{idr, p, b, {0x67, 0x42}, {0x41}}) {
+            buffer.put(new byte[]{0, 0, 0, 1}).put(nal);
+        }
+        NalIterator iterator = new NalIterator().reset(buffer, 0, buffer.position());
+        int[] expected = {NalUnits.SLICE_I, NalUnits.SLICE_P, NalUnits.SLICE_B, NalUnits.SLICE_NONE, NalUnits.SLICE_NONE};
+        for (int type : expected) {
+            assertTrue(iterator.next());
+            assertEquals(type, iterator.sliceType());
+        }
+        assertFalse(iterator.next());
+        assertEquals("B", NalUnits.sliceName(NalUnits.SLICE_B));
+        assertEquals(0, iterator.typeMask(buffer, 0, 0));
+    }
+
+    @Test
+    public void readerSkipsEmulationPreventionBytes() {
+        BitReader reader = new BitReader();
+        reader.reset(ByteBuffer.wrap(new byte[]{0, 0, 3, 1, 0, 0, 3, 0, (byte) 0x80}), 0, 9);
+        assertEquals(1, reader.readBits(24));
+        assertEquals(0, reader.readBits(16));
+        assertTrue(reader.moreRbspData());
+        assertEquals(0, reader.readBits(8));
+        assertFalse(reader.moreRbspData());
+    }
+
+    @Test
+    public void zeroBitsBeforeStopBitAreRbspData() {
+        BitReader reader = new BitReader();
+        //0010 0000：停止位前面两个 0 都是数据
+        reader.reset(ByteBuffer.wrap(new byte[]{0x20}), 0, 1);
+        assertTrue(reader.moreRbspData());
+        assertEquals(0, reader.readBit());
+        assertTrue(reader.moreRbspData());
+        assertEquals(0, reader.readBit());
+        assertFalse(reader.moreRbspData());
+
+        //停止位在下一个字节，当前字节剩下的位全是 0
+        reader.reset(ByteBuffer.wrap(new byte[]{(byte) 0xC0, 0x40, 0}), 0, 3);
+        assertEquals(3, reader.readBits(2));
+        assertTrue(reader.moreRbspData());
+        assertEquals(0, reader.readBits(6));
+        assertTrue(reader.moreRbspData());
+        assertEquals(0, reader.readBit());
+        assertFalse(reader.moreRbspData());
+
+        //没有停止位
+        reader.reset(ByteBuffer.wrap(new byte[]{0, 0}), 0, 2);
+        assertFalse(reader.moreRbspData());
+    }
+}
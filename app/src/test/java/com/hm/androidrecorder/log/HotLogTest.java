@@ -0,0 +1,169 @@
+package com.hm.androidrecorder.log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * HotLog / EventRing 单元测试
+ */
+public class HotLogTest {
+
+    private static final LogSite FRAME = new LogSite(HotLog.DEBUG, "Video", "frame {} size {}");
+    private static final LogSite STALL = new LogSite(HotLog.WARN, "Video", "no input buffer", 50);
+
+    private final List<String> lines = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        HotLog.setPrinter(new LogPrinter() {
+            @Override
+            public void println(int level, String tag, String message) {
+                lines.add(level + " " + tag + " " + message);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        HotLog.setLevel(HotLog.INFO);
+        HotLog.setEventRing(null);
+        HotLog.setPrinter(null);
+    }
+
+    @Test
+    public void belowLevelIsNotPrinted() {
+        HotLog.setLevel(HotLog.INFO);
+        HotLog.log(FRAME, 1, 100);
+        assertTrue(lines.isEmpty());
+        HotLog.setLevel(HotLog.DEBUG);
+        HotLog.log(FRAME, 2, 200);
+        assertEquals(1, lines.size());
+        assertEquals("3 Video frame 2 size 200", lines.get(0));
+    }
+
+    @Test
+    public void disabledCallsDoNotAllocate() throws Exception {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Method allocated;
+        try {
+            allocated = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+        } catch (ClassNotFoundException e) {
+            //不是 HotSpot，跳过
+            return;
+        }
+        HotLog.setLevel(HotLog.INFO);
+        long id = Thread.currentThread().getId();
+        //先预热，排除类加载
+        for (int i = 0; i < 1000; i++) {
+            HotLog.log(FRAME, i, i);
+        }
+        long before = (Long) allocated.invoke(bean, id);
+        for (int i = 0; i < 100000; i++) {
+            HotLog.log(FRAME, i, i);
+        }
+        long after = (Long) allocated.invoke(bean, id);
+        //反射调用本身会分配少量内存，10 万次调用远小于一次一个字节
+        assertTrue("allocated " + (after - before), after - before < 10000);
+        assertTrue(lines.isEmpty());
+    }
+
+    @Test
+    public void rateLimitedSiteReportsSuppressedCount() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            HotLog.log(STALL);
+        }
+        assertEquals(1, lines.size());
+        Thread.sleep(60);
+        HotLog.log(STALL);
+        assertEquals(2, lines.size());
+        assertEquals("5 Video no input buffer (suppressed 4)", lines.get(1));
+    }
+
+    @Test
+    public void ringKeepsRecentEventsOfAllLevels() {
+        EventRing ring = new EventRing(4);
+        HotLog.setEventRing(ring);
+        HotLog.setLevel(HotLog.NONE);
+        for (int i = 0; i < 6; i++) {
+            HotLog.log(FRAME, i, i * 10);
+        }
+        assertTrue(lines.isEmpty());
+        assertEquals(6, ring.getRecordedCount());
+
+        assertEquals(4, HotLog.dumpEvents());
+        assertEquals(4, lines.size());
+        for (int i = 0; i < 4; i++) {
+            String line = lines.get(i);
+            assertTrue(line, line.startsWith("6 HotLog #" + (i + 2) + " -"));
+            assertTrue(line, line.endsWith("ms Video: frame " + (i + 2) + " size " + (i + 2) * 10));
+        }
+    }
+
+    @Test
+    public void dumpSkipsSlotsOverwrittenWhileCopying() throws Exception {
+        //写入线程一直覆盖一个很小的环，每条事件的两个参数都等于它的序号；dump 出来的事件不能新旧字段混在一起
+        final EventRing ring = new EventRing(2);
+        final boolean[] stop = {false};
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                long i = 0;
+                while (true) {
+                    synchronized (stop) {
+                        if (stop[0]) {
+                            return;
+                        }
+                    }
+                    for (int n = 0; n < 1000; n++, i++) {
+                        ring.record(FRAME, i, i);
+                    }
+                }
+            }
+        };
+        writer.start();
+        final List<String> dumped = new ArrayList<>();
+        LogPrinter printer = new LogPrinter() {
+            @Override
+            public void println(int level, String tag, String message) {
+                dumped.add(message);
+            }
+        };
+        try {
+            for (int round = 0; round < 20000; round++) {
+                ring.dump(printer, HotLog.ERROR, "test");
+            }
+        } finally {
+            synchronized (stop) {
+                stop[0] = true;
+            }
+            writer.join(5000);
+        }
+        assertFalse(dumped.isEmpty());
+        for (String line : dumped) {
+            String sequence = line.substring(1, line.indexOf(' '));
+            String args = line.substring(line.indexOf("frame ") + 6);
+            String[] parts = args.split(" size ");
+            assertEquals(line, sequence, parts[0]);
+            assertEquals(line, sequence, parts[1]);
+        }
+    }
+
+    @Test
+    public void formatKeepsExtraPlaceholders() {
+        StringBuilder builder = new StringBuilder();
+        HotLog.format(builder, "{} {} {}", 1, 2);
+        assertEquals("1 2 {}", builder.toString());
+        builder.setLength(0);
+        HotLog.format(builder, "no args", 1, 2);
+        assertEquals("no args", builder.toString());
+    }
+}
@@ -0,0 +1,74 @@
+package com.hm.androidrecorder.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * LatencyHistogram 单元测试
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsArePowersOfTwo() {
+        assertEquals(0, LatencyHistogram.bucketOf(0));
+        assertEquals(1, LatencyHistogram.bucketOf(1));
+        assertEquals(2, LatencyHistogram.bucketOf(2));
+        assertEquals(2, LatencyHistogram.bucketOf(3));
+        assertEquals(11, LatencyHistogram.bucketOf(1500));
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+        assertEquals(2048, LatencyHistogram.bucketUpperBoundUs(11));
+    }
+
+    @Test
+    public void percentilesUseBucketUpperBound() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 90; i++) {
+            histogram.record(1000);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(40000);
+        }
+        histogram.record(-5);
+        LatencyHistogram.Snapshot s = histogram.snapshot();
+        assertEquals(101, s.count);
+        assertEquals(40000, s.maxUs);
+        assertEquals(90 * 1000 + 10 * 40000, s.sumUs);
+        assertEquals(1, s.getBucket(0));
+        //1000us 落在 [512, 1024)
+        assertEquals(1024, s.percentileUs(0.5));
+        //40000us 落在 [32768, 65536)，不超过最大值
+        assertEquals(40000, s.percentileUs(0.99));
+        histogram.reset();
+        assertEquals(0, histogram.snapshot().percentileUs(0.5));
+    }
+
+    @Test
+    public void concurrentRecordsAreNotLost() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int base = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record(base * 100 + i % 100);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        LatencyHistogram.Snapshot s = histogram.snapshot();
+        assertEquals(40000, s.count);
+        long total = 0;
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+            total += s.getBucket(i);
+        }
+        assertEquals(40000, total);
+        assertEquals(399, s.maxUs);
+    }
+}
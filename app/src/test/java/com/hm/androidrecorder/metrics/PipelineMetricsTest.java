@@ -0,0 +1,101 @@
+package com.hm.androidrecorder.metrics;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * PipelineMetrics / MetricsExporter 单元测试
+ */
+public class PipelineMetricsTest {
+
+    @Test
+    public void snapshotCopiesCountersStagesAndQueues() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        final int[] depth = {3};
+        metrics.setQueue("videoFrames", new PipelineMetrics.QueueDepth() {
+            @Override
+            public int depth() {
+                return depth[0];
+            }
+        });
+        for (int i = 0; i < 30; i++) {
+            metrics.increment(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.COUNTER_IN);
+        }
+        metrics.add(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.COUNTER_DROPPED, 2);
+        metrics.add(PipelineMetrics.TRACK_AUDIO, PipelineMetrics.COUNTER_BYTES, 4096);
+        metrics.recordUs(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.STAGE_ENCODE, 20000);
+        metrics.recordSince(PipelineMetrics.TRACK_AUDIO, PipelineMetrics.STAGE_WRITE, System.nanoTime());
+
+        PipelineMetrics.Snapshot s = metrics.snapshot();
+        depth[0] = 0;
+        metrics.increment(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.COUNTER_IN);
+
+        assertEquals(30, s.get(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.COUNTER_IN));
+        assertEquals(2, s.get(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.COUNTER_DROPPED));
+        assertEquals(4096, s.get(PipelineMetrics.TRACK_AUDIO, PipelineMetrics.COUNTER_BYTES));
+        assertEquals(0, s.get(PipelineMetrics.TRACK_AUDIO, PipelineMetrics.COUNTER_IN));
+        assertEquals(1, s.stage(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.STAGE_ENCODE).count);
+        assertEquals(20000, s.stage(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.STAGE_ENCODE).maxUs);
+        assertEquals(1, s.stage(PipelineMetrics.TRACK_AUDIO, PipelineMetrics.STAGE_WRITE).count);
+        assertEquals(3, s.getQueueDepth("videoFrames"));
+        assertEquals(-1, s.getQueueDepth("missing"));
+        assertEquals(31, metrics.get(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.COUNTER_IN));
+    }
+
+    @Test
+    public void jsonHasEveryTrackCounterAndStage() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.setQueue("muxerAudio", new PipelineMetrics.QueueDepth() {
+            @Override
+            public int depth() {
+                return 7;
+            }
+        });
+        metrics.increment(PipelineMetrics.TRACK_AUDIO, PipelineMetrics.COUNTER_WRITTEN);
+        metrics.recordUs(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.STAGE_QUEUE, 1000);
+        String json = metrics.snapshot().toJson();
+        assertTrue(json.startsWith("{\"timeMs\":"));
+        assertTrue(json.endsWith("\"queues\":{\"muxerAudio\":7}}"));
+        assertTrue(json.contains("\"audio\":{\"in\":0,\"encoded\":0,\"dropped\":0,\"written\":1,\"bytes\":0,"));
+        assertTrue(json.contains("\"queue\":{\"count\":1,\"meanUs\":1000,\"p50Us\":1000,\"p90Us\":1000,\"p99Us\":1000,\"maxUs\":1000}"));
+        for (String stage : PipelineMetrics.STAGE_NAMES) {
+            assertEquals(2, json.split("\"" + stage + "\":\\{").length - 1);
+        }
+        assertFalse(json.contains("\n"));
+    }
+
+    @Test
+    public void exporterAppendsOneLinePerInterval() throws Exception {
+        PipelineMetrics metrics = new PipelineMetrics();
+        File file = File.createTempFile("metrics", ".jsonl");
+        file.deleteOnExit();
+        MetricsExporter exporter = new MetricsExporter(metrics, file, 20);
+        exporter.startExport();
+        Thread.sleep(110);
+        metrics.increment(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.COUNTER_WRITTEN);
+        exporter.stopExport();
+        assertFalse(exporter.isAlive());
+
+        List<String> lines = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        assertEquals(exporter.getExportedCount(), lines.size());
+        assertTrue(lines.size() >= 3);
+        //停止时写的最后一行带上最终计数
+        assertTrue(lines.get(lines.size() - 1).contains("\"video\":{\"in\":0,\"encoded\":0,\"dropped\":0,\"written\":1,"));
+    }
+}
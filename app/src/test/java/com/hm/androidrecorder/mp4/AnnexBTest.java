@@ -0,0 +1,64 @@
+package com.hm.androidrecorder.mp4;
+
+import com.hm.androidrecorder.h264.NalIterator;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * AnnexB 单元测试：拆分和长度前缀写法经过 NalIterator 后结果不变
+ */
+public class AnnexBTest {
+
+    //AUD、SPS、PPS 各用 4 字节起始码，IDR 用 3 字节起始码，末尾带一个 trailing zero
+    private static final byte[] ACCESS_UNIT = {
+            0, 0, 0, 1, 0x09, (byte) 0xF0,
+            0, 0, 0, 1, 0x67, 0x42, (byte) 0x80, 0x1F,
+            0, 0, 0, 1, 0x68, (byte) 0xCE, 0x06,
+            0, 0, 1, 0x65, (byte) 0x88, 0x11, 0x22, 0
+    };
+
+    @Test
+    public void writesSlicesWithLengthPrefix() {
+        BoxBuffer dst = new BoxBuffer(16);
+        //前后各垫一个字节，确认只处理 [offset, offset + size)
+        ByteBuffer src = ByteBuffer.allocate(ACCESS_UNIT.length + 2);
+        src.position(1);
+        src.put(ACCESS_UNIT);
+        src.clear();
+
+        int written = AnnexB.writeLengthPrefixed(new NalIterator(), src, 1, ACCESS_UNIT.length, dst);
+
+        //SPS/PPS/AUD 跳过，只剩 IDR
+        assertEquals(8, written);
+        assertEquals(8, dst.position());
+        assertArrayEquals(new byte[]{0, 0, 0, 4, 0x65, (byte) 0x88, 0x11, 0x22}, Arrays.copyOf(dst.array(), 8));
+        assertEquals(0, src.position());
+        assertEquals(src.capacity(), src.limit());
+    }
+
+    @Test
+    public void copiesLengthPrefixedDataUnchanged() {
+        byte[] avcc = {0, 0, 0, 2, 0x65, 0x11};
+        BoxBuffer dst = new BoxBuffer(16);
+
+        assertEquals(avcc.length, AnnexB.writeLengthPrefixed(new NalIterator(), ByteBuffer.wrap(avcc), 0, avcc.length, dst));
+        assertArrayEquals(avcc, Arrays.copyOf(dst.array(), avcc.length));
+    }
+
+    @Test
+    public void splitsAndFindsParameterSets() {
+        List<byte[]> nals = AnnexB.split(ACCESS_UNIT);
+
+        assertEquals(4, nals.size());
+        assertArrayEquals(new byte[]{0x67, 0x42, (byte) 0x80, 0x1F}, nals.get(1));
+        assertArrayEquals(new byte[]{0x65, (byte) 0x88, 0x11, 0x22}, nals.get(3));
+        assertArrayEquals(new byte[]{0x68, (byte) 0xCE, 0x06}, AnnexB.find(AnnexB.NAL_PPS, null, ACCESS_UNIT));
+        assertNull(AnnexB.find(AnnexB.NAL_SPS, new byte[]{0, 0, 0, 1, 0x65, 0x11}));
+    }
+}
@@ -0,0 +1,155 @@
+package com.hm.androidrecorder.mp4;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * FragmentedMp4Writer 单元测试，输出全部经过 {@link Mp4BoxValidator} 校验
+ */
+public class FragmentedMp4WriterTest {
+
+    private static final byte[] SPS = {0x67, 0x42, (byte) 0x80, 0x1F, 0x11, 0x22};
+    private static final byte[] PPS = {0x68, (byte) 0xCE, 0x06, (byte) 0xE2};
+    //AAC LC，16kHz，单声道
+    private static final byte[] ASC = {0x14, 0x08};
+
+    private static final long FRAME_US = 1000000 / 30;
+    private static final long AUDIO_FRAME_US = 1024L * 1000000 / 16000;
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    private FragmentedMp4Writer create(long fragmentUs, boolean onKeyFrame, int maxBytes) {
+        return new FragmentedMp4Writer(Channels.newChannel(output), fragmentUs, onKeyFrame, maxBytes);
+    }
+
+    /**
+     * 带 4 字节起始码的访问单元，关键帧前面加 SPS/PPS
+     */
+    private static ByteBuffer videoFrame(int index, boolean keyFrame) {
+        ByteBuffer frame = ByteBuffer.allocate(64);
+        if (keyFrame) {
+            frame.put(new byte[]{0, 0, 0, 1}).put(SPS);
+            frame.put(new byte[]{0, 0, 0, 1}).put(PPS);
+        }
+        frame.put(new byte[]{0, 0, 0, 1, (byte) (keyFrame ? 0x65 : 0x41), (byte) index, 0x10, 0x20});
+        frame.flip();
+        return frame;
+    }
+
+    @Test
+    public void writesKeyFrameAlignedFragments() throws Exception {
+        FragmentedMp4Writer writer = create(FragmentedMp4Writer.DEFAULT_FRAGMENT_DURATION_US, true, 1024 * 1024);
+        int video = writer.addTrack(TrackFormat.avcFromAnnexB(640, 480, concat(new byte[]{0, 0, 0, 1}, SPS), concat(new byte[]{0, 0, 0, 1}, PPS)));
+        int audio = writer.addTrack(TrackFormat.aac(16000, 1, ASC));
+        writer.start();
+        long base = 5000000;
+        int audioFrames = 0;
+        for (int i = 0; i < 90; i++) {
+            long pts = base + i * FRAME_US;
+            while (base + audioFrames * AUDIO_FRAME_US <= pts) {
+                ByteBuffer aac = ByteBuffer.wrap(new byte[]{1, 2, 3, (byte) audioFrames});
+                writer.writeSample(audio, aac, 0, 4, base + audioFrames * AUDIO_FRAME_US, 0);
+                audioFrames++;
+            }
+            ByteBuffer frame = videoFrame(i, i % 30 == 0);
+            writer.writeSample(video, frame, 0, frame.limit(), pts, i % 30 == 0 ? FragmentedMp4Writer.FLAG_KEY_FRAME : 0);
+            assertEquals(0, frame.position());
+        }
+        writer.finish();
+
+        byte[] file = output.toByteArray();
+        assertEquals(file.length, writer.getBytesWritten());
+        Mp4BoxValidator.Result result = Mp4BoxValidator.validate(file);
+        assertEquals(3, result.fragmentCount);
+        assertEquals(writer.getFragmentCount(), result.fragmentCount);
+
+        Mp4BoxValidator.TrackSamples videoSamples = result.track("vide");
+        assertEquals(90, videoSamples.sizes.size());
+        assertEquals(Arrays.asList(0, 30, 60), videoSamples.fragmentStarts);
+        for (int i = 0; i < 90; i++) {
+            //SPS/PPS 去掉，起始码换成长度
+            assertArrayEquals(new byte[]{0, 0, 0, 4, (byte) (i % 30 == 0 ? 0x65 : 0x41), (byte) i, 0x10, 0x20}, videoSamples.data.get(i));
+            assertEquals(i % 30 == 0 ? 0x02000000 : 0x01010000, (int) videoSamples.flags.get(i));
+            //1/30 秒约 3000 个 90kHz 刻度，按绝对时间换算，误差不累积
+            int duration = videoSamples.durations.get(i);
+            assertTrue(duration == 2999 || duration == 3000);
+        }
+        Mp4BoxValidator.TrackSamples audioSamples = result.track("soun");
+        assertEquals(audioFrames, audioSamples.sizes.size());
+        for (int i = 0; i < audioFrames; i++) {
+            assertEquals(1024, (int) audioSamples.durations.get(i));
+        }
+        assertArrayEquals(new byte[]{1, 0x42, (byte) 0x80, 0x1F, (byte) 0xFF, (byte) 0xE1, 0, 6}, Arrays.copyOf(result.avcC, 8));
+        assertNotNull(result.esds);
+    }
+
+    @Test
+    public void truncatedOutputIsValidUpToLastFragment() throws Exception {
+        FragmentedMp4Writer writer = create(200 * 1000, false, 1024 * 1024);
+        int video = writer.addTrack(TrackFormat.avc(320, 240, SPS, PPS));
+        writer.start();
+        for (int i = 0; i < 30; i++) {
+            ByteBuffer frame = videoFrame(i, i == 0);
+            writer.writeSample(video, frame, 0, frame.limit(), i * FRAME_US, i == 0 ? FragmentedMp4Writer.FLAG_KEY_FRAME : 0);
+        }
+        //不调用 finish，模拟录制中被杀
+        Mp4BoxValidator.Result result = Mp4BoxValidator.validate(output.toByteArray());
+        assertTrue(result.fragmentCount >= 4);
+        assertEquals(writer.getFragmentCount(), result.fragmentCount);
+        //最后一个样本时长未知，还在缓存里
+        int written = result.track("vide").sizes.size();
+        assertTrue(written < 30 && written >= 24);
+    }
+
+    @Test
+    public void bufferedBytesStayBounded() throws Exception {
+        int maxBytes = 4096;
+        FragmentedMp4Writer writer = create(60 * 1000 * 1000, false, maxBytes);
+        int audio = writer.addTrack(TrackFormat.aac(16000, 1, ASC));
+        writer.start();
+        ByteBuffer sample = ByteBuffer.allocateDirect(300);
+        for (int i = 0; i < 2000; i++) {
+            writer.writeSample(audio, sample, 0, 300, i * AUDIO_FRAME_US, 0);
+            assertTrue(writer.bufferedBytes() <= maxBytes);
+        }
+        writer.finish();
+        Mp4BoxValidator.Result result = Mp4BoxValidator.validate(output.toByteArray());
+        assertEquals(2000, result.track("soun").sizes.size());
+        assertTrue(result.fragmentCount > 100);
+    }
+
+    @Test
+    public void codecConfigSamplesAreSkipped() throws Exception {
+        FragmentedMp4Writer writer = create(FragmentedMp4Writer.DEFAULT_FRAGMENT_DURATION_US, true, 1024 * 1024);
+        int video = writer.addTrack(TrackFormat.avc(320, 240, SPS, PPS));
+        writer.start();
+        ByteBuffer config = ByteBuffer.wrap(concat(new byte[]{0, 0, 0, 1}, SPS));
+        writer.writeSample(video, config, 0, config.limit(), 0, FragmentedMp4Writer.FLAG_CODEC_CONFIG);
+        //3 字节起始码和 AUD
+        ByteBuffer frame = ByteBuffer.wrap(new byte[]{0, 0, 1, 0x09, (byte) 0xF0, 0, 0, 1, 0x65, 1, 2});
+        writer.writeSample(video, frame, 0, frame.limit(), 0, FragmentedMp4Writer.FLAG_KEY_FRAME);
+        writer.finish();
+        Mp4BoxValidator.TrackSamples samples = Mp4BoxValidator.validate(output.toByteArray()).track("vide");
+        assertEquals(1, samples.sizes.size());
+        assertArrayEquals(new byte[]{0, 0, 0, 3, 0x65, 1, 2}, samples.data.get(0));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void writeBeforeStartFails() throws Exception {
+        FragmentedMp4Writer writer = create(FragmentedMp4Writer.DEFAULT_FRAGMENT_DURATION_US, true, 1024);
+        int audio = writer.addTrack(TrackFormat.aac(16000, 1, ASC));
+        writer.writeSample(audio, ByteBuffer.allocate(4), 0, 4, 0, 0);
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
@@ -0,0 +1,237 @@
+package com.hm.androidrecorder.mp4;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 分片 MP4 的 box 级校验，测试用
+ * <p>
+ * 检查 box 长度嵌套、ftyp/moov/(moof,mdat)* 顺序、moov 里必需的 box、分片序号连续、
+ * tfdt 与上一分片时长衔接、trun 的数据范围正好铺满紧跟的 mdat。校验失败抛 AssertionError。
+ */
+class Mp4BoxValidator {
+
+    /**
+     * 单个轨道解析出的样本
+     */
+    static final class TrackSamples {
+        final int trackId;
+        final String handler;
+        final List<Integer> sizes = new ArrayList<>();
+        final List<Integer> durations = new ArrayList<>();
+        final List<Integer> flags = new ArrayList<>();
+        final List<byte[]> data = new ArrayList<>();
+        //每个分片第一个样本在 sizes 中的下标
+        final List<Integer> fragmentStarts = new ArrayList<>();
+        long nextDecodeTime = -1;
+
+        TrackSamples(int trackId, String handler) {
+            this.trackId = trackId;
+            this.handler = handler;
+        }
+    }
+
+    static final class Result {
+        int fragmentCount;
+        final Map<Integer, TrackSamples> tracks = new HashMap<>();
+        byte[] avcC;
+        byte[] esds;
+
+        TrackSamples track(String handler) {
+            for (TrackSamples t : tracks.values()) {
+                if (t.handler.equals(handler)) {
+                    return t;
+                }
+            }
+            throw new AssertionError("no " + handler + " track");
+        }
+    }
+
+    private static final String[] CONTAINERS = {"moov", "trak", "mdia", "minf", "dinf", "stbl", "mvex", "moof", "traf"};
+
+    static Result validate(byte[] file) {
+        ByteBuffer buffer = ByteBuffer.wrap(file);
+        Result result = new Result();
+        List<int[]> boxes = children(buffer, 0, file.length);
+        check(boxes.size() >= 2, "file needs ftyp and moov");
+        check("ftyp".equals(type(buffer, boxes.get(0))), "first box must be ftyp");
+        check("moov".equals(type(buffer, boxes.get(1))), "second box must be moov");
+        parseMoov(buffer, boxes.get(1), result);
+        int sequence = 0;
+        for (int i = 2; i < boxes.size(); i += 2) {
+            check("moof".equals(type(buffer, boxes.get(i))), "expected moof at " + boxes.get(i)[0]);
+            check(i + 1 < boxes.size() && "mdat".equals(type(buffer, boxes.get(i + 1))), "moof without mdat");
+            sequence++;
+            parseFragment(buffer, boxes.get(i), boxes.get(i + 1), sequence, result);
+        }
+        result.fragmentCount = sequence;
+        return result;
+    }
+
+    private static void parseMoov(ByteBuffer buffer, int[] moov, Result result) {
+        List<int[]> boxes = containerChildren(buffer, moov);
+        check(find(buffer, boxes, "mvhd") != null, "moov without mvhd");
+        List<Integer> trexIds = new ArrayList<>();
+        int[] mvex = find(buffer, boxes, "mvex");
+        check(mvex != null, "moov without mvex");
+        for (int[] trex : containerChildren(buffer, mvex)) {
+            check("trex".equals(type(buffer, trex)), "unexpected box in mvex");
+            trexIds.add(buffer.getInt(trex[0] + 12));
+        }
+        for (int[] trak : boxes) {
+            if (!"trak".equals(type(buffer, trak))) {
+                continue;
+            }
+            List<int[]> trakBoxes = containerChildren(buffer, trak);
+            int[] tkhd = require(buffer, trakBoxes, "tkhd");
+            int trackId = buffer.getInt(tkhd[0] + 20);
+            check(trexIds.contains(trackId), "no trex for track " + trackId);
+            List<int[]> mdia = containerChildren(buffer, require(buffer, trakBoxes, "mdia"));
+            require(buffer, mdia, "mdhd");
+            String handler = fourCC(buffer, require(buffer, mdia, "hdlr")[0] + 16);
+            List<int[]> minf = containerChildren(buffer, require(buffer, mdia, "minf"));
+            require(buffer, minf, handler.equals("vide") ? "vmhd" : "smhd");
+            require(buffer, minf, "dinf");
+            List<int[]> stbl = containerChildren(buffer, require(buffer, minf, "stbl"));
+            for (String type : new String[]{"stts", "stsc", "stsz", "stco"}) {
+                require(buffer, stbl, type);
+            }
+            int[] stsd = require(buffer, stbl, "stsd");
+            check(buffer.getInt(stsd[0] + 12) == 1, "stsd entry count");
+            List<int[]> entries = children(buffer, stsd[0] + 16, stsd[0] + stsd[1]);
+            check(entries.size() == 1, "stsd must hold one entry");
+            int[] entry = entries.get(0);
+            if (handler.equals("vide")) {
+                check("avc1".equals(type(buffer, entry)), "video entry must be avc1");
+                int[] avcC = require(buffer, children(buffer, entry[0] + 86, entry[0] + entry[1]), "avcC");
+                result.avcC = bytes(buffer, avcC[0] + 8, avcC[1] - 8);
+            } else {
+                check("mp4a".equals(type(buffer, entry)), "audio entry must be mp4a");
+                int[] esds = require(buffer, children(buffer, entry[0] + 36, entry[0] + entry[1]), "esds");
+                result.esds = bytes(buffer, esds[0] + 12, esds[1] - 12);
+            }
+            result.tracks.put(trackId, new TrackSamples(trackId, handler));
+        }
+        check(!result.tracks.isEmpty(), "moov without trak");
+    }
+
+    private static void parseFragment(ByteBuffer buffer, int[] moof, int[] mdat, int sequence, Result result) {
+        List<int[]> boxes = containerChildren(buffer, moof);
+        int[] mfhd = require(buffer, boxes, "mfhd");
+        check(buffer.getInt(mfhd[0] + 12) == sequence, "mfhd sequence " + buffer.getInt(mfhd[0] + 12) + " != " + sequence);
+        int mdatStart = mdat[0] + 8;
+        int mdatEnd = mdat[0] + mdat[1];
+        int expectedOffset = mdatStart;
+        for (int[] traf : boxes) {
+            if (!"traf".equals(type(buffer, traf))) {
+                continue;
+            }
+            List<int[]> trafBoxes = containerChildren(buffer, traf);
+            int[] tfhd = require(buffer, trafBoxes, "tfhd");
+            check((buffer.getInt(tfhd[0] + 8) & 0xFFFFFF) == 0x020000, "tfhd must be default-base-is-moof");
+            TrackSamples track = result.tracks.get(buffer.getInt(tfhd[0] + 12));
+            check(track != null, "traf for unknown track");
+            int[] tfdt = require(buffer, trafBoxes, "tfdt");
+            check(buffer.get(tfdt[0] + 8) == 1, "tfdt must be version 1");
+            long decodeTime = buffer.getLong(tfdt[0] + 12);
+            check(track.nextDecodeTime < 0 || decodeTime == track.nextDecodeTime,
+                    "tfdt " + decodeTime + " != " + track.nextDecodeTime + " for track " + track.trackId);
+            int[] trun = require(buffer, trafBoxes, "trun");
+            int flags = buffer.getInt(trun[0] + 8) & 0xFFFFFF;
+            check(flags == 0x000701, "unexpected trun flags " + Integer.toHexString(flags));
+            int count = buffer.getInt(trun[0] + 12);
+            check(trun[1] == 20 + count * 12, "trun size");
+            int offset = moof[0] + buffer.getInt(trun[0] + 16);
+            check(offset == expectedOffset, "trun data must follow the previous run: " + offset + " != " + expectedOffset);
+            track.fragmentStarts.add(track.sizes.size());
+            long duration = 0;
+            for (int i = 0; i < count; i++) {
+                int p = trun[0] + 20 + i * 12;
+                int sampleDuration = buffer.getInt(p);
+                int size = buffer.getInt(p + 4);
+                check(sampleDuration > 0, "zero duration");
+                check(offset + size <= mdatEnd, "sample outside mdat");
+                track.durations.add(sampleDuration);
+                track.sizes.add(size);
+                track.flags.add(buffer.getInt(p + 8));
+                track.data.add(bytes(buffer, offset, size));
+                offset += size;
+                duration += sampleDuration;
+            }
+            track.nextDecodeTime = decodeTime + duration;
+            expectedOffset = offset;
+        }
+        check(expectedOffset == mdatEnd, "mdat has " + (mdatEnd - expectedOffset) + " unreferenced bytes");
+    }
+
+    private static List<int[]> containerChildren(ByteBuffer buffer, int[] box) {
+        return children(buffer, box[0] + 8, box[0] + box[1]);
+    }
+
+    /**
+     * 解析 [start, end) 里的 box 序列，每项是 {起点, 长度}，长度必须正好铺满范围
+     */
+    private static List<int[]> children(ByteBuffer buffer, int start, int end) {
+        List<int[]> boxes = new ArrayList<>();
+        int position = start;
+        while (position < end) {
+            check(end - position >= 8, "truncated box header at " + position);
+            int size = buffer.getInt(position);
+            check(size >= 8 && position + size <= end, "bad box size " + size + " at " + position);
+            int[] box = {position, size};
+            boxes.add(box);
+            String type = type(buffer, box);
+            for (String container : CONTAINERS) {
+                if (container.equals(type)) {
+                    children(buffer, position + 8, position + size);
+                }
+            }
+            position += size;
+        }
+        return boxes;
+    }
+
+    private static int[] find(ByteBuffer buffer, List<int[]> boxes, String type) {
+        for (int[] box : boxes) {
+            if (type.equals(type(buffer, box))) {
+                return box;
+            }
+        }
+        return null;
+    }
+
+    private static int[] require(ByteBuffer buffer, List<int[]> boxes, String type) {
+        int[] box = find(buffer, boxes, type);
+        check(box != null, "missing " + type);
+        return box;
+    }
+
+    private static String type(ByteBuffer buffer, int[] box) {
+        return fourCC(buffer, box[0] + 4);
+    }
+
+    private static String fourCC(ByteBuffer buffer, int position) {
+        char[] chars = new char[4];
+        for (int i = 0; i < 4; i++) {
+            chars[i] = (char) buffer.get(position + i);
+        }
+        return new String(chars);
+    }
+
+    private static byte[] bytes(ByteBuffer buffer, int position, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(position + i);
+        }
+        return bytes;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.hm.androidrecorder.mp4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+import static org.junit.Assert.*;
+
+/**
+ * SampleJournal / JournalRecovery 单元测试：写日志、模拟崩溃截断，恢复出的文件经过 {@link Mp4BoxValidator} 校验
+ */
+public class SampleJournalTest {
+
+    private static final byte[] SPS = {0x67, 0x42, (byte) 0x80, 0x1F, 0x11, 0x22};
+    private static final byte[] PPS = {0x68, (byte) 0xCE, 0x06, (byte) 0xE2};
+    private static final byte[] ASC = {0x14, 0x08};
+    private static final long FRAME_US = 1000000 / 30;
+    private static final long AUDIO_FRAME_US = 64000;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("samples", ".journal");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * 两秒的音视频，每秒一个关键帧；视频帧用 direct 缓存，和编码器输出一样
+     *
+     * @return 写入的样本数
+     */
+    private int writeJournal() throws IOException {
+        SampleJournal journal = new SampleJournal(file, SampleJournal.DEFAULT_SYNC_INTERVAL_MS);
+        journal.addTrack(0, TrackFormat.avc(640, 480, SPS, PPS));
+        journal.addTrack(1, TrackFormat.aac(16000, 1, ASC));
+        ByteBuffer frame = ByteBuffer.allocateDirect(256);
+        int samples = 0;
+        int audio = 0;
+        for (int i = 0; i < 60; i++) {
+            long pts = 1000000 + i * FRAME_US;
+            while (1000000 + audio * AUDIO_FRAME_US <= pts) {
+                ByteBuffer aac = ByteBuffer.wrap(new byte[]{9, 9, 1, 2, 3, (byte) audio});
+                //只写中间 4 字节
+                journal.writeSample(1, aac, 2, 4, 1000000 + audio * AUDIO_FRAME_US, 0);
+                assertEquals(0, aac.position());
+                assertEquals(6, aac.limit());
+                audio++;
+                samples++;
+            }
+            boolean key = i % 30 == 0;
+            frame.clear();
+            frame.put(new byte[]{0, 0, 0, 1, (byte) (key ? 0x65 : 0x41), (byte) i, 0x10, 0x20});
+            frame.flip();
+            journal.writeSample(0, frame, 0, frame.limit(), pts, key ? FragmentedMp4Writer.FLAG_KEY_FRAME : 0);
+            samples++;
+        }
+        assertEquals(samples, journal.getSampleCount());
+        journal.close();
+        assertEquals(file.length(), journal.getBytesWritten());
+        assertTrue(journal.getSyncCount() >= 3);
+        return samples;
+    }
+
+    private JournalRecovery.Result recover(ByteArrayOutputStream output) throws IOException {
+        return JournalRecovery.recover(file, Channels.newChannel(output));
+    }
+
+    @Test
+    public void recoversEverySampleFromCompleteJournal() throws IOException {
+        int samples = writeJournal();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        JournalRecovery.Result result = recover(output);
+        assertEquals(2, result.trackCount);
+        assertEquals(samples, result.sampleCount);
+        assertFalse(result.truncated);
+
+        Mp4BoxValidator.Result mp4 = Mp4BoxValidator.validate(output.toByteArray());
+        Mp4BoxValidator.TrackSamples video = mp4.track("vide");
+        assertEquals(60, video.sizes.size());
+        assertArrayEquals(new byte[]{0, 0, 0, 4, 0x65, 0, 0x10, 0x20}, video.data.get(0));
+        assertArrayEquals(new byte[]{0, 0, 0, 4, 0x41, 59, 0x10, 0x20}, video.data.get(59));
+        Mp4BoxValidator.TrackSamples sound = mp4.track("soun");
+        assertEquals(samples - 60, sound.sizes.size());
+        assertArrayEquals(new byte[]{1, 2, 3, 0}, sound.data.get(0));
+        assertEquals(2, mp4.fragmentCount);
+    }
+
+    @Test
+    public void crashInsideRecordKeepsEverythingBefore() throws IOException {
+        int samples = writeJournal();
+        long length = file.length();
+        //最后一个视频帧 22+8 字节，砍掉 5 字节落在它的数据里
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(length - 5);
+        raf.close();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        JournalRecovery.Result result = recover(output);
+        assertTrue(result.truncated);
+        assertEquals(samples - 1, result.sampleCount);
+        assertEquals(59, Mp4BoxValidator.validate(output.toByteArray()).track("vide").sizes.size());
+    }
+
+    @Test
+    public void zeroFilledTailIsIgnored() throws IOException {
+        int samples = writeJournal();
+        //掉电后文件长度已经增加但数据没落盘
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(file.length() + 4096);
+        raf.close();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        JournalRecovery.Result result = recover(output);
+        assertTrue(result.truncated);
+        assertEquals(samples, result.sampleCount);
+        Mp4BoxValidator.validate(output.toByteArray());
+    }
+
+    @Test
+    public void sampleDataNotOnDiskIsDropped() throws IOException {
+        int samples = writeJournal();
+        //记录头已经落盘，最后一帧的数据还是 0
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(file.length() - 8);
+        raf.write(new byte[8]);
+        raf.close();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        JournalRecovery.Result result = recover(output);
+        assertTrue(result.truncated);
+        assertEquals(samples - 1, result.sampleCount);
+    }
+
+    @Test
+    public void emptySampleStillWritesRecordHeader() throws IOException {
+        SampleJournal journal = new SampleJournal(file, 0);
+        journal.addTrack(0, TrackFormat.avc(640, 480, SPS, PPS));
+        long before = journal.getBytesWritten();
+        journal.writeSample(0, ByteBuffer.allocateDirect(4), 0, 0, 0, FragmentedMp4Writer.FLAG_KEY_FRAME);
+        assertEquals(before + SampleJournal.RECORD_HEADER_BYTES, journal.getBytesWritten());
+        journal.close();
+        assertEquals(1, recover(new ByteArrayOutputStream()).sampleCount);
+    }
+
+    @Test
+    public void journalWithoutFormatIsRejected() throws IOException {
+        new SampleJournal(file, 0).close();
+        try {
+            recover(new ByteArrayOutputStream());
+            fail();
+        } catch (IOException expected) {
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.writeInt(0x12345678);
+        raf.close();
+        try {
+            recover(new ByteArrayOutputStream());
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.hm.androidrecorder.muxer;
+
+import com.hm.androidrecorder.codec.FakeMediaFactory;
+import com.hm.androidrecorder.metrics.PipelineMetrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * HeadlessPipeline 单元测试：真实的录制线程配假设备
+ */
+public class HeadlessPipelineTest {
+
+    private File root;
+    private FakeMediaFactory factory;
+
+    @Before
+    public void setUp() throws IOException {
+        root = File.createTempFile("headless", "");
+        root.delete();
+        root.mkdirs();
+        factory = new FakeMediaFactory(root.getPath());
+        factory.setVideoOutputSizes(2048, 512);
+    }
+
+    @After
+    public void tearDown() {
+        MediaMuxerThread.setAsyncEncoding(false);
+        MediaMuxerThread.setFragmentedOutput(false);
+        MediaMuxerThread.setSilenceSkip(false);
+        MediaMuxerThread.setAudioGain(0, 1);
+        MediaMuxerThread.setMediaFactory(null);
+        delete(root);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    @Test
+    public void pacedRunWritesBothTracks() throws Exception {
+        factory.setVideoLatencyUs(5000, 0);
+        HeadlessPipeline pipeline = new HeadlessPipeline(factory);
+        pipeline.setFrameRate(30, true);
+        HeadlessPipeline.Result result = pipeline.run(30);
+
+        assertEquals(30, result.framesCaptured);
+        //限速时机器忙可能丢几帧，丢掉的不会写进文件
+        assertTrue(result.videoSamples > 0);
+        assertTrue(result.videoSamples + result.framesDropped <= 30);
+        assertTrue(result.audioSamples > 0);
+        assertEquals(1, factory.getMuxers().size());
+        assertEquals(2, factory.getMuxers().get(0).getTrackCount());
+        assertTrue(factory.getMuxers().get(0).isStopped());
+        assertEquals(result.videoSamples, result.metrics.get(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.COUNTER_WRITTEN));
+        assertEquals(result.bytesWritten, factory.getMuxers().get(0).getBytesWritten());
+        assertTrue(result.averageLatencyUs() > 0);
+        //编码耗时从送进编码器算起，不含排队和转换
+        assertEquals(result.videoSamples, result.metrics.stage(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.STAGE_ENCODE).count);
+        assertTrue(result.metrics.stage(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.STAGE_ENCODE).meanUs() >= 5000);
+    }
+
+    @Test
+    public void unpacedRunWaitsForFreeBuffers() throws Exception {
+        factory.setVideoLatencyUs(1000, 0);
+        HeadlessPipeline pipeline = new HeadlessPipeline(factory);
+        HeadlessPipeline.Result result = pipeline.run(60);
+
+        assertEquals(60, result.framesCaptured);
+        //不限速时采集等编码腾出缓存，不丢帧
+        assertEquals(0, result.framesDropped);
+        //停止时送出结束标记并取完输出，送进去的帧都写进文件
+        assertEquals(60, result.videoSamples);
+        assertTrue(result.framesPerSecond() > 0);
+    }
+
+    @Test
+    public void asyncEncodingUsesCallbacks() throws Exception {
+        MediaMuxerThread.setAsyncEncoding(true);
+        factory.setVideoLatencyUs(5000, 0);
+        HeadlessPipeline pipeline = new HeadlessPipeline(factory);
+        pipeline.setFrameRate(30, true);
+        HeadlessPipeline.Result result = pipeline.run(30);
+
+        assertEquals(30, result.framesCaptured);
+        assertTrue(result.videoSamples > 0);
+        assertEquals(30, result.videoSamples + result.framesDropped);
+        assertTrue(result.audioSamples > 0);
+    }
+
+    @Test
+    public void silentAudioReportsSavedEncodeTime() throws Exception {
+        //增益压到 0，采集到的全是静音，1 秒后开始跳过编码
+        MediaMuxerThread.setAudioGain(-120, 1);
+        MediaMuxerThread.setSilenceSkip(true);
+        factory.setAudioLatencyUs(2000);
+        HeadlessPipeline pipeline = new HeadlessPipeline(factory);
+        pipeline.setFrameRate(30, true);
+        HeadlessPipeline.Result result = pipeline.run(75);
+
+        long skipped = result.metrics.get(PipelineMetrics.TRACK_AUDIO, PipelineMetrics.COUNTER_SKIPPED);
+        assertTrue(skipped > 0);
+        assertTrue(result.metrics.get(PipelineMetrics.TRACK_AUDIO, PipelineMetrics.COUNTER_SILENT_SKIPPED_US) > 0);
+        //每跳过一批至少省下编码器的 2ms 延迟
+        assertTrue(result.metrics.get(PipelineMetrics.TRACK_AUDIO, PipelineMetrics.COUNTER_SAVED_ENCODE_US) >= 2000);
+    }
+
+    @Test
+    public void writesFragmentedMp4() throws Exception {
+        MediaMuxerThread.setFragmentedOutput(true);
+        HeadlessPipeline pipeline = new HeadlessPipeline(factory);
+        pipeline.setFrameRate(100, true);
+        pipeline.run(50);
+
+        //分片 MP4 不经过 MediaFactory，直接写文件
+        assertTrue(factory.getMuxers().isEmpty());
+        File[] files = new File(root, "hm_muxer/media").listFiles();
+        assertNotNull(files);
+        assertEquals(1, files.length);
+        byte[] header = new byte[8];
+        FileInputStream input = new FileInputStream(files[0]);
+        try {
+            assertEquals(8, input.read(header));
+        } finally {
+            input.close();
+        }
+        assertEquals("ftyp", new String(header, 4, 4, "US-ASCII"));
+    }
+}
@@ -0,0 +1,149 @@
+package com.hm.androidrecorder.muxer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * PreRollBuffer 单元测试：30fps 视频、每秒一个关键帧，和 64ms 一帧的音频交织写入
+ */
+public class PreRollBufferTest {
+
+    private static final long FRAME_US = 1000000 / 30;
+    private static final long AUDIO_US = 64000;
+    private static final int GOP = 30;
+
+    /**
+     * 样本：{是否视频, pts, 是否关键帧, 字节数}
+     */
+    private static final class Sample {
+        final boolean video;
+        final long ptsUs;
+        final boolean keyFrame;
+        final int size;
+        boolean released;
+
+        Sample(boolean video, long ptsUs, boolean keyFrame, int size) {
+            this.video = video;
+            this.ptsUs = ptsUs;
+            this.keyFrame = keyFrame;
+            this.size = size;
+        }
+    }
+
+    private final List<Sample> released = new ArrayList<>();
+
+    private PreRollBuffer<Sample> buffer(long durationUs, long maxBytes) {
+        return new PreRollBuffer<>(durationUs, maxBytes, new PreRollBuffer.Releaser<Sample>() {
+            @Override
+            public void release(Sample sample) {
+                assertFalse("released twice", sample.released);
+                sample.released = true;
+                released.add(sample);
+            }
+        });
+    }
+
+    /**
+     * 从 startUs 开始送 durationUs 的交织样本，关键帧 20000 字节，其他视频帧 2000，音频 200
+     */
+    private static List<Sample> feed(PreRollBuffer<Sample> buffer, long startUs, long durationUs) {
+        List<Sample> samples = new ArrayList<>();
+        int video = (int) (startUs / FRAME_US);
+        int audio = (int) (startUs / AUDIO_US);
+        while (true) {
+            long videoPts = video * FRAME_US;
+            long audioPts = audio * AUDIO_US;
+            if (videoPts >= startUs + durationUs && audioPts >= startUs + durationUs) {
+                return samples;
+            }
+            Sample sample;
+            if (videoPts <= audioPts) {
+                boolean key = video % GOP == 0;
+                sample = new Sample(true, videoPts, key, key ? 20000 : 2000);
+                video++;
+            } else {
+                sample = new Sample(false, audioPts, false, 200);
+                audio++;
+            }
+            samples.add(sample);
+            buffer.add(sample.video && sample.keyFrame, sample.ptsUs, sample.size, sample);
+        }
+    }
+
+    private static List<Sample> drain(PreRollBuffer<Sample> buffer) {
+        List<Sample> out = new ArrayList<>();
+        Sample sample;
+        while ((sample = buffer.poll()) != null) {
+            out.add(sample);
+        }
+        return out;
+    }
+
+    @Test
+    public void keepsAtLeastDurationStartingAtKeyFrame() {
+        PreRollBuffer<Sample> buffer = buffer(3000000, Long.MAX_VALUE);
+        //从关键帧之前开始，前面不完整的部分不保留
+        List<Sample> all = feed(buffer, 500000, 9400000);
+        assertEquals(4, buffer.gopCount());
+        //至少 3 秒，多出来的不到一个 GOP
+        assertTrue(buffer.durationUs() >= 3000000 && buffer.durationUs() < 4000000);
+
+        List<Sample> out = drain(buffer);
+        assertTrue(out.get(0).video && out.get(0).keyFrame);
+        assertEquals(6000000, out.get(0).ptsUs, FRAME_US);
+        //取出的是连续的一段，保持写入顺序
+        int first = all.indexOf(out.get(0));
+        assertEquals(all.subList(first, all.size()), out);
+        //其余样本都已释放，取出的由调用方释放
+        assertEquals(first, released.size());
+        for (Sample sample : out) {
+            assertFalse(sample.released);
+        }
+        assertTrue(buffer.isEmpty());
+        assertEquals(0, buffer.bytes());
+    }
+
+    @Test
+    public void byteCapDropsWholeGops() {
+        //每个 GOP 约 20000 + 29 * 2000 + 16 * 200 = 81200 字节
+        PreRollBuffer<Sample> buffer = buffer(10000000, 200000);
+        feed(buffer, 0, 10000000);
+        assertTrue(buffer.bytes() <= 200000);
+        assertEquals(3, buffer.gopCount());
+        assertTrue(buffer.getDroppedBytes() > 0);
+        List<Sample> out = drain(buffer);
+        assertTrue(out.get(0).keyFrame);
+        long bytes = 0;
+        for (Sample sample : out) {
+            bytes += sample.size;
+        }
+        assertTrue(bytes <= 200000);
+    }
+
+    @Test
+    public void singleGopOverCapIsDroppedUntilNextKeyFrame() {
+        PreRollBuffer<Sample> buffer = buffer(0, 50000);
+        feed(buffer, 0, 900000);
+        //一个 GOP 都放不下，整个丢掉
+        assertTrue(buffer.isEmpty());
+        assertEquals(0, buffer.bytes());
+        //不是关键帧不接受
+        assertFalse(buffer.add(false, 950000, 2000, new Sample(true, 950000, false, 2000)));
+        assertTrue(buffer.add(true, 1000000, 20000, new Sample(true, 1000000, true, 20000)));
+        assertEquals(1, buffer.size());
+    }
+
+    @Test
+    public void clearReleasesEverything() {
+        PreRollBuffer<Sample> buffer = buffer(2000000, Long.MAX_VALUE);
+        List<Sample> all = feed(buffer, 0, 2500000);
+        buffer.clear();
+        assertTrue(buffer.isEmpty());
+        assertEquals(0, buffer.durationUs());
+        assertEquals(all.size(), released.size());
+    }
+}
@@ -0,0 +1,121 @@
+package com.hm.androidrecorder.muxer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * SampleInterleaver 单元测试，时间戳全部是构造出来的
+ */
+public class SampleInterleaverTest {
+
+    private static final int VIDEO = 0;
+    private static final int AUDIO = 1;
+
+    private final List<String> events = new ArrayList<>();
+
+    private SampleInterleaver<String> create(long windowUs, long stallUs) {
+        SampleInterleaver<String> interleaver = new SampleInterleaver<>(2, 2, windowUs, stallUs);
+        interleaver.setStallListener(new SampleInterleaver.StallListener() {
+            @Override
+            public void onTrackStalled(int track, long lagUs) {
+                events.add("stall:" + track);
+            }
+
+            @Override
+            public void onTrackRecovered(int track, long stalledUs) {
+                events.add("recover:" + track);
+            }
+        });
+        return interleaver;
+    }
+
+    @Test
+    public void poll_mergesTracksByTimestamp() {
+        SampleInterleaver<String> interleaver = create(1000000, 5000000);
+        //视频先产出一批，音频后到
+        interleaver.offer(VIDEO, 0, "v0");
+        interleaver.offer(VIDEO, 40000, "v40");
+        interleaver.offer(VIDEO, 80000, "v80");
+        assertNull(interleaver.poll());
+        interleaver.offer(AUDIO, 10000, "a10");
+        interleaver.offer(AUDIO, 50000, "a50");
+        interleaver.offer(AUDIO, 90000, "a90");
+
+        List<String> out = new ArrayList<>();
+        String s;
+        while ((s = interleaver.poll()) != null) {
+            out.add(s);
+        }
+        //a90 需要等视频走到 90ms 之后
+        assertEquals("[v0, a10, v40, a50, v80]", out.toString());
+        assertEquals(1, interleaver.size());
+        interleaver.offer(VIDEO, 120000, "v120");
+        assertEquals("a90", interleaver.poll());
+    }
+
+    @Test
+    public void poll_releasesAfterWindowWhenTrackLags() {
+        SampleInterleaver<String> interleaver = create(100000, 5000000);
+        interleaver.offer(VIDEO, 0, "v0");
+        interleaver.offer(VIDEO, 100000, "v100");
+        assertNull(interleaver.poll());
+        interleaver.offer(VIDEO, 100001, "v100+");
+        assertEquals("v0", interleaver.poll());
+        assertEquals(1, interleaver.getForcedCount());
+        assertNull(interleaver.poll());
+    }
+
+    @Test
+    public void stalledTrack_isReportedOnceAndRecovers() {
+        SampleInterleaver<String> interleaver = create(100000, 1000000);
+        interleaver.offer(AUDIO, 0, "a0");
+        interleaver.offer(VIDEO, 0, "v0");
+        interleaver.poll();
+        interleaver.poll();
+        for (long pts = 20000; pts <= 2000000; pts += 20000) {
+            interleaver.offer(AUDIO, pts, "a" + pts);
+            while (interleaver.poll() != null) {
+                //写入
+            }
+        }
+        assertTrue(interleaver.isStalled(VIDEO));
+        assertEquals(1, interleaver.getStallCount());
+        assertEquals("[stall:0]", events.toString());
+
+        interleaver.offer(VIDEO, 2000000, "v2000");
+        assertFalse(interleaver.isStalled(VIDEO));
+        assertEquals("[stall:0, recover:0]", events.toString());
+    }
+
+    @Test
+    public void draining_flushesEverythingInOrder() {
+        SampleInterleaver<String> interleaver = create(1000000, 5000000);
+        interleaver.offer(VIDEO, 30, "v30");
+        interleaver.offer(VIDEO, 10, "v10-late");
+        interleaver.offer(AUDIO, 20, "a20");
+        interleaver.setDraining(true);
+        //同一轨道内保持 FIFO
+        assertEquals("a20", interleaver.poll());
+        assertEquals("v30", interleaver.poll());
+        assertEquals("v10-late", interleaver.poll());
+        assertNull(interleaver.poll());
+        assertTrue(interleaver.isEmpty());
+    }
+
+    @Test
+    public void queues_growBeyondInitialCapacity() {
+        SampleInterleaver<String> interleaver = create(Long.MAX_VALUE / 2, Long.MAX_VALUE / 2);
+        for (int i = 0; i < 100; i++) {
+            interleaver.offer(VIDEO, i, "v" + i);
+        }
+        assertEquals(100, interleaver.size(VIDEO));
+        interleaver.setDraining(true);
+        for (int i = 0; i < 100; i++) {
+            assertEquals("v" + i, interleaver.poll());
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.hm.androidrecorder.muxer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * SegmentPolicy 单元测试：交织后的音视频样本按切换点分到各个文件，检查不丢不重、关键帧对齐
+ */
+public class SegmentPolicyTest {
+
+    private static final long FRAME_US = 1000000 / 30;
+    private static final long AUDIO_US = 64000;
+
+    /**
+     * 生成交织后的样本序列，每项 {是否视频, pts, 是否关键帧}
+     */
+    private static List<long[]> interleaved(long durationUs, int gop) {
+        List<long[]> samples = new ArrayList<>();
+        int video = 0;
+        int audio = 0;
+        while (true) {
+            long videoPts = video * FRAME_US;
+            long audioPts = audio * AUDIO_US;
+            if (videoPts >= durationUs && audioPts >= durationUs) {
+                return samples;
+            }
+            if (videoPts <= audioPts) {
+                samples.add(new long[]{1, videoPts, video % gop == 0 ? 1 : 0});
+                video++;
+            } else {
+                samples.add(new long[]{0, audioPts, 0});
+                audio++;
+            }
+        }
+    }
+
+    @Test
+    public void rollsOverAtFirstKeyFrameAfterDuration() {
+        SegmentPolicy policy = new SegmentPolicy(2000000, 0);
+        List<List<long[]>> segments = new ArrayList<>();
+        segments.add(new ArrayList<long[]>());
+        List<long[]> samples = interleaved(10000000, 45);
+        for (long[] s : samples) {
+            if (policy.onSample(s[0] == 1, s[1], 100, s[2] == 1)) {
+                segments.add(new ArrayList<long[]>());
+            }
+            segments.get(segments.size() - 1).add(s);
+        }
+        int total = 0;
+        long lastPts = -1;
+        for (int i = 0; i < segments.size(); i++) {
+            List<long[]> segment = segments.get(i);
+            total += segment.size();
+            if (i > 0) {
+                //新文件从视频关键帧开始，之前的样本都在旧文件里
+                long[] first = segment.get(0);
+                assertEquals(1, first[0]);
+                assertEquals(1, first[2]);
+                assertTrue(first[1] >= lastPts);
+            }
+            lastPts = segment.get(segment.size() - 1)[1];
+        }
+        assertEquals(samples.size(), total);
+        //GOP 1.5 秒，超过 2 秒后在 3 秒、6 秒、9 秒的关键帧切换
+        assertEquals(4, segments.size());
+        assertEquals(3, policy.getSegmentIndex());
+        assertEquals(3000000, segments.get(1).get(0)[1], FRAME_US);
+    }
+
+    @Test
+    public void sizeLimitWaitsForKeyFrame() {
+        SegmentPolicy policy = new SegmentPolicy(0, 1000);
+        assertFalse(policy.onSample(true, 0, 600, true));
+        assertFalse(policy.isRolloverPending());
+        assertFalse(policy.onSample(true, FRAME_US, 600, false));
+        assertTrue(policy.isRolloverPending());
+        //音频和非关键帧不切换
+        assertFalse(policy.onSample(false, FRAME_US + 1, 100, true));
+        assertFalse(policy.onSample(true, 2 * FRAME_US, 100, false));
+        assertTrue(policy.onSample(true, 3 * FRAME_US, 100, true));
+        assertFalse(policy.isRolloverPending());
+        assertEquals(100, policy.getSegmentBytes());
+    }
+
+    @Test
+    public void noLimitsNeverRollsOver() {
+        SegmentPolicy policy = new SegmentPolicy(0, 0);
+        for (long[] s : interleaved(5000000, 30)) {
+            assertFalse(policy.onSample(s[0] == 1, s[1], 10000, s[2] == 1));
+        }
+        assertEquals(0, policy.getSegmentIndex());
+    }
+}
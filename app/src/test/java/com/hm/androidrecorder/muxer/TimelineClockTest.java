@@ -0,0 +1,88 @@
+package com.hm.androidrecorder.muxer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * TimelineClock 单元测试
+ */
+public class TimelineClockTest {
+
+    @Test
+    public void withoutPauseTimesPassThrough() {
+        TimelineClock clock = new TimelineClock();
+        assertEquals(123456, clock.toTimelineUs(123456));
+        clock.resume(200000);
+        assertEquals(0, clock.getPauseCount());
+        assertEquals(250000, clock.toTimelineUs(250000));
+    }
+
+    @Test
+    public void pausedIntervalsAreRemoved() {
+        TimelineClock clock = new TimelineClock();
+        clock.pause(1000000);
+        assertTrue(clock.isPaused());
+        assertEquals(TimelineClock.DROPPED, clock.toTimelineUs(1000000));
+        //暂停前采集、暂停后才写的样本不受影响
+        assertEquals(999000, clock.toTimelineUs(999000));
+        clock.resume(4000000);
+        assertFalse(clock.isPaused());
+        assertEquals(3000000, clock.getPausedDurationUs());
+        //恢复后的第一个样本接在暂停点上
+        assertEquals(1000000, clock.toTimelineUs(4000000));
+        assertEquals(1033333, clock.toTimelineUs(4033333));
+        assertEquals(TimelineClock.DROPPED, clock.toTimelineUs(2500000));
+
+        clock.pause(5000000);
+        clock.pause(5500000);
+        clock.resume(6000000);
+        assertEquals(4000000, clock.getPausedDurationUs());
+        assertEquals(1999999, clock.toTimelineUs(4999999));
+        assertEquals(2000000, clock.toTimelineUs(6000000));
+        assertEquals(TimelineClock.DROPPED, clock.toTimelineUs(5999999));
+        assertEquals(500000, clock.toTimelineUs(500000));
+    }
+
+    @Test
+    public void bothTracksStayContinuousAcrossManyPauses() {
+        TimelineClock clock = new TimelineClock();
+        long videoStep = 33333;
+        long audioStep = 64000;
+        long lastVideo = -1;
+        long lastAudio = -1;
+        long captured = 0;
+        //录 1 秒停 1 秒，重复 10 次，比初始容量多，会扩容
+        for (long t = 0; t < 20000000; t += 1000) {
+            long second = t / 1000000;
+            if (second % 2 == 1 && !clock.isPaused()) {
+                clock.pause(t);
+            } else if (second % 2 == 0 && clock.isPaused()) {
+                clock.resume(t);
+            }
+            if (t % videoStep < 1000) {
+                long pts = clock.toTimelineUs(t);
+                if (pts != TimelineClock.DROPPED) {
+                    assertTrue(pts > lastVideo);
+                    //相邻两帧的间隔不会超过一帧，暂停没留下空白
+                    assertTrue(lastVideo < 0 || pts - lastVideo <= videoStep + 1000);
+                    lastVideo = pts;
+                    captured++;
+                }
+            }
+            if (t % audioStep == 0) {
+                long pts = clock.toTimelineUs(t);
+                if (pts != TimelineClock.DROPPED) {
+                    //暂停点不和采样块对齐，跨暂停时间隔不超过两块
+                    assertTrue(lastAudio < 0 || (pts > lastAudio && pts - lastAudio < 2 * audioStep));
+                    lastAudio = pts;
+                }
+            }
+        }
+        assertEquals(9, clock.getPauseCount());
+        assertTrue(clock.isPaused());
+        assertEquals(9000000, clock.getPausedDurationUs());
+        assertTrue(lastVideo < 10000000);
+        assertTrue("captured " + captured, captured >= 290 && captured <= 310);
+    }
+}
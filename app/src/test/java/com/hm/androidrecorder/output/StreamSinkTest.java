@@ -0,0 +1,106 @@
+package com.hm.androidrecorder.output;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * ChannelSink / MappedFileSink 单元测试：写入内容、position 推进和文件长度
+ */
+public class StreamSinkTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("sink", ".h264");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void channelSink_gathersPrefixAndFrame() throws IOException {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (ChannelSink sink = new ChannelSink(file)) {
+            writeFrames(sink, expected);
+            assertEquals(expected.size(), sink.getBytesWritten());
+        }
+        assertArrayEquals(expected.toByteArray(), read(file));
+    }
+
+    @Test
+    public void mappedSink_spansRegionsAndTruncates() throws IOException {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        MappedFileSink sink = new MappedFileSink(file, 1000);
+        try {
+            writeFrames(sink, expected);
+            assertEquals(expected.size(), sink.getBytesWritten());
+            assertTrue(sink.getRegionCount() > 1);
+        } finally {
+            sink.close();
+        }
+        assertEquals(expected.size(), file.length());
+        assertArrayEquals(expected.toByteArray(), read(file));
+    }
+
+    /**
+     * 每 5 帧一个关键帧，前面带 SPS/PPS；帧数据放在 direct 缓存中间，模拟编码器的 offset
+     */
+    private static void writeFrames(StreamSink sink, ByteArrayOutputStream expected) throws IOException {
+        ByteBuffer config = ByteBuffer.allocateDirect(8);
+        for (int i = 0; i < 8; i++) {
+            config.put((byte) (0x60 + i));
+        }
+        config.flip();
+        ByteBuffer output = ByteBuffer.allocateDirect(512);
+        for (int frame = 0; frame < 20; frame++) {
+            int size = 100 + frame * 13;
+            output.clear();
+            for (int i = 0; i < output.capacity(); i++) {
+                output.put(i, (byte) (frame * 31 + i));
+            }
+            output.position(16);
+            output.limit(16 + size);
+            boolean keyFrame = frame % 5 == 0;
+            if (keyFrame) {
+                for (int i = 0; i < config.capacity(); i++) {
+                    expected.write(config.get(i));
+                }
+            }
+            for (int i = 16; i < 16 + size; i++) {
+                expected.write(output.get(i));
+            }
+            if (keyFrame) {
+                config.rewind();
+                sink.write(config, output);
+                assertFalse(config.hasRemaining());
+            } else {
+                sink.write(output);
+            }
+            assertFalse(output.hasRemaining());
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (FileInputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+}
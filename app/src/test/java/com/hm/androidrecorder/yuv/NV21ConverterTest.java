@@ -0,0 +1,69 @@
+package com.hm.androidrecorder.yuv;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * NV21Converter 单元测试
+ */
+public class NV21ConverterTest {
+
+    @Test
+    public void scalar_swapsChromaPairsAndKeepsLuma() {
+        //2x2：4 个 Y，一对 VU
+        byte[] nv21 = {1, 2, 3, 4, 10, 20};
+        byte[] nv12 = new byte[6];
+        NV21Converter.convertScalar(nv21, nv12, 2, 2);
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 20, 10}, nv12);
+    }
+
+    @Test
+    public void swapPairs_swapsEveryAdjacentByte() {
+        assertEquals(0x2211443366558877L, NV21Converter.swapPairs(0x1122334455667788L));
+    }
+
+    @Test
+    public void convert_matchesScalarForCommonAndOddSizes() {
+        int[][] sizes = {{2, 2}, {6, 2}, {10, 6}, {176, 144}, {1280, 720}};
+        Random random = new Random(1);
+        NV21Converter converter = new NV21Converter();
+        for (int[] size : sizes) {
+            int length = size[0] * size[1] * 3 / 2;
+            byte[] nv21 = new byte[length];
+            random.nextBytes(nv21);
+            byte[] expected = new byte[length];
+            byte[] actual = new byte[length];
+            NV21Converter.convertScalar(nv21, expected, size[0], size[1]);
+            converter.convert(nv21, actual, size[0], size[1]);
+            assertArrayEquals(size[0] + "x" + size[1], expected, actual);
+        }
+    }
+
+    @Test
+    public void convert_reusesCachedViewsAcrossFrames() {
+        NV21Converter converter = new NV21Converter();
+        byte[] nv21 = new byte[64 * 48 * 3 / 2];
+        byte[] nv12 = new byte[nv21.length];
+        byte[] expected = new byte[nv21.length];
+        Random random = new Random(2);
+        for (int i = 0; i < 3; i++) {
+            random.nextBytes(nv21);
+            converter.convert(nv21, nv12, 64, 48);
+            NV21Converter.convertScalar(nv21, expected, 64, 48);
+            assertArrayEquals(expected, nv12);
+        }
+    }
+
+    @Test
+    public void convert_worksInPlace() {
+        byte[] frame = new byte[16 * 16 * 3 / 2];
+        new Random(3).nextBytes(frame);
+        byte[] expected = new byte[frame.length];
+        NV21Converter.convertScalar(frame, expected, 16, 16);
+        new NV21Converter().convert(frame, frame, 16, 16);
+        assertArrayEquals(expected, frame);
+    }
+}
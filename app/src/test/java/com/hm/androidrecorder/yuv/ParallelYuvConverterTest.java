@@ -0,0 +1,63 @@
+package com.hm.androidrecorder.yuv;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * ParallelYuvConverter 单元测试：分段并行的结果必须和串行转换逐字节一致
+ */
+public class ParallelYuvConverterTest {
+
+    private static final int WIDTH = 36;
+    private static final int HEIGHT = 522;
+
+    @Test
+    public void convert_matchesSerialForAllFormatPairs() {
+        ParallelYuvConverter parallel = new ParallelYuvConverter(4, 0);
+        YuvConverter serial = new YuvConverter();
+        Random random = new Random(11);
+        try {
+            assertTrue(parallel.isParallel(WIDTH, HEIGHT));
+            for (YuvFormat from : YuvFormat.values()) {
+                for (YuvFormat to : YuvFormat.values()) {
+                    YuvLayout[] inputs = {YuvLayout.packed(from, WIDTH, HEIGHT), YuvLayout.aligned(from, WIDTH, HEIGHT, 16)};
+                    YuvLayout[] outputs = {YuvLayout.packed(to, WIDTH, HEIGHT), YuvLayout.of(to, WIDTH, HEIGHT, 64, 528)};
+                    for (YuvLayout in : inputs) {
+                        for (YuvLayout out : outputs) {
+                            byte[] src = new byte[in.frameSize()];
+                            random.nextBytes(src);
+                            ByteBuffer expected = ByteBuffer.allocate(out.frameSize());
+                            ByteBuffer actual = ByteBuffer.allocateDirect(out.frameSize());
+                            int expectedSize = serial.convert(src, in, expected, out);
+                            int size = parallel.convert(src, in, actual, out);
+                            assertEquals(expectedSize, size);
+                            assertEquals(0, actual.position());
+                            assertEquals(size, actual.limit());
+                            byte[] result = new byte[size];
+                            actual.get(result);
+                            assertArrayEquals(in + " -> " + out, expected.array(), result);
+                        }
+                    }
+                }
+            }
+        } finally {
+            parallel.shutdown();
+        }
+    }
+
+    @Test
+    public void convert_belowThresholdStaysSerial() {
+        ParallelYuvConverter converter = new ParallelYuvConverter(4);
+        try {
+            assertFalse(converter.isParallel(1920, 1080));
+            assertTrue(converter.isParallel(3840, 2160));
+            assertFalse(new ParallelYuvConverter(1, 0).isParallel(3840, 2160));
+        } finally {
+            converter.shutdown();
+        }
+    }
+}
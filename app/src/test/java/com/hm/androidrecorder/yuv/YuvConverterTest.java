@@ -0,0 +1,132 @@
+package com.hm.androidrecorder.yuv;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * YuvConverter 单元测试：按排布逐像素写入、读出，与转换结果比对
+ */
+public class YuvConverterTest {
+
+    private static final int WIDTH = 20;
+    private static final int HEIGHT = 6;
+
+    @Test
+    public void convert_allFormatPairsWithPadding() {
+        Random random = new Random(7);
+        byte[][] planes = randomPlanes(random);
+        YuvConverter converter = new YuvConverter();
+        for (YuvFormat from : YuvFormat.values()) {
+            for (YuvFormat to : YuvFormat.values()) {
+                YuvLayout[] inputs = {YuvLayout.packed(from, WIDTH, HEIGHT), YuvLayout.aligned(from, WIDTH, HEIGHT, 16)};
+                YuvLayout[] outputs = {YuvLayout.packed(to, WIDTH, HEIGHT), YuvLayout.aligned(to, WIDTH, HEIGHT, 16), YuvLayout.of(to, WIDTH, HEIGHT, 64, 8)};
+                for (YuvLayout in : inputs) {
+                    for (YuvLayout out : outputs) {
+                        byte[] src = write(in, planes);
+                        ByteBuffer dst = ByteBuffer.allocateDirect(out.frameSize());
+                        int size = converter.convert(src, in, dst, out);
+                        assertEquals(out.frameSize(), size);
+                        assertEquals(0, dst.position());
+                        assertEquals(size, dst.limit());
+                        byte[] result = new byte[size];
+                        dst.get(result);
+                        byte[][] actual = read(out, result);
+                        for (int p = 0; p < 3; p++) {
+                            assertArrayEquals(in + " -> " + out + " plane " + p, planes[p], actual[p]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void convert_packedNv21ToNv12MatchesNV21Converter() {
+        byte[] nv21 = new byte[WIDTH * HEIGHT * 3 / 2];
+        new Random(8).nextBytes(nv21);
+        byte[] expected = new byte[nv21.length];
+        NV21Converter.convertScalar(nv21, expected, WIDTH, HEIGHT);
+        ByteBuffer dst = ByteBuffer.allocate(nv21.length);
+        new YuvConverter().convert(nv21, YuvLayout.packed(YuvFormat.NV21, WIDTH, HEIGHT), dst, YuvLayout.packed(YuvFormat.NV12, WIDTH, HEIGHT));
+        assertArrayEquals(expected, dst.array());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void convert_rejectsSmallDestination() {
+        YuvLayout layout = YuvLayout.packed(YuvFormat.NV12, WIDTH, HEIGHT);
+        new YuvConverter().convert(new byte[layout.frameSize()], layout, ByteBuffer.allocate(10), layout);
+    }
+
+    @Test
+    public void colorFormats_prefersSemiPlanar() {
+        assertEquals(ColorFormats.COLOR_FormatYUV420SemiPlanar,
+                ColorFormats.select(new int[]{ColorFormats.COLOR_FormatYUV420Planar, ColorFormats.COLOR_FormatYUV420SemiPlanar}));
+        assertEquals(ColorFormats.COLOR_FormatYUV420Planar, ColorFormats.select(new int[]{0x7f420888, ColorFormats.COLOR_FormatYUV420Planar}));
+        assertEquals(-1, ColorFormats.select(new int[]{0x7f420888}));
+        assertEquals(YuvFormat.I420, ColorFormats.toYuvFormat(ColorFormats.COLOR_FormatYUV420PackedPlanar));
+        assertNull(ColorFormats.toYuvFormat(0x7f420888));
+    }
+
+    private static byte[][] randomPlanes(Random random) {
+        byte[] y = new byte[WIDTH * HEIGHT];
+        byte[] u = new byte[WIDTH * HEIGHT / 4];
+        byte[] v = new byte[WIDTH * HEIGHT / 4];
+        random.nextBytes(y);
+        random.nextBytes(u);
+        random.nextBytes(v);
+        return new byte[][]{y, u, v};
+    }
+
+    private static int uIndex(YuvLayout l, int row, int col) {
+        if (l.format.isSemiPlanar()) {
+            return l.chromaOffset() + row * l.chromaStride + 2 * col + (l.format.isUFirst() ? 0 : 1);
+        }
+        return (l.format.isUFirst() ? l.chromaOffset() : l.secondChromaOffset()) + row * l.chromaStride + col;
+    }
+
+    private static int vIndex(YuvLayout l, int row, int col) {
+        if (l.format.isSemiPlanar()) {
+            return l.chromaOffset() + row * l.chromaStride + 2 * col + (l.format.isUFirst() ? 1 : 0);
+        }
+        return (l.format.isUFirst() ? l.secondChromaOffset() : l.chromaOffset()) + row * l.chromaStride + col;
+    }
+
+    private static byte[] write(YuvLayout l, byte[][] planes) {
+        byte[] frame = new byte[l.frameSize()];
+        for (int r = 0; r < l.height; r++) {
+            for (int c = 0; c < l.width; c++) {
+                frame[r * l.stride + c] = planes[0][r * l.width + c];
+            }
+        }
+        for (int r = 0; r < l.height / 2; r++) {
+            for (int c = 0; c < l.width / 2; c++) {
+                frame[uIndex(l, r, c)] = planes[1][r * l.width / 2 + c];
+                frame[vIndex(l, r, c)] = planes[2][r * l.width / 2 + c];
+            }
+        }
+        return frame;
+    }
+
+    private static byte[][] read(YuvLayout l, byte[] frame) {
+        byte[][] planes = new byte[3][];
+        planes[0] = new byte[l.width * l.height];
+        planes[1] = new byte[l.width * l.height / 4];
+        planes[2] = new byte[l.width * l.height / 4];
+        for (int r = 0; r < l.height; r++) {
+            for (int c = 0; c < l.width; c++) {
+                planes[0][r * l.width + c] = frame[r * l.stride + c];
+            }
+        }
+        for (int r = 0; r < l.height / 2; r++) {
+            for (int c = 0; c < l.width / 2; c++) {
+                planes[1][r * l.width / 2 + c] = frame[uIndex(l, r, c)];
+                planes[2][r * l.width / 2 + c] = frame[vIndex(l, r, c)];
+            }
+        }
+        return planes;
+    }
+}
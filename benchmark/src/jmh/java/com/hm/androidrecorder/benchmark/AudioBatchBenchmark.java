@@ -0,0 +1,149 @@
+package com.hm.androidrecorder.benchmark;
+
+import com.hm.androidrecorder.codec.AacFrameBatcher;
+import com.hm.androidrecorder.codec.Encoder;
+import com.hm.androidrecorder.codec.FakeEncoder;
+import com.hm.androidrecorder.codec.SampleInfo;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 编码 10 秒 16kHz 单声道音频的耗时和编码器调用次数，编码器是假的。
+ * chunked 是原来的做法：AudioRecord 读到一块就送一次；batched 用 {@link AacFrameBatcher} 拼成整数个 AAC 帧再送。
+ * <p>
+ * Calls 里的计数是每轮迭代的总数，除以 audioSeconds 就是每秒音频的编码器调用次数：
+ * 640 采样的块原来每秒 25 次输入，每批 1 帧时 15.6 次，2 帧时 7.8 次。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AudioBatchBenchmark {
+
+    private static final int SAMPLE_RATE = 16000;
+    private static final int SECONDS = 10;
+
+    /**
+     * 每轮迭代的编码器调用次数
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Calls {
+        //dequeueInputBuffer + queueInputBuffer + dequeueOutputBuffer
+        public long codecCalls;
+        public long inputBuffers;
+        public long audioSeconds;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            codecCalls = 0;
+            inputBuffers = 0;
+            audioSeconds = 0;
+        }
+    }
+
+    //AudioRecord.getMinBufferSize 在 16kHz 单声道时常见的几个值
+    @Param({"1280", "1920"})
+    public int chunkBytes;
+
+    @Param({"1", "2"})
+    public int framesPerBatch;
+
+    private byte[] pcm;
+    private final SampleInfo info = new SampleInfo();
+
+    @Setup
+    public void setUp() {
+        pcm = new byte[chunkBytes];
+        for (int i = 0; i < pcm.length; i++) {
+            pcm[i] = (byte) (i * 31);
+        }
+    }
+
+    private static FakeEncoder encoder() {
+        FakeEncoder encoder = new FakeEncoder(FakeEncoder.audioFormat(SAMPLE_RATE, 1), 8192);
+        encoder.start();
+        return encoder;
+    }
+
+    private int chunkCount() {
+        return SECONDS * SAMPLE_RATE * 2 / chunkBytes;
+    }
+
+    @Benchmark
+    public long chunked(Calls calls) {
+        FakeEncoder encoder = encoder();
+        long ptsUs = 0;
+        for (int c = 0; c < chunkCount(); c++) {
+            int index = encoder.dequeueInputBuffer(-1);
+            ByteBuffer input = encoder.getInputBuffer(index);
+            input.put(pcm, 0, chunkBytes);
+            encoder.queueInputBuffer(index, 0, chunkBytes, ptsUs, 0);
+            calls.codecCalls += 2 + drain(encoder);
+            ptsUs += chunkBytes / 2 * 1000000L / SAMPLE_RATE;
+        }
+        return finish(encoder, calls);
+    }
+
+    @Benchmark
+    public long batched(Calls calls) {
+        FakeEncoder encoder = encoder();
+        AacFrameBatcher batcher = new AacFrameBatcher(SAMPLE_RATE, 1, framesPerBatch);
+        int index = -1;
+        for (int c = 0; c < chunkCount(); c++) {
+            long blockPtsUs = c * (chunkBytes / 2 * 1000000L / SAMPLE_RATE);
+            int offset = 0;
+            while (offset < chunkBytes) {
+                if (!batcher.hasTarget()) {
+                    index = encoder.dequeueInputBuffer(-1);
+                    batcher.begin(encoder.getInputBuffer(index));
+                    calls.codecCalls++;
+                }
+                offset += batcher.append(pcm, offset, chunkBytes, blockPtsUs);
+                if (batcher.isFull()) {
+                    encoder.queueInputBuffer(index, 0, batcher.size(), batcher.ptsUs(), 0);
+                    batcher.reset();
+                    calls.codecCalls += 1 + drain(encoder);
+                }
+            }
+        }
+        return finish(encoder, calls);
+    }
+
+    /**
+     * 取走所有输出
+     *
+     * @return dequeueOutputBuffer 调用次数
+     */
+    private int drain(Encoder encoder) {
+        int count = 0;
+        while (true) {
+            int status = encoder.dequeueOutputBuffer(info, 0);
+            count++;
+            if (status >= 0) {
+                encoder.releaseOutputBuffer(status);
+            } else if (status == Encoder.INFO_TRY_AGAIN_LATER) {
+                return count;
+            }
+        }
+    }
+
+    private long finish(FakeEncoder encoder, Calls calls) {
+        long inputs = encoder.getInputCount();
+        calls.inputBuffers += inputs;
+        calls.audioSeconds += SECONDS;
+        encoder.release();
+        return inputs;
+    }
+}
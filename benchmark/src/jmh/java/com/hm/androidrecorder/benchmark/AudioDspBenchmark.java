@@ -0,0 +1,95 @@
+package com.hm.androidrecorder.benchmark;
+
+import com.hm.androidrecorder.audio.PcmGainLimiter;
+import com.hm.androidrecorder.audio.PcmProcessor;
+import com.hm.androidrecorder.audio.PcmResampler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 处理一秒采集数据的耗时，按 20ms 一块送入，输出 16kHz 单声道。结果（微秒）除以 10000 就是占一个核的百分比。
+ * process 是整条链路（下混、重采样、增益限幅、写成字节），resample、gainLimiter 是单独一级的耗时。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AudioDspBenchmark {
+
+    private static final int OUT_RATE = 16000;
+    private static final int BLOCK_MS = 20;
+
+    @Param({"44100", "48000"})
+    public int inRate;
+
+    @Param({"1", "2"})
+    public int channels;
+
+    private int frames;
+    private short[] in;
+    private short[] mono;
+    private short[] out;
+    private byte[] bytes;
+    private PcmProcessor processor;
+    private PcmResampler resampler;
+    private PcmGainLimiter gainLimiter;
+
+    @Setup
+    public void setUp() {
+        frames = inRate * BLOCK_MS / 1000;
+        in = new short[frames * channels];
+        mono = new short[frames];
+        for (int i = 0; i < frames; i++) {
+            short v = (short) Math.round(12000 * Math.sin(2 * Math.PI * 440 * i / inRate));
+            mono[i] = v;
+            for (int c = 0; c < channels; c++) {
+                in[i * channels + c] = v;
+            }
+        }
+        processor = new PcmProcessor(inRate, channels, OUT_RATE, frames);
+        processor.gain().setGainDb(6);
+        processor.gain().setLimiter(-1, 50);
+        resampler = new PcmResampler(inRate, OUT_RATE, frames);
+        gainLimiter = new PcmGainLimiter(OUT_RATE);
+        gainLimiter.setGainDb(6);
+        gainLimiter.setLimiter(-1, 50);
+        out = new short[resampler.maxOutput(frames)];
+        bytes = new byte[out.length * 2];
+    }
+
+    @Benchmark
+    public int process() {
+        int total = 0;
+        for (int block = 0; block < 1000 / BLOCK_MS; block++) {
+            total += processor.process(in, frames, bytes, 0);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int resample() {
+        int total = 0;
+        for (int block = 0; block < 1000 / BLOCK_MS; block++) {
+            total += resampler.process(mono, 0, frames, out, 0);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public short gainLimiter() {
+        int count = OUT_RATE * BLOCK_MS / 1000;
+        for (int block = 0; block < 1000 / BLOCK_MS; block++) {
+            System.arraycopy(mono, 0, out, 0, count);
+            gainLimiter.process(out, 0, count);
+        }
+        return out[0];
+    }
+}
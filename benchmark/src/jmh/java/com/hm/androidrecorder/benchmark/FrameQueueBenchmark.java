@@ -0,0 +1,126 @@
+package com.hm.androidrecorder.benchmark;
+
+import com.hm.androidrecorder.buffer.FrameRing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 相机线程和编码线程之间交接一帧的往返耗时：基准线程放入一帧，对端线程取出后放回回收队列，基准线程再取回。
+ * vector 是原来的 Vector + wait/notify，ring 是现在的 {@link FrameRing}。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FrameQueueBenchmark {
+
+    private interface Handoff {
+        void offer(byte[] frame);
+
+        byte[] take() throws InterruptedException;
+    }
+
+    /**
+     * 原来的做法：Vector 存帧，队列空时在锁上等待，放入后 notify
+     */
+    private static final class VectorHandoff implements Handoff {
+        private final Vector<byte[]> frames = new Vector<>();
+        private final Object lock = new Object();
+
+        @Override
+        public void offer(byte[] frame) {
+            frames.add(frame);
+            synchronized (lock) {
+                lock.notify();
+            }
+        }
+
+        @Override
+        public byte[] take() throws InterruptedException {
+            while (true) {
+                if (!frames.isEmpty()) {
+                    return frames.remove(0);
+                }
+                synchronized (lock) {
+                    if (frames.isEmpty()) {
+                        lock.wait(100);
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class RingHandoff implements Handoff {
+        private final FrameRing<byte[]> ring = new FrameRing<>(4, FrameRing.OverflowPolicy.DROP_OLDEST);
+
+        @Override
+        public void offer(byte[] frame) {
+            ring.offer(frame);
+        }
+
+        @Override
+        public byte[] take() throws InterruptedException {
+            byte[] frame;
+            while ((frame = ring.poll(100)) == null) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+            return frame;
+        }
+    }
+
+    @Param({"vector", "ring"})
+    public String queue;
+
+    private Handoff toEncoder;
+    private Handoff toCamera;
+    private Thread encoder;
+    private final byte[] frame = new byte[1920 * 1080 * 3 / 2];
+
+    private Handoff create() {
+        return "vector".equals(queue) ? new VectorHandoff() : new RingHandoff();
+    }
+
+    @Setup
+    public void setup() {
+        toEncoder = create();
+        toCamera = create();
+        encoder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        toCamera.offer(toEncoder.take());
+                    }
+                } catch (InterruptedException e) {
+                    //结束
+                }
+            }
+        }, "encoder");
+        encoder.setDaemon(true);
+        encoder.start();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        encoder.interrupt();
+        encoder.join(1000);
+    }
+
+    @Benchmark
+    public byte[] roundTrip() throws InterruptedException {
+        toEncoder.offer(frame);
+        return toCamera.take();
+    }
+}
@@ -0,0 +1,113 @@
+package com.hm.androidrecorder.benchmark;
+
+import com.hm.androidrecorder.mp4.FragmentedMp4Writer;
+import com.hm.androidrecorder.mp4.SampleJournal;
+import com.hm.androidrecorder.mp4.TrackFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 样本日志对写文件的影响：每次调用写 10 秒 30fps 视频（每秒一个关键帧），结果按帧平均，包含打开、关闭和 fsync。
+ * mp4 只写分片 MP4，mp4WithJournal 同时写日志，差值就是日志的开销；syncIntervalMs 为 0 时每帧都 fsync。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JournalBenchmark {
+
+    private static final int FRAMES = 300;
+    private static final int GOP = 30;
+    private static final long FRAME_US = 1000000 / 30;
+    private static final byte[] SPS = {0x67, 0x42, (byte) 0x80, 0x1F, 0x11, 0x22};
+    private static final byte[] PPS = {0x68, (byte) 0xCE, 0x06, (byte) 0xE2};
+
+    @Param({"16384", "65536"})
+    public int frameSize;
+
+    @Param({"0", "1000"})
+    public long syncIntervalMs;
+
+    private File mp4File;
+    private File journalFile;
+    private ByteBuffer frame;
+
+    @Setup
+    public void setup() throws IOException {
+        mp4File = File.createTempFile("journal-benchmark", ".mp4");
+        journalFile = File.createTempFile("journal-benchmark", ".journal");
+        byte[] bytes = new byte[frameSize];
+        new Random(42).nextBytes(bytes);
+        //一个 NAL，没有起始码时按整段写入
+        bytes[0] = 0;
+        bytes[1] = 0;
+        bytes[2] = 0;
+        bytes[3] = 1;
+        bytes[4] = 0x41;
+        for (int i = 5; i < bytes.length; i++) {
+            if (bytes[i] == 0) {
+                bytes[i] = 1;
+            }
+        }
+        frame = ByteBuffer.allocateDirect(frameSize);
+        frame.put(bytes).flip();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mp4File.delete();
+        journalFile.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public long mp4() throws IOException {
+        return write(null);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public long mp4WithJournal() throws IOException {
+        try (SampleJournal journal = new SampleJournal(journalFile, syncIntervalMs)) {
+            return write(journal);
+        }
+    }
+
+    private long write(SampleJournal journal) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(mp4File)) {
+            FragmentedMp4Writer writer = new FragmentedMp4Writer(out.getChannel());
+            TrackFormat format = TrackFormat.avc(1920, 1080, SPS, PPS);
+            int track = writer.addTrack(format);
+            if (journal != null) {
+                journal.addTrack(track, format);
+            }
+            writer.start();
+            for (int i = 0; i < FRAMES; i++) {
+                int flags = i % GOP == 0 ? FragmentedMp4Writer.FLAG_KEY_FRAME : 0;
+                if (journal != null) {
+                    journal.writeSample(track, frame, 0, frameSize, i * FRAME_US, flags);
+                }
+                writer.writeSample(track, frame, 0, frameSize, i * FRAME_US, flags);
+            }
+            writer.finish();
+            //MP4 本身也落盘，和日志的 fsync 公平比较
+            out.getFD().sync();
+            return writer.getBytesWritten();
+        }
+    }
+}
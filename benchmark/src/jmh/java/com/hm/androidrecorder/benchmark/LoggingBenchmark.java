@@ -0,0 +1,87 @@
+package com.hm.androidrecorder.benchmark;
+
+import com.hm.androidrecorder.log.EventRing;
+import com.hm.androidrecorder.log.HotLog;
+import com.hm.androidrecorder.log.LogPrinter;
+import com.hm.androidrecorder.log.LogSite;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每帧日志的耗时。
+ * processMessage* 只测 MyPrintLog 在交给输出之前拼字符串的部分；
+ * hotLog* 是 {@link HotLog}：关闭时、只记录到事件缓存时、格式化后交给一个空输出时。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LoggingBenchmark {
+
+    private static final LogSite SITE = new LogSite(HotLog.DEBUG, "AudioEncoderThread", "sent {} bytes to muxer, pts {}");
+
+    //不用常量，避免编译期把拼接折叠掉
+    public String className = "com.hm.androidrecorder.muxer.AudioEncoderThread";
+    public String content = "向混合器中添加一次音频数据";
+    public int line = 305;
+    public long size = 371;
+    public long pts = 123456789;
+
+    private final EventRing ring = new EventRing(1024);
+
+    @Setup
+    public void setup() {
+        HotLog.setPrinter(new LogPrinter() {
+            @Override
+            public void println(int level, String tag, String message) {
+            }
+        });
+    }
+
+    @TearDown
+    public void tearDown() {
+        HotLog.setLevel(HotLog.INFO);
+        HotLog.setEventRing(null);
+    }
+
+    @Benchmark
+    public String processMessage() {
+        //MyPrintLog.LogProcess(Class, String) 的拼接
+        return className + ":---------" + content;
+    }
+
+    @Benchmark
+    public String processMessageWithLine() {
+        //MyPrintLog.LogProcess(Class, String, int) 的拼接
+        return className + ":---------" + content + "----------打印行数：" + line;
+    }
+
+    @Benchmark
+    public void hotLogDisabled() {
+        HotLog.setEventRing(null);
+        HotLog.setLevel(HotLog.INFO);
+        HotLog.log(SITE, size, pts);
+    }
+
+    @Benchmark
+    public void hotLogRingOnly() {
+        HotLog.setEventRing(ring);
+        HotLog.setLevel(HotLog.INFO);
+        HotLog.log(SITE, size, pts);
+    }
+
+    @Benchmark
+    public void hotLogPrinted() {
+        HotLog.setEventRing(null);
+        HotLog.setLevel(HotLog.DEBUG);
+        HotLog.log(SITE, size, pts);
+    }
+}
@@ -0,0 +1,58 @@
+package com.hm.androidrecorder.benchmark;
+
+import com.hm.androidrecorder.metrics.PipelineMetrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每帧记录指标的耗时：一次阶段耗时 + 一次计数，是编码、混合线程每个样本要做的事。
+ * contended 模拟视频编码、音频编码、混合三个线程同时记录。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MetricsBenchmark {
+
+    private final PipelineMetrics metrics = new PipelineMetrics();
+
+    @Benchmark
+    public void record() {
+        long start = System.nanoTime();
+        metrics.recordSince(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.STAGE_WRITE, start);
+        metrics.increment(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.COUNTER_WRITTEN);
+    }
+
+    @Benchmark
+    public PipelineMetrics.Snapshot snapshot() {
+        return metrics.snapshot();
+    }
+
+    @Benchmark
+    @Group("contended")
+    public void videoEncoder() {
+        metrics.recordUs(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.STAGE_ENCODE, 15000);
+        metrics.increment(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.COUNTER_ENCODED);
+    }
+
+    @Benchmark
+    @Group("contended")
+    public void audioEncoder() {
+        metrics.recordUs(PipelineMetrics.TRACK_AUDIO, PipelineMetrics.STAGE_ENCODE, 3000);
+        metrics.increment(PipelineMetrics.TRACK_AUDIO, PipelineMetrics.COUNTER_ENCODED);
+    }
+
+    @Benchmark
+    @Group("contended")
+    public void muxer() {
+        metrics.recordUs(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.STAGE_WRITE, 200);
+        metrics.add(PipelineMetrics.TRACK_VIDEO, PipelineMetrics.COUNTER_BYTES, 30000);
+    }
+}
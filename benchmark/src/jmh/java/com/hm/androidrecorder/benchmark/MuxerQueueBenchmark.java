@@ -0,0 +1,109 @@
+package com.hm.androidrecorder.benchmark;
+
+import com.hm.androidrecorder.buffer.SampleArena;
+import com.hm.androidrecorder.muxer.SampleInterleaver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 编码输出交给混合器的单样本耗时：一秒的音视频（30 帧视频 + 16kHz AAC）依次入队再按写入顺序取出。
+ * vector 是原来的 Vector 先进先出、每个样本新分配缓存；interleaver 是现在的 {@link SampleArena} 拷贝 + {@link SampleInterleaver} 按时间交错。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MuxerQueueBenchmark {
+
+    private static final int VIDEO_FRAMES = 30;
+    private static final int AUDIO_FRAMES = 16;
+    private static final long VIDEO_FRAME_US = 1000000 / 30;
+    private static final long AUDIO_FRAME_US = 1024L * 1000000 / 16000;
+
+    @Param({"vector", "interleaver"})
+    public String queue;
+
+    @Param({"16384"})
+    public int videoFrameSize;
+
+    private ByteBuffer videoOutput;
+    private ByteBuffer audioOutput;
+    private SampleArena arena;
+    private SampleInterleaver<ByteBuffer> interleaver;
+    private Vector<ByteBuffer> vector;
+
+    @Setup
+    public void setup() {
+        //编码器输出缓存是 direct 的
+        videoOutput = ByteBuffer.allocateDirect(videoFrameSize);
+        audioOutput = ByteBuffer.allocateDirect(256);
+        arena = new SampleArena();
+        interleaver = new SampleInterleaver<>(2, 64, 500 * 1000, 2 * 1000 * 1000);
+        vector = new Vector<>();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VIDEO_FRAMES + AUDIO_FRAMES)
+    public int oneSecond() {
+        int written = 0;
+        int audio = 0;
+        for (int video = 0; video < VIDEO_FRAMES; video++) {
+            long videoPts = video * VIDEO_FRAME_US;
+            while (audio < AUDIO_FRAMES && audio * AUDIO_FRAME_US <= videoPts) {
+                offer(1, audio * AUDIO_FRAME_US, audioOutput);
+                audio++;
+                written += drain();
+            }
+            offer(0, videoPts, videoOutput);
+            written += drain();
+        }
+        while (audio < AUDIO_FRAMES) {
+            offer(1, audio * AUDIO_FRAME_US, audioOutput);
+            audio++;
+        }
+        interleaver.setDraining(true);
+        written += drain();
+        interleaver.setDraining(false);
+        return written;
+    }
+
+    private void offer(int track, long ptsUs, ByteBuffer output) {
+        int size = output.capacity();
+        if ("vector".equals(queue)) {
+            ByteBuffer copy = ByteBuffer.allocate(size);
+            output.clear();
+            copy.put(output);
+            copy.flip();
+            vector.add(copy);
+        } else {
+            interleaver.offer(track, ptsUs, arena.copyOf(output, 0, size));
+        }
+    }
+
+    private int drain() {
+        int written = 0;
+        if ("vector".equals(queue)) {
+            while (!vector.isEmpty()) {
+                written += vector.remove(0).remaining();
+            }
+        } else {
+            ByteBuffer sample;
+            while ((sample = interleaver.poll()) != null) {
+                written += sample.remaining();
+                arena.release(sample);
+            }
+        }
+        return written;
+    }
+}
@@ -0,0 +1,56 @@
+package com.hm.androidrecorder.benchmark;
+
+import com.hm.androidrecorder.yuv.NV21Converter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NV21 转 NV12：逐对交换 vs 8 字节一组交换
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NV21ConvertBenchmark {
+
+    @Param({"1280x720", "1920x1080", "3840x2160"})
+    public String resolution;
+
+    private int width;
+    private int height;
+    private byte[] nv21;
+    private byte[] nv12;
+    private NV21Converter converter;
+
+    @Setup
+    public void setup() {
+        String[] size = resolution.split("x");
+        width = Integer.parseInt(size[0]);
+        height = Integer.parseInt(size[1]);
+        nv21 = new byte[width * height * 3 / 2];
+        nv12 = new byte[nv21.length];
+        new Random(42).nextBytes(nv21);
+        converter = new NV21Converter();
+    }
+
+    @Benchmark
+    public byte[] scalar() {
+        NV21Converter.convertScalar(nv21, nv12, width, height);
+        return nv12;
+    }
+
+    @Benchmark
+    public byte[] wordSwap() {
+        converter.convert(nv21, nv12, width, height);
+        return nv12;
+    }
+}
@@ -0,0 +1,99 @@
+package com.hm.androidrecorder.benchmark;
+
+import com.hm.androidrecorder.h264.NalConverter;
+import com.hm.androidrecorder.h264.NalIterator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一个访问单元（SPS PPS 加 4 个 slice，4 字节起始码）的 NAL 处理开销，单位是每个访问单元。
+ * typeMask 遍历整帧，leadingTypeMask 是关键帧判断实际用的（读到第一个 slice 为止）；toAvccCopy 拷到另一个缓存，toAvccInPlace 原地改写起始码（每次再改回来）。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NalParserBenchmark {
+
+    private static final int SLICES = 4;
+
+    @Param({"16384", "65536"})
+    public int frameSize;
+
+    private final NalIterator iterator = new NalIterator();
+    private final NalConverter converter = new NalConverter();
+    private ByteBuffer frame;
+    private ByteBuffer output;
+
+    @Setup
+    public void setup() {
+        byte[] bytes = new byte[frameSize];
+        new Random(42).nextBytes(bytes);
+        //编码器输出里不会出现起始码，随机数据里的 0 换掉
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == 0) {
+                bytes[i] = 1;
+            }
+        }
+        int[] starts = new int[SLICES + 2];
+        starts[0] = 0;
+        starts[1] = 12;
+        for (int i = 0; i < SLICES; i++) {
+            starts[i + 2] = 24 + i * (frameSize - 24) / SLICES;
+        }
+        byte[] types = {0x67, 0x68, 0x65, 0x65, 0x65, 0x65};
+        for (int i = 0; i < starts.length; i++) {
+            bytes[starts[i]] = 0;
+            bytes[starts[i] + 1] = 0;
+            bytes[starts[i] + 2] = 0;
+            bytes[starts[i] + 3] = 1;
+            bytes[starts[i] + 4] = types[i];
+        }
+        frame = ByteBuffer.allocateDirect(frameSize);
+        frame.put(bytes).flip();
+        output = ByteBuffer.allocateDirect(frameSize + 64);
+    }
+
+    @Benchmark
+    public int typeMask() {
+        return iterator.typeMask(frame, 0, frameSize);
+    }
+
+    @Benchmark
+    public int leadingTypeMask() {
+        return iterator.leadingTypeMask(frame, 0, frameSize);
+    }
+
+    @Benchmark
+    public int sliceTypes() {
+        iterator.reset(frame, 0, frameSize);
+        int sum = 0;
+        while (iterator.next()) {
+            sum += iterator.sliceType();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int toAvccCopy() {
+        output.clear();
+        return converter.annexBToAvcc(frame, 0, frameSize, output);
+    }
+
+    @Benchmark
+    public boolean toAvccInPlace() {
+        boolean converted = converter.annexBToAvccInPlace(frame, 0, frameSize);
+        converter.avccToAnnexBInPlace(frame, 0, frameSize);
+        return converted;
+    }
+}
@@ -0,0 +1,67 @@
+package com.hm.androidrecorder.benchmark;
+
+import com.hm.androidrecorder.yuv.ParallelYuvConverter;
+import com.hm.androidrecorder.yuv.YuvFormat;
+import com.hm.androidrecorder.yuv.YuvLayout;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分段并行转换 NV21 -> NV12 的耗时随线程数的变化。
+ * parallelism=1 时没有线程池，走调用线程上的 {@code YuvConverter.convert}，是不分段的串行基线，不含分段调度的开销。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParallelConvertBenchmark {
+
+    @Param({"1920x1080", "3840x2160"})
+    public String resolution;
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    private byte[] nv21;
+    private ByteBuffer nv12;
+    private YuvLayout in;
+    private YuvLayout out;
+    private ParallelYuvConverter converter;
+
+    @Setup
+    public void setup() {
+        String[] size = resolution.split("x");
+        int width = Integer.parseInt(size[0]);
+        int height = Integer.parseInt(size[1]);
+        in = YuvLayout.packed(YuvFormat.NV21, width, height);
+        out = YuvLayout.packed(YuvFormat.NV12, width, height);
+        nv21 = new byte[in.frameSize()];
+        new Random(42).nextBytes(nv21);
+        //编码器输入缓存是 direct 的
+        nv12 = ByteBuffer.allocateDirect(out.frameSize());
+        //阈值为 0，parallelism 大于 1 时所有分辨率都分段并行
+        converter = new ParallelYuvConverter(parallelism, 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        converter.shutdown();
+    }
+
+    @Benchmark
+    public ByteBuffer convert() {
+        converter.convert(nv21, in, nv12, out);
+        return nv12;
+    }
+}
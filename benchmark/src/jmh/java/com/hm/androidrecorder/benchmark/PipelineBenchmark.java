@@ -0,0 +1,85 @@
+package com.hm.androidrecorder.benchmark;
+
+import com.hm.androidrecorder.codec.FakeMediaFactory;
+import com.hm.androidrecorder.log.HotLog;
+import com.hm.androidrecorder.log.LogPrinter;
+import com.hm.androidrecorder.muxer.HeadlessPipeline;
+import com.hm.androidrecorder.muxer.MediaMuxerThread;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 整条录制流水线不限速运行时每帧的平均耗时（倒数就是最大帧率）。
+ * 跑的是录制时的 MediaMuxerThread 和两个编码线程，编码器、音频采集和混合器是 {@link FakeMediaFactory} 里的假设备，
+ * 测的是线程交接、NV21 转换和缓存拷贝的开销。latencyUs 模拟硬件编码器的延迟，async 对应 MediaMuxerThread.setAsyncEncoding。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PipelineBenchmark {
+
+    private static final int FRAMES = 120;
+
+    @Param({"0", "5000"})
+    public long latencyUs;
+
+    @Param({"false", "true"})
+    public boolean async;
+
+    private File root;
+
+    @Setup
+    public void setup() throws IOException {
+        root = File.createTempFile("pipeline", "");
+        root.delete();
+        root.mkdirs();
+        //流程日志不计入耗时
+        HotLog.setPrinter(new LogPrinter() {
+            @Override
+            public void println(int level, String tag, String message) {
+            }
+        });
+        MediaMuxerThread.setAsyncEncoding(async);
+    }
+
+    @TearDown
+    public void tearDown() {
+        MediaMuxerThread.setAsyncEncoding(false);
+        MediaMuxerThread.setMediaFactory(null);
+        HotLog.setPrinter(null);
+        delete(root);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public HeadlessPipeline.Result run() throws InterruptedException {
+        FakeMediaFactory factory = new FakeMediaFactory(root.getPath());
+        //约 8Mbps@30fps 的帧大小
+        factory.setVideoOutputSizes(120 * 1024, 30 * 1024);
+        factory.setVideoLatencyUs(latencyUs, 0);
+        return new HeadlessPipeline(factory).run(FRAMES);
+    }
+}
@@ -0,0 +1,52 @@
+package com.hm.androidrecorder.benchmark;
+
+import com.hm.androidrecorder.codec.AudioClock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每个编码样本生成时间戳的耗时。
+ * nanoTime 是原来 AudioEncoderThread.getPTSUs 的做法（系统时钟 + 单调修正），sampleCount 只按已采集的采样数推算，
+ * audioClock 是现在的 {@link AudioClock}：采样数推算加漂移估计和校正。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PtsBenchmark {
+
+    private static final int SAMPLE_RATE = 16000;
+    private static final int SAMPLES_PER_FRAME = 1024;
+
+    private long prevOutputPTSUs = 0;
+    private long samples = 0;
+    private final AudioClock audioClock = new AudioClock(SAMPLE_RATE);
+
+    @Benchmark
+    public long nanoTime() {
+        //原来的 AudioEncoderThread.getPTSUs
+        long result = System.nanoTime() / 1000L;
+        if (result < prevOutputPTSUs) {
+            result = (prevOutputPTSUs - result) + result;
+        }
+        prevOutputPTSUs = result;
+        return result;
+    }
+
+    @Benchmark
+    public long sampleCount() {
+        samples += SAMPLES_PER_FRAME;
+        return samples * 1000000 / SAMPLE_RATE;
+    }
+
+    @Benchmark
+    public long audioClock() {
+        return audioClock.onRead(SAMPLES_PER_FRAME, System.nanoTime());
+    }
+}
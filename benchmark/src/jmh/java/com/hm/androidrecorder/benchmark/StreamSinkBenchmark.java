@@ -0,0 +1,114 @@
+package com.hm.androidrecorder.benchmark;
+
+import com.hm.androidrecorder.output.ChannelSink;
+import com.hm.androidrecorder.output.MappedFileSink;
+import com.hm.androidrecorder.output.StreamSink;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * H.264 码流写文件的单帧耗时：原来的 byte[] 拷贝 + BufferedOutputStream，FileChannel gather write，内存映射。
+ * 每次调用写一段 GOP（关键帧前带 SPS/PPS），结果按帧平均，包含打开和关闭文件的开销。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StreamSinkBenchmark {
+
+    private static final int FRAMES = 300;
+    private static final int GOP = 30;
+
+    //1080p 常见码率下 P 帧大小
+    @Param({"16384", "65536"})
+    public int frameSize;
+
+    private File file;
+    private ByteBuffer config;
+    private ByteBuffer frame;
+
+    @Setup
+    public void setup() throws IOException {
+        file = File.createTempFile("sink-benchmark", ".h264");
+        byte[] bytes = new byte[frameSize];
+        new Random(42).nextBytes(bytes);
+        //编码器输出缓存是 direct 的
+        frame = ByteBuffer.allocateDirect(frameSize);
+        frame.put(bytes).flip();
+        config = ByteBuffer.allocateDirect(32);
+        config.put(bytes, 0, 32).flip();
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void copyToStream() throws IOException {
+        byte[] configbyte = new byte[config.remaining()];
+        config.duplicate().get(configbyte);
+        try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            for (int i = 0; i < FRAMES; i++) {
+                frame.rewind();
+                //H264Encoder 原来的写法
+                byte[] outData = new byte[frame.remaining()];
+                frame.get(outData);
+                if (i % GOP == 0) {
+                    byte[] keyframe = new byte[outData.length + configbyte.length];
+                    System.arraycopy(configbyte, 0, keyframe, 0, configbyte.length);
+                    System.arraycopy(outData, 0, keyframe, configbyte.length, outData.length);
+                    out.write(keyframe, 0, keyframe.length);
+                } else {
+                    out.write(outData, 0, outData.length);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public long channelGather() throws IOException {
+        try (ChannelSink sink = new ChannelSink(file)) {
+            return writeFrames(sink);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public long mapped() throws IOException {
+        try (MappedFileSink sink = new MappedFileSink(file)) {
+            return writeFrames(sink);
+        }
+    }
+
+    private long writeFrames(StreamSink sink) throws IOException {
+        for (int i = 0; i < FRAMES; i++) {
+            frame.rewind();
+            if (i % GOP == 0) {
+                config.rewind();
+                sink.write(config, frame);
+            } else {
+                sink.write(frame);
+            }
+        }
+        return sink.getBytesWritten();
+    }
+}